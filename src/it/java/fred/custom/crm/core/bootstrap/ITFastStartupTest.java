@@ -0,0 +1,123 @@
+package fred.custom.crm.core.bootstrap;
+
+import static org.junit.Assert.*;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.hibernate.cfg.Configuration;
+import org.hibernate.cfg.Environment;
+import org.hibernate.cfg.ImprovedNamingStrategy;
+import org.hibernate.tool.hbm2ddl.SchemaValidator;
+import org.junit.After;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.jooq.DSLContext;
+import org.junit.Test;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.core.io.ClassPathResource;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Checks the fast-startup profile: the repositories declared from the index work on the schema of the versioned scripts. Not transactional,
+ * like a batch worker.
+ * <p>
+ * The context is not the cached one of the Spring test runner: the other tests let Hibernate create the schema of the local database, so this
+ * one starts on a database of its own.
+ * </p>
+ */
+public class ITFastStartupTest {
+
+    private static final String URL = "jdbc:h2:mem:fastStartup;DB_CLOSE_DELAY=-1";
+
+    private static GenericXmlApplicationContext context;
+
+    private final PersistenceIndex index = context.getBean(PersistenceIndex.class);
+
+    private final MemberRepository jpaRepository = context.getBean(MemberRepository.class);
+
+    /** Not the primary repository, so that the injections by type get the Spring Data one */
+    private final MemberRepository jooqRepository = new JooqMemberRepository(context.getBean(DSLContext.class));
+
+    private final DataSource dataSource = context.getBean("dataSource", DataSource.class);
+
+    @BeforeClass
+    public static void startContext() {
+        context = new GenericXmlApplicationContext();
+        context.getEnvironment().setActiveProfiles("default", "fast-startup");
+        context.load("classpath:/META-INF/spring/crm-persistence.xml");
+        context.getBeanDefinition("pooledDataSource").getPropertyValues().add("url", URL);
+        context.refresh();
+    }
+
+    @AfterClass
+    public static void closeContext() {
+        new JdbcTemplate(context.getBean("dataSource", DataSource.class)).execute("DROP ALL OBJECTS");
+        context.close();
+    }
+
+    @After
+    public void deleteMembers() {
+        jpaRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link PersistenceIndex#load(Resource)}, the index of the build is up to date.
+     */
+    @Test
+    public void indexMatchesTheClasspath() throws Exception {
+        PersistenceIndex scanned = PersistenceIndex.scan(index.getEntityPackages(), index.getRepositoryPackages());
+        assertEquals(scanned.getEntityClassNames(), index.getEntityClassNames());
+        assertEquals(scanned.getRepositoryInterfaceNames(), index.getRepositoryInterfaceNames());
+        assertTrue(index.getEntityClassNames().contains(Member.class.getName()));
+        assertEquals(Collections.singletonList(MemberRepository.class.getName()), index.getRepositoryInterfaceNames());
+    }
+
+    /**
+     * Test method for {@link IndexedRepositoryRegistrar}, with its custom implementation, and {@link IndexedPersistenceUnitPostProcessor}.
+     */
+    @Test
+    public void repositoriesWork() {
+        Member saved = jpaRepository.save(ITMemberUtils.buildMember());
+        assertEquals(saved.getMemberNumber(), jooqRepository.findOne(saved.getId()).getMemberNumber());
+        assertEquals(saved.getId(), jpaRepository.findByNamePrefix("doe", null, 1).get(0).getId());
+        assertEquals(1, jpaRepository.findByPersonEmail(saved.getPerson().getEmail()).size());
+    }
+
+    /**
+     * Test method for {@link SchemaMigrator#afterPropertiesSet()}, the scripts match the JPA mappings and run once.
+     */
+    @Test
+    public void schemaMigrator() throws Exception {
+        Configuration configuration = new Configuration().setNamingStrategy(ImprovedNamingStrategy.INSTANCE);
+        for (String className : index.getEntityClassNames()) {
+            configuration.addAnnotatedClass(Class.forName(className));
+        }
+        configuration.setProperty(Environment.DIALECT, "org.hibernate.dialect.H2Dialect");
+        configuration.setProperty(Environment.URL, URL);
+        configuration.setProperty(Environment.USER, "sa");
+        configuration.setProperty(Environment.PASS, "");
+        new SchemaValidator(configuration).validate();
+
+        SchemaMigrator migrator = new SchemaMigrator();
+        migrator.setDataSource(dataSource);
+        migrator.setScripts(new Resource[] { new ClassPathResource("db/migration/V2__create_member_changes.sql"),
+                new ClassPathResource("db/migration/V1__create_members.sql") });
+        migrator.afterPropertiesSet();
+        List<Map<String, Object>> versions = new JdbcTemplate(dataSource).queryForList("select version, script from schema_version order by version");
+        assertEquals(3, versions.size());
+        assertEquals(1, ((Number) versions.get(0).get("version")).intValue());
+        assertEquals("V1__create_members.sql", versions.get(0).get("script"));
+        assertEquals("V2__create_member_changes.sql", versions.get(1).get("script"));
+        assertEquals("V3__create_member_archive.sql", versions.get(2).get("script"));
+    }
+}
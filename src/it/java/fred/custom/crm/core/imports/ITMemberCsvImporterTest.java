@@ -0,0 +1,118 @@
+package fred.custom.crm.core.imports;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person.Gender;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Imports a roster with a few faulty records, through both implementations. Not transactional: the importer saves from its own threads.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITMemberCsvImporterTest {
+
+    private static final int ROWS = 300;
+
+    @Autowired
+    private MemberCsvImporter memberCsvImporter;
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    @After
+    public void deleteMembers() {
+        jooqRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link MemberCsvImporter#importMembers(java.io.Reader, java.io.Writer)}, jOOQ implementation
+     */
+    @Test
+    public void importMembersJooq() throws Exception {
+        importMembers(memberCsvImporter);
+    }
+
+    /**
+     * Test method for {@link MemberCsvImporter#importMembers(java.io.Reader, java.io.Writer)}, Spring Data JPA implementation
+     */
+    @Test
+    public void importMembersJpa() throws Exception {
+        importMembers(new MemberCsvImporter(jpaRepository));
+    }
+
+    private void importMembers(MemberCsvImporter importer) throws Exception {
+        // Tiny queues and batches: the parsing has to wait for the database
+        importer.setBatchSize(25);
+        importer.setQueueCapacity(4);
+        importer.setValidationThreads(3);
+        Member existing = jooqRepository.save(ITMemberUtils.buildMember());
+
+        StringWriter rejects = new StringWriter();
+        ImportResult result = importer.importMembers(new StringReader(buildRoster()), rejects);
+
+        assertEquals(ROWS, result.getRead());
+        assertEquals(ROWS - 4, result.getImported());
+        assertEquals(4, result.getRejected());
+        assertEquals(1, result.getDuplicates());
+        assertEquals(ROWS - 4 + 1, jooqRepository.count());
+
+        Member imported = jooqRepository.findByMemberNumber("R00000005");
+        assertEquals("Doe, Jr.", imported.getPerson().getLastName());
+        assertEquals(Gender.FEMALE, imported.getPerson().getGender());
+        assertEquals("import", imported.getLastUpdateUser());
+
+        String text = rejects.toString();
+        assertTrue(text, text.startsWith("line,reason,gender,member_number,"));
+        assertTrue(text, text.contains("12,Unknown gender code: X,X,R00000010"));
+        assertTrue(text, text.contains("22,last_name is missing,M,R00000020"));
+        assertTrue(text, text.contains("32,Duplicate member_number R00000001,M,R00000001"));
+        assertTrue(text, text.contains(existing.getEmployeeNumber()));
+    }
+
+    /**
+     * @return A roster of {@link #ROWS} records, the columns in another order than {@link MemberCsvImporter#COLUMNS}
+     */
+    private static String buildRoster() {
+        StringBuilder csv = new StringBuilder("gender,member_number,employee_number,first_name,last_name,email,birth_date\r\n");
+        for (int i = 0; i < ROWS; i++) {
+            String gender = i == 10 ? "X" : (i % 2 == 0 ? "M" : "f");
+            String memberNumber = i == 30 ? "R00000001" : String.format("R%08d", i);
+            String employeeNumber = i == 40 ? "99999" : String.format("Q%08d", i);
+            String lastName = i == 20 ? "" : (i == 5 ? "\"Doe, Jr.\"" : "Doe" + i);
+            csv.append(gender).append(',').append(memberNumber).append(',').append(employeeNumber).append(",John").append(i).append(',')
+                    .append(lastName).append(",john").append(i).append("@example.com,1980-02-29\r\n");
+        }
+        return csv.toString();
+    }
+}
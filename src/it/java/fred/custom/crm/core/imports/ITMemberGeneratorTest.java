@@ -0,0 +1,142 @@
+package fred.custom.crm.core.imports;
+
+import static org.junit.Assert.*;
+
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.Person.Gender;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Checks the datasets of {@link MemberGenerator}, then saves one. Not transactional: the members are saved by batches.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITMemberGeneratorTest {
+
+    private static final int MEMBERS = 200000;
+
+    @Autowired
+    private MemberRepository memberRepository;
+
+    @After
+    public void deleteMembers() {
+        memberRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link MemberGenerator#generate(long)}: the same seed gives the same members, whatever the order
+     */
+    @Test
+    public void deterministic() {
+        MemberGenerator generator = new MemberGenerator(42L);
+        Member first = generator.generate(12345L);
+        Member again = new MemberGenerator(42L).members(12340L, 10L).iterator().next();
+        assertEquals(generator.generate(12340L).toString(), again.toString());
+        assertEquals(first.toString(), new MemberGenerator(42L).generate(12345L).toString());
+        assertEquals(first.getPerson().toString(), generator.generate(12345L).getPerson().toString());
+        assertEquals(generator.memberNumber(12345L), first.getMemberNumber());
+        assertEquals(generator.employeeNumber(12345L), first.getEmployeeNumber());
+
+        Member other = new MemberGenerator(43L).generate(12345L);
+        assertEquals(first.getMemberNumber(), other.getMemberNumber());
+        assertNotEquals(first.getPerson().toString(), other.getPerson().toString());
+    }
+
+    /**
+     * Test method for {@link MemberGenerator#members(long, long)}: distinct keys and the expected mix of persons
+     */
+    @Test
+    public void dataset() {
+        MemberGenerator generator = new MemberGenerator(7L);
+        Set<String> memberNumbers = new HashSet<String>(MEMBERS * 2);
+        Set<String> employeeNumbers = new HashSet<String>(MEMBERS * 2);
+        Set<String> emails = new HashSet<String>(MEMBERS * 2);
+        Set<String> lastNames = new HashSet<String>();
+        int women = 0;
+        int cellPhones = 0;
+        int socialInsuranceNumbers = 0;
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTimeInMillis(MemberGenerator.DEFAULT_REFERENCE_MILLIS);
+        calendar.add(Calendar.YEAR, -18);
+        Date adult = calendar.getTime();
+        Date reference = new Date(MemberGenerator.DEFAULT_REFERENCE_MILLIS);
+        for (Member member : generator.members(0L, MEMBERS)) {
+            assertTrue(memberNumbers.add(member.getMemberNumber()));
+            assertTrue(employeeNumbers.add(member.getEmployeeNumber()));
+            Person person = member.getPerson();
+            if (person.getEmail() != null) {
+                assertTrue(person.getEmail(), emails.add(person.getEmail()));
+            }
+            if (person.getCellPhoneNumber() != null) {
+                assertTrue(person.getCellPhoneNumber(), person.getCellPhoneNumber().matches("\\d{10}"));
+                cellPhones++;
+            }
+            if (person.getSocialInsuranceNumber() != null) {
+                assertTrue(person.getSocialInsuranceNumber(), luhn(person.getSocialInsuranceNumber()));
+                socialInsuranceNumbers++;
+            }
+            if (person.getGender() == Gender.FEMALE) {
+                women++;
+            }
+            lastNames.add(person.getLastName());
+            assertTrue(person.getBirthDate().toString(), person.getBirthDate().before(adult));
+            assertFalse(member.getLastUpdateDate().before(member.getCreationDate()));
+            assertFalse(member.getLastUpdateDate().after(reference));
+        }
+        assertEquals(MEMBERS, memberNumbers.size());
+        assertEquals(0.8, (double) emails.size() / MEMBERS, 0.01);
+        assertEquals(0.6, (double) cellPhones / MEMBERS, 0.01);
+        assertEquals(0.3, (double) socialInsuranceNumbers / MEMBERS, 0.01);
+        assertEquals(0.5, (double) women / MEMBERS, 0.01);
+        assertTrue(lastNames.contains("Côté"));
+    }
+
+    /**
+     * Test method for {@link MemberGenerator#members(long, long)} saved by {@link MemberRepository#saveInBatch(Iterable)}
+     */
+    @Test
+    public void saveDataset() {
+        MemberGenerator generator = new MemberGenerator(1L);
+        for (int from = 0; from < 20000; from += 5000) {
+            assertEquals(5000, memberRepository.saveInBatch(generator.members(from, 5000)));
+        }
+        assertEquals(20000L, memberRepository.count());
+        Member found = memberRepository.findByMemberNumber(generator.memberNumber(4321L));
+        assertEquals(generator.employeeNumber(4321L), found.getEmployeeNumber());
+        assertEquals(generator.generate(4321L).getPerson().getLastName(), found.getPerson().getLastName());
+    }
+
+    private static boolean luhn(String digits) {
+        int sum = 0;
+        for (int i = 0; i < digits.length(); i++) {
+            int digit = (digits.charAt(i) - '0') * (i % 2 == 1 ? 2 : 1);
+            sum += digit > 9 ? digit - 9 : digit;
+        }
+        return sum % 10 == 0;
+    }
+}
@@ -0,0 +1,120 @@
+package fred.custom.crm.core.jdbc;
+
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.logging.Handler;
+import java.util.logging.Level;
+import java.util.logging.LogRecord;
+import java.util.logging.Logger;
+
+import org.apache.tomcat.jdbc.pool.ConnectionPool;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITInstrumentedDataSourceTest {
+
+    @Autowired
+    private InstrumentedDataSource dataSource;
+
+    /**
+     * Test method for {@link InstrumentedDataSource#getConnection()}
+     */
+    @Test
+    public void getConnection() throws Exception {
+        dataSource.resetStatistics();
+        int idle = dataSource.getIdle();
+        List<Connection> connections = new ArrayList<Connection>();
+        for (int i = 0; i < 3; i++) {
+            connections.add(dataSource.getConnection());
+        }
+        assertEquals(3, dataSource.getActive());
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        assertEquals(0, dataSource.getActive());
+        assertTrue(dataSource.getIdle() >= idle);
+
+        assertEquals(3L, dataSource.getBorrowCount());
+        assertEquals(0L, dataSource.getBorrowFailures());
+        long total = 0;
+        for (long count : dataSource.getBorrowTimeHistogram()) {
+            total += count;
+        }
+        assertEquals(3L, total);
+        assertTrue(dataSource.getBorrowTime99thPercentile() <= dataSource.getBorrowTimeMax());
+    }
+
+    /**
+     * A connection held longer than <code>suspectTimeout</code> is logged but not reclaimed, with the abandoned connection settings of the
+     * production pools (a <code>suspectTimeout</code> of 1 second instead of 60 here)
+     */
+    @Test
+    public void suspectConnectionLogged() throws Exception {
+        org.apache.tomcat.jdbc.pool.DataSource pool = new org.apache.tomcat.jdbc.pool.DataSource();
+        pool.setDriverClassName("org.h2.Driver");
+        pool.setUrl("jdbc:h2:mem:suspect");
+        pool.setInitialSize(1);
+        pool.setTimeBetweenEvictionRunsMillis(1000);
+        pool.setRemoveAbandoned(true);
+        pool.setRemoveAbandonedTimeout(86400);
+        pool.setSuspectTimeout(1);
+        pool.setLogAbandoned(true);
+        final List<String> warnings = new CopyOnWriteArrayList<String>();
+        Handler handler = new Handler() {
+
+            @Override
+            public void publish(LogRecord record) {
+                if (record.getLevel() == Level.WARNING) {
+                    warnings.add(record.getMessage());
+                }
+            }
+
+            @Override
+            public void flush() {
+                // Nothing buffered
+            }
+
+            @Override
+            public void close() {
+                // Nothing to release
+            }
+        };
+        Logger logger = Logger.getLogger(ConnectionPool.class.getName());
+        logger.addHandler(handler);
+        try {
+            Connection connection = pool.getConnection();
+            long deadline = System.currentTimeMillis() + 10000L;
+            while (warnings.isEmpty() && System.currentTimeMillis() < deadline) {
+                Thread.sleep(100L);
+            }
+            assertFalse("The leaked connection was not logged", warnings.isEmpty());
+            assertTrue(warnings.get(0), warnings.get(0).contains("suspect"));
+            assertFalse(connection.isClosed());
+            assertEquals(1, pool.getActive());
+            connection.close();
+        } finally {
+            logger.removeHandler(handler);
+            pool.close();
+        }
+    }
+
+}
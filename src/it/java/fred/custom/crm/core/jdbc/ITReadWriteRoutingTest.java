@@ -0,0 +1,225 @@
+package fred.custom.crm.core.jdbc;
+
+import static fred.custom.crm.core.repositories.jooq.tables.Members.MEMBERS;
+import static org.junit.Assert.*;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+
+import javax.sql.DataSource;
+
+import org.jooq.DSLContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallback;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.jdbc.ReadWriteRoutingDataSource.Selection;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Checks the routing of the read-only transactions, with a second H2 database standing for the replica. Nothing replicates into it: the tests
+ * copy the primary into it. Not transactional, the tests begin their own transactions.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "replica" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITReadWriteRoutingTest {
+
+    @Autowired
+    @Qualifier("dataSource")
+    private DataSource primary;
+
+    @Autowired
+    @Qualifier("replicaDataSource")
+    private DataSource replica;
+
+    @Autowired
+    private ReadWriteRoutingDataSource routingDataSource;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository repository;
+
+    @Autowired
+    private DSLContext dsl;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Before
+    public void replicateSchema() {
+        replicate();
+        routingDataSource.resetStatistics();
+    }
+
+    @After
+    public void deleteMembers() {
+        repository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link ReadWriteRoutingTransactionManager}, with the JPA and the jOOQ repositories.
+     */
+    @Test
+    public void readOnlyTransactionsGoToTheReplica() {
+        repository.save(ITMemberUtils.buildMember());
+        assertEquals("TEST", database(false));
+        assertEquals("REPLICA", database(true));
+
+        // Not replicated yet
+        assertEquals(0L, repository.count());
+        assertEquals(Integer.valueOf(0), inTransaction(true, status -> dsl.fetchCount(MEMBERS)));
+        assertEquals(Long.valueOf(1L), inTransaction(false, status -> repository.count()));
+
+        replicate();
+        assertEquals(1L, repository.count());
+        assertEquals(Integer.valueOf(1), inTransaction(true, status -> dsl.fetchCount(MEMBERS)));
+        // Joins the read-write transaction
+        assertEquals("TEST", inTransaction(false, status -> database(true)));
+        assertEquals(0L, routingDataSource.getPrimaryFallbacks());
+        assertTrue(routingDataSource.getReplicaConnections()[0] >= 4L);
+    }
+
+    /**
+     * Test method for {@link ReadWriteRoutingDataSource#getConnection()}, with replicas going down and back up.
+     */
+    @Test
+    public void fallBackToThePrimary() throws Exception {
+        SwitchableDataSource first = new SwitchableDataSource(replica);
+        SwitchableDataSource second = new SwitchableDataSource(replica);
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, Arrays.<DataSource> asList(first, second));
+        routing.setSelection(Selection.ROUND_ROBIN);
+        boolean previous = ReadWriteRoutingDataSource.setReadOnly(true);
+        try {
+            for (int i = 0; i < 4; i++) {
+                assertEquals("REPLICA", databaseOf(routing));
+            }
+            assertArrayEquals(new long[] { 2L, 2L }, routing.getReplicaConnections());
+
+            first.down = true;
+            for (int i = 0; i < 3; i++) {
+                assertEquals("REPLICA", databaseOf(routing));
+            }
+            assertEquals(1, routing.getReplicasDown());
+            // Skipped while down
+            assertArrayEquals(new long[] { 1L, 0L }, routing.getReplicaFailures());
+            assertArrayEquals(new long[] { 2L, 5L }, routing.getReplicaConnections());
+
+            second.down = true;
+            assertEquals("TEST", databaseOf(routing));
+            assertEquals(1L, routing.getPrimaryFallbacks());
+            assertEquals(2, routing.getReplicasDown());
+
+            // Retried at once
+            routing.setRetryIntervalMillis(0L);
+            first.down = false;
+            assertEquals("REPLICA", databaseOf(routing));
+            assertEquals("REPLICA", databaseOf(routing));
+            assertEquals(1, routing.getReplicasDown());
+            assertEquals(1L, routing.getPrimaryFallbacks());
+        } finally {
+            ReadWriteRoutingDataSource.setReadOnly(previous);
+        }
+        assertEquals("TEST", databaseOf(routing));
+        assertEquals(1L, routing.getPrimaryFallbacks());
+    }
+
+    /**
+     * Test method for {@link ReadWriteRoutingDataSource#setSelection(Selection)}, {@link Selection#LEAST_BUSY}
+     */
+    @Test
+    public void leastBusy() throws Exception {
+        ReadWriteRoutingDataSource routing = new ReadWriteRoutingDataSource(primary, Arrays.<DataSource> asList(replica,
+                new SwitchableDataSource(replica)));
+        routing.setSelection(Selection.LEAST_BUSY);
+        boolean previous = ReadWriteRoutingDataSource.setReadOnly(true);
+        try {
+            Connection held = routing.getConnection();
+            int busy = routing.getReplicaConnectionsInUse()[0] == 1 ? 0 : 1;
+            for (int i = 0; i < 3; i++) {
+                assertEquals("REPLICA", databaseOf(routing));
+            }
+            assertEquals(1L, routing.getReplicaConnections()[busy]);
+            assertEquals(3L, routing.getReplicaConnections()[1 - busy]);
+            held.close();
+            held.close();
+            assertArrayEquals(new int[] { 0, 0 }, routing.getReplicaConnectionsInUse());
+        } finally {
+            ReadWriteRoutingDataSource.setReadOnly(previous);
+        }
+    }
+
+    private <T> T inTransaction(boolean readOnly, TransactionCallback<T> callback) {
+        TransactionTemplate template = new TransactionTemplate(transactionManager);
+        template.setReadOnly(readOnly);
+        return template.execute(callback);
+    }
+
+    /**
+     * @return The name of the database of a new transaction
+     */
+    private String database(boolean readOnly) {
+        return inTransaction(readOnly, (TransactionStatus status) -> databaseOf(routingDataSource));
+    }
+
+    private static String databaseOf(DataSource dataSource) {
+        return new JdbcTemplate(dataSource).queryForObject("SELECT DATABASE()", String.class);
+    }
+
+    /**
+     * Plays the replication: copies the primary database into the replica.
+     */
+    private void replicate() {
+        JdbcTemplate replicaTemplate = new JdbcTemplate(replica);
+        replicaTemplate.execute("DROP ALL OBJECTS");
+        for (String statement : new JdbcTemplate(primary).queryForList("SCRIPT", String.class)) {
+            if (!statement.startsWith("--")) {
+                replicaTemplate.execute(statement);
+            }
+        }
+    }
+
+    /**
+     * A replica which can be taken down.
+     */
+    private static final class SwitchableDataSource extends DelegatingDataSource {
+
+        private volatile boolean down;
+
+        SwitchableDataSource(DataSource targetDataSource) {
+            super(targetDataSource);
+        }
+
+        @Override
+        public Connection getConnection() throws SQLException {
+            if (down) {
+                throw new SQLException("Connection refused");
+            }
+            return super.getConnection();
+        }
+    }
+}
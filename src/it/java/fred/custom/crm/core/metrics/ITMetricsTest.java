@@ -0,0 +1,135 @@
+package fred.custom.crm.core.metrics;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Checks the metrics recorded around the repositories and the data source. Not transactional, so that the transactions of the repositories
+ * commit.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITMetricsTest {
+
+    @Autowired
+    private SimpleMetricsRegistry metricsRegistry;
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private List<Member> members;
+
+    @Before
+    public void saveMembers() {
+        members = new MemberGenerator(1L).list(0L, 20);
+        jooqRepository.saveInBatch(members);
+        metricsRegistry.clear();
+    }
+
+    @After
+    public void deleteMembers() {
+        jooqRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link RepositoryMetricsInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)}. The methods inherited from the
+     * generic Spring Data interfaces are named after their erased signature.
+     */
+    @Test
+    public void repositoryMethodsAreTimed() {
+        jpaRepository.findOne(members.get(0).getId());
+        jpaRepository.findOne(members.get(1).getId());
+        jooqRepository.findOne(members.get(0).getId());
+        jpaRepository.findOne(members.get(0).getId(), MemberFetchPlan.MEMBER_ONLY);
+
+        assertEquals(2L, metricsRegistry.getTimer("repository.memberRepository.findOne(Serializable)").getCount());
+        assertEquals(1L, metricsRegistry.getTimer("repository.jooqMemberRepository.findOne(Serializable)").getCount());
+        assertEquals(1L, metricsRegistry.getTimer("repository.memberRepository.findOne(Long,MemberFetchPlan)").getCount());
+    }
+
+    /**
+     * Test method for the statement metrics of {@link fred.custom.crm.core.jdbc.InstrumentedDataSource}
+     */
+    @Test
+    public void statementsAreTimedAndCounted() {
+        jooqRepository.findAll(new PageRequest(0, 5));
+
+        boolean rowsRecorded = false;
+        for (String name : metricsRegistry.getDistributions().keySet()) {
+            if (name.startsWith("jdbc.rows[") && metricsRegistry.getDistribution(name).getMax() == 5L) {
+                rowsRecorded = true;
+            }
+        }
+        assertTrue("The page of 5 rows must be recorded", rowsRecorded);
+        assertFalse(metricsRegistry.getTimers().isEmpty());
+        // A page is one transaction of two statements: the count and the page
+        assertEquals(2L, metricsRegistry.getDistribution("jdbc.statementsPerTransaction").getMax());
+    }
+
+    /**
+     * Test method for the N+1 detection of {@link fred.custom.crm.core.jdbc.InstrumentedDataSource}
+     */
+    @Test
+    public void lazyPersonsAreReportedAsNPlusOne() {
+        new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (Member member : jpaRepository.findAll(new PageRequest(0, 20), MemberFetchPlan.MEMBER_ONLY)) {
+                    // One select of persons per member
+                    member.getPerson().getLastName();
+                }
+            }
+        });
+        assertEquals(1L, metricsRegistry.getCount("jdbc.nPlusOne"));
+
+        new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                for (Member member : jpaRepository.findAll(new PageRequest(0, 20), MemberFetchPlan.MEMBER_WITH_PERSON)) {
+                    member.getPerson().getLastName();
+                }
+            }
+        });
+        assertEquals(1L, metricsRegistry.getCount("jdbc.nPlusOne"));
+    }
+}
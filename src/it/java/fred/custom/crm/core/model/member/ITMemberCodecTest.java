@@ -0,0 +1,116 @@
+package fred.custom.crm.core.model.member;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+
+import org.junit.Test;
+
+import fred.custom.crm.core.model.codec.BinaryReader;
+import fred.custom.crm.core.model.codec.BinaryWriter;
+import fred.custom.crm.core.model.member.Person.Gender;
+
+/**
+ * Checks {@link MemberCodec} and {@link MemberRenderer}, no database involved.
+ */
+public class ITMemberCodecTest {
+
+    private static Member buildMember() {
+        Person person = Person.Builder.getInstance().withId(Long.valueOf(7L)).withVersion(2).withGender(Gender.FEMALE).withFirstName("Zoé")
+                .withLastName("Doe").withEmail("zoe.doe@example.com").withBirthDate(new Date(-86400000L)).build();
+        return Member.Builder.getInstance().withId(Long.valueOf(123456789L)).withVersion(3).withMemberNumber("M00000001")
+                .withEmployeeNumber("E00000001").withPerson(person).withCreationDate(new Date(1400000000123L))
+                .withLastUpdateDate(new Date(1400000000456L)).withLastUpdateUser("test.user").build();
+    }
+
+    /**
+     * Test method for {@link MemberCodec#encode(Member)} and {@link MemberCodec#decodeMember(byte[])}
+     */
+    @Test
+    public void encodeDecode() throws IOException {
+        Member member = buildMember();
+        byte[] data = MemberCodec.encode(member);
+        Member decoded = MemberCodec.decodeMember(data);
+
+        assertEquals(member.toString(), decoded.toString());
+        assertEquals(member.getPerson().toString(), decoded.getPerson().toString());
+        assertNull(MemberCodec.decodePerson(MemberCodec.encode(new Person())).getLastName());
+
+        ByteArrayOutputStream serialized = new ByteArrayOutputStream();
+        ObjectOutputStream out = new ObjectOutputStream(serialized);
+        out.writeObject(member);
+        out.close();
+        assertTrue("The codec must be smaller than Java serialization", data.length * 5 < serialized.size());
+    }
+
+    /**
+     * Test method for {@link MemberCodec#write(BinaryWriter, Member)}, with a person which is not loaded
+     */
+    @Test
+    public void encodePersonReference() {
+        Member member = Member.Builder.from(buildMember()).withPerson(new PersonReference(Long.valueOf(7L))).build();
+        Member decoded = MemberCodec.decodeMember(MemberCodec.encode(member));
+        assertTrue(decoded.getPerson() instanceof PersonReference);
+        assertEquals(Long.valueOf(7L), decoded.getPerson().getId());
+        assertEquals("Person[id=7,not loaded]", decoded.getPerson().toString());
+    }
+
+    /**
+     * Test method for {@link MemberCodec#readMember(BinaryReader)}: fields appended by a newer schema version are skipped
+     */
+    @Test
+    public void readNewerSchemaVersion() {
+        byte[] data = MemberCodec.encode(buildMember());
+        BinaryWriter writer = new BinaryWriter();
+        // Same member, with a version 2 header and 3 more bytes at the end of its body
+        writer.writeByte(data[0]);
+        writer.writeByte(data[1]);
+        writer.writeByte(2);
+        int mark = writer.reserveLength();
+        for (int i = 7; i < data.length; i++) {
+            writer.writeByte(data[i]);
+        }
+        writer.writeString("ab");
+        writer.writeLengthAt(mark);
+        writer.writeString("next");
+
+        BinaryReader reader = new BinaryReader().reset(writer.toByteArray());
+        assertEquals(buildMember().toString(), MemberCodec.readMember(reader).toString());
+        assertEquals("next", reader.readString());
+    }
+
+    /**
+     * Test method for {@link MemberCodec#decodeMember(byte[])} with invalid data
+     */
+    @Test
+    public void decodeInvalid() {
+        byte[] data = MemberCodec.encode(buildMember());
+        try {
+            MemberCodec.decodePerson(data);
+            fail("A member is not a person");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            MemberCodec.decodeMember(java.util.Arrays.copyOf(data, data.length - 1));
+            fail("Truncated data");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test method for {@link MemberRenderer#appendTo(StringBuilder, Member)}
+     */
+    @Test
+    public void render() {
+        assertEquals("Member[id=123456789,version=3,memberNumber=M00000001,employeeNumber=E00000001,creationDate=2014-05-13T16:53:20.123Z,"
+                + "lastUpdateUser=test.user,lastUpdateDate=2014-05-13T16:53:20.456Z]", buildMember().toString());
+        assertEquals("Person[id=7,version=2,firstName=Zoé,lastName=Doe,gender=FEMALE,cellPhoneNumber=null,email=zoe.doe@example.com,"
+                + "birthDate=1969-12-31T00:00:00.000Z,socialInsuranceNumber=null]", buildMember().getPerson().toString());
+        assertEquals("0001-01-01T00:00:00.000Z", MemberRenderer.appendDate(new StringBuilder(), new Date(-62135596800000L)).toString());
+    }
+}
@@ -0,0 +1,224 @@
+package fred.custom.crm.core.repositories.archive;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberChange;
+import fred.custom.crm.core.repositories.MultiGetResult;
+import fred.custom.crm.core.repositories.outbox.MemberChangeFeed;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersion;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersionStamp;
+
+/**
+ * Not transactional: each batch of the archive has its own transaction.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "archive" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITMemberArchiveTest {
+
+    private static final int MEMBERS = 300;
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1L);
+
+    @Autowired
+    private MemberRepository memberRepository;
+
+    @Autowired
+    private MemberArchive memberArchive;
+
+    @Autowired
+    @Qualifier("routingDataSource")
+    private DataSource dataSource;
+
+    private List<Member> members;
+
+    /**
+     * One member in three not updated for a year, the others updated today
+     */
+    @Before
+    public void saveMembers() {
+        members = new MemberGenerator(1L).list(0L, MEMBERS);
+        Date now = new Date();
+        Date yearAgo = new Date(now.getTime() - 365L * DAY);
+        for (int i = 0; i < MEMBERS; i++) {
+            members.get(i).setLastUpdateDate(i % 3 == 0 ? yearAgo : now);
+        }
+        memberRepository.saveInBatch(members);
+        memberArchive.setBatchSize(40);
+    }
+
+    @After
+    public void deleteMembers() {
+        memberArchive.setBatchSize(MemberArchive.DEFAULT_BATCH_SIZE);
+        memberRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link MemberArchive#archive(Date)} and the lookups of {@link TieredMemberRepository}
+     */
+    @Test
+    public void archive() {
+        assertTrue(memberRepository instanceof TieredMemberRepository);
+        long archived = memberArchive.archive(new Date(System.currentTimeMillis() - 30L * DAY));
+        assertEquals(MEMBERS / 3, archived);
+        assertEquals(MEMBERS / 3, memberArchive.count());
+        assertEquals(MEMBERS - MEMBERS / 3, memberRepository.count());
+        // Run again, nothing left
+        assertEquals(0L, memberArchive.archive(new Date(System.currentTimeMillis() - 30L * DAY)));
+
+        Member inactive = members.get(42);
+        assertNull(memberArchive.findOne(members.get(43).getId()));
+        Member found = memberRepository.findOne(inactive.getId());
+        assertNotNull(found);
+        assertEquals(inactive.getMemberNumber(), found.getMemberNumber());
+        assertEquals(inactive.getPerson().getLastName(), found.getPerson().getLastName());
+        assertEquals(inactive.getPerson().getId(), found.getPerson().getId());
+        assertEquals(0, found.getVersion());
+        assertEquals(inactive.getId(), memberRepository.findByMemberNumber(inactive.getMemberNumber()).getId());
+        assertEquals(inactive.getId(), memberRepository.findByEmployeeNumber(inactive.getEmployeeNumber()).getId());
+        assertTrue(memberRepository.exists(inactive.getId()));
+        assertFalse(memberRepository.exists(Long.valueOf(-1L)));
+        assertEquals(MemberVersionStamp.of(inactive), memberRepository.findVersionStamp(inactive.getId()));
+        assertNull(memberRepository.findOne(Long.valueOf(-1L)));
+
+        List<Long> ids = new ArrayList<Long>();
+        for (Member member : members) {
+            ids.add(member.getId());
+        }
+        ids.add(Long.valueOf(-1L));
+        MultiGetResult<Member> result = memberRepository.multiGet(ids);
+        assertEquals(Collections.singletonList(Long.valueOf(-1L)), result.getMissingIds());
+        for (int i = 0; i < MEMBERS; i++) {
+            assertEquals(members.get(i).getMemberNumber(), result.getContent().get(i).getMemberNumber());
+        }
+        assertEquals(MEMBERS, memberRepository.findAll(ids).size());
+        assertTrue(memberArchive.getArchived() >= MEMBERS / 3);
+    }
+
+    /**
+     * Test method for the writes of {@link TieredMemberRepository}, which restore the archived members
+     */
+    @Test
+    public void restoreOnWrite() {
+        memberArchive.archive(new Date(System.currentTimeMillis() - 30L * DAY));
+
+        Member saved = memberRepository.findOne(members.get(0).getId());
+        saved.setEmployeeNumber("777");
+        saved = memberRepository.save(saved);
+        assertEquals(1, saved.getVersion());
+        assertNull(memberArchive.findOne(saved.getId()));
+        assertEquals("777", memberRepository.findOne(saved.getId()).getEmployeeNumber());
+
+        Date now = new Date();
+        assertEquals(Collections.emptySet(), memberRepository.touch(Arrays.asList(new MemberTouch(members.get(3).getId(), "touch", now),
+                new MemberTouch(members.get(4).getId(), "touch", now))));
+        assertNull(memberArchive.findOne(members.get(3).getId()));
+        assertEquals("touch", memberRepository.findOne(members.get(3).getId()).getLastUpdateUser());
+
+        // The stale version still conflicts once restored
+        assertEquals(Collections.singleton(members.get(9).getId()), memberRepository.updateAuditFields(
+                Arrays.asList(MemberVersion.of(members.get(6)), new MemberVersion(members.get(9).getId(), 5)), "audit", now));
+        assertEquals("audit", memberRepository.findOne(members.get(6).getId()).getLastUpdateUser());
+        assertEquals(MEMBERS / 3 - 4, memberArchive.count());
+
+        memberRepository.delete(members.get(12).getId());
+        memberRepository.delete(memberRepository.findOne(members.get(15).getId()));
+        assertFalse(memberRepository.exists(members.get(12).getId()));
+        assertFalse(memberRepository.exists(members.get(15).getId()));
+        assertEquals(MEMBERS / 3 - 6, memberArchive.count());
+    }
+
+    /**
+     * Test method for {@link TieredMemberRepository#save(Member)} and {@link TieredMemberRepository#saveInBatch(Iterable)}: the numbers of the
+     * archived members are taken
+     */
+    @Test
+    public void archivedNumbersTaken() {
+        memberArchive.archive(new Date(System.currentTimeMillis() - 30L * DAY));
+
+        Member member = ITMemberUtils.buildMember();
+        member.setMemberNumber(members.get(0).getMemberNumber());
+        try {
+            memberRepository.save(member);
+            fail("The member number of an archived member was saved");
+        } catch (DuplicateKeyException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(members.get(0).getId().toString()));
+        }
+        member = ITMemberUtils.buildMember();
+        member.setEmployeeNumber(members.get(3).getEmployeeNumber());
+        try {
+            memberRepository.saveInBatch(Arrays.asList(new MemberGenerator(1L).generate(MEMBERS), member));
+            fail("The employee number of an archived member was saved");
+        } catch (DuplicateKeyException e) {
+            assertTrue(e.getMessage(), e.getMessage().contains(members.get(3).getId().toString()));
+        }
+        assertEquals(MEMBERS - MEMBERS / 3, memberRepository.count());
+        assertEquals(MEMBERS / 3, memberArchive.count());
+    }
+
+    /**
+     * Test method for {@link TieredMemberRepository#delete(Long)} and {@link TieredMemberRepository#delete(Member)}: the deletes of archived
+     * members are recorded in the outbox
+     */
+    @Test
+    public void deleteArchivedRecorded() throws InterruptedException {
+        memberArchive.archive(new Date(System.currentTimeMillis() - 30L * DAY));
+        MemberChangeFeed feed = new MemberChangeFeed();
+        feed.setDataSource(dataSource);
+        feed.setSettleMillis(0L);
+        feed.setPurgeIntervalMillis(3600000L);
+        feed.afterPropertiesSet();
+        try {
+            feed.register("archive");
+            memberRepository.delete(members.get(0).getId());
+            memberRepository.delete(memberRepository.findOne(members.get(3).getId()));
+            assertEquals(MEMBERS / 3 - 2, memberArchive.count());
+
+            List<MemberChange> changes = feed.read("archive", 10);
+            assertEquals(2, changes.size());
+            for (int i = 0; i < 2; i++) {
+                assertEquals(MemberChange.Type.DELETE, changes.get(i).getType());
+                assertEquals(members.get(3 * i).getId(), changes.get(i).getMemberId());
+                assertEquals(0, changes.get(i).getMemberVersion());
+            }
+            feed.unregister("archive");
+        } finally {
+            feed.destroy();
+        }
+    }
+}
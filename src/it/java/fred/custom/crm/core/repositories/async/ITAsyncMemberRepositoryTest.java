@@ -0,0 +1,139 @@
+package fred.custom.crm.core.repositories.async;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Not transactional: the calls run in their own transactions, on the threads of the repository.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITAsyncMemberRepositoryTest {
+
+    @Autowired
+    private AsyncMemberRepository asyncMemberRepository;
+
+    @Autowired
+    private MemberRepository memberRepository;
+
+    @After
+    public void deleteMembers() {
+        memberRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link AsyncMemberRepository#save(Member)}, {@link AsyncMemberRepository#findOne(Long)},
+     * {@link AsyncMemberRepository#findAll(org.springframework.data.domain.Pageable)} and {@link AsyncMemberRepository#delete(Long)}
+     */
+    @Test
+    public void saveFindDelete() throws Exception {
+        Member saved = asyncMemberRepository.save(ITMemberUtils.buildMember()).get(5, TimeUnit.SECONDS);
+        assertNotNull(saved.getId());
+
+        CompletableFuture<Member> found = asyncMemberRepository.findOne(saved.getId());
+        CompletableFuture<Long> total = asyncMemberRepository.findAll(new PageRequest(0, 10)).thenApply(page -> page.getTotalElements());
+        assertEquals(saved.getMemberNumber(), found.get(5, TimeUnit.SECONDS).getMemberNumber());
+        assertEquals(Long.valueOf(1L), total.get(5, TimeUnit.SECONDS));
+
+        asyncMemberRepository.delete(saved.getId()).get(5, TimeUnit.SECONDS);
+        assertNull(memberRepository.findOne(saved.getId()));
+    }
+
+    /**
+     * Test method for {@link AsyncMemberRepository#execute(java.util.function.Function, long, TimeUnit)} when the database stalls
+     */
+    @Test
+    public void rejectAndTimeOut() throws Exception {
+        AsyncMemberRepository small = new AsyncMemberRepository(memberRepository);
+        small.setConcurrency(1);
+        small.setQueueCapacity(1);
+        small.afterPropertiesSet();
+        final CountDownLatch stall = new CountDownLatch(1);
+        try {
+            CompletableFuture<Long> stalled = small.execute(repository -> {
+                awaitUninterruptibly(stall);
+                return repository.count();
+            });
+            CompletableFuture<Long> waiting = small.execute(repository -> repository.count(), 50, TimeUnit.MILLISECONDS);
+            CompletableFuture<Long> rejected = small.execute(repository -> repository.count());
+
+            // Rejected at once, without waiting for the stalled call
+            assertTrue(rejected.isCompletedExceptionally());
+            assertCause(RejectedExecutionException.class, rejected);
+            assertCause(TimeoutException.class, waiting);
+            assertEquals(1, small.getRejected());
+            assertEquals(1, small.getTimedOut());
+
+            stall.countDown();
+            assertEquals(Long.valueOf(0L), stalled.get(5, TimeUnit.SECONDS));
+            assertEquals(Long.valueOf(0L), small.execute(repository -> repository.count()).get(5, TimeUnit.SECONDS));
+        } finally {
+            stall.countDown();
+            small.destroy();
+        }
+    }
+
+    /**
+     * Test method for {@link AsyncMemberRepository#setVirtualThreads(boolean)}, which falls back to platform threads before JDK 21
+     */
+    @Test
+    public void virtualThreads() throws Exception {
+        AsyncMemberRepository virtual = new AsyncMemberRepository(memberRepository);
+        virtual.setVirtualThreads(true);
+        virtual.afterPropertiesSet();
+        try {
+            assertEquals(Long.valueOf(0L), virtual.execute(repository -> repository.count()).get(5, TimeUnit.SECONDS));
+        } finally {
+            virtual.destroy();
+        }
+    }
+
+    private static void assertCause(Class<? extends Throwable> expected, CompletableFuture<?> future) throws InterruptedException {
+        try {
+            future.get(5, TimeUnit.SECONDS);
+            fail("Expected " + expected.getSimpleName());
+        } catch (ExecutionException e) {
+            assertTrue(String.valueOf(e.getCause()), expected.isInstance(e.getCause()));
+        } catch (TimeoutException e) {
+            fail("The future did not complete");
+        }
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,168 @@
+package fred.custom.crm.core.repositories.cache;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "cache" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+@Transactional
+public class ITCachingMemberRepositoryTest {
+
+    @Autowired
+    private CachingMemberRepository cachingRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository targetRepository;
+
+    @Before
+    public void clearCache() {
+        cachingRepository.clear();
+        cachingRepository.resetStatistics();
+    }
+
+    /**
+     * Test method for {@link CachingMemberRepository#findByMemberNumber(String)} and {@link CachingMemberRepository#findByEmployeeNumber(String)}
+     */
+    @Test
+    public void findByBusinessKeys() {
+        Member saved = targetRepository.save(ITMemberUtils.buildMember());
+
+        Member first = cachingRepository.findByMemberNumber(saved.getMemberNumber());
+        Member second = cachingRepository.findByMemberNumber(saved.getMemberNumber());
+        Member byEmployeeNumber = cachingRepository.findByEmployeeNumber(saved.getEmployeeNumber());
+        Member byId = cachingRepository.findOne(saved.getId());
+
+        assertEquals(saved.getId(), second.getId());
+        assertEquals(saved.getId(), byEmployeeNumber.getId());
+        assertEquals(saved.getId(), byId.getId());
+        assertNotSame("Cached members must be copies", first, second);
+        assertEquals(1, cachingRepository.getMisses());
+        assertEquals(3, cachingRepository.getHits());
+        assertEquals(1, cachingRepository.getSize());
+    }
+
+    /**
+     * Test method for {@link CachingMemberRepository#findOne(Long)}, the member being updated behind the cache
+     */
+    @Test
+    public void findOneUpdatedThroughTarget() {
+        Member saved = targetRepository.save(ITMemberUtils.buildMember());
+        Member cached = cachingRepository.findOne(saved.getId());
+
+        cached.setEmployeeNumber("88888");
+        targetRepository.save(cached);
+
+        Member found = cachingRepository.findOne(saved.getId());
+        assertEquals("88888", found.getEmployeeNumber());
+        assertEquals(1, cachingRepository.getStaleHits());
+        assertNull(cachingRepository.findByEmployeeNumber("99999"));
+    }
+
+    /**
+     * Test method for {@link CachingMemberRepository#findOne(Long)}, the person being replaced behind the cache: a new person starts over at
+     * version 0, the sum of the versions of the member and of its person is unchanged
+     */
+    @Test
+    public void findOnePersonReplacedThroughTarget() {
+        Member saved = targetRepository.save(ITMemberUtils.buildMember());
+        saved.getPerson().setFirstName("Updated");
+        saved = targetRepository.save(saved);
+        targetRepository.flush();
+        Member cached = cachingRepository.findOne(saved.getId());
+        assertEquals(0, cached.getVersion());
+        assertEquals(1, cached.getPerson().getVersion());
+
+        Member replaced = targetRepository.findOne(saved.getId());
+        replaced.setPerson(Person.Builder.from(replaced.getPerson()).withId(null).withVersion(0).withFirstName("Replaced").build());
+        targetRepository.save(replaced);
+        targetRepository.flush();
+
+        Member found = cachingRepository.findOne(saved.getId());
+        assertEquals("Replaced", found.getPerson().getFirstName());
+        assertEquals(1, cachingRepository.getStaleHits());
+    }
+
+    /**
+     * Test method for {@link CachingMemberRepository#save(Member)} and {@link CachingMemberRepository#delete(Long)}
+     */
+    @Test
+    public void saveAndDeleteInvalidate() {
+        Member saved = targetRepository.save(ITMemberUtils.buildMember());
+        Member cached = cachingRepository.findOne(saved.getId());
+
+        cached.setLastUpdateUser("other.user");
+        cachingRepository.save(cached);
+        assertEquals(0, cachingRepository.getSize());
+        assertEquals("other.user", cachingRepository.findOne(saved.getId()).getLastUpdateUser());
+        assertEquals(0, cachingRepository.getStaleHits());
+
+        cachingRepository.delete(saved.getId());
+        assertNull(cachingRepository.findOne(saved.getId()));
+        assertNull(cachingRepository.findByMemberNumber(saved.getMemberNumber()));
+    }
+
+    /**
+     * Test method for {@link CachingMemberRepository#findOne(Long)}, when the cache is full
+     */
+    @Test
+    public void findOneEvicts() {
+        CachingMemberRepository small = new CachingMemberRepository(targetRepository, 5, 300);
+        List<Member> saved = targetRepository.save(new MemberGenerator(1L).list(0L, 10));
+        for (Member member : saved) {
+            small.findOne(member.getId());
+        }
+        assertEquals(5, small.getSize());
+        assertEquals(5, small.getEvictions());
+        small.findOne(saved.get(9).getId());
+        assertEquals(1, small.getHits());
+    }
+
+    /**
+     * Test method for {@link VersionedCache#get(Long)} and {@link VersionedCache#put(fred.custom.crm.core.model.BaseEntity)}
+     */
+    @Test
+    public void versionedCacheExpiresAndKeepsNewest() throws InterruptedException {
+        VersionedCache<Member> cache = new VersionedCache<Member>(10, 50, TimeUnit.MILLISECONDS);
+        Member v1 = Member.Builder.getInstance().withId(Long.valueOf(1L)).withVersion(1).build();
+        Member v0 = Member.Builder.getInstance().withId(Long.valueOf(1L)).withVersion(0).build();
+
+        cache.put(v1);
+        cache.put(v0);
+        assertSame(v1, cache.get(Long.valueOf(1L)));
+        assertEquals(1, cache.getStalePuts());
+
+        Thread.sleep(100);
+        assertNull(cache.get(Long.valueOf(1L)));
+        assertEquals(1, cache.getExpirations());
+    }
+}
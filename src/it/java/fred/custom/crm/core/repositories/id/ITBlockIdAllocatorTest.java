@@ -0,0 +1,86 @@
+package fred.custom.crm.core.repositories.id;
+
+import static fred.custom.crm.core.repositories.jooq.tables.Sequences.MEMBER_ID_SEQ;
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jooq.DSLContext;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITBlockIdAllocatorTest {
+
+    private static final int THREADS = 8;
+
+    private static final int IDS_PER_THREAD = 10000;
+
+    @Autowired
+    private DSLContext dsl;
+
+    /**
+     * Test method for {@link BlockIdAllocator#next(BlockIdAllocator.BlockSource)} with concurrent writers sharing the member sequence.
+     */
+    @Test
+    public void nextConcurrently() throws Exception {
+        final BlockIdAllocator allocator = new BlockIdAllocator(PooledSequenceIdGenerator.DEFAULT_BLOCK_SIZE);
+        final BlockIdAllocator.BlockSource source = new BlockIdAllocator.BlockSource() {
+            @Override
+            public long nextBlockStart() {
+                return dsl.nextval(MEMBER_ID_SEQ).longValue();
+            }
+        };
+        final Set<Long> ids = Collections.newSetFromMap(new ConcurrentHashMap<Long, Boolean>());
+        final CountDownLatch start = new CountDownLatch(1);
+
+        ExecutorService executor = Executors.newFixedThreadPool(THREADS);
+        List<Future<Void>> futures = new ArrayList<Future<Void>>();
+        for (int t = 0; t < THREADS; t++) {
+            futures.add(executor.submit(new Callable<Void>() {
+                @Override
+                public Void call() throws Exception {
+                    start.await();
+                    for (int i = 0; i < IDS_PER_THREAD; i++) {
+                        ids.add(Long.valueOf(allocator.next(source)));
+                    }
+                    return null;
+                }
+            }));
+        }
+        start.countDown();
+        for (Future<Void> future : futures) {
+            future.get();
+        }
+        executor.shutdown();
+
+        int total = THREADS * IDS_PER_THREAD;
+        assertEquals("All ids must be distinct", total, ids.size());
+        long expectedRoundTrips = (total + allocator.getBlockSize() - 1) / allocator.getBlockSize();
+        assertEquals(expectedRoundTrips, allocator.getRoundTrips());
+    }
+
+}
@@ -0,0 +1,122 @@
+package fred.custom.crm.core.repositories.jooq.member;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+@Transactional
+public class ITJooqMemberRepositoryTest {
+
+    @Autowired
+    private MemberRepository repository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    /**
+     * Test method for {@link JooqMemberRepository#save(Member)}
+     */
+    @Test
+    public void save() {
+        Member member = ITMemberUtils.buildMember();
+        member = repository.save(member);
+        assertNotNull(member);
+        assertNotNull(member.getId());
+        assertNotNull(member.getPerson());
+        assertNotNull(member.getPerson().getId());
+    }
+
+    /**
+     * Test method for {@link JooqMemberRepository#save(Member)} with an existing member.
+     */
+    @Test
+    public void saveExisting() {
+        Member saved = repository.save(ITMemberUtils.buildMember());
+        Member loaded = repository.findOne(saved.getId());
+        loaded.setEmployeeNumber("88888");
+        loaded.getPerson().setEmail("john.doe@example.com");
+
+        Member updated = repository.save(loaded);
+        assertEquals(1, updated.getVersion());
+        assertEquals(1, updated.getPerson().getVersion());
+
+        Member reloaded = repository.findOne(saved.getId());
+        assertEquals("88888", reloaded.getEmployeeNumber());
+        assertEquals("john.doe@example.com", reloaded.getPerson().getEmail());
+        assertEquals(1, reloaded.getVersion());
+
+        try {
+            repository.save(loaded);
+            fail("A stale member must not be saved");
+        } catch (ObjectOptimisticLockingFailureException e) {
+            // Expected
+        }
+    }
+
+    /**
+     * Test method for {@link JooqMemberRepository#findOne(Long)} on a member saved through JPA.
+     */
+    @Test
+    public void findOneSavedByJpa() {
+        Member member = jpaRepository.saveAndFlush(ITMemberUtils.buildMember());
+
+        Member found = repository.findOne(member.getId());
+        assertNotNull(found);
+        assertEquals(member.getMemberNumber(), found.getMemberNumber());
+        assertEquals(member.getEmployeeNumber(), found.getEmployeeNumber());
+        assertEquals(member.getCreationDate().getTime(), found.getCreationDate().getTime());
+        assertEquals(member.getPerson().getId(), found.getPerson().getId());
+        assertEquals(member.getPerson().getFirstName(), found.getPerson().getFirstName());
+        assertEquals(member.getPerson().getGender(), found.getPerson().getGender());
+        assertEquals(1, repository.count());
+    }
+
+    /**
+     * Test method for {@link JooqMemberRepository#saveInBatch(Iterable)}
+     */
+    @Test
+    public void saveInBatch() {
+        MemberGenerator generator = new MemberGenerator(1L);
+        List<Member> members = generator.list(0L, 10000);
+        int saved = repository.saveInBatch(members);
+
+        assertEquals(members.size(), saved);
+        for (Member member : members) {
+            assertNotNull(member.getId());
+            assertNotNull(member.getPerson().getId());
+        }
+        Member last = repository.findOne(members.get(members.size() - 1).getId());
+        assertEquals(generator.memberNumber(9999L), last.getMemberNumber());
+        assertEquals(generator.generate(9999L).getPerson().getLastName(), last.getPerson().getLastName());
+    }
+
+}
@@ -0,0 +1,311 @@
+package fred.custom.crm.core.repositories.outbox;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import javax.sql.DataSource;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberChange;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersion;
+
+/**
+ * Not transactional: the changes are read once the writes are committed.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITMemberChangeFeedTest {
+
+    private static final String CONSUMER = "test";
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("routingDataSource")
+    private DataSource dataSource;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    private JdbcTemplate jdbcTemplate;
+
+    private MemberChangeFeed feed;
+
+    @Before
+    public void startFeed() {
+        jdbcTemplate = new JdbcTemplate(dataSource);
+        clearOutbox();
+        feed = new MemberChangeFeed();
+        feed.setDataSource(dataSource);
+        feed.setSettleMillis(0L);
+        feed.setPurgeIntervalMillis(3600000L);
+        feed.afterPropertiesSet();
+    }
+
+    @After
+    public void stopFeed() throws Exception {
+        feed.destroy();
+        jpaRepository.deleteAll();
+        clearOutbox();
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.springdatajpa.member.MemberChangeListener}
+     */
+    @Test
+    public void jpaChanges() {
+        feed.register(CONSUMER);
+        Member member = jpaRepository.save(ITMemberUtils.buildMember());
+        member.getPerson().setEmail("changed@test.org");
+        member = jpaRepository.save(member);
+        member.setEmployeeNumber("777");
+        member = jpaRepository.save(member);
+        Date date = new Date(System.currentTimeMillis() + 1000L);
+        jpaRepository.updateAuditFields(Collections.singleton(MemberVersion.of(member)), "audit", date);
+        jpaRepository.touch(Collections.singleton(new MemberTouch(member.getId(), "touch", new Date(date.getTime() + 1000L))));
+        jpaRepository.delete(member.getId());
+
+        List<MemberChange> changes = feed.read(CONSUMER, 100);
+        assertEquals("[INSERT 0, UPDATE 0, UPDATE 1, UPDATE 2, UPDATE 3, DELETE 3]", describe(changes));
+        for (MemberChange change : changes) {
+            assertEquals(member.getId(), change.getMemberId());
+        }
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository}
+     */
+    @Test
+    public void jooqChanges() {
+        feed.register(CONSUMER);
+        Member member = jooqRepository.save(ITMemberUtils.buildMember());
+        member.setEmployeeNumber("777");
+        member = jooqRepository.save(member);
+        jooqRepository.touch(Collections.singleton(new MemberTouch(member.getId(), "touch", new Date(System.currentTimeMillis() + 1000L))));
+        jooqRepository.delete(jooqRepository.findOne(member.getId()));
+
+        assertEquals("[INSERT 0, UPDATE 1, UPDATE 2, DELETE 2]", describe(feed.read(CONSUMER, 100)));
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryImpl#deleteInBatch(Iterable)} and
+     * {@link fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryImpl#deleteAllInBatch()}
+     */
+    @Test
+    public void batchDeletes() {
+        List<Member> members = new MemberGenerator(1L).list(0L, 5);
+        jpaRepository.saveInBatch(members);
+        feed.register(CONSUMER);
+        jpaRepository.deleteInBatch(members.subList(0, 2));
+        jpaRepository.deleteAllInBatch();
+
+        assertEquals(0L, jpaRepository.count());
+        List<MemberChange> changes = feed.read(CONSUMER, 100);
+        assertEquals("[DELETE 0, DELETE 0, DELETE 0, DELETE 0, DELETE 0]", describe(changes));
+        List<Long> deleted = new ArrayList<Long>();
+        for (MemberChange change : changes) {
+            deleted.add(change.getMemberId());
+        }
+        Collections.sort(deleted);
+        assertEquals(ids(members), deleted);
+    }
+
+    /**
+     * The changes of a transaction rolled back are rolled back with it
+     */
+    @Test
+    public void rollback() {
+        feed.register(CONSUMER);
+        try {
+            new TransactionTemplate(transactionManager).execute(status -> {
+                jooqRepository.save(ITMemberUtils.buildMember());
+                throw new IllegalStateException("Rolled back");
+            });
+            fail("Not rolled back");
+        } catch (IllegalStateException e) {
+            assertEquals(0, jooqRepository.count());
+        }
+        assertTrue(feed.read(CONSUMER, 100).isEmpty());
+        assertEquals(0L, feed.getSize());
+    }
+
+    /**
+     * Test method for {@link MemberChangeFeed#read(String, int)}, {@link MemberChangeFeed#acknowledge(String, long)} and
+     * {@link MemberChangeFeed#consume(String, int, java.util.function.Consumer)}
+     */
+    @Test
+    public void consume() {
+        List<Member> all = new MemberGenerator(1L).list(0L, 7);
+        jpaRepository.save(all.get(0));
+        // Registered at the end, the changes before are not delivered
+        long start = feed.register(CONSUMER);
+        assertEquals(start, feed.register(CONSUMER));
+        List<Member> members = all.subList(1, 6);
+        jpaRepository.saveInBatch(members);
+
+        List<MemberChange> first = feed.read(CONSUMER, 2);
+        assertEquals(2, first.size());
+        // Reading does not move the position
+        assertEquals(first.get(0).getId(), feed.read(CONSUMER, 2).get(0).getId());
+        assertEquals(start, feed.getPosition(CONSUMER));
+
+        feed.acknowledge(CONSUMER, first.get(1).getId().longValue());
+        // Acknowledged again after a retry
+        feed.acknowledge(CONSUMER, first.get(0).getId().longValue());
+        assertEquals(first.get(1).getId().longValue(), feed.getPosition(CONSUMER));
+
+        final List<Long> consumed = new ArrayList<Long>();
+        for (MemberChange change : first) {
+            consumed.add(change.getMemberId());
+        }
+        while (feed.consume(CONSUMER, 2, changes -> {
+            assertTrue(changes.size() <= 2);
+            for (MemberChange change : changes) {
+                consumed.add(change.getMemberId());
+            }
+        }) > 0) {
+            // Next batch
+        }
+        assertEquals(ids(members), consumed);
+
+        // A failed handler does not move the position
+        jpaRepository.save(all.get(6));
+        long position = feed.getPosition(CONSUMER);
+        try {
+            feed.consume(CONSUMER, 10, changes -> {
+                throw new IllegalStateException("Failed");
+            });
+            fail("The handler did not fail");
+        } catch (IllegalStateException e) {
+            assertEquals(position, feed.getPosition(CONSUMER));
+        }
+        assertEquals(1, feed.consume(CONSUMER, 10, changes -> assertEquals(MemberChange.Type.INSERT, changes.get(0).getType())));
+        assertArrayEquals(new String[] { CONSUMER + "=0" }, feed.getConsumers());
+
+        assertTrue(feed.unregister(CONSUMER));
+        try {
+            feed.read(CONSUMER, 10);
+            fail("Read by an unknown consumer");
+        } catch (IllegalArgumentException e) {
+            assertFalse(feed.unregister(CONSUMER));
+        }
+    }
+
+    /**
+     * Test method for {@link MemberChangeFeed#setSettleMillis(long)}
+     */
+    @Test
+    public void settle() throws Exception {
+        feed.destroy();
+        feed = new MemberChangeFeed();
+        feed.setDataSource(dataSource);
+        feed.setSettleMillis(3600000L);
+        feed.afterPropertiesSet();
+        feed.register(CONSUMER);
+        jpaRepository.save(ITMemberUtils.buildMember());
+
+        assertEquals(1L, feed.getSize());
+        assertTrue(feed.read(CONSUMER, 10).isEmpty());
+        // Neither purged nor compacted before it settles
+        feed.unregister(CONSUMER);
+        assertEquals(0, feed.purge());
+        assertEquals(1L, feed.getSize());
+    }
+
+    /**
+     * Test method for {@link MemberChangeFeed#purge()}
+     */
+    @Test
+    public void purge() {
+        feed.register("slow");
+        feed.register(CONSUMER);
+        List<Member> members = new MemberGenerator(1L).list(0L, 2);
+        Member member = jpaRepository.save(members.get(0));
+        for (int i = 0; i < 3; i++) {
+            member.setEmployeeNumber("E" + i);
+            member = jpaRepository.save(member);
+        }
+        final Long memberId = member.getId();
+        Member other = jpaRepository.save(members.get(1));
+        assertEquals(5L, feed.getSize());
+
+        // The slow consumer keeps everything, but the changes superseded by later ones
+        feed.consume(CONSUMER, 100, changes -> assertEquals(5, changes.size()));
+        assertEquals(3, feed.purge());
+        assertEquals("[UPDATE 3, INSERT 0]", describe(feed.read("slow", 100)));
+        assertEquals(memberId, feed.read("slow", 100).get(0).getMemberId());
+        assertEquals(other.getId(), feed.read("slow", 100).get(1).getMemberId());
+
+        feed.consume("slow", 1, changes -> assertEquals(memberId, changes.get(0).getMemberId()));
+        assertEquals(1, feed.purge());
+        assertEquals(1L, feed.getSize());
+        assertEquals(other.getId(), feed.read("slow", 100).get(0).getMemberId());
+
+        // Without consumers, nothing is kept
+        feed.unregister("slow");
+        feed.unregister(CONSUMER);
+        assertEquals(1, feed.purge());
+        assertEquals(0L, feed.getSize());
+        assertEquals(5L, feed.getPurged());
+    }
+
+    private void clearOutbox() {
+        jdbcTemplate.update("delete from member_changes");
+        jdbcTemplate.update("delete from member_change_consumers");
+    }
+
+    private static String describe(List<MemberChange> changes) {
+        List<String> descriptions = new ArrayList<String>();
+        for (MemberChange change : changes) {
+            descriptions.add(change.getType() + " " + change.getMemberVersion());
+        }
+        return descriptions.toString();
+    }
+
+    private static List<Long> ids(List<Member> members) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Member member : members) {
+            ids.add(member.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+}
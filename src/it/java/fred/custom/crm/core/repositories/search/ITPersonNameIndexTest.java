@@ -0,0 +1,136 @@
+package fred.custom.crm.core.repositories.search;
+
+import static fred.custom.crm.core.repositories.jooq.tables.Members.MEMBERS;
+import static fred.custom.crm.core.repositories.jooq.tables.Persons.PERSONS;
+import static org.junit.Assert.*;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.jooq.DSLContext;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionStatus;
+import org.springframework.transaction.support.TransactionCallbackWithoutResult;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Checks that the {@link PersonNameIndex} follows the committed JPA writes. Not transactional: the index only sees the commits.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "typeahead" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITPersonNameIndexTest {
+
+    @Autowired
+    private PersonNameIndex index;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository repository;
+
+    @Autowired
+    private PlatformTransactionManager transactionManager;
+
+    @Autowired
+    private DSLContext dsl;
+
+    @After
+    public void deleteMembers() {
+        repository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link PersonNameIndex#findMemberIds(String, String, int)} after inserts, updates and deletes.
+     */
+    @Test
+    public void followsCommittedWrites() {
+        Member doe = repository.save(ITMemberUtils.buildMember());
+        Member smith = new MemberGenerator(1L).generate(0L);
+        smith.getPerson().setFirstName("Éloïse");
+        smith.getPerson().setLastName("Smith");
+        smith = repository.save(smith);
+        assertEquals(Collections.singletonList(doe.getId()), index.findMemberIds("DO", null, 10));
+        assertEquals(Collections.singletonList(smith.getId()), index.findMemberIds("smi", "elo", 10));
+        assertTrue(index.findMemberIds("smi", "john", 10).isEmpty());
+
+        // Only the person is updated
+        final Long id = doe.getId();
+        new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                repository.findOne(id).getPerson().setLastName("Smithers");
+            }
+        });
+        assertTrue(index.findMemberIds("doe", null, 10).isEmpty());
+        assertEquals(Arrays.asList(smith.getId(), doe.getId()), index.findMemberIds("Smith", null, 10));
+
+        repository.delete(smith.getId());
+        assertEquals(Collections.singletonList(doe.getId()), index.findMemberIds("Smith", null, 10));
+        assertEquals(1, index.getSize());
+    }
+
+    /**
+     * Test method for {@link PersonNameIndex#findMemberIds(String, String, int)}, the writes of a rolled back transaction are not indexed.
+     */
+    @Test
+    public void ignoresRollbacks() {
+        new TransactionTemplate(transactionManager).execute(new TransactionCallbackWithoutResult() {
+            @Override
+            protected void doInTransactionWithoutResult(TransactionStatus status) {
+                repository.saveAndFlush(ITMemberUtils.buildMember());
+                status.setRollbackOnly();
+            }
+        });
+        assertTrue(index.findMemberIds("doe", null, 10).isEmpty());
+        assertEquals(0, index.getSize());
+    }
+
+    /**
+     * Test method for {@link PersonNameIndex#rebuild()} after writes not made through JPA.
+     */
+    @Test
+    public void rebuild() {
+        List<Member> members = new MemberGenerator(1L).list(0L, 100);
+        repository.saveInBatch(members);
+        Member renamed = members.get(42);
+        Member deleted = members.get(7);
+        String lastName = renamed.getPerson().getLastName();
+        String firstName = renamed.getPerson().getFirstName();
+        dsl.update(PERSONS).set(PERSONS.LAST_NAME, "Zed").set(PERSONS.LAST_NAME_KEY, "zed").where(PERSONS.ID.equal(renamed.getPerson().getId()))
+                .execute();
+        dsl.delete(MEMBERS).where(MEMBERS.ID.equal(deleted.getId())).execute();
+        dsl.delete(PERSONS).where(PERSONS.ID.equal(deleted.getPerson().getId())).execute();
+        assertTrue(index.findMemberIds(lastName, firstName, 100).contains(renamed.getId()));
+        assertTrue(index.findMemberIds("zed", null, 10).isEmpty());
+
+        assertEquals(99L, index.rebuild());
+        assertFalse(index.findMemberIds(lastName, firstName, 100).contains(renamed.getId()));
+        assertEquals(Collections.singletonList(renamed.getId()), index.findMemberIds("zed", null, 10));
+        assertFalse(index.findMemberIds(deleted.getPerson().getLastName(), deleted.getPerson().getFirstName(), 100).contains(deleted.getId()));
+        assertEquals(99, index.getSize());
+    }
+}
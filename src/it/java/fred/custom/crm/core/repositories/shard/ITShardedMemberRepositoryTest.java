@@ -0,0 +1,343 @@
+package fred.custom.crm.core.repositories.shard;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.apache.tomcat.jdbc.pool.DataSource;
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.domain.Sort.Direction;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberChange;
+import fred.custom.crm.core.model.member.MemberSummary;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.repositories.KeysetPage;
+import fred.custom.crm.core.repositories.outbox.MemberChangeFeed;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersion;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersionStamp;
+
+/**
+ * Not transactional: each shard has its own transactions.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "sharded" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITShardedMemberRepositoryTest {
+
+    private static final int MEMBERS = 300;
+
+    @Autowired
+    private MemberRepository memberRepository;
+
+    @Autowired
+    private ShardedMemberRepository shardedRepository;
+
+    @Autowired
+    private ShardRebalancer shardRebalancer;
+
+    @Autowired
+    private Map<String, MemberChangeFeed> changeFeeds;
+
+    @After
+    public void deleteMembers() {
+        memberRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link ShardedMemberRepository#saveInBatch(Iterable)} and the single-key lookups
+     */
+    @Test
+    public void placement() {
+        assertSame(shardedRepository, memberRepository);
+        List<Member> members = new MemberGenerator(1L).list(0L, MEMBERS);
+        assertEquals(MEMBERS, memberRepository.saveInBatch(members));
+        assertEquals(MEMBERS, memberRepository.count());
+
+        // Each member and its person on the shard of its member number
+        for (MemberShard shard : shardedRepository.getShards()) {
+            long count = shard.read(repository -> Long.valueOf(repository.count())).longValue();
+            assertTrue(shard + " holds " + count + " members", count > MEMBERS / 6);
+        }
+        for (Member member : members) {
+            MemberShard shard = shardedRepository.shardOf(member.getMemberNumber());
+            Member found = shard.read(repository -> repository.findOne(member.getId()));
+            assertNotNull(member.getMemberNumber() + " not on " + shard, found);
+            assertEquals(member.getPerson().getId(), found.getPerson().getId());
+        }
+
+        Member member = members.get(42);
+        assertEquals(member.getId(), memberRepository.findByMemberNumber(member.getMemberNumber()).getId());
+        assertEquals(member.getId(), memberRepository.findByEmployeeNumber(member.getEmployeeNumber()).getId());
+        assertEquals(member.getMemberNumber(), memberRepository.findOne(member.getId()).getMemberNumber());
+        assertTrue(memberRepository.exists(member.getId()));
+        assertNull(memberRepository.findOne(Long.valueOf(-1L)));
+        assertEquals(MemberVersionStamp.of(member), memberRepository.findVersionStamp(member.getId()));
+        assertEquals(3, memberRepository.findAll(Arrays.asList(members.get(0).getId(), members.get(1).getId(), members.get(2).getId())).size());
+        List<Member> namesakes = memberRepository.findByNamePrefix(member.getPerson().getLastName(), member.getPerson().getFirstName(), 20);
+        assertEquals(namesakes(members, member).size(), namesakes.size());
+        assertTrue(ids(namesakes).contains(member.getId()));
+        assertEquals(MEMBERS, memberRepository.streamAll(streamed -> assertNotNull(streamed.getPerson().getLastName())));
+    }
+
+    /**
+     * Test method for {@link ShardedMemberRepository#findAll(org.springframework.data.domain.Pageable)} and
+     * {@link ShardedMemberRepository#findSummaries(org.springframework.data.domain.Pageable)}
+     */
+    @Test
+    public void scatterGatherPages() {
+        List<Member> members = new MemberGenerator(1L).list(0L, MEMBERS);
+        memberRepository.saveInBatch(members);
+
+        Page<Member> page = memberRepository.findAll(new PageRequest(3, 25, new Sort(Direction.DESC, "memberNumber")));
+        assertEquals(MEMBERS, page.getTotalElements());
+        assertEquals(25, page.getNumberOfElements());
+        for (int i = 0; i < 25; i++) {
+            assertEquals(members.get(MEMBERS - 76 - i).getMemberNumber(), page.getContent().get(i).getMemberNumber());
+        }
+
+        // Unsorted pages follow the ids
+        List<Long> ids = new ArrayList<Long>();
+        for (int number = 0; number < 4; number++) {
+            for (Member member : memberRepository.findAll(new PageRequest(number, 100))) {
+                ids.add(member.getId());
+            }
+        }
+        assertEquals(MEMBERS, ids.size());
+        assertEquals(ids(members), ids);
+
+        Page<MemberSummary> summaries = memberRepository.findSummaries(new PageRequest(0, 10, new Sort("person.lastName")));
+        assertEquals(MEMBERS, summaries.getTotalElements());
+        List<String> lastNames = new ArrayList<String>();
+        for (Member member : members) {
+            lastNames.add(member.getPerson().getLastName());
+        }
+        Collections.sort(lastNames);
+        for (int i = 0; i < 10; i++) {
+            assertEquals(lastNames.get(i), summaries.getContent().get(i).getLastName());
+        }
+    }
+
+    /**
+     * Test method for {@link ShardedMemberRepository#findPage(MemberKeyset.Order, String, int)}
+     */
+    @Test
+    public void keysetPages() {
+        List<Member> members = new MemberGenerator(1L).list(0L, MEMBERS);
+        memberRepository.saveInBatch(members);
+
+        List<Long> ids = new ArrayList<Long>();
+        String token = null;
+        do {
+            KeysetPage<Member> page = memberRepository.findPage(MemberKeyset.Order.ID, token, 40);
+            for (Member member : page) {
+                ids.add(member.getId());
+            }
+            token = page.getNextToken();
+        } while (token != null);
+        assertEquals(ids(members), ids);
+
+        List<String> lastNames = new ArrayList<String>();
+        token = null;
+        do {
+            KeysetPage<Member> page = memberRepository.findPage(MemberKeyset.Order.LAST_NAME, token, 50);
+            for (Member member : page) {
+                lastNames.add(member.getPerson().getLastName());
+            }
+            token = page.getNextToken();
+        } while (token != null);
+        List<String> expected = new ArrayList<String>();
+        for (Member member : members) {
+            expected.add(member.getPerson().getLastName());
+        }
+        Collections.sort(expected);
+        assertEquals(expected, lastNames);
+    }
+
+    /**
+     * Test method for {@link ShardedMemberRepository#save(Member)}, {@link ShardedMemberRepository#updateAuditFields(java.util.Collection, String, Date)}
+     * and {@link ShardedMemberRepository#touch(java.util.Collection)}
+     */
+    @Test
+    public void writes() {
+        List<Member> members = new MemberGenerator(1L).list(0L, 10);
+        memberRepository.saveInBatch(members);
+
+        Member member = memberRepository.findByMemberNumber(members.get(0).getMemberNumber());
+        member.setEmployeeNumber("777");
+        Member saved = memberRepository.save(member);
+        assertEquals(1, saved.getVersion());
+        assertEquals("777", memberRepository.findOne(member.getId()).getEmployeeNumber());
+        try {
+            memberRepository.save(member);
+            fail("Saved a stale version");
+        } catch (ObjectOptimisticLockingFailureException e) {
+            assertEquals(member.getId(), e.getIdentifier());
+        }
+
+        // The stale version conflicts, whatever the shard
+        List<MemberVersion> versions = new ArrayList<MemberVersion>();
+        for (Member other : members.subList(1, 10)) {
+            versions.add(MemberVersion.of(other));
+        }
+        versions.add(MemberVersion.of(member));
+        Date date = new Date(System.currentTimeMillis() + 1000L);
+        assertEquals(Collections.singleton(member.getId()), memberRepository.updateAuditFields(versions, "audit", date));
+        assertEquals("audit", memberRepository.findOne(members.get(5).getId()).getLastUpdateUser());
+        Set<Long> skipped = memberRepository.touch(Arrays.asList(new MemberTouch(members.get(1).getId(), "touch", date),
+                new MemberTouch(members.get(2).getId(), "touch", new Date(date.getTime() + 1000L))));
+        assertEquals(Collections.singleton(members.get(1).getId()), skipped);
+
+        memberRepository.delete(member.getId());
+        memberRepository.delete(memberRepository.findOne(members.get(1).getId()));
+        assertEquals(8L, memberRepository.count());
+    }
+
+    /**
+     * Test method for the feeds of the shards: each one reads the changes of the members of its shard
+     */
+    @Test
+    public void changeFeeds() {
+        assertEquals(new TreeSet<String>(Arrays.asList("shard0ChangeFeed", "shard1ChangeFeed", "shard2ChangeFeed")), changeFeeds.keySet());
+        for (MemberChangeFeed feed : changeFeeds.values()) {
+            feed.setSettleMillis(0L);
+            feed.register("sharded");
+        }
+        try {
+            List<Member> members = new MemberGenerator(1L).list(0L, MEMBERS);
+            memberRepository.saveInBatch(members);
+
+            int changes = 0;
+            for (MemberShard shard : shardedRepository.getShards()) {
+                List<Long> ids = new ArrayList<Long>();
+                for (MemberChange change : changeFeeds.get(shard.getName() + "ChangeFeed").read("sharded", MEMBERS)) {
+                    assertEquals(MemberChange.Type.INSERT, change.getType());
+                    ids.add(change.getMemberId());
+                }
+                Collections.sort(ids);
+                List<Member> placed = new ArrayList<Member>();
+                for (Member member : members) {
+                    if (shardedRepository.shardOf(member.getMemberNumber()) == shard) {
+                        placed.add(member);
+                    }
+                }
+                assertEquals(shard.getName(), ids(placed), ids);
+                changes += ids.size();
+            }
+            assertEquals(MEMBERS, changes);
+        } finally {
+            for (MemberChangeFeed feed : changeFeeds.values()) {
+                feed.unregister("sharded");
+            }
+        }
+    }
+
+    /**
+     * Test method for {@link ShardRebalancer#addShard(javax.sql.DataSource)}
+     */
+    @Test
+    @DirtiesContext
+    public void addShard() {
+        List<Member> members = new MemberGenerator(1L).list(0L, MEMBERS);
+        memberRepository.saveInBatch(members);
+        DataSource dataSource = new DataSource();
+        dataSource.setDriverClassName("org.h2.Driver");
+        dataSource.setUrl("jdbc:h2:mem:shard3;DB_CLOSE_DELAY=-1");
+        dataSource.setUsername("sa");
+        dataSource.setPassword("");
+        try {
+            MemberShard shard = shardedRepository.addShard(dataSource);
+            assertTrue(shardedRepository.isRebalancing());
+
+            // Not moved yet, but found and updated on its previous shard
+            Member moving = null;
+            for (Member member : members) {
+                if (shardedRepository.shardOf(member.getMemberNumber()) == shard) {
+                    moving = member;
+                    break;
+                }
+            }
+            assertNotNull(moving);
+            Member member = memberRepository.findByMemberNumber(moving.getMemberNumber());
+            member.setEmployeeNumber("777");
+            member = memberRepository.save(member);
+
+            long moved = shardRebalancer.rebalance();
+            assertFalse(shardedRepository.isRebalancing());
+            // About a quarter of the members
+            assertTrue(String.valueOf(moved), moved > MEMBERS / 8 && moved < MEMBERS / 2);
+            assertEquals(moved, shard.read(repository -> Long.valueOf(repository.count())).longValue());
+            assertEquals(MEMBERS, memberRepository.count());
+            for (Member saved : members) {
+                assertNotNull(saved.getMemberNumber(), shardedRepository.shardOf(saved.getMemberNumber()).read(
+                        repository -> repository.findByMemberNumber(saved.getMemberNumber())));
+            }
+            // Moved with its version
+            Member found = memberRepository.findByMemberNumber(moving.getMemberNumber());
+            assertEquals(1, found.getVersion());
+            assertEquals("777", found.getEmployeeNumber());
+            assertEquals(0L, shardRebalancer.rebalance());
+            assertEquals(moved, shardRebalancer.getMoved());
+        } finally {
+            memberRepository.deleteAll();
+            dataSource.close();
+        }
+    }
+
+    /**
+     * @return The members whose names start with the names of the given one, as {@link MemberRepository#findByNamePrefix(String, String, int)}
+     *         compares them
+     */
+    private static List<Member> namesakes(List<Member> members, Member member) {
+        String lastName = Person.toSearchKey(member.getPerson().getLastName());
+        String firstName = Person.toSearchKey(member.getPerson().getFirstName());
+        List<Member> namesakes = new ArrayList<Member>();
+        for (Member other : members) {
+            if (Person.toSearchKey(other.getPerson().getLastName()).startsWith(lastName)
+                    && Person.toSearchKey(other.getPerson().getFirstName()).startsWith(firstName)) {
+                namesakes.add(other);
+            }
+        }
+        return namesakes;
+    }
+
+    private static List<Long> ids(List<Member> members) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Member member : members) {
+            ids.add(member.getId());
+        }
+        Collections.sort(ids);
+        return ids;
+    }
+}
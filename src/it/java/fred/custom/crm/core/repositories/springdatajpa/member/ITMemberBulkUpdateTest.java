@@ -0,0 +1,217 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+
+/**
+ * Checks the bulk updates of {@link MemberRepositoryCustom}, for both implementations.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+@Transactional
+public class ITMemberBulkUpdateTest {
+
+    /** More than the maximum size of an IN list and than a batch, so that several chunks are written */
+    private static final int MEMBERS = 1200;
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    private List<Member> members;
+
+    @Before
+    public void saveMembers() {
+        members = new MemberGenerator(1L).list(0L, MEMBERS);
+        jooqRepository.saveInBatch(members);
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#updateAuditFields(java.util.Collection, String, Date)}
+     */
+    @Test
+    public void updateAuditFieldsJpa() {
+        assertUpdateAuditFields(jpaRepository);
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#updateAuditFields(java.util.Collection, String, Date)}
+     */
+    @Test
+    public void updateAuditFieldsJooq() {
+        assertUpdateAuditFields(jooqRepository);
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#updateEmployeeNumbers(Map, String, Date)}
+     */
+    @Test
+    public void updateEmployeeNumbersJpa() {
+        assertUpdateEmployeeNumbers(jpaRepository);
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#updateEmployeeNumbers(Map, String, Date)}
+     */
+    @Test
+    public void updateEmployeeNumbersJooq() {
+        assertUpdateEmployeeNumbers(jooqRepository);
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#updateEmployeeNumbers(Map, String, Date)} with an employee number already used.
+     */
+    @Test(expected = DataIntegrityViolationException.class)
+    public void updateEmployeeNumbersDuplicateJpa() {
+        jpaRepository.updateEmployeeNumbers(Collections.singletonMap(MemberVersion.of(members.get(0)), members.get(1).getEmployeeNumber()), "merge",
+                new Date());
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#updateEmployeeNumbers(Map, String, Date)} with an
+     * employee number already used.
+     */
+    @Test(expected = DataIntegrityViolationException.class)
+    public void updateEmployeeNumbersDuplicateJooq() {
+        jooqRepository.updateEmployeeNumbers(Collections.singletonMap(MemberVersion.of(members.get(0)), members.get(1).getEmployeeNumber()), "merge",
+                new Date());
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#touch(java.util.Collection)}
+     */
+    @Test
+    public void touchJpa() {
+        assertTouch(jpaRepository);
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#touch(java.util.Collection)}
+     */
+    @Test
+    public void touchJooq() {
+        assertTouch(jooqRepository);
+    }
+
+    private void assertUpdateAuditFields(MemberRepository repository) {
+        List<MemberVersion> versions = new ArrayList<MemberVersion>();
+        for (Member member : members) {
+            versions.add(MemberVersion.of(member));
+        }
+        // Updated meanwhile
+        Member updated = jooqRepository.findOne(members.get(10).getId());
+        updated.setLastUpdateUser("someone");
+        jooqRepository.save(updated);
+        // Deleted meanwhile
+        jooqRepository.delete(members.get(1100).getId());
+
+        Date date = new Date(1262304000000L);
+        Set<Long> conflicts = repository.updateAuditFields(versions, "restamp", date);
+        assertEquals(2, conflicts.size());
+        assertTrue(conflicts.contains(members.get(10).getId()));
+        assertTrue(conflicts.contains(members.get(1100).getId()));
+
+        Member restamped = jooqRepository.findOne(members.get(1199).getId());
+        assertEquals(1, restamped.getVersion());
+        assertEquals("restamp", restamped.getLastUpdateUser());
+        assertEquals(date.getTime(), restamped.getLastUpdateDate().getTime());
+        Member conflicting = jooqRepository.findOne(members.get(10).getId());
+        assertEquals(1, conflicting.getVersion());
+        assertEquals("someone", conflicting.getLastUpdateUser());
+
+        // The versions were incremented: the same call now conflicts for all
+        assertEquals(MEMBERS, repository.updateAuditFields(versions, "restamp", date).size());
+    }
+
+    private void assertUpdateEmployeeNumbers(MemberRepository repository) {
+        Map<MemberVersion, String> employeeNumbers = new LinkedHashMap<MemberVersion, String>();
+        for (int i = 0; i < 120; i++) {
+            Member member = members.get(i);
+            employeeNumbers.put(MemberVersion.of(member), "X" + member.getEmployeeNumber());
+        }
+        Member updated = jooqRepository.findOne(members.get(60).getId());
+        updated.setLastUpdateUser("someone");
+        jooqRepository.save(updated);
+
+        Set<Long> conflicts = repository.updateEmployeeNumbers(employeeNumbers, "merge", new Date());
+        assertEquals(Collections.singleton(members.get(60).getId()), conflicts);
+
+        Member merged = jooqRepository.findOne(members.get(119).getId());
+        assertEquals("X" + members.get(119).getEmployeeNumber(), merged.getEmployeeNumber());
+        assertEquals("merge", merged.getLastUpdateUser());
+        assertEquals(1, merged.getVersion());
+        Member conflicting = jooqRepository.findOne(members.get(60).getId());
+        assertEquals(members.get(60).getEmployeeNumber(), conflicting.getEmployeeNumber());
+        assertEquals(members.get(0).getId(), jooqRepository.findByEmployeeNumber("X" + members.get(0).getEmployeeNumber()).getId());
+    }
+
+    private void assertTouch(MemberRepository repository) {
+        // Later than the creation of the members
+        Date date = new Date(System.currentTimeMillis() + 1000L);
+        List<MemberTouch> touches = new ArrayList<MemberTouch>();
+        for (int i = 0; i < 120; i++) {
+            touches.add(new MemberTouch(members.get(i).getId(), "user" + i, date));
+        }
+        // Updated later meanwhile
+        Member updated = jooqRepository.findOne(members.get(60).getId());
+        updated.setLastUpdateDate(new Date(date.getTime() + 60000L));
+        jooqRepository.save(updated);
+        // Deleted meanwhile
+        jooqRepository.delete(members.get(100).getId());
+
+        Set<Long> skipped = repository.touch(touches);
+        assertEquals(2, skipped.size());
+        assertTrue(skipped.contains(members.get(60).getId()));
+        assertTrue(skipped.contains(members.get(100).getId()));
+
+        Member touched = jooqRepository.findOne(members.get(119).getId());
+        assertEquals("user119", touched.getLastUpdateUser());
+        assertEquals(date.getTime(), touched.getLastUpdateDate().getTime());
+        assertEquals(1, touched.getVersion());
+        Member later = jooqRepository.findOne(members.get(60).getId());
+        assertEquals(date.getTime() + 60000L, later.getLastUpdateDate().getTime());
+        assertEquals(1, later.getVersion());
+
+        // Whatever their versions, but never backwards
+        assertTrue(repository.touch(Collections.singleton(new MemberTouch(members.get(119).getId(), "again", date))).contains(members.get(119).getId()));
+        assertTrue(repository.touch(Collections.singleton(new MemberTouch(members.get(119).getId(), "again", new Date(date.getTime() + 1000L))))
+                .isEmpty());
+        assertEquals(2, jooqRepository.findOne(members.get(119).getId()).getVersion());
+    }
+}
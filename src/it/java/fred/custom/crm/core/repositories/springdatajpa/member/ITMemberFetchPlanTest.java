@@ -0,0 +1,141 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import static org.junit.Assert.*;
+
+import java.util.List;
+
+import org.hibernate.Hibernate;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+
+/**
+ * Checks what the {@link MemberFetchPlan}s load, for both implementations. Not transactional: the members are read detached, as the callers get
+ * them.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITMemberFetchPlanTest {
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    private List<Member> members;
+
+    @Before
+    public void saveMembers() {
+        members = new MemberGenerator(1L).list(0L, 3);
+        jooqRepository.saveInBatch(members);
+    }
+
+    @After
+    public void deleteMembers() {
+        jooqRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#findOne(Long, MemberFetchPlan)}
+     */
+    @Test
+    public void findOneJpa() {
+        Long id = members.get(0).getId();
+        assertFalse(Hibernate.isInitialized(jpaRepository.findOne(id).getPerson()));
+        assertFalse(Hibernate.isInitialized(jpaRepository.findOne(id, MemberFetchPlan.MEMBER_ONLY).getPerson()));
+
+        Member member = jpaRepository.findOne(id, MemberFetchPlan.MEMBER_WITH_PERSON);
+        assertTrue(Hibernate.isInitialized(member.getPerson()));
+        assertEquals(members.get(0).getPerson().getLastName(), member.getPerson().getLastName());
+        assertTrue(Hibernate.isInitialized(jpaRepository.findByMemberNumber(members.get(0).getMemberNumber()).getPerson()));
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#findAll(org.springframework.data.domain.Pageable, MemberFetchPlan)}
+     */
+    @Test
+    public void findAllJpa() {
+        PageRequest page = new PageRequest(0, 10, new Sort("person.lastName"));
+        for (Member member : jpaRepository.findAll(page, MemberFetchPlan.MEMBER_ONLY)) {
+            assertFalse(Hibernate.isInitialized(member.getPerson()));
+        }
+        List<Member> withPersons = jpaRepository.findAll(page, MemberFetchPlan.MEMBER_WITH_PERSON).getContent();
+        assertEquals(3, withPersons.size());
+        assertEquals(lastByName().getPerson().getLastName(), withPersons.get(2).getPerson().getLastName());
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#findOne(Long, MemberFetchPlan)}
+     */
+    @Test
+    public void findOneJooq() {
+        Member original = members.get(0);
+        Member member = jooqRepository.findOne(original.getId(), MemberFetchPlan.MEMBER_ONLY);
+        assertEquals(original.getPerson().getId(), member.getPerson().getId());
+        try {
+            member.getPerson().getLastName();
+            fail("The person was not loaded");
+        } catch (IllegalStateException e) {
+            // Expected
+        }
+
+        // Saving a member read alone leaves its person untouched
+        member.setEmployeeNumber("E99999999");
+        jooqRepository.save(member);
+        Member reloaded = jooqRepository.findOne(original.getId(), MemberFetchPlan.MEMBER_WITH_PERSON);
+        assertEquals("E99999999", reloaded.getEmployeeNumber());
+        assertEquals(original.getPerson().getLastName(), reloaded.getPerson().getLastName());
+        assertEquals(0, reloaded.getPerson().getVersion());
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#findAll(org.springframework.data.domain.Pageable,
+     * MemberFetchPlan)}
+     */
+    @Test
+    public void findAllJooq() {
+        PageRequest page = new PageRequest(0, 10, new Sort("person.lastName"));
+        List<Member> membersOnly = jooqRepository.findAll(page, MemberFetchPlan.MEMBER_ONLY).getContent();
+        assertEquals(3, membersOnly.size());
+        assertEquals(lastByName().getId(), membersOnly.get(2).getId());
+        assertEquals(lastByName().getPerson().getLastName(), jooqRepository.findAll(page, MemberFetchPlan.MEMBER_WITH_PERSON).getContent().get(2).getPerson().getLastName());
+    }
+
+    /**
+     * @return The saved member of the greatest last name, the last one of a page sorted by last name
+     */
+    private Member lastByName() {
+        Member last = members.get(0);
+        for (Member member : members) {
+            if (member.getPerson().getLastName().compareTo(last.getPerson().getLastName()) > 0) {
+                last = member;
+            }
+        }
+        return last;
+    }
+}
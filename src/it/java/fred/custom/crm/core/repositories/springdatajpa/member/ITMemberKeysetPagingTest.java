@@ -0,0 +1,125 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.dao.InvalidDataAccessApiUsageException;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.KeysetPage;
+
+/**
+ * Checks {@link MemberRepositoryCustom#findPage(MemberKeyset.Order, String, int)} for both implementations. The latency of a deep page, with
+ * keyset and with <code>OFFSET</code> pagination, is measured by <code>KeysetPagingBenchmark</code>.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+@Transactional
+public class ITMemberKeysetPagingTest {
+
+    private static final int PAGE_SIZE = 20;
+
+    private static final int PAGES = 1000;
+
+    /** A partial last page, and several members per last name to exercise the tie-breaker */
+    private static final int MEMBERS = PAGE_SIZE * PAGES + PAGE_SIZE / 2;
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    @Before
+    public void generateMembers() {
+        jooqRepository.saveInBatch(new MemberGenerator(1L).members(0L, MEMBERS));
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#findPage(MemberKeyset.Order, String, int)}
+     */
+    @Test
+    public void findPageJpa() {
+        assertWalksAllMembers(jpaRepository, MemberKeyset.Order.ID, new Sort("id"));
+        assertWalksAllMembers(jpaRepository, MemberKeyset.Order.LAST_NAME, new Sort("person.lastName", "person.id"));
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#findPage(MemberKeyset.Order, String, int)}
+     */
+    @Test
+    public void findPageJooq() {
+        assertWalksAllMembers(jooqRepository, MemberKeyset.Order.ID, new Sort("id"));
+        assertWalksAllMembers(jooqRepository, MemberKeyset.Order.LAST_NAME, new Sort("person.lastName", "person.id"));
+    }
+
+    /**
+     * Test method for {@link MemberKeyset#fromToken(MemberKeyset.Order, String)}
+     */
+    @Test
+    public void findPageWithTokenOfAnotherOrder() {
+        String token = jooqRepository.findPage(MemberKeyset.Order.ID, null, PAGE_SIZE).getNextToken();
+        try {
+            jooqRepository.findPage(MemberKeyset.Order.LAST_NAME, token, PAGE_SIZE);
+            fail("A token of another order must be rejected");
+        } catch (IllegalArgumentException e) {
+            // Expected
+        }
+        try {
+            jpaRepository.findPage(MemberKeyset.Order.ID, "not a token", PAGE_SIZE);
+            fail("A malformed token must be rejected");
+        } catch (InvalidDataAccessApiUsageException e) {
+            // Expected, translated from IllegalArgumentException by the Spring Data JPA proxy
+        }
+    }
+
+    private void assertWalksAllMembers(MemberRepository repository, MemberKeyset.Order order, Sort sort) {
+        // Read with jOOQ: the whole dataset must not end up in the persistence context of the test transaction
+        List<Long> expected = ids(jooqRepository.findAll(sort));
+        List<Long> actual = new ArrayList<Long>(MEMBERS);
+        int pages = 0;
+        String token = null;
+        do {
+            KeysetPage<Member> page = repository.findPage(order, token, PAGE_SIZE);
+            actual.addAll(ids(page.getContent()));
+            token = page.getNextToken();
+            pages++;
+        } while (token != null);
+        assertEquals(PAGES + 1, pages);
+        assertEquals(expected, actual);
+    }
+
+    private static List<Long> ids(Iterable<Member> members) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Member member : members) {
+            ids.add(member.getId());
+        }
+        return ids;
+    }
+}
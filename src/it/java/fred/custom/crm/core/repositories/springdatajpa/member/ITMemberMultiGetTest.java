@@ -0,0 +1,149 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import org.jooq.DSLContext;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.MultiGetResult;
+import fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository;
+
+/**
+ * Not transactional: the parallel chunks read on their own connections, they must see the members committed.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITMemberMultiGetTest {
+
+    /** More than two chunks of 500 */
+    private static final int MEMBERS = 1200;
+
+    private static final Long MISSING_ID = Long.valueOf(-1L);
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    @Autowired
+    private DSLContext dslContext;
+
+    private List<Member> members;
+
+    @Before
+    public void saveMembers() {
+        members = new MemberGenerator(1L).list(0L, MEMBERS);
+        jooqRepository.saveInBatch(members);
+    }
+
+    @After
+    public void deleteMembers() {
+        jooqRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#multiGet(List)}
+     */
+    @Test
+    public void multiGetJpa() {
+        checkMultiGet(jpaRepository);
+    }
+
+    /**
+     * Test method for {@link JooqMemberRepository#multiGet(List)}
+     */
+    @Test
+    public void multiGetJooq() {
+        checkMultiGet(jooqRepository);
+    }
+
+    /**
+     * Test method for {@link JooqMemberRepository#multiGet(List)} with chunks read in parallel
+     */
+    @Test
+    public void multiGetJooqParallel() {
+        JooqMemberRepository parallelRepository = new JooqMemberRepository(dslContext);
+        parallelRepository.setMultiGetChunkSize(100);
+        parallelRepository.setMultiGetParallelism(4);
+        try {
+            checkMultiGet(parallelRepository);
+        } finally {
+            parallelRepository.destroy();
+        }
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryCustom#multiGet(List)} with no id, and with a single one
+     */
+    @Test
+    public void multiGetFewIds() {
+        for (MemberRepository repository : Arrays.asList(jpaRepository, jooqRepository)) {
+            MultiGetResult<Member> result = repository.multiGet(Collections.<Long> emptyList());
+            assertTrue(result.getContent().isEmpty());
+            assertTrue(result.isComplete());
+
+            result = repository.multiGet(Collections.singletonList(members.get(7).getId()));
+            assertEquals(1, result.getContent().size());
+            assertEquals(members.get(7).getMemberNumber(), result.getContent().get(0).getMemberNumber());
+        }
+    }
+
+    private void checkMultiGet(MemberRepository repository) {
+        List<Long> ids = new ArrayList<Long>();
+        Map<Long, String> lastNames = new HashMap<Long, String>();
+        for (Member member : members) {
+            ids.add(member.getId());
+            lastNames.put(member.getId(), member.getPerson().getLastName());
+        }
+        Collections.shuffle(ids, new Random(42L));
+        ids.add(600, MISSING_ID);
+        // Asked twice, given twice
+        ids.add(ids.get(10));
+
+        MultiGetResult<Member> result = repository.multiGet(ids);
+
+        assertFalse(result.isComplete());
+        assertEquals(Collections.singletonList(MISSING_ID), result.getMissingIds());
+        assertEquals(MEMBERS + 1, result.getContent().size());
+        List<Long> expected = new ArrayList<Long>(ids);
+        expected.remove(MISSING_ID);
+        int i = 0;
+        for (Member member : result) {
+            assertEquals(expected.get(i++), member.getId());
+            // The person comes with its member
+            assertEquals(lastNames.get(member.getId()), member.getPerson().getLastName());
+        }
+    }
+}
@@ -2,28 +2,48 @@ package fred.custom.crm.core.repositories.springdatajpa.member;
 
 import static org.junit.Assert.*;
 
+import java.util.List;
+
+import org.hibernate.Hibernate;
+import org.junit.After;
 import org.junit.Test;
 import org.junit.runner.RunWith;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.test.annotation.DirtiesContext;
 import org.springframework.test.context.ContextConfiguration;
 import org.springframework.test.context.TestExecutionListeners;
 import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
 import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
 import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
 import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.annotation.Transactional;
 
 import com.github.springtestdbunit.DbUnitTestExecutionListener;
 
+import fred.custom.crm.core.imports.MemberGenerator;
 import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberCodec;
+import fred.custom.crm.core.model.member.MemberRenderer;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.PersonReference;
 
 @RunWith(SpringJUnit4ClassRunner.class)
 @ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
 @TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
         TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
 public class ITMemberRepositoryTest {
 
     @Autowired
     private MemberRepository repository;
+
+    /**
+     * {@link #save()} commits: the in-memory database is shared by all the test contexts
+     */
+    @After
+    public void deleteAll() {
+        repository.deleteAll();
+    }
     
     /**
      * Test method for {@link org.springframework.data.jpa.repository.JpaRepository#save(Object)
@@ -37,5 +57,53 @@ public class ITMemberRepositoryTest {
         assertNotNull(member.getPerson());
         assertNotNull(member.getPerson().getId());
     }
-    
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#save(Member)}, with a member read without its person (a Hibernate proxy), encoded then decoded:
+     * its person is a {@link PersonReference} which must be left untouched
+     */
+    @Test
+    public void saveDecodedMember() {
+        Member member = repository.save(ITMemberUtils.buildMember());
+        Person person = member.getPerson();
+        Member lazy = repository.findOne(member.getId(), MemberFetchPlan.MEMBER_ONLY);
+        byte[] data = MemberCodec.encode(lazy);
+        assertEquals("Person[id=" + person.getId() + ",not loaded]", MemberRenderer.appendTo(new StringBuilder(), lazy.getPerson()).toString());
+        assertFalse(Hibernate.isInitialized(lazy.getPerson()));
+
+        Member decoded = MemberCodec.decodeMember(data);
+        assertTrue(decoded.getPerson() instanceof PersonReference);
+        assertEquals(person.getId(), decoded.getPerson().getId());
+        decoded.setLastUpdateUser("decoded");
+        Member saved = repository.save(decoded);
+        assertEquals(1, saved.getVersion());
+        assertTrue(decoded.getPerson() instanceof PersonReference);
+
+        Member found = repository.findOne(member.getId(), MemberFetchPlan.MEMBER_WITH_PERSON);
+        assertEquals("decoded", found.getLastUpdateUser());
+        assertEquals(person.getId(), found.getPerson().getId());
+        assertEquals(person.getVersion(), found.getPerson().getVersion());
+        assertEquals(person.getLastName(), found.getPerson().getLastName());
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#saveInBatch(Iterable)}
+     */
+    @Test
+    @Transactional
+    public void saveInBatch() {
+        MemberGenerator generator = new MemberGenerator(1L);
+        List<Member> members = generator.list(0L, 10000);
+        int saved = repository.saveInBatch(members);
+
+        assertEquals(members.size(), saved);
+        for (Member member : members) {
+            assertNotNull(member.getId());
+            assertNotNull(member.getPerson().getId());
+        }
+        Member last = repository.findOne(members.get(members.size() - 1).getId());
+        assertEquals(generator.memberNumber(9999L), last.getMemberNumber());
+        assertEquals(generator.generate(9999L).getPerson().getLastName(), last.getPerson().getLastName());
+    }
+
 }
@@ -0,0 +1,165 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.Person.Gender;
+
+/**
+ * Checks the person searches of {@link MemberRepository}, for both implementations.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+@Transactional
+public class ITMemberSearchTest {
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    @Before
+    public void saveMembers() {
+        List<Member> members = new ArrayList<Member>();
+        members.add(buildMember(1, "Éloïse", "Dupont", "eloise@example.com", "5145550001"));
+        members.add(buildMember(2, "ELOISE", "DUPOND", "eloise.dupond@example.com", "5145550002"));
+        members.add(buildMember(3, "Jean", "Dupont", "jean@example.com", "5145550003"));
+        members.add(buildMember(4, "Marc", "Du_pont", "marc@example.com", "5145550001"));
+        members.add(buildMember(5, "Anne", "Durand", "anne@example.com", null));
+        jooqRepository.saveInBatch(members);
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#findByNamePrefix(String, String, int)}
+     */
+    @Test
+    public void findByNamePrefixJpa() {
+        assertFindByNamePrefix(jpaRepository);
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#findByNamePrefix(String, String, int)}
+     */
+    @Test
+    public void findByNamePrefixJooq() {
+        assertFindByNamePrefix(jooqRepository);
+    }
+
+    /**
+     * Test method for {@link MemberRepository#findByPersonEmail(String)} and {@link MemberRepository#findByPersonCellPhoneNumber(String)}
+     */
+    @Test
+    public void findByEmailAndPhoneJpa() {
+        assertFindByEmailAndPhone(jpaRepository);
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#findByPersonEmail(String)} and
+     * {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#findByPersonCellPhoneNumber(String)}
+     */
+    @Test
+    public void findByEmailAndPhoneJooq() {
+        assertFindByEmailAndPhone(jooqRepository);
+    }
+
+    /**
+     * Test method for {@link Person#toSearchKey(String)}
+     */
+    @Test
+    public void toSearchKey() {
+        assertEquals("eloise", Person.toSearchKey("Éloïse"));
+        assertEquals("eloise", Person.toSearchKey("ELOISE"));
+        assertEquals("o'neil-smith", Person.toSearchKey("O'Neil-Smith"));
+        assertNull(Person.toSearchKey(null));
+    }
+
+    private void assertFindByNamePrefix(MemberRepository repository) {
+        assertEquals(names("DUPOND", "Dupont", "Dupont"), lastNames(repository.findByNamePrefix("dup", null, 10)));
+        assertEquals(names("Éloïse", "Jean"), firstNames(repository.findByNamePrefix("DUPONT", "", 10)));
+        assertEquals(names("ELOISE", "Éloïse"), firstNames(repository.findByNamePrefix("Du", "élo", 10)));
+        assertEquals(2, repository.findByNamePrefix("d", null, 2).size());
+        // LIKE wildcards are plain characters
+        assertEquals(names("Du_pont"), lastNames(repository.findByNamePrefix("du_", null, 10)));
+        assertTrue(repository.findByNamePrefix("%", null, 10).isEmpty());
+        assertTrue(repository.findByNamePrefix("Martin", null, 10).isEmpty());
+
+        Member member = repository.findByNamePrefix("durand", "anne", 1).get(0);
+        assertEquals("Anne", member.getPerson().getFirstName());
+        assertEquals("durand", member.getPerson().getLastNameKey());
+    }
+
+    private void assertFindByEmailAndPhone(MemberRepository repository) {
+        List<Member> members = repository.findByPersonEmail("jean@example.com");
+        assertEquals(1, members.size());
+        assertEquals("Jean", members.get(0).getPerson().getFirstName());
+        assertTrue(repository.findByPersonEmail("JEAN@example.com").isEmpty());
+
+        List<String> lastNames = lastNames(repository.findByPersonCellPhoneNumber("5145550001"));
+        // The order of the exact searches is not specified
+        Collections.sort(lastNames);
+        assertEquals(names("Du_pont", "Dupont"), lastNames);
+        assertTrue(repository.findByPersonCellPhoneNumber("5145559999").isEmpty());
+    }
+
+    private static Member buildMember(int i, String firstName, String lastName, String email, String cellPhoneNumber) {
+        Person p = Person.Builder.getInstance().withGender(Gender.FEMALE).withFirstName(firstName).withLastName(lastName).withEmail(email)
+                .withCellPhoneNumber(cellPhoneNumber).build();
+        Date now = new Date();
+        return Member.Builder.getInstance().withMemberNumber(String.format("N%08d", i)).withEmployeeNumber(String.format("F%08d", i)).withPerson(p)
+                .withCreationDate(now).withLastUpdateDate(now).withLastUpdateUser("test.user").build();
+    }
+
+    private static List<String> lastNames(List<Member> members) {
+        List<String> names = new ArrayList<String>();
+        for (Member member : members) {
+            names.add(member.getPerson().getLastName());
+        }
+        return names;
+    }
+
+    private static List<String> firstNames(List<Member> members) {
+        List<String> names = new ArrayList<String>();
+        for (Member member : members) {
+            names.add(member.getPerson().getFirstName());
+        }
+        return names;
+    }
+
+    private static List<String> names(String... names) {
+        List<String> list = new ArrayList<String>();
+        for (String name : names) {
+            list.add(name);
+        }
+        return list;
+    }
+}
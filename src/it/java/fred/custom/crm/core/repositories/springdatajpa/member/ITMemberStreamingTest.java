@@ -0,0 +1,110 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+
+/**
+ * Checks that {@link MemberRepositoryCustom#streamAll(MemberCallback)} runs in constant memory, for both implementations.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+@Transactional
+public class ITMemberStreamingTest {
+
+    private static final int MEMBERS = 100000;
+
+    /** Streaming grows the heap by about 10 MB, keeping all the members of the dataset by about 28 MB */
+    private static final long MAX_HEAP_GROWTH = 16L * 1024 * 1024;
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    @Before
+    public void generateMembers() {
+        // Generated lazily, the dataset itself is never held in memory
+        jooqRepository.saveInBatch(new MemberGenerator(1L).members(0L, MEMBERS));
+    }
+
+    /**
+     * Test method for {@link MemberRepositoryImpl#streamAll(MemberCallback)}
+     */
+    @Test
+    public void streamAllJpa() {
+        assertBoundedMemory("JPA", jpaRepository);
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#streamAll(MemberCallback)}
+     */
+    @Test
+    public void streamAllJooq() {
+        assertBoundedMemory("jOOQ", jooqRepository);
+    }
+
+    /**
+     * The first sample is taken before the query: a result set materialized by the driver shows as growth, not as the baseline
+     */
+    private void assertBoundedMemory(String name, MemberRepository repository) {
+        final List<Long> samples = new ArrayList<Long>();
+        long baseline = usedHeap();
+        long count = repository.streamAll(new MemberCallback() {
+            private int seen;
+
+            @Override
+            public void process(Member member) {
+                assertNotNull(member.getPerson());
+                if (seen++ % (MEMBERS / 10) == 0) {
+                    samples.add(Long.valueOf(usedHeap()));
+                }
+            }
+        });
+        assertEquals(MEMBERS, count);
+        assertEquals(10, samples.size());
+
+        long max = baseline;
+        for (Long sample : samples) {
+            max = Math.max(max, sample.longValue());
+        }
+        assertTrue(name + " heap grew by " + (max - baseline) / 1024 + " KB", max - baseline < MAX_HEAP_GROWTH);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+}
@@ -0,0 +1,147 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import static org.junit.Assert.*;
+
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+import org.springframework.transaction.annotation.Transactional;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberSummary;
+
+/**
+ * Checks {@link MemberRepository#findSummaries(Pageable)} for both implementations, and compares the allocations of a page of summaries with a
+ * page of entities.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+@Transactional
+public class ITMemberSummaryTest {
+
+    private static final int MEMBERS = 5000;
+
+    private static final Pageable PAGE = new PageRequest(3, 500, new Sort("person.lastName", "id"));
+
+    private static final int RUNS = 21;
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    @PersistenceContext
+    private EntityManager em;
+
+    @Before
+    public void generateMembers() {
+        jooqRepository.saveInBatch(new MemberGenerator(1L).members(0L, MEMBERS));
+    }
+
+    /**
+     * Test method for {@link MemberRepository#findSummaries(Pageable)}, Spring Data JPA implementation
+     */
+    @Test
+    public void findSummariesJpa() {
+        assertSameAsEntities(jpaRepository);
+        compareAllocations(jpaRepository);
+    }
+
+    /**
+     * Test method for {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#findSummaries(Pageable)}
+     */
+    @Test
+    public void findSummariesJooq() {
+        assertSameAsEntities(jooqRepository);
+        compareAllocations(jooqRepository);
+    }
+
+    private static void assertSameAsEntities(MemberRepository repository) {
+        List<Member> members = repository.findAll(PAGE).getContent();
+        List<MemberSummary> summaries = repository.findSummaries(PAGE).getContent();
+        assertEquals(members.size(), summaries.size());
+        for (int i = 0; i < members.size(); i++) {
+            Member member = members.get(i);
+            MemberSummary summary = summaries.get(i);
+            assertEquals(member.getId(), summary.getId());
+            assertEquals(member.getMemberNumber(), summary.getMemberNumber());
+            assertEquals(member.getPerson().getFirstName(), summary.getFirstName());
+            assertEquals(member.getPerson().getLastName(), summary.getLastName());
+            assertEquals(member.getPerson().getGender(), summary.getGender());
+        }
+    }
+
+    private void compareAllocations(final MemberRepository repository) {
+        long entities = allocated(new Runnable() {
+            @Override
+            public void run() {
+                for (Member member : repository.findAll(PAGE)) {
+                    // What a list screen reads
+                    member.getMemberNumber();
+                    member.getPerson().getLastName();
+                }
+            }
+        });
+        long summaries = allocated(new Runnable() {
+            @Override
+            public void run() {
+                for (MemberSummary summary : repository.findSummaries(PAGE)) {
+                    summary.getMemberNumber();
+                    summary.getLastName();
+                }
+            }
+        });
+        assertTrue("Summaries must allocate less than entities: " + summaries / 1024 + " KB, entities " + entities / 1024 + " KB",
+                summaries < entities);
+    }
+
+    /**
+     * @return The median number of bytes allocated by the current thread
+     */
+    private long allocated(Runnable query) {
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        long thread = Thread.currentThread().getId();
+        long[] bytes = new long[RUNS];
+        for (int i = -5; i < RUNS; i++) {
+            // The entities of the previous run must not be found in the persistence context
+            em.clear();
+            long allocated = threads.getThreadAllocatedBytes(thread);
+            query.run();
+            if (i >= 0) {
+                bytes[i] = threads.getThreadAllocatedBytes(thread) - allocated;
+            }
+        }
+        Arrays.sort(bytes);
+        return bytes[RUNS / 2];
+    }
+}
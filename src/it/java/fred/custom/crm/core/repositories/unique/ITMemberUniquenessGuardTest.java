@@ -0,0 +1,160 @@
+package fred.custom.crm.core.repositories.unique;
+
+import static org.junit.Assert.*;
+
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.ImportResult;
+import fred.custom.crm.core.imports.MemberCsvImporter;
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Not transactional: the importer saves from its own threads.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq", "uniqueness-guard" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITMemberUniquenessGuardTest {
+
+    private static final int ROWS = 200;
+
+    @Autowired
+    private MemberUniquenessGuard guard;
+
+    @Autowired
+    private MemberCsvImporter memberCsvImporter;
+
+    @Autowired
+    @Qualifier("memberRepository")
+    private MemberRepository jpaRepository;
+
+    @Autowired
+    @Qualifier("jooqMemberRepository")
+    private MemberRepository jooqRepository;
+
+    @After
+    public void deleteMembers() {
+        jooqRepository.deleteAll();
+        guard.rebuild();
+        guard.resetStatistics();
+    }
+
+    /**
+     * Test method for {@link BloomFilter#mightContain(String)}
+     */
+    @Test
+    public void bloomFilter() {
+        BloomFilter filter = new BloomFilter(10000L, 0.01);
+        assertEquals(7, filter.getHashCount());
+        assertEquals(95872L, filter.getBitCount());
+        int changes = 0;
+        for (int i = 0; i < 10000; i++) {
+            if (filter.put(String.format("M%08d", i))) {
+                changes++;
+            }
+        }
+        // A new string whose bits are all set already is a false positive
+        assertTrue(String.valueOf(changes), changes > 9900);
+        assertFalse(filter.put("M00000042"));
+        for (int i = 0; i < 10000; i++) {
+            assertTrue(filter.mightContain(String.format("M%08d", i)));
+        }
+        int falsePositives = 0;
+        for (int i = 10000; i < 110000; i++) {
+            if (filter.mightContain(String.format("M%08d", i))) {
+                falsePositives++;
+            }
+        }
+        assertEquals(0.01, falsePositives / 100000.0, 0.005);
+        assertEquals(0.01, filter.getExpectedFalsePositiveRate(), 0.005);
+    }
+
+    /**
+     * Test method for {@link MemberUniquenessGuard#findTakenMemberNumbers(java.util.Collection)} and
+     * {@link MemberUniquenessGuard#findTakenEmployeeNumbers(java.util.Collection)}
+     */
+    @Test
+    public void findTaken() {
+        // Followed through JPA
+        Member member = jpaRepository.save(ITMemberUtils.buildMember());
+        assertTrue(guard.isMemberNumberTaken(member.getMemberNumber()));
+        assertTrue(guard.isEmployeeNumberTaken(member.getEmployeeNumber()));
+        assertFalse(guard.isMemberNumberTaken(member.getEmployeeNumber()));
+
+        List<String> numbers = Arrays.asList(member.getMemberNumber(), "N1", "N2", "N3", "N4", "N5", "N6", "N7", "N8", "N9");
+        assertEquals(Collections.singleton(member.getMemberNumber()), guard.findTakenMemberNumbers(numbers));
+        // The new numbers were not looked up in the database
+        assertEquals(13L, guard.getLookups());
+        assertEquals(3L + guard.getFalsePositives(), guard.getExactChecks());
+
+        // Not followed through jOOQ, until added or rebuilt
+        List<Member> members = new MemberGenerator(1L).list(0L, 3);
+        jooqRepository.saveInBatch(members);
+        guard.add(members.get(0));
+        assertTrue(guard.isMemberNumberTaken(members.get(0).getMemberNumber()));
+        assertEquals(4L, guard.rebuild());
+        assertTrue(guard.isEmployeeNumberTaken(members.get(2).getEmployeeNumber()));
+        assertTrue(guard.getMemoryBytes() >= 2L * 1000000L * 9L / 8L);
+    }
+
+    /**
+     * Test method for {@link MemberCsvImporter#MemberCsvImporter(MemberRepository, MemberUniquenessGuard)}: a roster loaded twice
+     */
+    @Test
+    public void importTwice() throws Exception {
+        Member existing = jpaRepository.save(ITMemberUtils.buildMember());
+        String roster = buildRoster(existing);
+
+        ImportResult first = memberCsvImporter.importMembers(new StringReader(roster), new StringWriter());
+        assertEquals(ROWS - 1, first.getImported());
+        assertEquals(1, first.getDuplicates());
+
+        StringWriter rejects = new StringWriter();
+        ImportResult second = memberCsvImporter.importMembers(new StringReader(roster), rejects);
+        assertEquals(0, second.getImported());
+        assertEquals(ROWS, second.getRejected());
+        assertEquals(ROWS, second.getDuplicates());
+        assertEquals(ROWS, jooqRepository.count());
+        assertTrue(rejects.toString(), rejects.toString().contains("2,Existing member_number U00000000,U00000000"));
+        assertTrue(rejects.toString(), rejects.toString().contains("Existing employee_number " + existing.getEmployeeNumber()));
+    }
+
+    /**
+     * @return A roster of {@link #ROWS} records, the last one with the employee number of an existing member
+     */
+    private static String buildRoster(Member existing) {
+        StringBuilder csv = new StringBuilder("member_number,employee_number,first_name,last_name,gender\r\n");
+        for (int i = 0; i < ROWS; i++) {
+            String employeeNumber = i == ROWS - 1 ? existing.getEmployeeNumber() : String.format("V%08d", i);
+            csv.append(String.format("U%08d", i)).append(',').append(employeeNumber).append(",John").append(i).append(",Doe").append(i)
+                    .append(",M\r\n");
+        }
+        return csv.toString();
+    }
+}
@@ -0,0 +1,244 @@
+package fred.custom.crm.core.repositories.writebehind;
+
+import static org.junit.Assert.*;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import org.junit.After;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.dao.DataAccessResourceFailureException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.test.annotation.DirtiesContext;
+import org.springframework.test.context.ActiveProfiles;
+import org.springframework.test.context.ContextConfiguration;
+import org.springframework.test.context.TestExecutionListeners;
+import org.springframework.test.context.junit4.SpringJUnit4ClassRunner;
+import org.springframework.test.context.support.DependencyInjectionTestExecutionListener;
+import org.springframework.test.context.support.DirtiesContextTestExecutionListener;
+import org.springframework.test.context.transaction.TransactionalTestExecutionListener;
+
+import com.github.springtestdbunit.DbUnitTestExecutionListener;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.springdatajpa.member.ITMemberUtils;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+
+/**
+ * Not transactional: the touches are written in their own transactions, on the thread of the buffer.
+ */
+@RunWith(SpringJUnit4ClassRunner.class)
+@ContextConfiguration("/META-INF/spring/crm-persistence.xml")
+@DirtiesContext
+@ActiveProfiles({ "default", "jooq" })
+@TestExecutionListeners({ DependencyInjectionTestExecutionListener.class, DirtiesContextTestExecutionListener.class,
+        TransactionalTestExecutionListener.class, DbUnitTestExecutionListener.class })
+public class ITMemberTouchBufferTest {
+
+    private static final long HOUR = 3600000L;
+
+    @Autowired
+    private MemberRepository memberRepository;
+
+    private MemberTouchBuffer buffer;
+
+    @After
+    public void deleteMembers() throws Exception {
+        if (buffer != null) {
+            buffer.destroy();
+        }
+        memberRepository.deleteAll();
+    }
+
+    /**
+     * Test method for {@link MemberTouchBuffer#touch(Long, String, Date)} and {@link MemberTouchBuffer#flush()}
+     */
+    @Test
+    public void coalesce() {
+        buffer = start(1000, HOUR);
+        Member member = memberRepository.save(ITMemberUtils.buildMember());
+        long now = System.currentTimeMillis();
+        for (int i = 0; i < 100; i++) {
+            buffer.touch(member.getId(), "user" + i, new Date(now + 1000L + i));
+        }
+        // An older touch does not replace the latest one
+        buffer.touch(member.getId(), "late", new Date(now + 1000L));
+        assertEquals(1, buffer.getPending());
+
+        assertEquals(1, buffer.flush());
+        Member touched = memberRepository.findOne(member.getId());
+        assertEquals("user99", touched.getLastUpdateUser());
+        assertEquals(now + 1099L, touched.getLastUpdateDate().getTime());
+        assertEquals(member.getVersion() + 1, touched.getVersion());
+        assertEquals(0, buffer.getPending());
+        assertEquals(101L, buffer.getTouches());
+        assertEquals(1L, buffer.getFlushedTouches());
+        assertEquals(101.0, buffer.getCoalescingRatio(), 0.0);
+        assertEquals(1L, buffer.getFlushes());
+        assertEquals(0, buffer.flush());
+    }
+
+    /**
+     * Test method for {@link MemberTouchBuffer#setMaxPending(int)}
+     */
+    @Test
+    public void flushOnSize() throws Exception {
+        buffer = start(10, HOUR);
+        List<Member> members = new MemberGenerator(1L).list(0L, 10);
+        memberRepository.saveInBatch(members);
+        Date date = new Date(System.currentTimeMillis() + 1000L);
+        for (Member member : members) {
+            buffer.touch(member.getId(), "size", date);
+        }
+        awaitFlushes(1);
+        assertEquals(0, buffer.getPending());
+        assertEquals(10L, buffer.getFlushedTouches());
+        assertEquals("size", memberRepository.findOne(members.get(9).getId()).getLastUpdateUser());
+    }
+
+    /**
+     * Test method for {@link MemberTouchBuffer#setFlushIntervalMillis(long)}
+     */
+    @Test
+    public void flushOnInterval() throws Exception {
+        buffer = start(1000, 50L);
+        Member member = memberRepository.save(ITMemberUtils.buildMember());
+        buffer.touch(member.getId(), "interval", new Date(System.currentTimeMillis() + 1000L));
+        awaitFlushes(1);
+        assertEquals("interval", memberRepository.findOne(member.getId()).getLastUpdateUser());
+        assertTrue(buffer.getFlushTimeMax() > 0L);
+    }
+
+    /**
+     * Test method for {@link MemberTouchBuffer#destroy()}
+     */
+    @Test
+    public void flushOnShutdown() throws Exception {
+        MemberTouchBuffer stopped = start(1000, HOUR);
+        Member member = memberRepository.save(ITMemberUtils.buildMember());
+        stopped.touch(member.getId(), "shutdown", new Date(System.currentTimeMillis() + 1000L));
+        stopped.destroy();
+        assertEquals("shutdown", memberRepository.findOne(member.getId()).getLastUpdateUser());
+        try {
+            stopped.touch(member.getId(), "too late", new Date());
+            fail("Touched after the shutdown");
+        } catch (IllegalStateException e) {
+            assertEquals(0, stopped.getPending());
+        }
+    }
+
+    /**
+     * Test method for {@link MemberTouchBuffer#touch(Long, String, Date)}
+     */
+    @Test
+    public void tooLongUser() {
+        buffer = start(1000, HOUR);
+        char[] user = new char[MemberTouchBuffer.MAX_LAST_UPDATE_USER_LENGTH + 1];
+        Arrays.fill(user, 'u');
+        try {
+            buffer.touch(1L, new String(user), new Date());
+            fail("Touched with a too long user");
+        } catch (IllegalArgumentException e) {
+            assertEquals(0, buffer.getPending());
+        }
+    }
+
+    /**
+     * Test method for {@link MemberTouchBuffer#flush()}: a touch rejected by the database is dropped, the others are written.
+     */
+    @Test
+    public void rejectedTouch() {
+        List<Member> members = new MemberGenerator(1L).list(0L, 3);
+        memberRepository.saveInBatch(members);
+        Long rejectedId = members.get(1).getId();
+        buffer = start(failing(rejectedId, new DataIntegrityViolationException("Rejected"), new AtomicBoolean(true)), 1000, HOUR);
+        Date date = new Date(System.currentTimeMillis() + 1000L);
+        for (Member member : members) {
+            buffer.touch(member.getId(), "rejected", date);
+        }
+
+        assertEquals(2, buffer.flush());
+        assertEquals("rejected", memberRepository.findOne(members.get(0).getId()).getLastUpdateUser());
+        assertEquals(members.get(1).getLastUpdateUser(), memberRepository.findOne(rejectedId).getLastUpdateUser());
+        assertEquals("rejected", memberRepository.findOne(members.get(2).getId()).getLastUpdateUser());
+        assertEquals(0, buffer.getPending());
+        assertEquals(1L, buffer.getFailedFlushes());
+        assertEquals(1L, buffer.getRejectedTouches());
+        assertEquals(2L, buffer.getFlushedTouches());
+        assertEquals(0, buffer.flush());
+    }
+
+    /**
+     * Test method for {@link MemberTouchBuffer#flush()}: the touches not written for another reason are kept for the next flush.
+     */
+    @Test
+    public void failedTouch() {
+        Member member = memberRepository.save(ITMemberUtils.buildMember());
+        AtomicBoolean unreachable = new AtomicBoolean(true);
+        buffer = start(failing(member.getId(), new DataAccessResourceFailureException("Unreachable"), unreachable), 1000, HOUR);
+        buffer.touch(member.getId(), "failed", new Date(System.currentTimeMillis() + 1000L));
+        try {
+            buffer.flush();
+            fail("Flushed while the database is unreachable");
+        } catch (DataAccessResourceFailureException e) {
+            assertEquals(1, buffer.getPending());
+            assertEquals(0L, buffer.getRejectedTouches());
+            assertEquals(0L, buffer.getFlushedTouches());
+        }
+
+        unreachable.set(false);
+        assertEquals(1, buffer.flush());
+        assertEquals("failed", memberRepository.findOne(member.getId()).getLastUpdateUser());
+    }
+
+    private MemberTouchBuffer start(int maxPending, long flushIntervalMillis) {
+        return start(memberRepository, maxPending, flushIntervalMillis);
+    }
+
+    private MemberTouchBuffer start(MemberRepository repository, int maxPending, long flushIntervalMillis) {
+        MemberTouchBuffer started = new MemberTouchBuffer(repository);
+        started.setMaxPending(maxPending);
+        started.setFlushIntervalMillis(flushIntervalMillis);
+        started.afterPropertiesSet();
+        return started;
+    }
+
+    /**
+     * @return The member repository, failing the touches of the given member with the given exception while failing is set
+     */
+    private MemberRepository failing(Long id, RuntimeException failure, AtomicBoolean failing) {
+        return (MemberRepository) Proxy.newProxyInstance(getClass().getClassLoader(), new Class<?>[] { MemberRepository.class },
+                (proxy, method, args) -> {
+                    if ("touch".equals(method.getName()) && failing.get()) {
+                        for (Object touch : (Collection<?>) args[0]) {
+                            if (id.equals(((MemberTouch) touch).getId())) {
+                                throw failure;
+                            }
+                        }
+                    }
+                    try {
+                        return method.invoke(memberRepository, args);
+                    } catch (InvocationTargetException e) {
+                        throw e.getCause();
+                    }
+                });
+    }
+
+    private void awaitFlushes(long flushes) throws InterruptedException {
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5L);
+        while (buffer.getFlushes() < flushes) {
+            assertTrue("Not flushed", System.nanoTime() < deadline);
+            Thread.sleep(10L);
+        }
+    }
+}
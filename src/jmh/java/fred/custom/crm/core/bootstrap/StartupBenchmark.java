@@ -0,0 +1,51 @@
+package fred.custom.crm.core.bootstrap;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericXmlApplicationContext;
+
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Measures the cold start of <code>crm-persistence.xml</code> up to a first repository call, as a batch worker does it: each measurement is the
+ * first and only start of a new JVM. <code>scanning</code> is the default startup, <code>fast-startup</code> the profile of the same name.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 0)
+@Measurement(iterations = 1)
+@Fork(10)
+public class StartupBenchmark {
+
+    @Param({ "scanning", "fast-startup" })
+    public String mode;
+
+    private GenericXmlApplicationContext context;
+
+    @Benchmark
+    public long startContext() {
+        context = new GenericXmlApplicationContext();
+        context.getEnvironment().setActiveProfiles("fast-startup".equals(mode) ? new String[] { "default", "fast-startup" } : new String[] { "default" });
+        context.load("classpath:/META-INF/spring/crm-persistence.xml");
+        context.refresh();
+        return context.getBean(MemberRepository.class).count();
+    }
+
+    @TearDown(Level.Iteration)
+    public void closeContext() {
+        context.close();
+    }
+}
@@ -0,0 +1,446 @@
+package fred.custom.crm.core.load;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+import java.util.Properties;
+import java.util.SplittableRandom;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.dao.OptimisticLockingFailureException;
+import org.springframework.util.Assert;
+import org.springframework.util.StringUtils;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.KeysetPage;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+
+/**
+ * Runs a mix of {@link MemberRepository} operations from several threads against a generated dataset, then compares the throughput and the
+ * latency percentiles of each operation with a baseline: where JMH measures one operation at a time, this measures them under contention, as the
+ * application runs them.
+ * <p>
+ * Configured by system properties (<code>gradle loadTest -Pload.threads=8</code>):
+ * </p>
+ * <ul>
+ * <li><code>load.profiles</code>: the profiles of <code>crm-persistence.xml</code>, <code>default</code> by default</li>
+ * <li><code>load.members</code>: the size of the dataset, 100000 by default</li>
+ * <li><code>load.seed</code>: the seed of the {@link MemberGenerator}, 1 by default</li>
+ * <li><code>load.threads</code>: the number of threads, 4 by default</li>
+ * <li><code>load.warmupSeconds</code>, <code>load.seconds</code>: the warmup, not measured, then the measurement, 10 and 30 by default</li>
+ * <li><code>load.mix</code>: the weights of the operations, e.g. <code>findOne:50,save:10</code>, see {@link Operation}</li>
+ * <li><code>load.baseline</code>: the baseline properties file, none by default</li>
+ * <li><code>load.report</code>: where to write the results, in the format of the baseline, none by default</li>
+ * </ul>
+ * <p>
+ * The baseline holds <code>&lt;operation&gt;.throughput</code> (operations per second) and <code>&lt;operation&gt;.p50</code>, <code>p99</code>,
+ * <code>p999</code> (microseconds), each optional, with the allowed regressions as ratios, <code>tolerance.throughput</code> and
+ * <code>tolerance.latency</code>. The run exits with 1 when an operation is slower than its baseline beyond the tolerance or fails; the
+ * optimistic locking conflicts of <code>save</code> are counted apart, they are expected under contention. To update the baseline, copy the
+ * report over it.
+ * </p>
+ *
+ * @author Fred
+ */
+public final class MemberLoadTest {
+
+    /** The operations of the mix, by their key in <code>load.mix</code> and the reports */
+    enum Operation {
+        /** {@link MemberRepository#findOne(java.io.Serializable)} of a random member */
+        FIND_ONE("findOne"),
+        /** {@link MemberRepository#findByMemberNumber(String)} of a random member */
+        FIND_BY_MEMBER_NUMBER("findByMemberNumber"),
+        /** {@link MemberRepository#multiGet(List)} of {@value MemberLoadTest#MULTI_GET_SIZE} random members */
+        MULTI_GET("multiGet"),
+        /** The next {@link MemberRepository#findPage(MemberKeyset.Order, String, int) page} by last name, each thread paging on its own */
+        FIND_PAGE("findPage"),
+        /** {@link MemberRepository#findOne(java.io.Serializable)} then {@link MemberRepository#save(Object)} of a random member */
+        SAVE("save"),
+        /** {@link MemberRepository#touch(java.util.Collection)} of a random member */
+        TOUCH("touch"),
+        /** {@link MemberRepository#save(Object)} of a new member */
+        INSERT("insert");
+
+        private final String key;
+
+        Operation(String key) {
+            this.key = key;
+        }
+
+        static Operation of(String key) {
+            for (Operation operation : values()) {
+                if (operation.key.equals(key)) {
+                    return operation;
+                }
+            }
+            throw new IllegalArgumentException("Unknown operation " + key + " in load.mix");
+        }
+    }
+
+    private static final String DEFAULT_MIX = "findOne:50,findByMemberNumber:15,multiGet:5,findPage:5,save:10,touch:10,insert:5";
+
+    private static final int MULTI_GET_SIZE = 20;
+
+    private static final int PAGE_SIZE = 50;
+
+    private static final int LOAD_BATCH_SIZE = 5000;
+
+    private static final double[] PERCENTILES = { 50.0, 99.0, 99.9 };
+
+    private static final String[] PERCENTILE_KEYS = { "p50", "p99", "p999" };
+
+    private final MemberRepository repository;
+
+    private final long seed;
+
+    private final MemberGenerator generator;
+
+    private final MemberGenerator inserts;
+
+    private final AtomicLong insertIndex = new AtomicLong();
+
+    private final Operation[] operations;
+
+    private final int[] cumulativeWeights;
+
+    private long[] ids;
+
+    private MemberLoadTest(MemberRepository repository, long seed, String mix) {
+        this.repository = repository;
+        this.seed = seed;
+        this.generator = new MemberGenerator(seed);
+        this.inserts = new MemberGenerator(seed);
+        inserts.setKeyPrefix("L");
+        List<Operation> operations = new ArrayList<Operation>();
+        List<Integer> weights = new ArrayList<Integer>();
+        int total = 0;
+        for (String entry : StringUtils.commaDelimitedListToStringArray(mix)) {
+            String[] operationAndWeight = StringUtils.split(entry.trim(), ":");
+            Assert.notNull(operationAndWeight, "The mix entries are <operation>:<weight>, not " + entry);
+            int weight = Integer.parseInt(operationAndWeight[1].trim());
+            Assert.isTrue(weight >= 0, "The weights must not be negative");
+            total += weight;
+            operations.add(Operation.of(operationAndWeight[0].trim()));
+            weights.add(Integer.valueOf(total));
+        }
+        Assert.isTrue(total > 0, "The mix has no operation");
+        this.operations = operations.toArray(new Operation[operations.size()]);
+        this.cumulativeWeights = new int[weights.size()];
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            cumulativeWeights[i] = weights.get(i).intValue();
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        String profiles = System.getProperty("load.profiles", "default");
+        int members = Integer.getInteger("load.members", 100000).intValue();
+        int threads = Integer.getInteger("load.threads", 4).intValue();
+        long warmupSeconds = Long.getLong("load.warmupSeconds", 10L).longValue();
+        long seconds = Long.getLong("load.seconds", 30L).longValue();
+        Assert.isTrue(members > 0 && threads > 0 && seconds > 0L, "load.members, load.threads and load.seconds must be positive");
+
+        GenericXmlApplicationContext context = new GenericXmlApplicationContext();
+        context.getEnvironment().setActiveProfiles(StringUtils.commaDelimitedListToStringArray(profiles));
+        context.load("classpath:/META-INF/spring/crm-persistence.xml");
+        context.refresh();
+        Result[] results;
+        try {
+            MemberLoadTest test = new MemberLoadTest(context.getBean(MemberRepository.class), Long.getLong("load.seed", 1L).longValue(),
+                    System.getProperty("load.mix", DEFAULT_MIX));
+            long start = System.currentTimeMillis();
+            test.load(members);
+            System.out.println("Loaded " + members + " members in " + (System.currentTimeMillis() - start) + " ms");
+            results = test.run(threads, warmupSeconds, seconds);
+        } finally {
+            context.close();
+        }
+
+        System.out.println();
+        System.out.println("Profiles " + profiles + ", " + members + " members, " + threads + " threads, " + seconds + " s");
+        System.out.println(String.format(Locale.ROOT, "%-20s %10s %12s %10s %10s %10s %10s %10s", "operation", "count", "ops/s", "p50 us", "p99 us",
+                "p999 us", "conflicts", "errors"));
+        Properties report = new Properties();
+        for (Result result : results) {
+            System.out.println(String.format(Locale.ROOT, "%-20s %10d %12.1f %10d %10d %10d %10d %10d", result.operation.key,
+                    result.latencies.getCount(), result.throughput(seconds), result.micros(PERCENTILES[0]), result.micros(PERCENTILES[1]),
+                    result.micros(PERCENTILES[2]), result.conflicts, result.errors));
+            report.setProperty(result.operation.key + ".throughput", String.format(Locale.ROOT, "%.1f", result.throughput(seconds)));
+            for (int i = 0; i < PERCENTILES.length; i++) {
+                report.setProperty(result.operation.key + "." + PERCENTILE_KEYS[i], Long.toString(result.micros(PERCENTILES[i])));
+            }
+        }
+
+        String baselineLocation = System.getProperty("load.baseline");
+        Properties baseline = baselineLocation == null ? null : load(new File(baselineLocation));
+        if (baseline != null) {
+            report.setProperty("tolerance.throughput", baseline.getProperty("tolerance.throughput", "0.2"));
+            report.setProperty("tolerance.latency", baseline.getProperty("tolerance.latency", "0.5"));
+        }
+        String reportLocation = System.getProperty("load.report");
+        if (reportLocation != null) {
+            store(report, new File(reportLocation), "Load test: profiles " + profiles + ", " + members + " members, " + threads + " threads");
+        }
+
+        List<String> failures = new ArrayList<String>();
+        for (Result result : results) {
+            if (result.errors > 0L) {
+                failures.add(result.operation.key + ": " + result.errors + " errors, first " + result.firstError);
+            }
+        }
+        if (baseline != null) {
+            failures.addAll(compare(report, baseline, results));
+        }
+        System.out.println();
+        if (!failures.isEmpty()) {
+            for (String failure : failures) {
+                System.out.println("FAILED " + failure);
+            }
+            System.exit(1);
+        }
+        System.out.println(baseline == null ? "No baseline to compare with" : "Within the baseline " + baselineLocation);
+    }
+
+    /**
+     * Saves the first members of the dataset, by batches
+     */
+    private void load(int members) {
+        ids = new long[members];
+        for (int from = 0; from < members; from += LOAD_BATCH_SIZE) {
+            List<Member> batch = new ArrayList<Member>(LOAD_BATCH_SIZE);
+            for (Member member : generator.members(from, Math.min(LOAD_BATCH_SIZE, members - from))) {
+                batch.add(member);
+            }
+            repository.saveInBatch(batch);
+            for (int i = 0; i < batch.size(); i++) {
+                ids[from + i] = batch.get(i).getId().longValue();
+            }
+        }
+    }
+
+    private Result[] run(int threads, long warmupSeconds, long seconds) throws InterruptedException {
+        long measureFrom = System.nanoTime() + TimeUnit.SECONDS.toNanos(warmupSeconds);
+        long measureUntil = measureFrom + TimeUnit.SECONDS.toNanos(seconds);
+        Worker[] workers = new Worker[threads];
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int i = 0; i < threads; i++) {
+            workers[i] = new Worker(new SplittableRandom(seed * 31L + i), measureFrom, measureUntil, done);
+            Thread thread = new Thread(workers[i], "load-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+        done.await();
+
+        Result[] results = new Result[operations.length];
+        for (int i = 0; i < operations.length; i++) {
+            results[i] = new Result(operations[i]);
+            for (Worker worker : workers) {
+                results[i].add(worker.results[i]);
+            }
+        }
+        return results;
+    }
+
+    private void execute(Operation operation, SplittableRandom random, String[] pageToken) {
+        switch (operation) {
+        case FIND_ONE:
+            repository.findOne(randomId(random));
+            break;
+        case FIND_BY_MEMBER_NUMBER:
+            repository.findByMemberNumber(generator.memberNumber(random.nextInt(ids.length)));
+            break;
+        case MULTI_GET:
+            List<Long> batch = new ArrayList<Long>(MULTI_GET_SIZE);
+            for (int i = 0; i < MULTI_GET_SIZE; i++) {
+                batch.add(randomId(random));
+            }
+            repository.multiGet(batch);
+            break;
+        case FIND_PAGE:
+            KeysetPage<Member> page = repository.findPage(MemberKeyset.Order.LAST_NAME, pageToken[0], PAGE_SIZE);
+            pageToken[0] = page.hasNext() ? page.getNextToken() : null;
+            break;
+        case SAVE:
+            Member member = repository.findOne(randomId(random));
+            member.setLastUpdateUser("load");
+            member.setLastUpdateDate(new Date());
+            repository.save(member);
+            break;
+        case TOUCH:
+            repository.touch(Collections.singleton(new MemberTouch(randomId(random), "load", new Date())));
+            break;
+        case INSERT:
+            repository.save(inserts.generate(insertIndex.getAndIncrement()));
+            break;
+        default:
+            throw new IllegalStateException(operation.name());
+        }
+    }
+
+    private Long randomId(SplittableRandom random) {
+        return Long.valueOf(ids[random.nextInt(ids.length)]);
+    }
+
+    /**
+     * @return The index of an operation, drawn by its weight
+     */
+    private int pick(SplittableRandom random) {
+        int weight = random.nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        int index = 0;
+        while (cumulativeWeights[index] <= weight) {
+            index++;
+        }
+        return index;
+    }
+
+    private static List<String> compare(Properties report, Properties baseline, Result[] results) {
+        double throughputTolerance = Double.parseDouble(baseline.getProperty("tolerance.throughput", "0.2"));
+        double latencyTolerance = Double.parseDouble(baseline.getProperty("tolerance.latency", "0.5"));
+        List<String> failures = new ArrayList<String>();
+        for (Result result : results) {
+            String key = result.operation.key + ".throughput";
+            String expected = baseline.getProperty(key);
+            if (expected != null && Double.parseDouble(report.getProperty(key)) < Double.parseDouble(expected) * (1.0 - throughputTolerance)) {
+                failures.add(key + " " + report.getProperty(key) + " ops/s, baseline " + expected);
+            }
+            for (String percentile : PERCENTILE_KEYS) {
+                key = result.operation.key + "." + percentile;
+                expected = baseline.getProperty(key);
+                if (expected != null && Double.parseDouble(report.getProperty(key)) > Double.parseDouble(expected) * (1.0 + latencyTolerance)) {
+                    failures.add(key + " " + report.getProperty(key) + " us, baseline " + expected);
+                }
+            }
+        }
+        return failures;
+    }
+
+    private static Properties load(File file) throws IOException {
+        Properties properties = new Properties();
+        try (InputStream in = new FileInputStream(file)) {
+            properties.load(in);
+        }
+        return properties;
+    }
+
+    private static void store(Properties properties, File file, String comments) throws IOException {
+        File directory = file.getAbsoluteFile().getParentFile();
+        Assert.isTrue(directory.isDirectory() || directory.mkdirs(), "Cannot create " + directory);
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, comments);
+        }
+    }
+
+    /**
+     * Runs the mix until the end of the measurement, into its own histograms
+     */
+    private final class Worker implements Runnable {
+
+        private final SplittableRandom random;
+
+        private final long measureFrom;
+
+        private final long measureUntil;
+
+        private final CountDownLatch done;
+
+        private final Result[] results = new Result[operations.length];
+
+        private final String[] pageToken = new String[1];
+
+        Worker(SplittableRandom random, long measureFrom, long measureUntil, CountDownLatch done) {
+            this.random = random;
+            this.measureFrom = measureFrom;
+            this.measureUntil = measureUntil;
+            this.done = done;
+            for (int i = 0; i < results.length; i++) {
+                results[i] = new Result(operations[i]);
+            }
+        }
+
+        @Override
+        public void run() {
+            try {
+                long now = System.nanoTime();
+                while (now < measureUntil) {
+                    int index = pick(random);
+                    Result result = results[index];
+                    boolean measured = now >= measureFrom;
+                    try {
+                        execute(operations[index], random, pageToken);
+                    } catch (OptimisticLockingFailureException e) {
+                        if (measured) {
+                            result.conflicts++;
+                        }
+                    } catch (RuntimeException e) {
+                        if (measured) {
+                            result.error(e);
+                        }
+                    }
+                    long end = System.nanoTime();
+                    if (measured && end <= measureUntil) {
+                        result.latencies.record(end - now);
+                    }
+                    now = end;
+                }
+            } finally {
+                done.countDown();
+            }
+        }
+    }
+
+    /**
+     * The measures of an operation, of a thread or merged
+     */
+    private static final class Result {
+
+        private final Operation operation;
+
+        private final LatencyHistogram latencies = new LatencyHistogram();
+
+        private long conflicts;
+
+        private long errors;
+
+        private String firstError;
+
+        Result(Operation operation) {
+            this.operation = operation;
+        }
+
+        void error(RuntimeException e) {
+            if (errors++ == 0L) {
+                firstError = e.toString();
+            }
+        }
+
+        void add(Result other) {
+            latencies.add(other.latencies);
+            conflicts += other.conflicts;
+            if (firstError == null) {
+                firstError = other.firstError;
+            }
+            errors += other.errors;
+        }
+
+        double throughput(long seconds) {
+            return (double) latencies.getCount() / seconds;
+        }
+
+        long micros(double percentile) {
+            return TimeUnit.NANOSECONDS.toMicros(latencies.percentile(percentile));
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package fred.custom.crm.core.model.member;
+
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fred.custom.crm.core.model.member.Person.Gender;
+
+/**
+ * Measures the construction and the <code>toString()</code> of the entities, no database involved.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemberBenchmark {
+
+    private final Date now = new Date();
+
+    private Member member;
+
+    private Person person;
+
+    private int sequence;
+
+    @Setup
+    public void buildEntities() {
+        member = buildMember();
+        person = member.getPerson();
+    }
+
+    @Benchmark
+    public Member buildMember() {
+        int i = sequence++;
+        Person p = Person.Builder.getInstance().withGender(Gender.FEMALE).withFirstName("Jane").withLastName("Doe").withEmail("jane.doe@example.com")
+                .withBirthDate(now).build();
+        return Member.Builder.getInstance().withMemberNumber("M" + i).withEmployeeNumber("E" + i).withPerson(p).withCreationDate(now)
+                .withLastUpdateDate(now).withLastUpdateUser("benchmark").build();
+    }
+
+    @Benchmark
+    public Person buildPersonWithPersonBuilder() {
+        return PersonBuilder.person().withGender(Gender.FEMALE).withFirstName("Jane").withLastName("Doe").withEmail("jane.doe@example.com")
+                .withBirthDate(now).build();
+    }
+
+    @Benchmark
+    public String memberToString() {
+        return member.toString();
+    }
+
+    @Benchmark
+    public String personToString() {
+        return person.toString();
+    }
+}
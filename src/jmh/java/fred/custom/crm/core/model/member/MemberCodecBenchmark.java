@@ -0,0 +1,81 @@
+package fred.custom.crm.core.model.member;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.util.Date;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import fred.custom.crm.core.model.member.Person.Gender;
+
+/**
+ * Compares {@link MemberCodec} with Java serialization, for a member and its person. The encoded sizes are printed by the setup.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MemberCodecBenchmark {
+
+    private Member member;
+
+    private byte[] encoded;
+
+    private byte[] serialized;
+
+    @Setup
+    public void encodeMember() throws IOException {
+        Date now = new Date();
+        Person person = Person.Builder.getInstance().withId(Long.valueOf(4242L)).withGender(Gender.FEMALE).withFirstName("Jane").withLastName("Doe")
+                .withEmail("jane.doe@example.com").withBirthDate(now).build();
+        member = Member.Builder.getInstance().withId(Long.valueOf(4242L)).withMemberNumber("M00004242").withEmployeeNumber("E00004242")
+                .withPerson(person).withCreationDate(now).withLastUpdateDate(now).withLastUpdateUser("benchmark").build();
+        encoded = MemberCodec.encode(member);
+        serialized = serialize();
+        System.out.println(String.format("%nMember encoded in %d bytes, serialized in %d bytes", encoded.length, serialized.length));
+    }
+
+    @Benchmark
+    public byte[] codecEncode() {
+        return MemberCodec.encode(member);
+    }
+
+    @Benchmark
+    public Member codecDecode() {
+        return MemberCodec.decodeMember(encoded);
+    }
+
+    @Benchmark
+    public byte[] serialize() throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(512);
+        ObjectOutputStream out = new ObjectOutputStream(bytes);
+        out.writeObject(member);
+        out.close();
+        return bytes.toByteArray();
+    }
+
+    @Benchmark
+    public Object deserialize() throws IOException, ClassNotFoundException {
+        ObjectInputStream in = new ObjectInputStream(new ByteArrayInputStream(serialized));
+        try {
+            return in.readObject();
+        } finally {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,157 @@
+package fred.custom.crm.core.repositories.search;
+
+import static fred.custom.crm.core.repositories.jooq.tables.Members.MEMBERS;
+import static fred.custom.crm.core.repositories.jooq.tables.Persons.PERSONS;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.jooq.DSLContext;
+import org.jooq.impl.DSL;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericXmlApplicationContext;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.Person.Gender;
+import fred.custom.crm.core.repositories.jooq.member.MemberRecordMapper;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Measures the type-ahead searches against a million persons: the in-memory {@link PersonNameIndex}, the indexed searches of the jOOQ
+ * {@link MemberRepository}, and a prefix search on <code>lower(last_name)</code> which no index serves, as a baseline. The heap taken by the
+ * in-memory index is printed by the setup.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class PersonSearchBenchmark {
+
+    private static final int MAX_RESULTS = 10;
+
+    private static final String[] SYLLABLES = "ba be bo da de do fa fe ga la le lo ma me mo na ne no pa pe ra re ro sa se so ta te to va".split(" ");
+
+    @Param({ "1000000" })
+    public int persons;
+
+    private GenericXmlApplicationContext context;
+
+    private MemberRepository repository;
+
+    private PersonNameIndex index;
+
+    private DSLContext dsl;
+
+    private final Random random = new Random(42L);
+
+    private final String[] prefixes = new String[1024];
+
+    private int cursor;
+
+    @Setup
+    public void loadPersons() {
+        context = new GenericXmlApplicationContext();
+        context.getEnvironment().setActiveProfiles("default", "jooq", "typeahead");
+        context.load("classpath:/META-INF/spring/crm-persistence.xml");
+        context.refresh();
+        repository = context.getBean(MemberRepository.class);
+        index = context.getBean(PersonNameIndex.class);
+        dsl = context.getBean(DSLContext.class);
+
+        Date now = new Date();
+        List<Member> chunk = new ArrayList<Member>(10000);
+        for (int i = 0; i < persons; i++) {
+            Person person = Person.Builder.getInstance().withGender(i % 2 == 0 ? Gender.MALE : Gender.FEMALE).withFirstName(firstName(i))
+                    .withLastName(lastName(i)).withEmail("member" + i + "@example.com").build();
+            chunk.add(Member.Builder.getInstance().withMemberNumber(String.format("S%09d", i)).withEmployeeNumber(String.format("T%09d", i))
+                    .withPerson(person).withCreationDate(now).withLastUpdateDate(now).withLastUpdateUser("benchmark").build());
+            if (chunk.size() == 10000) {
+                repository.saveInBatch(chunk);
+                chunk.clear();
+            }
+        }
+        repository.saveInBatch(chunk);
+
+        for (int i = 0; i < prefixes.length; i++) {
+            prefixes[i] = Person.toSearchKey(lastName(random.nextInt(persons)).substring(0, 3));
+        }
+
+        // The jOOQ writes are not followed by the index
+        long before = usedHeap();
+        index.rebuild();
+        System.out.println(String.format("%n%d persons indexed in %d MB of heap", index.getSize(), (usedHeap() - before) / (1024 * 1024)));
+    }
+
+    @TearDown
+    public void closeContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public List<Long> memoryIndexPrefix() {
+        return index.findMemberIds(prefix(), null, MAX_RESULTS);
+    }
+
+    @Benchmark
+    public List<Member> databaseIndexPrefix() {
+        return repository.findByNamePrefix(prefix(), null, MAX_RESULTS);
+    }
+
+    @Benchmark
+    public List<Member> databaseIndexEmail() {
+        return repository.findByPersonEmail("member" + random.nextInt(persons) + "@example.com");
+    }
+
+    @Benchmark
+    public List<Member> databaseScanPrefix() {
+        return dsl.select(MemberRecordMapper.MEMBER_FIELDS).from(MEMBERS).join(PERSONS).on(MEMBERS.PERSON_ID.equal(PERSONS.ID))
+                .where(DSL.lower(PERSONS.LAST_NAME).like(prefix() + "%")).orderBy(PERSONS.LAST_NAME, PERSONS.FIRST_NAME, PERSONS.ID)
+                .limit(MAX_RESULTS).fetch(MemberRecordMapper.INSTANCE);
+    }
+
+    /**
+     * @return The first three letters of a random last name, in lower case: a few thousand persons match
+     */
+    private String prefix() {
+        return prefixes[cursor++ & (prefixes.length - 1)];
+    }
+
+    /**
+     * @return A last name of three syllables, from about 24,000 distinct ones
+     */
+    private static String lastName(int i) {
+        int n = i % 12167;
+        int count = SYLLABLES.length;
+        String name = SYLLABLES[n % count] + SYLLABLES[(n / count) % count] + SYLLABLES[(n / (count * count)) % count] + (i % 7 == 0 ? "t" : "");
+        return Character.toUpperCase(name.charAt(0)) + name.substring(1);
+    }
+
+    private static String firstName(int i) {
+        return "First" + (i % 5000);
+    }
+
+    private static long usedHeap() {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
@@ -0,0 +1,127 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Sort;
+
+import fred.custom.crm.core.imports.MemberGenerator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.KeysetPage;
+
+/**
+ * Compares the first pages and deep pages by last name, with {@link MemberRepositoryCustom#findPage(MemberKeyset.Order, String, int) keyset}
+ * and with <code>OFFSET</code> pagination, for the Spring Data JPA and the jOOQ implementations: a keyset page should cost the same at any depth.
+ * <p>
+ * Each invocation reads the next of {@link #PAGES} pages: H2 returns the previous result of a statement executed again with the same parameters
+ * without running it, one page read over and over would measure that.
+ * </p>
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class KeysetPagingBenchmark {
+
+    private static final int MEMBERS = 100000;
+
+    private static final int PAGE_SIZE = 20;
+
+    /** The number of pages read in turn, a power of two */
+    private static final int PAGES = 64;
+
+    /** The first page of the deep benchmarks, near the end of the dataset */
+    private static final int DEEP_PAGE = MEMBERS / PAGE_SIZE - PAGES - 10;
+
+    private static final Sort BY_LAST_NAME = new Sort("person.lastName", "person.id");
+
+    @Param({ "jpa", "jooq" })
+    public String implementation;
+
+    private GenericXmlApplicationContext context;
+
+    private MemberRepository repository;
+
+    /** The tokens of the pages 1 to {@link #PAGES} */
+    private final String[] firstTokens = new String[PAGES];
+
+    /** The tokens of the pages from {@link #DEEP_PAGE} */
+    private final String[] deepTokens = new String[PAGES];
+
+    private int next;
+
+    @Setup
+    public void startContext() {
+        context = new GenericXmlApplicationContext();
+        context.getEnvironment().setActiveProfiles("jooq".equals(implementation) ? new String[] { "default", "jooq" } : new String[] { "default" });
+        context.load("classpath:/META-INF/spring/crm-persistence.xml");
+        context.refresh();
+        repository = context.getBean(MemberRepository.class);
+
+        MemberGenerator generator = new MemberGenerator(1L);
+        for (int from = 0; from < MEMBERS; from += 5000) {
+            List<Member> batch = new ArrayList<Member>(5000);
+            for (Member member : generator.members(from, 5000)) {
+                batch.add(member);
+            }
+            repository.saveInBatch(batch);
+        }
+        tokens(0, firstTokens);
+        tokens(DEEP_PAGE - 1, deepTokens);
+    }
+
+    @TearDown
+    public void closeContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public KeysetPage<Member> keysetFirstPages() {
+        return repository.findPage(MemberKeyset.Order.LAST_NAME, firstTokens[next++ & (PAGES - 1)], PAGE_SIZE);
+    }
+
+    @Benchmark
+    public KeysetPage<Member> keysetDeepPages() {
+        return repository.findPage(MemberKeyset.Order.LAST_NAME, deepTokens[next++ & (PAGES - 1)], PAGE_SIZE);
+    }
+
+    @Benchmark
+    public Page<Member> offsetFirstPages() {
+        return repository.findAll(new PageRequest(1 + (next++ & (PAGES - 1)), PAGE_SIZE, BY_LAST_NAME), MemberFetchPlan.MEMBER_WITH_PERSON);
+    }
+
+    @Benchmark
+    public Page<Member> offsetDeepPages() {
+        return repository.findAll(new PageRequest(DEEP_PAGE + (next++ & (PAGES - 1)), PAGE_SIZE, BY_LAST_NAME),
+                MemberFetchPlan.MEMBER_WITH_PERSON);
+    }
+
+    /**
+     * Fills the tokens of {@link #PAGES} pages from the one after the given page, each after the last member of the page before it.
+     */
+    private void tokens(int page, String[] tokens) {
+        for (int i = 0; i < PAGES; i++) {
+            List<Member> previous = repository.findAll(new PageRequest(page + i, PAGE_SIZE, BY_LAST_NAME), MemberFetchPlan.MEMBER_WITH_PERSON)
+                    .getContent();
+            tokens[i] = MemberKeyset.after(MemberKeyset.Order.LAST_NAME, previous.get(previous.size() - 1)).toToken();
+        }
+    }
+}
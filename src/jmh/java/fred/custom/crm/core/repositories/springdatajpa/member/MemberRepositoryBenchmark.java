@@ -0,0 +1,137 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.Person.Gender;
+import fred.custom.crm.core.repositories.MultiGetResult;
+
+/**
+ * Measures the {@link MemberRepository} operations against the in-memory H2 database of <code>crm-persistence.xml</code>, for the Spring Data
+ * JPA and the jOOQ implementations.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MemberRepositoryBenchmark {
+
+    private static final int MEMBERS = 10000;
+
+    private static final int BATCH_SIZE = 1000;
+
+    private static final Pageable FIRST_PAGE = new PageRequest(0, 100);
+
+    @Param({ "jpa", "jooq" })
+    public String implementation;
+
+    private GenericXmlApplicationContext context;
+
+    private MemberRepository repository;
+
+    private final Date now = new Date();
+
+    private long[] ids;
+
+    private int cursor;
+
+    private int sequence;
+
+    @Setup
+    public void startContext() {
+        context = new GenericXmlApplicationContext();
+        context.getEnvironment().setActiveProfiles("jooq".equals(implementation) ? new String[] { "default", "jooq" } : new String[] { "default" });
+        context.load("classpath:/META-INF/spring/crm-persistence.xml");
+        context.refresh();
+        repository = context.getBean(MemberRepository.class);
+
+        List<Member> members = newMembers(MEMBERS);
+        repository.saveInBatch(members);
+        ids = new long[MEMBERS];
+        for (int i = 0; i < MEMBERS; i++) {
+            ids[i] = members.get(i).getId().longValue();
+        }
+    }
+
+    @TearDown
+    public void closeContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public Member save() {
+        return repository.save(newMember());
+    }
+
+    @Benchmark
+    public Member findOne() {
+        return repository.findOne(Long.valueOf(ids[cursor++ % MEMBERS]));
+    }
+
+    @Benchmark
+    public Page<Member> findAll() {
+        return repository.findAll(FIRST_PAGE);
+    }
+
+    /**
+     * Scored per member, to compare with {@link #findOne()}
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public MultiGetResult<Member> multiGet() {
+        List<Long> batch = new ArrayList<Long>(BATCH_SIZE);
+        for (int i = 0; i < BATCH_SIZE; i++) {
+            batch.add(Long.valueOf(ids[cursor++ % MEMBERS]));
+        }
+        return repository.multiGet(batch);
+    }
+
+    /**
+     * Scored per member
+     */
+    @Benchmark
+    @OperationsPerInvocation(BATCH_SIZE)
+    public int saveInBatch() {
+        return repository.saveInBatch(newMembers(BATCH_SIZE));
+    }
+
+    private List<Member> newMembers(int count) {
+        List<Member> members = new ArrayList<Member>(count);
+        for (int i = 0; i < count; i++) {
+            members.add(newMember());
+        }
+        return members;
+    }
+
+    private Member newMember() {
+        int i = sequence++;
+        Person p = Person.Builder.getInstance().withGender(i % 2 == 0 ? Gender.MALE : Gender.FEMALE).withFirstName("First" + i)
+                .withLastName("Last" + i).build();
+        return Member.Builder.getInstance().withMemberNumber(String.format("B%09d", i)).withEmployeeNumber(String.format("C%09d", i)).withPerson(p)
+                .withCreationDate(now).withLastUpdateDate(now).withLastUpdateUser("benchmark").build();
+    }
+}
@@ -0,0 +1,141 @@
+package fred.custom.crm.core.repositories.unique;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.sql.DataSource;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.context.support.GenericXmlApplicationContext;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.Person.Gender;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Measures the check of a batch of new member numbers against a million members: through the {@link MemberUniquenessGuard}, and with a query on
+ * the unique index as a baseline. The setup prints the false positive rate measured on a million numbers never saved and the size of the
+ * filters, for a filter of exactly a million keys and for the guard.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = "-Xmx3g")
+public class MemberUniquenessBenchmark {
+
+    private static final int BATCH_SIZE = 50;
+
+    @Param({ "1000000" })
+    public int members;
+
+    private GenericXmlApplicationContext context;
+
+    private MemberUniquenessGuard guard;
+
+    private NamedParameterJdbcTemplate jdbcTemplate;
+
+    private final Random random = new Random(42L);
+
+    private final List<List<String>> batches = new ArrayList<List<String>>();
+
+    private int cursor;
+
+    @Setup
+    public void loadMembers() {
+        context = new GenericXmlApplicationContext();
+        context.getEnvironment().setActiveProfiles("default", "jooq", "uniqueness-guard");
+        context.load("classpath:/META-INF/spring/crm-persistence.xml");
+        context.refresh();
+        MemberRepository repository = context.getBean(MemberRepository.class);
+        guard = context.getBean(MemberUniquenessGuard.class);
+        jdbcTemplate = new NamedParameterJdbcTemplate(context.getBean("routingDataSource", DataSource.class));
+
+        Date now = new Date();
+        List<Member> chunk = new ArrayList<Member>(10000);
+        for (int i = 0; i < members; i++) {
+            Person person = Person.Builder.getInstance().withGender(Gender.MALE).withFirstName("John" + i).withLastName("Doe" + i).build();
+            chunk.add(Member.Builder.getInstance().withMemberNumber(String.format("S%09d", i)).withEmployeeNumber(String.format("T%09d", i))
+                    .withPerson(person).withCreationDate(now).withLastUpdateDate(now).withLastUpdateUser("benchmark").build());
+            if (chunk.size() == 10000) {
+                repository.saveInBatch(chunk);
+                chunk.clear();
+            }
+        }
+        repository.saveInBatch(chunk);
+        // The jOOQ writes are not followed by the guard
+        guard.rebuild();
+
+        for (int i = 0; i < 1024; i++) {
+            List<String> batch = new ArrayList<String>(BATCH_SIZE);
+            for (int j = 0; j < BATCH_SIZE; j++) {
+                batch.add(String.format("N%09d", random.nextInt(Integer.MAX_VALUE)));
+            }
+            batches.add(batch);
+        }
+
+        BloomFilter filter = new BloomFilter(1000000L, 0.01);
+        for (int i = 0; i < 1000000; i++) {
+            filter.put(String.format("S%09d", i));
+        }
+        int falsePositives = 0;
+        for (int i = 0; i < 1000000; i++) {
+            if (filter.mightContain(String.format("X%09d", i))) {
+                falsePositives++;
+            }
+        }
+        System.out.println(String.format("%nFilter of 1,000,000 keys: %.4f%% of false positives measured, %d KB, %d hashes", falsePositives / 10000.0,
+                filter.getMemoryBytes() / 1024L, filter.getHashCount()));
+
+        guard.resetStatistics();
+        List<String> absent = new ArrayList<String>(10000);
+        for (int i = 0; i < 1000000; i++) {
+            absent.add(String.format("X%09d", i));
+            if (absent.size() == 10000) {
+                guard.findTakenMemberNumbers(absent);
+                absent.clear();
+            }
+        }
+        System.out.println(String.format("%n%d members: %.4f%% of false positives measured, %.4f%% expected, %d KB of filters", members,
+                guard.getFalsePositiveRate() * 100.0, guard.getExpectedFalsePositiveRate() * 100.0, guard.getMemoryBytes() / 1024L));
+    }
+
+    @TearDown
+    public void closeContext() {
+        context.close();
+    }
+
+    @Benchmark
+    public Set<String> guardNewNumbers() {
+        return guard.findTakenMemberNumbers(batch());
+    }
+
+    @Benchmark
+    public List<String> databaseNewNumbers() {
+        return jdbcTemplate.queryForList("select member_number from members where member_number in (:keys)",
+                Collections.singletonMap("keys", batch()), String.class);
+    }
+
+    private List<String> batch() {
+        return batches.get(cursor++ & (batches.size() - 1));
+    }
+}
@@ -0,0 +1,38 @@
+package fred.custom.crm.core.bootstrap;
+
+import org.springframework.orm.jpa.persistenceunit.MutablePersistenceUnitInfo;
+import org.springframework.orm.jpa.persistenceunit.PersistenceUnitPostProcessor;
+import org.springframework.util.Assert;
+
+/**
+ * Lists the entities of the {@link PersistenceIndex} in the persistence unit, in place of <code>packagesToScan</code>. The unlisted classes are
+ * excluded, so that Hibernate does not scan for them either.
+ *
+ * @author Fred
+ */
+public class IndexedPersistenceUnitPostProcessor implements PersistenceUnitPostProcessor {
+
+    private final PersistenceIndex index;
+
+    /**
+     * @param index
+     *            The index written by the build
+     */
+    public IndexedPersistenceUnitPostProcessor(PersistenceIndex index) {
+        Assert.notNull(index, "index is required");
+        this.index = index;
+    }
+
+    /**
+     * @see org.springframework.orm.jpa.persistenceunit.PersistenceUnitPostProcessor#postProcessPersistenceUnitInfo(org.springframework.orm.jpa.persistenceunit.MutablePersistenceUnitInfo)
+     */
+    @Override
+    public void postProcessPersistenceUnitInfo(MutablePersistenceUnitInfo persistenceUnit) {
+        for (String className : index.getEntityClassNames()) {
+            if (!persistenceUnit.getManagedClassNames().contains(className)) {
+                persistenceUnit.addManagedClassName(className);
+            }
+        }
+        persistenceUnit.setExcludeUnlistedClasses(true);
+    }
+}
@@ -0,0 +1,119 @@
+package fred.custom.crm.core.bootstrap;
+
+import java.beans.Introspector;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.springframework.beans.factory.config.ConfigurableListableBeanFactory;
+import org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter;
+import org.springframework.beans.factory.support.AbstractBeanDefinition;
+import org.springframework.beans.factory.support.BeanDefinitionBuilder;
+import org.springframework.beans.factory.support.BeanDefinitionRegistry;
+import org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor;
+import org.springframework.data.jpa.repository.support.JpaRepositoryFactoryBean;
+import org.springframework.orm.jpa.SharedEntityManagerCreator;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Declares the Spring Data JPA repositories of the {@link PersistenceIndex}, in place of <code>jpa:repositories</code>.
+ * <p>
+ * Each repository interface gets a {@link JpaRepositoryFactoryBean} named after it (<code>memberRepository</code> for
+ * <code>MemberRepository</code>), with the bean named after it with an <code>Impl</code> suffix as its custom implementation when there is one.
+ * Unlike <code>jpa:repositories</code>, the custom implementations are not scanned for: declare them.
+ * </p>
+ *
+ * @author Fred
+ */
+public class IndexedRepositoryRegistrar implements BeanDefinitionRegistryPostProcessor {
+
+    private final PersistenceIndex index;
+
+    private String entityManagerFactoryName = "entityManagerFactory";
+
+    private String transactionManagerName = "transactionManager";
+
+    /**
+     * @param index
+     *            The index written by the build
+     */
+    public IndexedRepositoryRegistrar(PersistenceIndex index) {
+        Assert.notNull(index, "index is required");
+        this.index = index;
+    }
+
+    /**
+     * @see org.springframework.beans.factory.support.BeanDefinitionRegistryPostProcessor#postProcessBeanDefinitionRegistry(org.springframework.beans.factory.support.BeanDefinitionRegistry)
+     */
+    @Override
+    public void postProcessBeanDefinitionRegistry(BeanDefinitionRegistry registry) {
+        Map<String, String> interfaceNames = new HashMap<String, String>();
+        for (String interfaceName : index.getRepositoryInterfaceNames()) {
+            String beanName = Introspector.decapitalize(ClassUtils.getShortName(interfaceName));
+            Assert.state(!registry.containsBeanDefinition(beanName), "A bean named " + beanName + " is already declared");
+            AbstractBeanDefinition entityManager = BeanDefinitionBuilder
+                    .rootBeanDefinition(SharedEntityManagerCreator.class, "createSharedEntityManager")
+                    .addConstructorArgReference(entityManagerFactoryName).getBeanDefinition();
+            BeanDefinitionBuilder repository = BeanDefinitionBuilder.rootBeanDefinition(JpaRepositoryFactoryBean.class)
+                    .addPropertyValue("repositoryInterface", interfaceName).addPropertyValue("transactionManager", transactionManagerName)
+                    .addPropertyValue("entityManager", entityManager);
+            String implementationName = beanName + "Impl";
+            if (registry.containsBeanDefinition(implementationName)) {
+                repository.addPropertyReference("customImplementation", implementationName);
+            }
+            registry.registerBeanDefinition(beanName, repository.getBeanDefinition());
+            interfaceNames.put(beanName, interfaceName);
+        }
+        registry.registerBeanDefinition(RepositoryTypePredictor.class.getName(),
+                BeanDefinitionBuilder.rootBeanDefinition(RepositoryTypePredictor.class).addConstructorArgValue(interfaceNames).getBeanDefinition());
+    }
+
+    /**
+     * @see org.springframework.beans.factory.config.BeanFactoryPostProcessor#postProcessBeanFactory(org.springframework.beans.factory.config.ConfigurableListableBeanFactory)
+     */
+    @Override
+    public void postProcessBeanFactory(ConfigurableListableBeanFactory beanFactory) {
+        // Everything is declared by postProcessBeanDefinitionRegistry
+    }
+
+    /**
+     * @param entityManagerFactoryName
+     *            The name of the entity manager factory of the repositories, <code>entityManagerFactory</code> by default
+     */
+    public void setEntityManagerFactoryName(String entityManagerFactoryName) {
+        this.entityManagerFactoryName = entityManagerFactoryName;
+    }
+
+    /**
+     * @param transactionManagerName
+     *            The name of the transaction manager of the repositories, <code>transactionManager</code> by default
+     */
+    public void setTransactionManagerName(String transactionManagerName) {
+        this.transactionManagerName = transactionManagerName;
+    }
+
+    /**
+     * Gives the types of the repositories before their factory beans are created, for the injections by type, as <code>jpa:repositories</code>
+     * does.
+     */
+    static final class RepositoryTypePredictor extends InstantiationAwareBeanPostProcessorAdapter {
+
+        private final Map<String, String> interfaceNames;
+
+        RepositoryTypePredictor(Map<String, String> interfaceNames) {
+            this.interfaceNames = interfaceNames;
+        }
+
+        /**
+         * @see org.springframework.beans.factory.config.InstantiationAwareBeanPostProcessorAdapter#predictBeanType(java.lang.Class, java.lang.String)
+         */
+        @Override
+        public Class<?> predictBeanType(Class<?> beanClass, String beanName) {
+            String interfaceName = interfaceNames.get(beanName);
+            if (interfaceName == null || !JpaRepositoryFactoryBean.class.isAssignableFrom(beanClass)) {
+                return null;
+            }
+            return ClassUtils.resolveClassName(interfaceName, ClassUtils.getDefaultClassLoader());
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package fred.custom.crm.core.bootstrap;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+
+import javax.persistence.Converter;
+import javax.persistence.Embeddable;
+import javax.persistence.Entity;
+import javax.persistence.MappedSuperclass;
+
+import org.springframework.core.io.Resource;
+import org.springframework.core.io.support.PathMatchingResourcePatternResolver;
+import org.springframework.core.io.support.PropertiesLoaderUtils;
+import org.springframework.core.io.support.ResourcePatternResolver;
+import org.springframework.core.type.classreading.CachingMetadataReaderFactory;
+import org.springframework.core.type.classreading.MetadataReader;
+import org.springframework.core.type.classreading.MetadataReaderFactory;
+import org.springframework.core.type.filter.AnnotationTypeFilter;
+import org.springframework.core.type.filter.AssignableTypeFilter;
+import org.springframework.core.type.filter.TypeFilter;
+import org.springframework.data.repository.NoRepositoryBean;
+import org.springframework.data.repository.Repository;
+import org.springframework.data.repository.RepositoryDefinition;
+import org.springframework.util.Assert;
+import org.springframework.util.ClassUtils;
+import org.springframework.util.StringUtils;
+
+/**
+ * The JPA entities and the Spring Data repositories of the application, listed at build time so that the <code>fast-startup</code> profile does
+ * not scan the classpath for them.
+ * <p>
+ * The build writes it to {@link #LOCATION} with {@link #main(String[])}, by the same scanning the other profiles do at each startup
+ * (<code>packagesToScan</code> and <code>jpa:repositories</code>). It is a properties file holding the scanned packages and the names of the
+ * classes found in them, comma separated.
+ * </p>
+ *
+ * @author Fred
+ */
+public final class PersistenceIndex {
+
+    /** Where the build writes the index, in the classpath */
+    public static final String LOCATION = "META-INF/spring/crm-persistence.index";
+
+    private static final String ENTITY_PACKAGES = "entityPackages";
+
+    private static final String ENTITIES = "entities";
+
+    private static final String REPOSITORY_PACKAGES = "repositoryPackages";
+
+    private static final String REPOSITORIES = "repositories";
+
+    /** The filters of <code>packagesToScan</code>, see {@link org.springframework.orm.jpa.persistenceunit.DefaultPersistenceUnitManager} */
+    private static final TypeFilter[] ENTITY_FILTERS = { new AnnotationTypeFilter(Entity.class, false), new AnnotationTypeFilter(Embeddable.class, false),
+            new AnnotationTypeFilter(MappedSuperclass.class, false), new AnnotationTypeFilter(Converter.class, false) };
+
+    /** The filter of <code>jpa:repositories</code>, see {@link org.springframework.data.repository.config.RepositoryComponentProvider} */
+    private static final TypeFilter REPOSITORY_FILTER = (reader, readers) -> reader.getClassMetadata().isInterface()
+            && !reader.getAnnotationMetadata().hasAnnotation(NoRepositoryBean.class.getName())
+            && (new AssignableTypeFilter(Repository.class).match(reader, readers) || new AnnotationTypeFilter(RepositoryDefinition.class, true, true)
+                    .match(reader, readers));
+
+    private final List<String> entityPackages;
+
+    private final List<String> entityClassNames;
+
+    private final List<String> repositoryPackages;
+
+    private final List<String> repositoryInterfaceNames;
+
+    private PersistenceIndex(List<String> entityPackages, List<String> entityClassNames, List<String> repositoryPackages,
+            List<String> repositoryInterfaceNames) {
+        this.entityPackages = Collections.unmodifiableList(entityPackages);
+        this.entityClassNames = Collections.unmodifiableList(entityClassNames);
+        this.repositoryPackages = Collections.unmodifiableList(repositoryPackages);
+        this.repositoryInterfaceNames = Collections.unmodifiableList(repositoryInterfaceNames);
+    }
+
+    /**
+     * Scans the classpath, as the build does.
+     *
+     * @param entityPackages
+     *            The packages of the entities, and of their embeddables, mapped superclasses and converters
+     * @param repositoryPackages
+     *            The packages of the repository interfaces
+     * @return The index of the classes found
+     * @throws IOException
+     *             If the classpath cannot be read
+     */
+    public static PersistenceIndex scan(List<String> entityPackages, List<String> repositoryPackages) throws IOException {
+        ResourcePatternResolver resolver = new PathMatchingResourcePatternResolver(PersistenceIndex.class.getClassLoader());
+        MetadataReaderFactory readers = new CachingMetadataReaderFactory(resolver);
+        return new PersistenceIndex(new ArrayList<String>(entityPackages), scan(resolver, readers, entityPackages, ENTITY_FILTERS),
+                new ArrayList<String>(repositoryPackages), scan(resolver, readers, repositoryPackages, REPOSITORY_FILTER));
+    }
+
+    /**
+     * Loads the index written by the build.
+     *
+     * @param resource
+     *            The index, usually <code>classpath:</code>{@link #LOCATION}
+     * @return The index
+     * @throws IOException
+     *             If the index cannot be read
+     */
+    public static PersistenceIndex load(Resource resource) throws IOException {
+        if (!resource.exists()) {
+            throw new IllegalStateException(resource + " not found, it is written by the build: run gradle persistenceIndex");
+        }
+        Properties properties = PropertiesLoaderUtils.loadProperties(resource);
+        return new PersistenceIndex(list(properties, ENTITY_PACKAGES), list(properties, ENTITIES), list(properties, REPOSITORY_PACKAGES),
+                list(properties, REPOSITORIES));
+    }
+
+    /**
+     * Writes the index of the build.
+     *
+     * @param args
+     *            The index file, the entity packages and the repository packages, both comma separated
+     * @throws IOException
+     *             If the classpath cannot be read or the index cannot be written
+     */
+    public static void main(String[] args) throws IOException {
+        Assert.isTrue(args.length == 3, "Usage: PersistenceIndex <index file> <entity packages> <repository packages>");
+        PersistenceIndex index = scan(split(args[1]), split(args[2]));
+        index.store(new File(args[0]));
+        System.out.println("Indexed " + index.entityClassNames.size() + " entities and " + index.repositoryInterfaceNames.size()
+                + " repositories in " + args[0]);
+    }
+
+    /**
+     * @param file
+     *            Where to write the index, its directory is created as needed
+     * @throws IOException
+     *             If the index cannot be written
+     */
+    public void store(File file) throws IOException {
+        Properties properties = new Properties();
+        properties.setProperty(ENTITY_PACKAGES, StringUtils.collectionToCommaDelimitedString(entityPackages));
+        properties.setProperty(ENTITIES, StringUtils.collectionToCommaDelimitedString(entityClassNames));
+        properties.setProperty(REPOSITORY_PACKAGES, StringUtils.collectionToCommaDelimitedString(repositoryPackages));
+        properties.setProperty(REPOSITORIES, StringUtils.collectionToCommaDelimitedString(repositoryInterfaceNames));
+        File directory = file.getAbsoluteFile().getParentFile();
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            throw new IOException("Cannot create " + directory);
+        }
+        try (OutputStream out = new FileOutputStream(file)) {
+            properties.store(out, "JPA entities and Spring Data repositories, written by the build: do not edit");
+        }
+    }
+
+    public List<String> getEntityPackages() {
+        return entityPackages;
+    }
+
+    /**
+     * @return The entities, embeddables, mapped superclasses and converters, sorted by name
+     */
+    public List<String> getEntityClassNames() {
+        return entityClassNames;
+    }
+
+    public List<String> getRepositoryPackages() {
+        return repositoryPackages;
+    }
+
+    /**
+     * @return The repository interfaces, sorted by name
+     */
+    public List<String> getRepositoryInterfaceNames() {
+        return repositoryInterfaceNames;
+    }
+
+    private static List<String> scan(ResourcePatternResolver resolver, MetadataReaderFactory readers, List<String> packages, TypeFilter... filters)
+            throws IOException {
+        List<String> classNames = new ArrayList<String>();
+        for (String name : packages) {
+            String pattern = ResourcePatternResolver.CLASSPATH_ALL_URL_PREFIX + ClassUtils.convertClassNameToResourcePath(name) + "/**/*.class";
+            for (Resource resource : resolver.getResources(pattern)) {
+                MetadataReader reader = readers.getMetadataReader(resource);
+                for (TypeFilter filter : filters) {
+                    if (filter.match(reader, readers)) {
+                        classNames.add(reader.getClassMetadata().getClassName());
+                        break;
+                    }
+                }
+            }
+        }
+        Collections.sort(classNames);
+        return classNames;
+    }
+
+    private static List<String> list(Properties properties, String key) {
+        return split(properties.getProperty(key, ""));
+    }
+
+    private static List<String> split(String value) {
+        List<String> list = new ArrayList<String>();
+        for (String element : StringUtils.commaDelimitedListToStringArray(value)) {
+            if (!element.trim().isEmpty()) {
+                list.add(element.trim());
+            }
+        }
+        return list;
+    }
+}
@@ -0,0 +1,89 @@
+package fred.custom.crm.core.bootstrap;
+
+import java.sql.Timestamp;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.init.ResourceDatabasePopulator;
+import org.springframework.util.Assert;
+
+/**
+ * Brings the schema up to date from versioned SQL scripts, in place of <code>hibernate.hbm2ddl.auto</code>.
+ * <p>
+ * The scripts are named <code>V&lt;version&gt;__&lt;description&gt;.sql</code>. They run in the order of their versions, each one once: the
+ * versions applied are recorded in the <code>schema_version</code> table. A script is never edited once released, the next change of the
+ * schema goes to a new version.
+ * </p>
+ *
+ * @author Fred
+ */
+public class SchemaMigrator implements InitializingBean {
+
+    private static final Log LOG = LogFactory.getLog(SchemaMigrator.class);
+
+    private static final Pattern SCRIPT_NAME = Pattern.compile("V(\\d+)__\\w+\\.sql");
+
+    private DataSource dataSource;
+
+    private Resource[] scripts;
+
+    /**
+     * Applies the scripts not applied yet.
+     *
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(dataSource, "dataSource is required");
+        Assert.notNull(scripts, "scripts is required");
+        JdbcTemplate jdbcTemplate = new JdbcTemplate(dataSource);
+        jdbcTemplate.execute("create table if not exists schema_version (version integer not null primary key, script varchar(255) not null, "
+                + "installed_on timestamp not null)");
+        Set<Integer> applied = new HashSet<Integer>(jdbcTemplate.queryForList("select version from schema_version", Integer.class));
+
+        Resource[] sorted = scripts.clone();
+        Arrays.sort(sorted, Comparator.comparingInt(SchemaMigrator::version));
+        for (int i = 1; i < sorted.length; i++) {
+            Assert.isTrue(version(sorted[i - 1]) != version(sorted[i]), sorted[i - 1] + " and " + sorted[i] + " have the same version");
+        }
+        for (Resource script : sorted) {
+            int version = version(script);
+            if (applied.add(Integer.valueOf(version))) {
+                long start = System.nanoTime();
+                new ResourceDatabasePopulator(script).execute(dataSource);
+                jdbcTemplate.update("insert into schema_version (version, script, installed_on) values (?, ?, ?)", Integer.valueOf(version),
+                        script.getFilename(), new Timestamp(System.currentTimeMillis()));
+                LOG.info("Applied " + script.getFilename() + " in " + (System.nanoTime() - start) / 1000000L + " ms");
+            }
+        }
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param scripts
+     *            The versioned scripts, typically a pattern such as <code>classpath:db/migration/V*.sql</code>
+     */
+    public void setScripts(Resource[] scripts) {
+        this.scripts = scripts;
+    }
+
+    private static int version(Resource script) {
+        Matcher matcher = SCRIPT_NAME.matcher(String.valueOf(script.getFilename()));
+        Assert.isTrue(matcher.matches(), script + " is not named V<version>__<description>.sql");
+        return Integer.parseInt(matcher.group(1));
+    }
+}
@@ -0,0 +1,155 @@
+package fred.custom.crm.core.imports;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A streaming reader of comma separated values (RFC 4180).
+ * <p>
+ * Fields may be quoted with double quotes, a quoted field may contain commas, line breaks and doubled quotes. Lines end with LF or CRLF. Only
+ * the current record is held in memory. The reader is not thread safe.
+ * </p>
+ *
+ * @author Fred
+ */
+public class CsvReader {
+
+    private final Reader in;
+
+    private final char[] buffer = new char[8192];
+
+    private int position;
+
+    private int limit;
+
+    private int line = 1;
+
+    private int recordLine;
+
+    private final StringBuilder field = new StringBuilder(64);
+
+    /**
+     * @param in
+     *            The CSV text, buffered by this reader
+     */
+    public CsvReader(Reader in) {
+        this.in = in;
+    }
+
+    /**
+     * @return The fields of the next record, or <code>null</code> at the end of the input. Empty lines are skipped.
+     * @throws IOException
+     *             If the input cannot be read
+     * @throws IllegalArgumentException
+     *             If a quoted field is not closed
+     */
+    public String[] readRecord() throws IOException {
+        List<String> fields = new ArrayList<String>();
+        field.setLength(0);
+        recordLine = line;
+        boolean quoted = false;
+        boolean empty = true;
+        int c;
+        while ((c = read()) != -1) {
+            if (quoted) {
+                if (c == '"') {
+                    if (peek() == '"') {
+                        read();
+                        field.append('"');
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    if (c == '\n') {
+                        line++;
+                    }
+                    field.append((char) c);
+                }
+            } else if (c == '"' && field.length() == 0) {
+                quoted = true;
+                empty = false;
+            } else if (c == ',') {
+                fields.add(field.toString());
+                field.setLength(0);
+                empty = false;
+            } else if (c == '\n' || c == '\r') {
+                if (c == '\r' && peek() == '\n') {
+                    read();
+                }
+                line++;
+                if (empty && field.length() == 0) {
+                    // Empty line
+                    recordLine = line;
+                    continue;
+                }
+                fields.add(field.toString());
+                return fields.toArray(new String[fields.size()]);
+            } else {
+                field.append((char) c);
+                empty = false;
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("Unterminated quoted field at line " + recordLine);
+        }
+        if (empty && field.length() == 0) {
+            return null;
+        }
+        fields.add(field.toString());
+        return fields.toArray(new String[fields.size()]);
+    }
+
+    /**
+     * @return The line where the last record read starts, from 1
+     */
+    public int getRecordLine() {
+        return recordLine;
+    }
+
+    /**
+     * @param fields
+     *            The fields of a record
+     * @return The record as a CSV line, without line break, the fields quoted when needed
+     */
+    public static String format(String... fields) {
+        StringBuilder builder = new StringBuilder();
+        for (int i = 0; i < fields.length; i++) {
+            if (i > 0) {
+                builder.append(',');
+            }
+            String value = fields[i] == null ? "" : fields[i];
+            if (value.indexOf(',') >= 0 || value.indexOf('"') >= 0 || value.indexOf('\n') >= 0 || value.indexOf('\r') >= 0) {
+                builder.append('"').append(value.replace("\"", "\"\"")).append('"');
+            } else {
+                builder.append(value);
+            }
+        }
+        return builder.toString();
+    }
+
+    private int read() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position++];
+    }
+
+    private int peek() throws IOException {
+        if (position == limit && !fill()) {
+            return -1;
+        }
+        return buffer[position];
+    }
+
+    private boolean fill() throws IOException {
+        int n = in.read(buffer, 0, buffer.length);
+        if (n <= 0) {
+            return false;
+        }
+        position = 0;
+        limit = n;
+        return true;
+    }
+}
@@ -0,0 +1,58 @@
+package fred.custom.crm.core.imports;
+
+/**
+ * The outcome of an import: how many records were read, saved and rejected.
+ *
+ * @author Fred
+ */
+public final class ImportResult {
+
+    private final long read;
+
+    private final long imported;
+
+    private final long rejected;
+
+    private final long duplicates;
+
+    /**
+     * @param read
+     *            The number of records read, header excluded
+     * @param imported
+     *            The number of records saved
+     * @param rejected
+     *            The number of records written to the rejects, duplicates included
+     * @param duplicates
+     *            The number of records rejected as duplicates, of a record of the file or of an existing member
+     */
+    public ImportResult(long read, long imported, long rejected, long duplicates) {
+        this.read = read;
+        this.imported = imported;
+        this.rejected = rejected;
+        this.duplicates = duplicates;
+    }
+
+    public long getRead() {
+        return read;
+    }
+
+    public long getImported() {
+        return imported;
+    }
+
+    public long getRejected() {
+        return rejected;
+    }
+
+    public long getDuplicates() {
+        return duplicates;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "ImportResult[read=" + read + ",imported=" + imported + ",rejected=" + rejected + ",duplicates=" + duplicates + "]";
+    }
+}
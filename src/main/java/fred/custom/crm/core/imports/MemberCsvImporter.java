@@ -0,0 +1,617 @@
+package fred.custom.crm.core.imports;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Reader;
+import java.io.Writer;
+import java.nio.charset.Charset;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.core.NestedRuntimeException;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.Person.Gender;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.unique.MemberUniquenessGuard;
+
+/**
+ * Imports the members of an employer roster, a CSV file with a header line naming its columns (see {@link #COLUMNS}, in any order).
+ * <p>
+ * The import is a pipeline of three stages connected by bounded queues:
+ * <ol>
+ * <li>the calling thread parses the file, one record at a time;</li>
+ * <li>{@link #setValidationThreads(int) several threads} validate the records and map them to members;</li>
+ * <li>one thread drops the duplicates of the member and employee numbers already seen in the file, then saves the members in batches of
+ * {@link #setBatchSize(int) batch size} with {@link MemberRepository#saveInBatch(Iterable)}.</li>
+ * </ol>
+ * When the database is slower than the parsing, the queues fill up and the parsing waits: at most a few {@link #setQueueCapacity(int) queue
+ * capacities} of records are in memory, whatever the size of the file. The member and employee numbers of the file are kept until the end of the
+ * import to detect the duplicates.
+ * </p>
+ * <p>
+ * A record which cannot be imported is written to the rejects with its line number and the reason, and the import goes on. The records are
+ * validated in parallel, so when a number appears twice the record kept is the first one to reach the deduplication, usually the first in the
+ * file. A batch rejected by the database (e.g. a member number which already exists) is saved again member by member, to reject only the faulty
+ * ones, those which violate a constraint. The import itself fails if the files cannot be read or written, or if the database fails otherwise.
+ * </p>
+ * <p>
+ * Given a {@link MemberUniquenessGuard}, the numbers which already belong to a member are rejected as duplicates before each batch is saved:
+ * the batches of a roster loaded twice no longer fail and get saved again one by one. The guard only queries the database for the few numbers
+ * its filters may have seen, and learns the numbers of the imported members.
+ * </p>
+ *
+ * @author Fred
+ */
+public class MemberCsvImporter {
+
+    /** The columns of a roster, the first five are mandatory. A <code>birth_date</code> is written <code>yyyy-MM-dd</code>. */
+    public static final String[] COLUMNS = { "member_number", "employee_number", "first_name", "last_name", "gender", "cell_phone_number", "email",
+            "birth_date", "social_insurance_number" };
+
+    private static final int MEMBER_NUMBER = 0;
+    private static final int EMPLOYEE_NUMBER = 1;
+    private static final int FIRST_NAME = 2;
+    private static final int LAST_NAME = 3;
+    private static final int GENDER = 4;
+    private static final int CELL_PHONE_NUMBER = 5;
+    private static final int EMAIL = 6;
+    private static final int BIRTH_DATE = 7;
+    private static final int SOCIAL_INSURANCE_NUMBER = 8;
+
+    private static final int REQUIRED_COLUMNS = 5;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final Log LOG = LogFactory.getLog(MemberCsvImporter.class);
+
+    /** Marks the end of the records in a queue */
+    private static final Row END = new Row(0, new String[0]);
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final MemberRepository memberRepository;
+
+    private final MemberUniquenessGuard uniquenessGuard;
+
+    private int batchSize = 50;
+
+    private int validationThreads = Runtime.getRuntime().availableProcessors();
+
+    private int queueCapacity = 1000;
+
+    private String lastUpdateUser = "import";
+
+    /**
+     * @param memberRepository
+     *            Where the members are saved
+     */
+    public MemberCsvImporter(MemberRepository memberRepository) {
+        this(memberRepository, null);
+    }
+
+    /**
+     * @param memberRepository
+     *            Where the members are saved
+     * @param uniquenessGuard
+     *            Finds the numbers already taken before the members are saved, <code>null</code> to leave it to the unique constraints
+     */
+    public MemberCsvImporter(MemberRepository memberRepository, MemberUniquenessGuard uniquenessGuard) {
+        this.memberRepository = memberRepository;
+        this.uniquenessGuard = uniquenessGuard;
+    }
+
+    /**
+     * @param csv
+     *            The roster, in UTF-8
+     * @param rejects
+     *            Where to write the rejected records, in UTF-8, replaced if it exists
+     * @return The counts of the import
+     * @throws IOException
+     *             If a file cannot be read or written
+     * @see #importMembers(Reader, Writer)
+     */
+    public ImportResult importMembers(File csv, File rejects) throws IOException {
+        Reader in = new InputStreamReader(new FileInputStream(csv), UTF_8);
+        try {
+            Writer out = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(rejects), UTF_8));
+            try {
+                return importMembers(in, out);
+            } finally {
+                out.close();
+            }
+        } finally {
+            in.close();
+        }
+    }
+
+    /**
+     * @param csv
+     *            The roster
+     * @param rejects
+     *            Where to write the rejected records: a CSV header, then for each record its line number, the reason and its fields. Flushed, not
+     *            closed.
+     * @return The counts of the import
+     * @throws IOException
+     *             If the roster cannot be read or the rejects written
+     * @throws IllegalArgumentException
+     *             If a mandatory column is missing from the header
+     */
+    public ImportResult importMembers(Reader csv, Writer rejects) throws IOException {
+        CsvReader reader = new CsvReader(csv);
+        String[] header = reader.readRecord();
+        if (header == null) {
+            return new ImportResult(0L, 0L, 0L, 0L);
+        }
+        Job job = new Job(columnsOf(header), new Rejects(rejects, header));
+
+        ExecutorService executor = Executors.newFixedThreadPool(validationThreads + 1, new ThreadFactory() {
+            @Override
+            public Thread newThread(Runnable runnable) {
+                Thread thread = new Thread(runnable, "member-import-" + THREADS.incrementAndGet());
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        List<Future<?>> stages = new ArrayList<Future<?>>();
+        long read = 0L;
+        try {
+            for (int i = 0; i < validationThreads; i++) {
+                stages.add(executor.submit(new Validator(job)));
+            }
+            stages.add(executor.submit(new Persister(job)));
+
+            String[] fields;
+            while ((fields = readRecord(reader, job)) != null) {
+                read++;
+                job.put(job.parsed, new Row(reader.getRecordLine(), fields));
+            }
+            for (int i = 0; i < validationThreads; i++) {
+                job.put(job.parsed, END);
+            }
+            for (Future<?> stage : stages) {
+                stage.get();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            job.fail(e);
+        } catch (ExecutionException e) {
+            job.fail(e.getCause());
+        } catch (Aborted e) {
+            // A stage failed, see job.failure
+        } finally {
+            executor.shutdownNow();
+            job.rejects.flush();
+        }
+        Throwable failure = job.failure;
+        if (failure instanceof IOException) {
+            throw (IOException) failure;
+        } else if (failure instanceof RuntimeException) {
+            throw (RuntimeException) failure;
+        } else if (failure instanceof Error) {
+            throw (Error) failure;
+        } else if (failure != null) {
+            throw new IllegalStateException("Member import failed", failure);
+        }
+        ImportResult result = new ImportResult(read, job.imported.get(), job.rejected.get(), job.duplicates.get());
+        LOG.info("Members imported: " + result);
+        return result;
+    }
+
+    /**
+     * @param batchSize
+     *            The number of members saved together, 50 by default. It should match the JDBC batch size of the repository.
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param validationThreads
+     *            The number of threads validating and mapping the records, the number of processors by default
+     */
+    public void setValidationThreads(int validationThreads) {
+        Assert.isTrue(validationThreads > 0, "validationThreads must be positive");
+        this.validationThreads = validationThreads;
+    }
+
+    /**
+     * @param queueCapacity
+     *            The number of records each queue between two stages holds before the upstream stage waits, 1000 by default
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        Assert.isTrue(queueCapacity > 0, "queueCapacity must be positive");
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param lastUpdateUser
+     *            The user recorded as the last updater of the imported members, "import" by default
+     */
+    public void setLastUpdateUser(String lastUpdateUser) {
+        this.lastUpdateUser = lastUpdateUser;
+    }
+
+    private static String[] readRecord(CsvReader reader, Job job) throws IOException {
+        try {
+            return reader.readRecord();
+        } catch (IllegalArgumentException e) {
+            // An unterminated quote swallows the rest of the file
+            job.rejects.write(reader.getRecordLine(), e.getMessage(), new String[0]);
+            job.rejected.incrementAndGet();
+            return null;
+        }
+    }
+
+    /**
+     * @return The position of each of {@link #COLUMNS} in the header, -1 for the optional columns which are missing
+     */
+    private static int[] columnsOf(String[] header) {
+        List<String> names = new ArrayList<String>(header.length);
+        for (String name : header) {
+            names.add(name.trim().toLowerCase());
+        }
+        int[] columns = new int[COLUMNS.length];
+        for (int i = 0; i < COLUMNS.length; i++) {
+            columns[i] = names.indexOf(COLUMNS[i]);
+            if (columns[i] < 0 && i < REQUIRED_COLUMNS) {
+                throw new IllegalArgumentException("Missing column " + COLUMNS[i] + " in header " + Arrays.toString(header));
+            }
+        }
+        return columns;
+    }
+
+    private static String reasonOf(RuntimeException e) {
+        Throwable cause = e instanceof NestedRuntimeException ? ((NestedRuntimeException) e).getMostSpecificCause() : e;
+        return cause.getMessage() == null ? cause.getClass().getName() : cause.getMessage();
+    }
+
+    /**
+     * A record on its way through the pipeline.
+     */
+    private static final class Row {
+        final int line;
+        final String[] fields;
+        Member member;
+
+        Row(int line, String[] fields) {
+            this.line = line;
+            this.fields = fields;
+        }
+    }
+
+    /**
+     * Thrown in a stage which gives up because another one failed.
+     */
+    private static final class Aborted extends RuntimeException {
+        private static final long serialVersionUID = 1L;
+    }
+
+    /**
+     * The state shared by the stages of an import.
+     */
+    private final class Job {
+        final int[] columns;
+        final Rejects rejects;
+        final BlockingQueue<Row> parsed = new ArrayBlockingQueue<Row>(queueCapacity);
+        final BlockingQueue<Row> mapped = new ArrayBlockingQueue<Row>(queueCapacity);
+        final AtomicLong imported = new AtomicLong();
+        final AtomicLong rejected = new AtomicLong();
+        final AtomicLong duplicates = new AtomicLong();
+        volatile Throwable failure;
+
+        Job(int[] columns, Rejects rejects) {
+            this.columns = columns;
+            this.rejects = rejects;
+        }
+
+        synchronized void fail(Throwable e) {
+            if (failure == null && !(e instanceof Aborted)) {
+                failure = e;
+            }
+        }
+
+        /**
+         * Waits for room in the queue, unless another stage failed.
+         */
+        void put(BlockingQueue<Row> queue, Row row) throws InterruptedException {
+            while (!queue.offer(row, 100, TimeUnit.MILLISECONDS)) {
+                checkFailure();
+            }
+        }
+
+        /**
+         * Waits for a row, unless another stage failed.
+         */
+        Row take(BlockingQueue<Row> queue) throws InterruptedException {
+            Row row;
+            while ((row = queue.poll(100, TimeUnit.MILLISECONDS)) == null) {
+                checkFailure();
+            }
+            return row;
+        }
+
+        void reject(Row row, String reason) throws IOException {
+            rejects.write(row.line, reason, row.fields);
+            rejected.incrementAndGet();
+        }
+
+        private void checkFailure() {
+            if (failure != null) {
+                throw new Aborted();
+            }
+        }
+    }
+
+    /**
+     * A stage which records its failure so that the others stop.
+     */
+    private abstract static class Stage implements Callable<Void> {
+        protected final Job job;
+
+        Stage(Job job) {
+            this.job = job;
+        }
+
+        @Override
+        public Void call() throws Exception {
+            try {
+                run();
+                return null;
+            } catch (Exception e) {
+                job.fail(e);
+                throw e;
+            } catch (Error e) {
+                job.fail(e);
+                throw e;
+            }
+        }
+
+        abstract void run() throws Exception;
+    }
+
+    /**
+     * Validates the records and maps them to members.
+     */
+    private final class Validator extends Stage {
+        private final SimpleDateFormat dateFormat = new SimpleDateFormat("yyyy-MM-dd");
+
+        Validator(Job job) {
+            super(job);
+            dateFormat.setLenient(false);
+        }
+
+        @Override
+        void run() throws Exception {
+            Row row;
+            while ((row = job.take(job.parsed)) != END) {
+                try {
+                    row.member = map(row.fields);
+                    job.put(job.mapped, row);
+                } catch (IllegalArgumentException e) {
+                    job.reject(row, e.getMessage());
+                }
+            }
+            job.put(job.mapped, END);
+        }
+
+        private Member map(String[] fields) {
+            Date birthDate = null;
+            String birthDateText = value(fields, BIRTH_DATE, 10, false);
+            if (birthDateText != null) {
+                try {
+                    birthDate = dateFormat.parse(birthDateText);
+                } catch (ParseException e) {
+                    throw new IllegalArgumentException("birth_date is not a yyyy-MM-dd date: " + birthDateText);
+                }
+            }
+            String email = value(fields, EMAIL, 320, false);
+            if (email != null && email.indexOf('@') <= 0) {
+                throw new IllegalArgumentException("email is not an email address: " + email);
+            }
+            Person person = Person.Builder.getInstance().withFirstName(value(fields, FIRST_NAME, 80, true))
+                    .withLastName(value(fields, LAST_NAME, 80, true)).withGender(Gender.fromCode(value(fields, GENDER, 1, true).toUpperCase()))
+                    .withCellPhoneNumber(value(fields, CELL_PHONE_NUMBER, 10, false)).withEmail(email).withBirthDate(birthDate)
+                    .withSocialInsuranceNumber(value(fields, SOCIAL_INSURANCE_NUMBER, 9, false)).build();
+            Date now = new Date();
+            return Member.Builder.getInstance().withMemberNumber(value(fields, MEMBER_NUMBER, 255, true))
+                    .withEmployeeNumber(value(fields, EMPLOYEE_NUMBER, 255, true)).withPerson(person).withCreationDate(now).withLastUpdateDate(now)
+                    .withLastUpdateUser(lastUpdateUser).build();
+        }
+
+        /**
+         * @return The trimmed value of a column, <code>null</code> if it is empty
+         */
+        private String value(String[] fields, int column, int maxLength, boolean required) {
+            int index = job.columns[column];
+            String value = index < 0 || index >= fields.length ? null : fields[index].trim();
+            if (value == null || value.length() == 0) {
+                if (required) {
+                    throw new IllegalArgumentException(COLUMNS[column] + " is missing");
+                }
+                return null;
+            }
+            if (value.length() > maxLength) {
+                throw new IllegalArgumentException(COLUMNS[column] + " is longer than " + maxLength + " characters");
+            }
+            return value;
+        }
+    }
+
+    /**
+     * Drops the duplicates and saves the members in batches.
+     */
+    private final class Persister extends Stage {
+        private final Set<String> memberNumbers = new HashSet<String>();
+        private final Set<String> employeeNumbers = new HashSet<String>();
+        private final List<Row> batch = new ArrayList<Row>(batchSize);
+
+        Persister(Job job) {
+            super(job);
+        }
+
+        @Override
+        void run() throws Exception {
+            int ended = 0;
+            while (ended < validationThreads) {
+                Row row = job.take(job.mapped);
+                if (row == END) {
+                    ended++;
+                    continue;
+                }
+                Member member = row.member;
+                if (memberNumbers.contains(member.getMemberNumber())) {
+                    job.duplicates.incrementAndGet();
+                    job.reject(row, "Duplicate member_number " + member.getMemberNumber());
+                } else if (employeeNumbers.contains(member.getEmployeeNumber())) {
+                    job.duplicates.incrementAndGet();
+                    job.reject(row, "Duplicate employee_number " + member.getEmployeeNumber());
+                } else {
+                    memberNumbers.add(member.getMemberNumber());
+                    employeeNumbers.add(member.getEmployeeNumber());
+                    batch.add(row);
+                    if (batch.size() == batchSize) {
+                        save();
+                    }
+                }
+            }
+            save();
+        }
+
+        private void save() throws IOException {
+            if (uniquenessGuard != null) {
+                rejectTaken();
+            }
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<Member> members = new ArrayList<Member>(batch.size());
+            for (Row row : batch) {
+                members.add(row.member);
+            }
+            try {
+                memberRepository.saveInBatch(members);
+                job.imported.addAndGet(members.size());
+                if (uniquenessGuard != null) {
+                    for (Member member : members) {
+                        uniquenessGuard.add(member);
+                    }
+                }
+            } catch (RuntimeException e) {
+                LOG.warn("Batch of " + batch.size() + " members rejected (" + reasonOf(e) + "), saving them one by one");
+                for (Row row : batch) {
+                    saveAlone(row);
+                }
+            }
+            batch.clear();
+        }
+
+        /**
+         * Rejects the members of the batch whose numbers already belong to a member.
+         */
+        private void rejectTaken() throws IOException {
+            if (batch.isEmpty()) {
+                return;
+            }
+            List<String> memberNumbers = new ArrayList<String>(batch.size());
+            List<String> employeeNumbers = new ArrayList<String>(batch.size());
+            for (Row row : batch) {
+                memberNumbers.add(row.member.getMemberNumber());
+                employeeNumbers.add(row.member.getEmployeeNumber());
+            }
+            Set<String> takenMemberNumbers = uniquenessGuard.findTakenMemberNumbers(memberNumbers);
+            Set<String> takenEmployeeNumbers = uniquenessGuard.findTakenEmployeeNumbers(employeeNumbers);
+            if (takenMemberNumbers.isEmpty() && takenEmployeeNumbers.isEmpty()) {
+                return;
+            }
+            for (Iterator<Row> rows = batch.iterator(); rows.hasNext();) {
+                Row row = rows.next();
+                Member member = row.member;
+                if (takenMemberNumbers.contains(member.getMemberNumber())) {
+                    job.duplicates.incrementAndGet();
+                    job.reject(row, "Existing member_number " + member.getMemberNumber());
+                    rows.remove();
+                } else if (takenEmployeeNumbers.contains(member.getEmployeeNumber())) {
+                    job.duplicates.incrementAndGet();
+                    job.reject(row, "Existing employee_number " + member.getEmployeeNumber());
+                    rows.remove();
+                }
+            }
+        }
+
+        private void saveAlone(Row row) throws IOException {
+            // The failed batch may have set ids on the instances
+            Member member = Member.Builder.from(row.member).withId(null).withVersion(0)
+                    .withPerson(Person.Builder.from(row.member.getPerson()).withId(null).withVersion(0).build()).build();
+            try {
+                memberRepository.save(member);
+                job.imported.incrementAndGet();
+                if (uniquenessGuard != null) {
+                    uniquenessGuard.add(member);
+                }
+            } catch (DataIntegrityViolationException e) {
+                // Anything else, such as the database being down, fails the import
+                job.reject(row, reasonOf(e));
+            }
+        }
+    }
+
+    /**
+     * The rejects, written by all the stages.
+     */
+    private static final class Rejects {
+        private final Writer out;
+
+        Rejects(Writer out, String[] header) throws IOException {
+            this.out = out;
+            String[] columns = new String[header.length + 2];
+            columns[0] = "line";
+            columns[1] = "reason";
+            System.arraycopy(header, 0, columns, 2, header.length);
+            out.write(CsvReader.format(columns));
+            out.write('\n');
+        }
+
+        synchronized void write(int line, String reason, String[] fields) throws IOException {
+            String[] columns = new String[fields.length + 2];
+            columns[0] = String.valueOf(line);
+            columns[1] = reason;
+            System.arraycopy(fields, 0, columns, 2, fields.length);
+            out.write(CsvReader.format(columns));
+            out.write('\n');
+        }
+
+        synchronized void flush() throws IOException {
+            out.flush();
+        }
+    }
+}
@@ -0,0 +1,229 @@
+package fred.custom.crm.core.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+
+import fred.custom.crm.core.metrics.MetricsRegistry;
+
+/**
+ * The proxies {@link InstrumentedDataSource} hands out, over a connection and the statements and result sets it creates.
+ * <p>
+ * A unit of work spans the statements executed between two commits or rollbacks, or until the connection goes back to the pool. The same query
+ * executed {@link InstrumentedDataSource#setNPlusOneThreshold(int)} times in a unit of work is reported as an N+1 pattern, typically a lazy
+ * association loaded one row at a time. The proxies are used by one thread at a time, like the connection, so they are not synchronized.
+ * </p>
+ *
+ * @author Fred
+ */
+final class InstrumentedConnection implements InvocationHandler {
+
+    private static final Log LOG = LogFactory.getLog(InstrumentedDataSource.class);
+
+    private final Connection target;
+
+    private final MetricsRegistry registry;
+
+    private final int nPlusOneThreshold;
+
+    private Connection proxy;
+
+    /** Statements executed in the current unit of work */
+    private int statements;
+
+    /** Executions of each query in the current unit of work, created on the first query */
+    private Map<String, Integer> queries;
+
+    private InstrumentedConnection(Connection target, MetricsRegistry registry, int nPlusOneThreshold) {
+        this.target = target;
+        this.registry = registry;
+        this.nPlusOneThreshold = nPlusOneThreshold;
+    }
+
+    /**
+     * @param target
+     *            A connection borrowed from the pool
+     * @param registry
+     *            Where the metrics go
+     * @param nPlusOneThreshold
+     *            The number of executions of the same query in a unit of work reported as an N+1 pattern, 0 not to detect them
+     * @return The instrumented connection
+     */
+    static Connection wrap(Connection target, MetricsRegistry registry, int nPlusOneThreshold) {
+        InstrumentedConnection handler = new InstrumentedConnection(target, registry, nPlusOneThreshold);
+        handler.proxy = (Connection) Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[] { Connection.class },
+                handler);
+        return handler.proxy;
+    }
+
+    /**
+     * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+     */
+    @Override
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        String name = method.getName();
+        if ("equals".equals(name)) {
+            return Boolean.valueOf(proxy == args[0]);
+        } else if ("hashCode".equals(name)) {
+            return Integer.valueOf(System.identityHashCode(proxy));
+        }
+        Object result = invokeTarget(target, method, args);
+        if (result instanceof Statement) {
+            String sql = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : null;
+            result = new InstrumentedStatement((Statement) result, sql).proxy(method.getReturnType());
+        } else if (("commit".equals(name) || "rollback".equals(name)) && args == null) {
+            if (statements > 0) {
+                registry.recordValue("jdbc.statementsPerTransaction", statements);
+            }
+            endUnitOfWork();
+        } else if ("close".equals(name)) {
+            endUnitOfWork();
+        }
+        return result;
+    }
+
+    private void executed(String sql, boolean query) {
+        statements++;
+        if (!query || nPlusOneThreshold <= 0) {
+            return;
+        }
+        if (queries == null) {
+            queries = new HashMap<String, Integer>();
+        }
+        Integer previous = queries.get(sql);
+        int executions = previous == null ? 1 : previous.intValue() + 1;
+        queries.put(sql, Integer.valueOf(executions));
+        if (executions == nPlusOneThreshold) {
+            registry.increment("jdbc.nPlusOne");
+            registry.increment("jdbc.nPlusOne[" + sql + "]");
+            LOG.warn("N+1 pattern: executed " + executions + " times in the same unit of work: " + sql);
+        }
+    }
+
+    private void endUnitOfWork() {
+        statements = 0;
+        queries = null;
+    }
+
+    private static Object invokeTarget(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getTargetException();
+        }
+    }
+
+    /**
+     * Times the executions of a statement; the time of a query is the time to its first results.
+     */
+    private final class InstrumentedStatement implements InvocationHandler {
+
+        private final Statement target;
+
+        /** The SQL of a prepared statement, <code>null</code> for a plain statement */
+        private final String sql;
+
+        /** The SQL last executed */
+        private String executed;
+
+        private Object proxy;
+
+        InstrumentedStatement(Statement target, String sql) {
+            this.target = target;
+            this.sql = sql;
+            this.executed = sql;
+        }
+
+        Object proxy(Class<?> type) {
+            proxy = Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[] { type }, this);
+            return proxy;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("equals".equals(name)) {
+                return Boolean.valueOf(proxy == args[0]);
+            } else if ("hashCode".equals(name)) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            } else if ("getConnection".equals(name)) {
+                return InstrumentedConnection.this.proxy;
+            } else if (!name.startsWith("execute")) {
+                Object result = invokeTarget(target, method, args);
+                return "getResultSet".equals(name) && result != null ? new InstrumentedResultSet((ResultSet) result, executed).proxy() : result;
+            }
+            executed = args != null && args.length > 0 && args[0] instanceof String ? (String) args[0] : sql;
+            if (executed == null) {
+                executed = "batch";
+            }
+            long start = System.nanoTime();
+            Object result = invokeTarget(target, method, args);
+            registry.recordTime("jdbc.statement[" + executed + "]", System.nanoTime() - start);
+            boolean query = "executeQuery".equals(name) || ("execute".equals(name) && Boolean.TRUE.equals(result));
+            executed(executed, query);
+            return "executeQuery".equals(name) ? new InstrumentedResultSet((ResultSet) result, executed).proxy() : result;
+        }
+
+        /**
+         * Counts the rows read from a result set; they are recorded once it is exhausted or closed.
+         */
+        private final class InstrumentedResultSet implements InvocationHandler {
+
+            private final ResultSet target;
+
+            private final String sql;
+
+            private int rows;
+
+            private boolean recorded;
+
+            InstrumentedResultSet(ResultSet target, String sql) {
+                this.target = target;
+                this.sql = sql;
+            }
+
+            ResultSet proxy() {
+                return (ResultSet) Proxy.newProxyInstance(InstrumentedConnection.class.getClassLoader(), new Class<?>[] { ResultSet.class }, this);
+            }
+
+            @Override
+            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                String name = method.getName();
+                if ("next".equals(name)) {
+                    Object result = invokeTarget(target, method, args);
+                    if (Boolean.TRUE.equals(result)) {
+                        rows++;
+                    } else {
+                        record();
+                    }
+                    return result;
+                } else if ("close".equals(name)) {
+                    record();
+                } else if ("getStatement".equals(name)) {
+                    return InstrumentedStatement.this.proxy;
+                } else if ("equals".equals(name)) {
+                    return Boolean.valueOf(proxy == args[0]);
+                } else if ("hashCode".equals(name)) {
+                    return Integer.valueOf(System.identityHashCode(proxy));
+                }
+                return invokeTarget(target, method, args);
+            }
+
+            private void record() {
+                if (!recorded && sql != null) {
+                    recorded = true;
+                    registry.recordValue("jdbc.rows[" + sql + "]", rows);
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package fred.custom.crm.core.jdbc;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.apache.tomcat.jdbc.pool.DataSourceProxy;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.jmx.support.ObjectNameManager;
+
+import fred.custom.crm.core.metrics.Histogram;
+import fred.custom.crm.core.metrics.MetricsRegistry;
+
+/**
+ * A {@link DataSource} recording how long it takes to borrow a connection from the pool it wraps.
+ * <p>
+ * The time spent in every <code>getConnection</code> call goes to a {@link Histogram}, and the calls that fail (pool exhausted after the borrow
+ * timeout, database down, ...) are counted. When the target is a Tomcat JDBC pool, its active and idle connection counts are exposed as well.
+ * All these metrics are published through JMX, which is what the pool is sized from.
+ * </p>
+ * <p>
+ * Given a {@link MetricsRegistry}, it also instruments the connections: every statement is timed under <code>jdbc.statement[sql]</code>, the rows
+ * read from its results go to the <code>jdbc.rows[sql]</code> distribution and the number of statements of each transaction to
+ * <code>jdbc.statementsPerTransaction</code>. The same query executed {@link #setNPlusOneThreshold(int)} times before a commit, a rollback or
+ * the return of the connection is logged as an N+1 pattern and counted under <code>jdbc.nPlusOne</code> and <code>jdbc.nPlusOne[sql]</code>.
+ * </p>
+ * 
+ * @author Fred
+ */
+@ManagedResource(description = "Connection pool metrics")
+public class InstrumentedDataSource extends DelegatingDataSource implements SelfNaming {
+
+    private final Histogram borrowTime = new Histogram();
+
+    private final AtomicLong borrowFailures = new AtomicLong();
+
+    private MetricsRegistry metricsRegistry;
+
+    private int nPlusOneThreshold = 10;
+
+    private String name = "dataSource";
+
+    /**
+     * @param targetDataSource
+     *            The pooled data source
+     */
+    public InstrumentedDataSource(DataSource targetDataSource) {
+        super(targetDataSource);
+    }
+
+    /**
+     * @see org.springframework.jdbc.datasource.DelegatingDataSource#getConnection()
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = super.getConnection();
+            borrowTime.record(System.nanoTime() - start);
+            return instrument(connection);
+        } catch (SQLException e) {
+            borrowFailures.incrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            borrowFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @see org.springframework.jdbc.datasource.DelegatingDataSource#getConnection(java.lang.String, java.lang.String)
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        long start = System.nanoTime();
+        try {
+            Connection connection = super.getConnection(username, password);
+            borrowTime.record(System.nanoTime() - start);
+            return instrument(connection);
+        } catch (SQLException e) {
+            borrowFailures.incrementAndGet();
+            throw e;
+        } catch (RuntimeException e) {
+            borrowFailures.incrementAndGet();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The histogram of the time spent borrowing a connection
+     */
+    public Histogram getBorrowTime() {
+        return borrowTime;
+    }
+
+    /**
+     * @return The number of connections currently borrowed, -1 if the target is not a Tomcat JDBC pool
+     */
+    @ManagedAttribute(description = "Connections in use")
+    public int getActive() {
+        DataSourceProxy pool = getPool();
+        return pool == null ? -1 : pool.getActive();
+    }
+
+    /**
+     * @return The number of connections waiting in the pool, -1 if the target is not a Tomcat JDBC pool
+     */
+    @ManagedAttribute(description = "Idle connections")
+    public int getIdle() {
+        DataSourceProxy pool = getPool();
+        return pool == null ? -1 : pool.getIdle();
+    }
+
+    /**
+     * @return The number of threads currently waiting for a connection, -1 if the target is not a Tomcat JDBC pool
+     */
+    @ManagedAttribute(description = "Threads waiting for a connection")
+    public int getWaitCount() {
+        DataSourceProxy pool = getPool();
+        return pool == null ? -1 : pool.getWaitCount();
+    }
+
+    @ManagedAttribute(description = "Failed attempts to borrow a connection")
+    public long getBorrowFailures() {
+        return borrowFailures.get();
+    }
+
+    @ManagedAttribute(description = "Connections borrowed")
+    public long getBorrowCount() {
+        return borrowTime.getCount();
+    }
+
+    @ManagedAttribute(description = "Mean time to borrow a connection (us)")
+    public double getBorrowTimeMean() {
+        return borrowTime.getMean();
+    }
+
+    @ManagedAttribute(description = "99th percentile of the time to borrow a connection (us)")
+    public long getBorrowTime99thPercentile() {
+        return borrowTime.getPercentile(99);
+    }
+
+    @ManagedAttribute(description = "Longest time to borrow a connection (us)")
+    public long getBorrowTimeMax() {
+        return borrowTime.getMax();
+    }
+
+    /**
+     * @return The counts of the borrow time histogram, bucket <code>i</code> holds the borrows which took up to <code>2^i</code> microseconds
+     */
+    @ManagedAttribute(description = "Borrow time histogram, bucket i counts the borrows up to 2^i us")
+    public long[] getBorrowTimeHistogram() {
+        return borrowTime.getBucketCounts();
+    }
+
+    @ManagedOperation(description = "Clears the borrow statistics")
+    public void resetStatistics() {
+        borrowTime.reset();
+        borrowFailures.set(0L);
+    }
+
+    /**
+     * @return <code>fred.custom.crm:type=DataSource,name=</code> followed by its {@link #setName(String) name}
+     * @see org.springframework.jmx.export.naming.SelfNaming#getObjectName()
+     */
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return ObjectNameManager.getInstance("fred.custom.crm:type=DataSource,name=" + name);
+    }
+
+    /**
+     * @param name
+     *            The name of its MBean, <code>dataSource</code> by default; each instrumented data source (primary, replicas) needs its own
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param metricsRegistry
+     *            Where the statement metrics go, none are recorded without a registry
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * @param nPlusOneThreshold
+     *            The number of executions of the same query within a transaction reported as an N+1 pattern, 10 by default, 0 to disable the
+     *            detection
+     */
+    public void setNPlusOneThreshold(int nPlusOneThreshold) {
+        this.nPlusOneThreshold = nPlusOneThreshold;
+    }
+
+    private Connection instrument(Connection connection) {
+        return metricsRegistry == null ? connection : InstrumentedConnection.wrap(connection, metricsRegistry, nPlusOneThreshold);
+    }
+
+    private DataSourceProxy getPool() {
+        DataSource target = getTargetDataSource();
+        return target instanceof DataSourceProxy ? (DataSourceProxy) target : null;
+    }
+}
@@ -0,0 +1,338 @@
+package fred.custom.crm.core.jdbc;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jdbc.datasource.AbstractDataSource;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+/**
+ * A {@link DataSource} sending the read-only transactions to replicas of the database, and everything else to the primary.
+ * <p>
+ * The route is set by the {@link ReadWriteRoutingTransactionManager} when a transaction begins: a <code>@Transactional(readOnly = true)</code>
+ * transaction borrows its connection from a replica and keeps it until it ends, the other transactions and the connections borrowed outside of
+ * any transaction (schema export, ...) go to the primary. A replica lags behind the primary, so a read-only transaction may not see what was
+ * just committed; and a read-write method joining a read-only transaction runs on its replica, so keep the writes out of them.
+ * </p>
+ * <p>
+ * The replica is chosen {@link Selection#ROUND_ROBIN round-robin} or {@link Selection#LEAST_BUSY least busy}, by the number of connections it
+ * lends through this data source. A replica which fails to give a connection is skipped for {@link #setRetryIntervalMillis(long)} and then
+ * tried again; when none can give one, the primary does, so the reports slow the writes down rather than fail.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=DataSource,name=routingDataSource", description = "Read/write routing to the replicas")
+public class ReadWriteRoutingDataSource extends AbstractDataSource {
+
+    /**
+     * How a read-only transaction chooses its replica.
+     */
+    public enum Selection {
+        /** Each replica in turn */
+        ROUND_ROBIN,
+        /** The replica lending the fewest connections, in turn when several do */
+        LEAST_BUSY
+    }
+
+    private static final Log LOG = LogFactory.getLog(ReadWriteRoutingDataSource.class);
+
+    /** Set while a read-only transaction begins */
+    private static final ThreadLocal<Boolean> READ_ONLY = new ThreadLocal<Boolean>();
+
+    private final DataSource primary;
+
+    private final Replica[] replicas;
+
+    private final AtomicInteger next = new AtomicInteger();
+
+    private final AtomicLong primaryFallbacks = new AtomicLong();
+
+    private Selection selection = Selection.ROUND_ROBIN;
+
+    private long retryIntervalNanos = TimeUnit.SECONDS.toNanos(30L);
+
+    /**
+     * @param primary
+     *            The data source of the primary database
+     * @param replicas
+     *            The data sources of its replicas, none to send everything to the primary
+     */
+    public ReadWriteRoutingDataSource(DataSource primary, List<DataSource> replicas) {
+        Assert.notNull(primary, "primary is required");
+        Assert.notNull(replicas, "replicas is required");
+        this.primary = primary;
+        this.replicas = new Replica[replicas.size()];
+        for (int i = 0; i < this.replicas.length; i++) {
+            Assert.notNull(replicas.get(i), "replicas cannot contain null");
+            this.replicas[i] = new Replica(i, replicas.get(i));
+        }
+    }
+
+    /**
+     * @see javax.sql.DataSource#getConnection()
+     */
+    @Override
+    public Connection getConnection() throws SQLException {
+        return getConnection(null, null, false);
+    }
+
+    /**
+     * @see javax.sql.DataSource#getConnection(java.lang.String, java.lang.String)
+     */
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return getConnection(username, password, true);
+    }
+
+    @ManagedAttribute(description = "Replicas")
+    public int getReplicaCount() {
+        return replicas.length;
+    }
+
+    @ManagedAttribute(description = "Replicas skipped since they failed to give a connection")
+    public int getReplicasDown() {
+        int down = 0;
+        for (Replica replica : replicas) {
+            if (replica.down) {
+                down++;
+            }
+        }
+        return down;
+    }
+
+    /**
+     * @return The connections borrowed from each replica, in the order of the constructor
+     */
+    @ManagedAttribute(description = "Connections borrowed from each replica")
+    public long[] getReplicaConnections() {
+        long[] connections = new long[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            connections[i] = replicas[i].borrowed.get();
+        }
+        return connections;
+    }
+
+    /**
+     * @return The connections each replica currently lends, in the order of the constructor
+     */
+    @ManagedAttribute(description = "Connections in use on each replica")
+    public int[] getReplicaConnectionsInUse() {
+        int[] inUse = new int[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            inUse[i] = replicas[i].inUse.get();
+        }
+        return inUse;
+    }
+
+    /**
+     * @return The failed attempts to borrow a connection from each replica, in the order of the constructor
+     */
+    @ManagedAttribute(description = "Failed attempts to borrow a connection from each replica")
+    public long[] getReplicaFailures() {
+        long[] failures = new long[replicas.length];
+        for (int i = 0; i < replicas.length; i++) {
+            failures[i] = replicas[i].failures.get();
+        }
+        return failures;
+    }
+
+    @ManagedAttribute(description = "Read-only connections borrowed from the primary since no replica could give one")
+    public long getPrimaryFallbacks() {
+        return primaryFallbacks.get();
+    }
+
+    @ManagedOperation(description = "Clears the routing statistics")
+    public void resetStatistics() {
+        for (Replica replica : replicas) {
+            replica.borrowed.set(0L);
+            replica.failures.set(0L);
+        }
+        primaryFallbacks.set(0L);
+    }
+
+    /**
+     * @param selection
+     *            How a read-only transaction chooses its replica, {@link Selection#ROUND_ROBIN} by default
+     */
+    public void setSelection(Selection selection) {
+        Assert.notNull(selection, "selection is required");
+        this.selection = selection;
+    }
+
+    /**
+     * @param retryIntervalMillis
+     *            How long a replica which failed to give a connection is skipped, 30 seconds by default
+     */
+    public void setRetryIntervalMillis(long retryIntervalMillis) {
+        Assert.isTrue(retryIntervalMillis >= 0L, "retryIntervalMillis cannot be negative");
+        this.retryIntervalNanos = TimeUnit.MILLISECONDS.toNanos(retryIntervalMillis);
+    }
+
+    /**
+     * Sets the route of the connections borrowed by the current thread, see {@link ReadWriteRoutingTransactionManager}.
+     *
+     * @param readOnly
+     *            <code>true</code> to borrow them from a replica
+     * @return The previous route, to restore
+     */
+    static boolean setReadOnly(boolean readOnly) {
+        boolean previous = Boolean.TRUE.equals(READ_ONLY.get());
+        if (readOnly) {
+            READ_ONLY.set(Boolean.TRUE);
+        } else {
+            READ_ONLY.remove();
+        }
+        return previous;
+    }
+
+    private Connection getConnection(String username, String password, boolean credentials) throws SQLException {
+        if (replicas.length > 0 && Boolean.TRUE.equals(READ_ONLY.get())) {
+            long now = System.nanoTime();
+            for (Replica replica : candidates()) {
+                if (replica.down && now - replica.downSince < retryIntervalNanos) {
+                    continue;
+                }
+                Connection connection;
+                try {
+                    connection = credentials ? replica.dataSource.getConnection(username, password) : replica.dataSource.getConnection();
+                } catch (SQLException e) {
+                    replica.failed(now, e);
+                    continue;
+                }
+                return replica.lend(connection);
+            }
+            primaryFallbacks.incrementAndGet();
+        }
+        return credentials ? primary.getConnection(username, password) : primary.getConnection();
+    }
+
+    /**
+     * @return The replicas in the order they should be tried
+     */
+    private Replica[] candidates() {
+        int count = replicas.length;
+        int start = (next.getAndIncrement() & Integer.MAX_VALUE) % count;
+        Replica[] candidates = new Replica[count];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = replicas[(start + i) % count];
+        }
+        if (selection == Selection.LEAST_BUSY && count > 1) {
+            // Insertion sort on a snapshot of the counts, the ties keep the round-robin order
+            int[] inUse = new int[count];
+            for (int i = 0; i < count; i++) {
+                inUse[i] = candidates[i].inUse.get();
+            }
+            for (int i = 1; i < count; i++) {
+                Replica replica = candidates[i];
+                int busy = inUse[i];
+                int j = i - 1;
+                for (; j >= 0 && inUse[j] > busy; j--) {
+                    candidates[j + 1] = candidates[j];
+                    inUse[j + 1] = inUse[j];
+                }
+                candidates[j + 1] = replica;
+                inUse[j + 1] = busy;
+            }
+        }
+        return candidates;
+    }
+
+    /**
+     * A replica and its statistics.
+     */
+    private final class Replica {
+
+        private final int index;
+
+        private final DataSource dataSource;
+
+        private final AtomicInteger inUse = new AtomicInteger();
+
+        private final AtomicLong borrowed = new AtomicLong();
+
+        private final AtomicLong failures = new AtomicLong();
+
+        private volatile boolean down;
+
+        private volatile long downSince;
+
+        Replica(int index, DataSource dataSource) {
+            this.index = index;
+            this.dataSource = dataSource;
+        }
+
+        Connection lend(Connection connection) {
+            if (down) {
+                down = false;
+                LOG.info("Replica " + index + " is back up");
+            }
+            inUse.incrementAndGet();
+            borrowed.incrementAndGet();
+            return (Connection) Proxy.newProxyInstance(ReadWriteRoutingDataSource.class.getClassLoader(), new Class<?>[] { Connection.class },
+                    new LentConnection(connection, this));
+        }
+
+        void failed(long now, SQLException e) {
+            failures.incrementAndGet();
+            downSince = now;
+            if (!down) {
+                down = true;
+                LOG.warn("Replica " + index + " is down, skipped for " + TimeUnit.NANOSECONDS.toMillis(retryIntervalNanos) + " ms: " + e);
+            }
+        }
+    }
+
+    /**
+     * A connection of a replica, which is no longer counted as in use once closed.
+     */
+    private static final class LentConnection implements InvocationHandler {
+
+        private final Connection target;
+
+        private final Replica replica;
+
+        private boolean closed;
+
+        LentConnection(Connection target, Replica replica) {
+            this.target = target;
+            this.replica = replica;
+        }
+
+        /**
+         * @see java.lang.reflect.InvocationHandler#invoke(java.lang.Object, java.lang.reflect.Method, java.lang.Object[])
+         */
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String name = method.getName();
+            if ("equals".equals(name)) {
+                return Boolean.valueOf(proxy == args[0]);
+            } else if ("hashCode".equals(name)) {
+                return Integer.valueOf(System.identityHashCode(proxy));
+            } else if ("close".equals(name) && !closed) {
+                closed = true;
+                replica.inUse.decrementAndGet();
+            }
+            try {
+                return method.invoke(target, args);
+            } catch (InvocationTargetException e) {
+                throw e.getTargetException();
+            }
+        }
+    }
+}
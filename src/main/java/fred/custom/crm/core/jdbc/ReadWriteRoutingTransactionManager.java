@@ -0,0 +1,33 @@
+package fred.custom.crm.core.jdbc;
+
+import org.springframework.orm.jpa.JpaTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+
+/**
+ * A {@link JpaTransactionManager} beginning the read-only transactions on a replica of the {@link ReadWriteRoutingDataSource} behind its entity
+ * manager factory.
+ * <p>
+ * A JPA transaction borrows its connection when it begins and keeps it until it ends, so the route only has to be set while it begins. A
+ * transaction which joins another one (propagation <code>REQUIRED</code>, <code>SUPPORTS</code>, ...) does not begin: it runs on the database
+ * of the transaction it joins, whatever its own read-only flag.
+ * </p>
+ *
+ * @author Fred
+ */
+public class ReadWriteRoutingTransactionManager extends JpaTransactionManager {
+
+    private static final long serialVersionUID = -2871460364958146306L;
+
+    /**
+     * @see org.springframework.orm.jpa.JpaTransactionManager#doBegin(java.lang.Object, org.springframework.transaction.TransactionDefinition)
+     */
+    @Override
+    protected void doBegin(Object transaction, TransactionDefinition definition) {
+        boolean previous = ReadWriteRoutingDataSource.setReadOnly(definition.isReadOnly());
+        try {
+            super.doBegin(transaction, definition);
+        } finally {
+            ReadWriteRoutingDataSource.setReadOnly(previous);
+        }
+    }
+}
@@ -0,0 +1,149 @@
+package fred.custom.crm.core.metrics;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A lock-free latency histogram with exponential buckets.
+ * <p>
+ * Bucket <code>i</code> counts the durations up to <code>2^i</code> microseconds, the last bucket holding everything longer. This keeps the
+ * percentiles within a factor of two from a microsecond to several days with a fixed, small footprint. Recording a value never blocks.
+ * </p>
+ * 
+ * @author Fred
+ */
+public class Histogram {
+
+    /** Number of buckets */
+    public static final int BUCKETS = 40;
+
+    private final AtomicLongArray buckets = new AtomicLongArray(BUCKETS);
+
+    private final AtomicLong count = new AtomicLong();
+
+    private final AtomicLong sum = new AtomicLong();
+
+    private final AtomicLong max = new AtomicLong();
+
+    /**
+     * @param nanos
+     *            The duration to record, in nanoseconds
+     */
+    public void record(long nanos) {
+        recordValue(TimeUnit.NANOSECONDS.toMicros(nanos));
+    }
+
+    /**
+     * Records a value which is not a duration (a number of rows, of statements, ...). The histogram then counts in that unit instead of
+     * microseconds: bucket <code>i</code> holds the values up to <code>2^i</code>.
+     * 
+     * @param value
+     *            The value to record, negative values count as 0
+     */
+    public void recordValue(long value) {
+        long v = Math.max(0L, value);
+        buckets.incrementAndGet(bucketOf(v));
+        count.incrementAndGet();
+        sum.addAndGet(v);
+        long current = max.get();
+        while (v > current && !max.compareAndSet(current, v)) {
+            current = max.get();
+        }
+    }
+
+    /**
+     * @return The number of recorded durations
+     */
+    public long getCount() {
+        return count.get();
+    }
+
+    /**
+     * @return The mean of the recorded durations in microseconds, 0 if none was recorded
+     */
+    public double getMean() {
+        long n = count.get();
+        return n == 0 ? 0.0 : (double) sum.get() / n;
+    }
+
+    /**
+     * @return The longest recorded duration in microseconds
+     */
+    public long getMax() {
+        return max.get();
+    }
+
+    /**
+     * @param percentile
+     *            The percentile, between 0 and 100
+     * @return An upper bound (the bound of the matching bucket) of the given percentile, in microseconds
+     */
+    public long getPercentile(double percentile) {
+        long n = count.get();
+        if (n == 0) {
+            return 0L;
+        }
+        long rank = (long) Math.ceil(n * percentile / 100.0);
+        long seen = 0;
+        for (int i = 0; i < BUCKETS; i++) {
+            seen += buckets.get(i);
+            if (seen >= rank) {
+                return Math.min(upperBound(i), max.get());
+            }
+        }
+        return max.get();
+    }
+
+    /**
+     * @return A copy of the bucket counts, see {@link #upperBound(int)} for their bounds
+     */
+    public long[] getBucketCounts() {
+        long[] result = new long[BUCKETS];
+        for (int i = 0; i < BUCKETS; i++) {
+            result[i] = buckets.get(i);
+        }
+        return result;
+    }
+
+    /**
+     * @param bucket
+     *            A bucket index
+     * @return The inclusive upper bound of the bucket in microseconds
+     */
+    public static long upperBound(int bucket) {
+        return bucket == BUCKETS - 1 ? Long.MAX_VALUE : 1L << bucket;
+    }
+
+    /**
+     * Clears all the recorded values.
+     * <p>
+     * Values recorded concurrently with a reset may be partially lost, which is acceptable for monitoring.
+     * </p>
+     */
+    public void reset() {
+        for (int i = 0; i < BUCKETS; i++) {
+            buckets.set(i, 0L);
+        }
+        count.set(0L);
+        sum.set(0L);
+        max.set(0L);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return String.format("count=%d mean=%.1fus p50=%dus p99=%dus max=%dus", getCount(), getMean(), getPercentile(50), getPercentile(99), getMax());
+    }
+
+    private static int bucketOf(long micros) {
+        if (micros <= 1L) {
+            return 0;
+        }
+        // Smallest i with micros <= 2^i
+        int bucket = 64 - Long.numberOfLeadingZeros(micros - 1);
+        return Math.min(bucket, BUCKETS - 1);
+    }
+}
@@ -0,0 +1,36 @@
+package fred.custom.crm.core.metrics;
+
+/**
+ * Where the persistence layer reports its metrics.
+ * <p>
+ * The metrics are identified by name and created on first use. {@link SimpleMetricsRegistry} keeps them in memory and publishes them through
+ * JMX; an adapter to another metrics library only has to implement these three methods. Implementations must be thread safe and must not block:
+ * they are called on every statement.
+ * </p>
+ *
+ * @author Fred
+ */
+public interface MetricsRegistry {
+
+    /**
+     * @param name
+     *            The name of the timer
+     * @param nanos
+     *            A duration, in nanoseconds
+     */
+    void recordTime(String name, long nanos);
+
+    /**
+     * @param name
+     *            The name of the distribution
+     * @param value
+     *            A value which is not a duration, e.g. a number of rows
+     */
+    void recordValue(String name, long value);
+
+    /**
+     * @param name
+     *            The name of the counter to increment
+     */
+    void increment(String name);
+}
@@ -0,0 +1,73 @@
+package fred.custom.crm.core.metrics;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+import org.aopalliance.intercept.MethodInterceptor;
+import org.aopalliance.intercept.MethodInvocation;
+
+/**
+ * Times the calls to a repository and counts the calls which throw.
+ * <p>
+ * A call to <code>findByMemberNumber(String)</code> on the <code>memberRepository</code> bean is timed as
+ * <code>repository.memberRepository.findByMemberNumber(String)</code>, its failures are counted as the same name followed by
+ * <code>.errors</code>. The methods of the generic Spring Data interfaces keep their erased signature, e.g. <code>findOne(Serializable)</code>.
+ * The time includes the transaction, when the repository starts one.
+ * </p>
+ *
+ * @author Fred
+ */
+public class RepositoryMetricsInterceptor implements MethodInterceptor {
+
+    private final MetricsRegistry registry;
+
+    private final String prefix;
+
+    private final ConcurrentMap<Method, String> names = new ConcurrentHashMap<Method, String>();
+
+    /**
+     * @param registry
+     *            Where the metrics go
+     * @param repositoryName
+     *            The name of the repository in the metric names, usually its bean name
+     */
+    public RepositoryMetricsInterceptor(MetricsRegistry registry, String repositoryName) {
+        this.registry = registry;
+        this.prefix = "repository." + repositoryName + ".";
+    }
+
+    /**
+     * @see org.aopalliance.intercept.MethodInterceptor#invoke(org.aopalliance.intercept.MethodInvocation)
+     */
+    @Override
+    public Object invoke(MethodInvocation invocation) throws Throwable {
+        String name = nameOf(invocation.getMethod());
+        long start = System.nanoTime();
+        try {
+            return invocation.proceed();
+        } catch (Throwable e) {
+            registry.increment(name + ".errors");
+            throw e;
+        } finally {
+            registry.recordTime(name, System.nanoTime() - start);
+        }
+    }
+
+    private String nameOf(Method method) {
+        String name = names.get(method);
+        if (name == null) {
+            StringBuilder builder = new StringBuilder(prefix).append(method.getName()).append('(');
+            Class<?>[] parameterTypes = method.getParameterTypes();
+            for (int i = 0; i < parameterTypes.length; i++) {
+                if (i > 0) {
+                    builder.append(',');
+                }
+                builder.append(parameterTypes[i].getSimpleName());
+            }
+            name = builder.append(')').toString();
+            names.put(method, name);
+        }
+        return name;
+    }
+}
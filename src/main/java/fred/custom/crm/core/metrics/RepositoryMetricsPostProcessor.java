@@ -0,0 +1,82 @@
+package fred.custom.crm.core.metrics;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.springframework.aop.framework.ProxyFactory;
+import org.springframework.beans.BeansException;
+import org.springframework.beans.factory.BeanClassLoaderAware;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.util.ClassUtils;
+
+/**
+ * Wraps the repositories named by {@link #setBeanNames(String...)} in a proxy timing their methods, see {@link RepositoryMetricsInterceptor}.
+ * <p>
+ * The proxy implements the interfaces of the repository, so the repositories must be injected through their interfaces. The beans produced by a
+ * {@link FactoryBean}, such as the Spring Data JPA repositories, are wrapped, not their factories.
+ * </p>
+ *
+ * @author Fred
+ */
+public class RepositoryMetricsPostProcessor implements BeanPostProcessor, BeanClassLoaderAware {
+
+    private MetricsRegistry metricsRegistry;
+
+    private Set<String> beanNames = new HashSet<String>();
+
+    private ClassLoader beanClassLoader = ClassUtils.getDefaultClassLoader();
+
+    /**
+     * @see org.springframework.beans.factory.config.BeanPostProcessor#postProcessBeforeInitialization(java.lang.Object, java.lang.String)
+     */
+    @Override
+    public Object postProcessBeforeInitialization(Object bean, String beanName) throws BeansException {
+        return bean;
+    }
+
+    /**
+     * @see org.springframework.beans.factory.config.BeanPostProcessor#postProcessAfterInitialization(java.lang.Object, java.lang.String)
+     */
+    @Override
+    public Object postProcessAfterInitialization(Object bean, String beanName) throws BeansException {
+        if (!beanNames.contains(beanName) || bean instanceof FactoryBean) {
+            return bean;
+        }
+        ProxyFactory proxyFactory = new ProxyFactory();
+        proxyFactory.setTarget(bean);
+        for (Class<?> type : ClassUtils.getAllInterfacesAsSet(bean)) {
+            // The Spring infrastructure interfaces of an existing proxy are added back by the new proxy
+            if (!type.getName().startsWith("org.springframework.aop.")) {
+                proxyFactory.addInterface(type);
+            }
+        }
+        proxyFactory.addAdvice(new RepositoryMetricsInterceptor(metricsRegistry, beanName));
+        return proxyFactory.getProxy(beanClassLoader);
+    }
+
+    /**
+     * @see org.springframework.beans.factory.BeanClassLoaderAware#setBeanClassLoader(java.lang.ClassLoader)
+     */
+    @Override
+    public void setBeanClassLoader(ClassLoader classLoader) {
+        this.beanClassLoader = classLoader;
+    }
+
+    /**
+     * @param metricsRegistry
+     *            Where the metrics go
+     */
+    public void setMetricsRegistry(MetricsRegistry metricsRegistry) {
+        this.metricsRegistry = metricsRegistry;
+    }
+
+    /**
+     * @param beanNames
+     *            The names of the repositories to time
+     */
+    public void setBeanNames(String... beanNames) {
+        this.beanNames = new HashSet<String>(Arrays.asList(beanNames));
+    }
+}
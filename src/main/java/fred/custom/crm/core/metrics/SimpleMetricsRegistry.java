@@ -0,0 +1,207 @@
+package fred.custom.crm.core.metrics;
+
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+/**
+ * The default {@link MetricsRegistry}: {@link Histogram}s and counters kept in memory and published through JMX.
+ * <p>
+ * The names include SQL statements, whose number is not known in advance. Past {@link #setMaxMetrics(int)} distinct names, the values of new
+ * names are dropped and counted instead of growing the registry without bound.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Metrics,name=metricsRegistry", description = "Persistence metrics")
+public class SimpleMetricsRegistry implements MetricsRegistry {
+
+    private final ConcurrentMap<String, Histogram> timers = new ConcurrentHashMap<String, Histogram>();
+
+    private final ConcurrentMap<String, Histogram> distributions = new ConcurrentHashMap<String, Histogram>();
+
+    private final ConcurrentMap<String, AtomicLong> counters = new ConcurrentHashMap<String, AtomicLong>();
+
+    private final AtomicInteger size = new AtomicInteger();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private int maxMetrics = 1000;
+
+    /**
+     * @see fred.custom.crm.core.metrics.MetricsRegistry#recordTime(java.lang.String, long)
+     */
+    @Override
+    public void recordTime(String name, long nanos) {
+        Histogram timer = histogram(timers, name);
+        if (timer != null) {
+            timer.record(nanos);
+        }
+    }
+
+    /**
+     * @see fred.custom.crm.core.metrics.MetricsRegistry#recordValue(java.lang.String, long)
+     */
+    @Override
+    public void recordValue(String name, long value) {
+        Histogram distribution = histogram(distributions, name);
+        if (distribution != null) {
+            distribution.recordValue(value);
+        }
+    }
+
+    /**
+     * @see fred.custom.crm.core.metrics.MetricsRegistry#increment(java.lang.String)
+     */
+    @Override
+    public void increment(String name) {
+        AtomicLong counter = counters.get(name);
+        if (counter == null) {
+            if (!reserve()) {
+                return;
+            }
+            AtomicLong created = new AtomicLong();
+            counter = counters.putIfAbsent(name, created);
+            if (counter == null) {
+                counter = created;
+            } else {
+                size.decrementAndGet();
+            }
+        }
+        counter.incrementAndGet();
+    }
+
+    /**
+     * @param name
+     *            The name of a timer
+     * @return The timer, <code>null</code> if nothing was recorded under this name
+     */
+    public Histogram getTimer(String name) {
+        return timers.get(name);
+    }
+
+    /**
+     * @param name
+     *            The name of a distribution
+     * @return The distribution, <code>null</code> if nothing was recorded under this name
+     */
+    public Histogram getDistribution(String name) {
+        return distributions.get(name);
+    }
+
+    /**
+     * @param name
+     *            The name of a counter
+     * @return The value of the counter, 0 if it was never incremented
+     */
+    public long getCount(String name) {
+        AtomicLong counter = counters.get(name);
+        return counter == null ? 0L : counter.get();
+    }
+
+    /**
+     * @return The timers by name, as text
+     */
+    @ManagedAttribute(description = "Timers (us) by name")
+    public Map<String, String> getTimers() {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (Map.Entry<String, Histogram> entry : timers.entrySet()) {
+            result.put(entry.getKey(), entry.getValue().toString());
+        }
+        return result;
+    }
+
+    /**
+     * @return The distributions by name, as text
+     */
+    @ManagedAttribute(description = "Distributions by name")
+    public Map<String, String> getDistributions() {
+        Map<String, String> result = new TreeMap<String, String>();
+        for (Map.Entry<String, Histogram> entry : distributions.entrySet()) {
+            Histogram histogram = entry.getValue();
+            result.put(entry.getKey(), String.format("count=%d mean=%.1f p50=%d p99=%d max=%d", histogram.getCount(), histogram.getMean(),
+                    histogram.getPercentile(50), histogram.getPercentile(99), histogram.getMax()));
+        }
+        return result;
+    }
+
+    /**
+     * @return The counters by name
+     */
+    @ManagedAttribute(description = "Counters by name")
+    public Map<String, Long> getCounters() {
+        Map<String, Long> result = new TreeMap<String, Long>();
+        for (Map.Entry<String, AtomicLong> entry : counters.entrySet()) {
+            result.put(entry.getKey(), Long.valueOf(entry.getValue().get()));
+        }
+        return result;
+    }
+
+    /**
+     * @return The number of values dropped because the registry was full
+     */
+    @ManagedAttribute(description = "Values dropped because the registry was full")
+    public long getDropped() {
+        return dropped.get();
+    }
+
+    @ManagedAttribute(description = "Maximum number of distinct metrics")
+    public int getMaxMetrics() {
+        return maxMetrics;
+    }
+
+    /**
+     * @param maxMetrics
+     *            The maximum number of distinct names, all kinds together, 1000 by default
+     */
+    public void setMaxMetrics(int maxMetrics) {
+        Assert.isTrue(maxMetrics > 0, "maxMetrics must be positive");
+        this.maxMetrics = maxMetrics;
+    }
+
+    /**
+     * Removes all the metrics.
+     */
+    @ManagedOperation(description = "Clears all the metrics")
+    public void clear() {
+        timers.clear();
+        distributions.clear();
+        counters.clear();
+        size.set(0);
+        dropped.set(0L);
+    }
+
+    private Histogram histogram(ConcurrentMap<String, Histogram> histograms, String name) {
+        Histogram histogram = histograms.get(name);
+        if (histogram == null) {
+            if (!reserve()) {
+                return null;
+            }
+            Histogram created = new Histogram();
+            histogram = histograms.putIfAbsent(name, created);
+            if (histogram == null) {
+                histogram = created;
+            } else {
+                size.decrementAndGet();
+            }
+        }
+        return histogram;
+    }
+
+    private boolean reserve() {
+        if (size.incrementAndGet() > maxMetrics) {
+            size.decrementAndGet();
+            dropped.incrementAndGet();
+            return false;
+        }
+        return true;
+    }
+}
@@ -0,0 +1,159 @@
+package fred.custom.crm.core.model.codec;
+
+/**
+ * Reads what a {@link BinaryWriter} wrote, from a byte array.
+ * <p>
+ * Reading past the end of the data, or a malformed value, throws an {@link IllegalArgumentException}. A reader is meant to be
+ * {@link #reset(byte[], int, int) reset} and reused by one thread; it is not thread safe.
+ * </p>
+ *
+ * @author Fred
+ */
+public final class BinaryReader {
+
+    private byte[] buffer = new byte[0];
+
+    private int position;
+
+    private int limit;
+
+    private char[] chars = new char[64];
+
+    /**
+     * @param data
+     *            The data to read
+     * @return This reader
+     */
+    public BinaryReader reset(byte[] data) {
+        return reset(data, 0, data.length);
+    }
+
+    /**
+     * @param data
+     *            The array holding the data to read
+     * @param offset
+     *            The position of the data in the array
+     * @param length
+     *            The length of the data
+     * @return This reader
+     */
+    public BinaryReader reset(byte[] data, int offset, int length) {
+        if (offset < 0 || length < 0 || offset + length > data.length) {
+            throw new IndexOutOfBoundsException("offset=" + offset + " length=" + length + " size=" + data.length);
+        }
+        this.buffer = data;
+        this.position = offset;
+        this.limit = offset + length;
+        return this;
+    }
+
+    /**
+     * @return The position of the next byte to read in the array
+     */
+    public int position() {
+        return position;
+    }
+
+    /**
+     * @return The number of bytes left
+     */
+    public int remaining() {
+        return limit - position;
+    }
+
+    /**
+     * @param newPosition
+     *            The position of the next byte to read, used to skip what follows
+     */
+    public void skipTo(int newPosition) {
+        if (newPosition < position || newPosition > limit) {
+            throw new IllegalArgumentException("Cannot skip to " + newPosition);
+        }
+        position = newPosition;
+    }
+
+    /**
+     * @return The next byte, between 0 and 255
+     */
+    public int readByte() {
+        require(1);
+        return buffer[position++] & 0xFF;
+    }
+
+    /**
+     * @return A length written by {@link BinaryWriter#writeLengthAt(int)}
+     */
+    public int readLength() {
+        require(4);
+        int length = (buffer[position] & 0xFF) << 24 | (buffer[position + 1] & 0xFF) << 16 | (buffer[position + 2] & 0xFF) << 8
+                | (buffer[position + 3] & 0xFF);
+        position += 4;
+        if (length < 0 || length > remaining()) {
+            throw new IllegalArgumentException("Invalid length " + length);
+        }
+        return length;
+    }
+
+    /**
+     * @return A value written by {@link BinaryWriter#writeVarLong(long)}
+     */
+    public long readVarLong() {
+        long value = 0L;
+        for (int shift = 0; shift < 64; shift += 7) {
+            int b = readByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed variable length value");
+    }
+
+    /**
+     * @return A value written by {@link BinaryWriter#writeVarInt(int)}
+     */
+    public int readVarInt() {
+        long value = readVarLong();
+        if ((value & ~0xFFFFFFFFL) != 0L) {
+            throw new IllegalArgumentException("Variable length value too large for an int");
+        }
+        return (int) value;
+    }
+
+    /**
+     * @return A value written by {@link BinaryWriter#writeSignedVarLong(long)}
+     */
+    public long readSignedVarLong() {
+        long value = readVarLong();
+        return (value >>> 1) ^ -(value & 1L);
+    }
+
+    /**
+     * @return A string written by {@link BinaryWriter#writeString(String)}
+     */
+    public String readString() {
+        int length = readVarInt();
+        require(length);
+        if (chars.length < length) {
+            chars = new char[Math.max(length, chars.length * 2)];
+        }
+        for (int i = 0; i < length; i++) {
+            byte b = buffer[position + i];
+            if (b < 0) {
+                // Not ASCII
+                String value = new String(buffer, position, length, BinaryWriter.UTF_8);
+                position += length;
+                return value;
+            }
+            chars[i] = (char) b;
+        }
+        position += length;
+        return new String(chars, 0, length);
+    }
+
+    private void require(int bytes) {
+        if (bytes > limit - position) {
+            throw new IllegalArgumentException("Truncated data: " + bytes + " bytes needed, " + (limit - position) + " left");
+        }
+    }
+}
@@ -0,0 +1,169 @@
+package fred.custom.crm.core.model.codec;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.charset.Charset;
+import java.util.Arrays;
+
+/**
+ * A growable byte buffer with the primitive encodings of the entity codecs.
+ * <p>
+ * Integers are written as variable length quantities (7 bits per byte, least significant first), so small ids and versions take one or two
+ * bytes. Strings are written as their UTF-8 length followed by their UTF-8 bytes, without allocating for ASCII strings. A writer is meant to be
+ * {@link #reset()} and reused by one thread; it is not thread safe.
+ * </p>
+ *
+ * @author Fred
+ */
+public final class BinaryWriter {
+
+    static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private byte[] buffer;
+
+    private int position;
+
+    /**
+     * A writer with an initial capacity of 256 bytes.
+     */
+    public BinaryWriter() {
+        this(256);
+    }
+
+    /**
+     * @param capacity
+     *            The initial capacity, in bytes
+     */
+    public BinaryWriter(int capacity) {
+        this.buffer = new byte[Math.max(16, capacity)];
+    }
+
+    /**
+     * Empties the writer, keeping its buffer.
+     *
+     * @return This writer
+     */
+    public BinaryWriter reset() {
+        position = 0;
+        return this;
+    }
+
+    /**
+     * @return The number of bytes written since the last reset
+     */
+    public int size() {
+        return position;
+    }
+
+    /**
+     * @param value
+     *            The byte to write, only the 8 low bits are written
+     */
+    public void writeByte(int value) {
+        ensureCapacity(1);
+        buffer[position++] = (byte) value;
+    }
+
+    /**
+     * @param value
+     *            An unsigned value, written in 1 to 10 bytes
+     */
+    public void writeVarLong(long value) {
+        ensureCapacity(10);
+        long v = value;
+        while ((v & ~0x7FL) != 0L) {
+            buffer[position++] = (byte) ((v & 0x7F) | 0x80);
+            v >>>= 7;
+        }
+        buffer[position++] = (byte) v;
+    }
+
+    /**
+     * @param value
+     *            An unsigned value, written in 1 to 5 bytes
+     */
+    public void writeVarInt(int value) {
+        writeVarLong(value & 0xFFFFFFFFL);
+    }
+
+    /**
+     * @param value
+     *            A signed value, zigzag encoded so that small negative values stay short too
+     */
+    public void writeSignedVarLong(long value) {
+        writeVarLong((value << 1) ^ (value >> 63));
+    }
+
+    /**
+     * @param value
+     *            A string, not <code>null</code>
+     */
+    public void writeString(String value) {
+        int length = value.length();
+        for (int i = 0; i < length; i++) {
+            if (value.charAt(i) >= 0x80) {
+                // Not ASCII, rare enough to let the JDK encode it
+                byte[] utf8 = value.getBytes(UTF_8);
+                writeVarInt(utf8.length);
+                ensureCapacity(utf8.length);
+                System.arraycopy(utf8, 0, buffer, position, utf8.length);
+                position += utf8.length;
+                return;
+            }
+        }
+        writeVarInt(length);
+        ensureCapacity(length);
+        for (int i = 0; i < length; i++) {
+            buffer[position++] = (byte) value.charAt(i);
+        }
+    }
+
+    /**
+     * Reserves 4 bytes for a length known once what follows is written, see {@link #writeLengthAt(int)}.
+     *
+     * @return The position of the reserved bytes
+     */
+    public int reserveLength() {
+        ensureCapacity(4);
+        int mark = position;
+        position += 4;
+        return mark;
+    }
+
+    /**
+     * Writes the number of bytes written after the reserved bytes.
+     *
+     * @param mark
+     *            The position returned by {@link #reserveLength()}
+     */
+    public void writeLengthAt(int mark) {
+        int length = position - mark - 4;
+        buffer[mark] = (byte) (length >>> 24);
+        buffer[mark + 1] = (byte) (length >>> 16);
+        buffer[mark + 2] = (byte) (length >>> 8);
+        buffer[mark + 3] = (byte) length;
+    }
+
+    /**
+     * @return A copy of the bytes written since the last reset
+     */
+    public byte[] toByteArray() {
+        return Arrays.copyOf(buffer, position);
+    }
+
+    /**
+     * @param out
+     *            Where to copy the bytes written since the last reset
+     * @throws IOException
+     *             If the stream fails
+     */
+    public void writeTo(OutputStream out) throws IOException {
+        out.write(buffer, 0, position);
+    }
+
+    private void ensureCapacity(int needed) {
+        if (position + needed > buffer.length) {
+            buffer = Arrays.copyOf(buffer, Math.max(buffer.length * 2, position + needed));
+        }
+    }
+}
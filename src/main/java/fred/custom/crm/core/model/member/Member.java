@@ -6,39 +6,52 @@ import java.util.Date;
 import javax.persistence.CascadeType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
+import javax.persistence.FetchType;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
 import javax.persistence.JoinColumn;
+import javax.persistence.NamedAttributeNode;
+import javax.persistence.NamedEntityGraph;
+import javax.persistence.NamedEntityGraphs;
 import javax.persistence.OneToOne;
-import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.Version;
 
-import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import fred.custom.crm.core.model.BaseEntity;
 
 /**
  * An entity class which contains the information of a single member.
+ * <p>
+ * The {@link Person} is loaded lazily unless the {@link #GRAPH_MEMBER_WITH_PERSON} entity graph is used.
+ * </p>
  * 
  * @author Fred
  */
 @Entity
 @Table(name = "members")
+@NamedEntityGraphs({ @NamedEntityGraph(name = Member.GRAPH_MEMBER_ONLY),
+        @NamedEntityGraph(name = Member.GRAPH_MEMBER_WITH_PERSON, attributeNodes = @NamedAttributeNode("person")) })
 public class Member implements BaseEntity<Long>, Serializable {
 
     /** Serial version UID */
     private static final long serialVersionUID = 1502742707197902956L;
 
+    /** Name of the entity graph loading the member columns only, the person being a lazy reference */
+    public static final String GRAPH_MEMBER_ONLY = "member-only";
+
+    /** Name of the entity graph loading the member and its person with a single join */
+    public static final String GRAPH_MEMBER_WITH_PERSON = "member-with-person";
+
     @Id
-    // Sequence name must be preceded by schema name.
-//    @SequenceGenerator(name = "memberIdSeq", sequenceName = "member_id_seq", allocationSize = 1)
-//    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "memberIdSeq")
-//    @Column(name = "id", nullable = false, columnDefinition = "BIGINT")
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    // Ids reserved from member_id_seq by blocks, see PooledSequenceIdGenerator
+    @GenericGenerator(name = "memberIdGenerator", strategy = "fred.custom.crm.core.repositories.id.PooledSequenceIdGenerator",
+            parameters = @Parameter(name = "sequence_name", value = "member_id_seq"))
+    @GeneratedValue(generator = "memberIdGenerator")
     private Long id;
 
     @Version
@@ -50,7 +63,7 @@ public class Member implements BaseEntity<Long>, Serializable {
     @Column(name = "employee_number", nullable = false, unique = true)
     private String employeeNumber;
 
-    @OneToOne(cascade = CascadeType.ALL, optional = false)
+    @OneToOne(fetch = FetchType.LAZY, cascade = CascadeType.ALL, optional = false)
     @JoinColumn(name = "person_id", columnDefinition = "BIGINT")
     private Person person;
 
@@ -65,6 +78,13 @@ public class Member implements BaseEntity<Long>, Serializable {
     @Column(name = "last_update_date", nullable = false)
     private Date lastUpdateDate;
 
+    /**
+     * Default constructor, required by JPA. Prefer the {@link Builder}.
+     */
+    public Member() {
+        // Empty
+    }
+
     /**
      * Returns a defensive copy of the field.
      * <p>
@@ -172,15 +192,19 @@ public class Member implements BaseEntity<Long>, Serializable {
     }
 
     /**
+     * The person is left out: it may be a lazy reference which cannot be loaded anymore.
+     * 
+     * @see MemberRenderer#appendTo(StringBuilder, Member)
      * @see java.lang.Object#toString()
      */
     @Override
     public String toString() {
-        return ReflectionToStringBuilder.toStringExclude(this, new String[] {});
+        return MemberRenderer.appendTo(new StringBuilder(192), this).toString();
     }
 
     private Member(Builder builder) {
         this.id = builder.id;
+        this.version = builder.version;
         this.memberNumber = builder.memberNumber;
         this.employeeNumber = builder.employeeNumber;
         this.person = builder.person;
@@ -191,6 +215,7 @@ public class Member implements BaseEntity<Long>, Serializable {
 
     public static class Builder {
         private Long id;
+        private int version;
         private String memberNumber;
         private String employeeNumber;
         private Person person;
@@ -206,11 +231,27 @@ public class Member implements BaseEntity<Long>, Serializable {
             return new Builder();
         }
 
+        /**
+         * @param member
+         *            The member to copy
+         * @return A builder initialized with all the fields of the given member, id and version included. The person is shared, not copied.
+         */
+        public static Builder from(Member member) {
+            return getInstance().withId(member.getId()).withVersion(member.getVersion()).withMemberNumber(member.getMemberNumber())
+                    .withEmployeeNumber(member.getEmployeeNumber()).withPerson(member.getPerson()).withCreationDate(member.getCreationDate())
+                    .withLastUpdateUser(member.getLastUpdateUser()).withLastUpdateDate(member.getLastUpdateDate());
+        }
+
         public Builder withId(Long id) {
             this.id = id;
             return this;
         }
 
+        public Builder withVersion(int version) {
+            this.version = version;
+            return this;
+        }
+
         public Builder withMemberNumber(String memberNumber) {
             this.memberNumber = memberNumber;
             return this;
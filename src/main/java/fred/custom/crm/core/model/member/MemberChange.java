@@ -0,0 +1,131 @@
+package fred.custom.crm.core.model.member;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Access;
+import javax.persistence.AccessType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * An entry of the member outbox: a member was inserted, updated or deleted.
+ * <p>
+ * The entries are written in the transactions of the changes by both implementations of the member repository, and read in the order of their
+ * ids by the {@link fred.custom.crm.core.repositories.outbox.MemberChangeFeed}. They are never updated. The changes of the person of a member
+ * are changes of the member.
+ * </p>
+ *
+ * @author Fred
+ */
+@Entity
+@Access(AccessType.FIELD)
+@Table(name = "member_changes", indexes = @Index(name = "member_changes_member_idx", columnList = "member_id, id"))
+public class MemberChange implements Serializable {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = 6086323622958164127L;
+
+    /**
+     * The kinds of changes, stored by name.
+     */
+    public enum Type {
+        /** A new member */
+        INSERT,
+        /** A member or its person updated */
+        UPDATE,
+        /** A member deleted */
+        DELETE
+    }
+
+    @Id
+    @GeneratedValue(strategy = GenerationType.IDENTITY)
+    private Long id;
+
+    @Column(name = "member_id", nullable = false, updatable = false)
+    private Long memberId;
+
+    @Column(name = "member_version", nullable = false, updatable = false)
+    private int memberVersion;
+
+    @Enumerated(EnumType.STRING)
+    @Column(name = "change_type", nullable = false, updatable = false, length = 6)
+    private Type type;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "changed_on", nullable = false, updatable = false)
+    private Date changedOn;
+
+    /**
+     * Default constructor, required by JPA.
+     */
+    protected MemberChange() {
+        // Empty
+    }
+
+    /**
+     * @param id
+     *            The position of the entry in the outbox
+     * @param memberId
+     *            The id of the member
+     * @param memberVersion
+     *            The version of the member after the change, before it for a deletion
+     * @param type
+     *            The kind of change
+     * @param changedOn
+     *            When the change was written
+     */
+    public MemberChange(Long id, Long memberId, int memberVersion, Type type, Date changedOn) {
+        this.id = id;
+        this.memberId = memberId;
+        this.memberVersion = memberVersion;
+        this.type = type;
+        this.changedOn = (changedOn == null ? null : new Date(changedOn.getTime()));
+    }
+
+    /**
+     * @return The position of the entry in the outbox, increasing with the changes
+     */
+    public Long getId() {
+        return id;
+    }
+
+    public Long getMemberId() {
+        return memberId;
+    }
+
+    /**
+     * @return The version of the member after the change, before it for a deletion
+     */
+    public int getMemberVersion() {
+        return memberVersion;
+    }
+
+    public Type getType() {
+        return type;
+    }
+
+    /**
+     * @return A defensive copy of the time the change was written
+     */
+    public Date getChangedOn() {
+        return (changedOn == null ? null : new Date(changedOn.getTime()));
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "MemberChange[id=" + id + ",memberId=" + memberId + ",memberVersion=" + memberVersion + ",type=" + type + "]";
+    }
+}
@@ -0,0 +1,61 @@
+package fred.custom.crm.core.model.member;
+
+import java.io.Serializable;
+import java.util.Date;
+
+import javax.persistence.Access;
+import javax.persistence.AccessType;
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Temporal;
+import javax.persistence.TemporalType;
+
+/**
+ * The position of a consumer in the member outbox: the id of the last {@link MemberChange} it processed. Managed by the
+ * {@link fred.custom.crm.core.repositories.outbox.MemberChangeFeed}, it is mapped for the schema only.
+ *
+ * @author Fred
+ */
+@Entity
+@Access(AccessType.FIELD)
+@Table(name = "member_change_consumers")
+public class MemberChangeConsumer implements Serializable {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = -2470917405536287764L;
+
+    @Id
+    @Column(length = 100)
+    private String name;
+
+    @Column(name = "last_change_id", nullable = false)
+    private long lastChangeId;
+
+    @Temporal(TemporalType.TIMESTAMP)
+    @Column(name = "updated_on", nullable = false)
+    private Date updatedOn;
+
+    /**
+     * Default constructor, required by JPA.
+     */
+    protected MemberChangeConsumer() {
+        // Empty
+    }
+
+    public String getName() {
+        return name;
+    }
+
+    public long getLastChangeId() {
+        return lastChangeId;
+    }
+
+    /**
+     * @return A defensive copy of the time the position was last stored
+     */
+    public Date getUpdatedOn() {
+        return (updatedOn == null ? null : new Date(updatedOn.getTime()));
+    }
+}
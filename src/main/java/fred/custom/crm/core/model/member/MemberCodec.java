@@ -0,0 +1,342 @@
+package fred.custom.crm.core.model.member;
+
+import java.util.Date;
+
+import fred.custom.crm.core.model.codec.BinaryReader;
+import fred.custom.crm.core.model.codec.BinaryWriter;
+import fred.custom.crm.core.model.member.Person.Gender;
+
+/**
+ * A compact binary encoding of {@link Member}s and {@link Person}s, for what leaves the JVM (cache stores, session replication, ...) in place of
+ * Java serialization.
+ * <p>
+ * Every entity starts with a header: a magic byte, the entity type, the {@link #SCHEMA_VERSION} of the writer and the length of the body. The
+ * body starts with a bit set of the fields which are not <code>null</code>, followed by these fields in a fixed order. A member embeds its person
+ * as a complete entity, header included. No reflection is involved, and the buffers are reused per thread.
+ * </p>
+ * <p>
+ * The schema evolves by appending fields to the bodies and incrementing {@link #SCHEMA_VERSION}: a reader reads the fields it knows and skips
+ * the rest of the body, so older readers accept newer data, and newer readers only read the appended fields when the version of the data has
+ * them. Fields are never removed or reordered.
+ * </p>
+ * <p>
+ * A person which is not loaded (an uninitialized Hibernate proxy or a {@link PersonReference}) is encoded as its id only, and decoded as a
+ * {@link PersonReference}.
+ * </p>
+ *
+ * @author Fred
+ */
+public final class MemberCodec {
+
+    /** Version of the schema written by this codec */
+    public static final int SCHEMA_VERSION = 1;
+
+    private static final int MAGIC = 0xCE;
+
+    private static final int TYPE_MEMBER = 1;
+
+    private static final int TYPE_PERSON = 2;
+
+    private static final int MEMBER_ID = 1;
+    private static final int MEMBER_NUMBER = 1 << 1;
+    private static final int EMPLOYEE_NUMBER = 1 << 2;
+    private static final int CREATION_DATE = 1 << 3;
+    private static final int LAST_UPDATE_USER = 1 << 4;
+    private static final int LAST_UPDATE_DATE = 1 << 5;
+    private static final int PERSON = 1 << 6;
+    private static final int PERSON_REFERENCE = 1 << 7;
+
+    private static final int PERSON_ID = 1;
+    private static final int FIRST_NAME = 1 << 1;
+    private static final int LAST_NAME = 1 << 2;
+    private static final int GENDER = 1 << 3;
+    private static final int CELL_PHONE_NUMBER = 1 << 4;
+    private static final int EMAIL = 1 << 5;
+    private static final int BIRTH_DATE = 1 << 6;
+    private static final int SOCIAL_INSURANCE_NUMBER = 1 << 7;
+
+    private static final Gender[] GENDERS = Gender.values();
+
+    private static final ThreadLocal<BinaryWriter> WRITERS = new ThreadLocal<BinaryWriter>() {
+        @Override
+        protected BinaryWriter initialValue() {
+            return new BinaryWriter(512);
+        }
+    };
+
+    private static final ThreadLocal<BinaryReader> READERS = new ThreadLocal<BinaryReader>() {
+        @Override
+        protected BinaryReader initialValue() {
+            return new BinaryReader();
+        }
+    };
+
+    private MemberCodec() {
+        // Static methods only
+    }
+
+    /**
+     * @param member
+     *            The member to encode, with its person
+     * @return The encoded member
+     */
+    public static byte[] encode(Member member) {
+        BinaryWriter writer = WRITERS.get().reset();
+        write(writer, member);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @param person
+     *            The person to encode
+     * @return The encoded person
+     */
+    public static byte[] encode(Person person) {
+        BinaryWriter writer = WRITERS.get().reset();
+        write(writer, person);
+        return writer.toByteArray();
+    }
+
+    /**
+     * @param data
+     *            A member encoded by {@link #encode(Member)}
+     * @return The decoded member
+     * @throws IllegalArgumentException
+     *             If the data is not an encoded member
+     */
+    public static Member decodeMember(byte[] data) {
+        return readMember(READERS.get().reset(data));
+    }
+
+    /**
+     * @param data
+     *            A person encoded by {@link #encode(Person)}
+     * @return The decoded person
+     * @throws IllegalArgumentException
+     *             If the data is not an encoded person
+     */
+    public static Person decodePerson(byte[] data) {
+        return readPerson(READERS.get().reset(data));
+    }
+
+    /**
+     * Appends a member to a writer, to encode several entities in the same buffer.
+     *
+     * @param writer
+     *            Where to write
+     * @param member
+     *            The member to encode, with its person
+     */
+    public static void write(BinaryWriter writer, Member member) {
+        writer.writeByte(MAGIC);
+        writer.writeByte(TYPE_MEMBER);
+        writer.writeByte(SCHEMA_VERSION);
+        int mark = writer.reserveLength();
+
+        Long id = member.getId();
+        String memberNumber = member.getMemberNumber();
+        String employeeNumber = member.getEmployeeNumber();
+        Date creationDate = member.getCreationDate();
+        String lastUpdateUser = member.getLastUpdateUser();
+        Date lastUpdateDate = member.getLastUpdateDate();
+        Person person = member.getPerson();
+        boolean reference = person != null && PersonReference.isNotLoaded(person);
+
+        int fields = (id == null ? 0 : MEMBER_ID) | (memberNumber == null ? 0 : MEMBER_NUMBER) | (employeeNumber == null ? 0 : EMPLOYEE_NUMBER)
+                | (creationDate == null ? 0 : CREATION_DATE) | (lastUpdateUser == null ? 0 : LAST_UPDATE_USER)
+                | (lastUpdateDate == null ? 0 : LAST_UPDATE_DATE) | (person == null ? 0 : (reference ? PERSON_REFERENCE : PERSON));
+        writer.writeVarInt(fields);
+        if (id != null) {
+            writer.writeVarLong(id.longValue());
+        }
+        writer.writeVarInt(member.getVersion());
+        if (memberNumber != null) {
+            writer.writeString(memberNumber);
+        }
+        if (employeeNumber != null) {
+            writer.writeString(employeeNumber);
+        }
+        if (creationDate != null) {
+            writer.writeSignedVarLong(creationDate.getTime());
+        }
+        if (lastUpdateUser != null) {
+            writer.writeString(lastUpdateUser);
+        }
+        if (lastUpdateDate != null) {
+            writer.writeSignedVarLong(lastUpdateDate.getTime());
+        }
+        if (reference) {
+            writer.writeVarLong(PersonReference.idOf(person).longValue());
+        } else if (person != null) {
+            write(writer, person);
+        }
+        writer.writeLengthAt(mark);
+    }
+
+    /**
+     * Appends a person to a writer, to encode several entities in the same buffer.
+     *
+     * @param writer
+     *            Where to write
+     * @param person
+     *            The person to encode, it must be loaded
+     */
+    public static void write(BinaryWriter writer, Person person) {
+        writer.writeByte(MAGIC);
+        writer.writeByte(TYPE_PERSON);
+        writer.writeByte(SCHEMA_VERSION);
+        int mark = writer.reserveLength();
+
+        Long id = person.getId();
+        String firstName = person.getFirstName();
+        String lastName = person.getLastName();
+        Gender gender = person.getGender();
+        String cellPhoneNumber = person.getCellPhoneNumber();
+        String email = person.getEmail();
+        Date birthDate = person.getBirthDate();
+        String socialInsuranceNumber = person.getSocialInsuranceNumber();
+
+        int fields = (id == null ? 0 : PERSON_ID) | (firstName == null ? 0 : FIRST_NAME) | (lastName == null ? 0 : LAST_NAME)
+                | (gender == null ? 0 : GENDER) | (cellPhoneNumber == null ? 0 : CELL_PHONE_NUMBER) | (email == null ? 0 : EMAIL)
+                | (birthDate == null ? 0 : BIRTH_DATE) | (socialInsuranceNumber == null ? 0 : SOCIAL_INSURANCE_NUMBER);
+        writer.writeVarInt(fields);
+        if (id != null) {
+            writer.writeVarLong(id.longValue());
+        }
+        writer.writeVarInt(person.getVersion());
+        if (firstName != null) {
+            writer.writeString(firstName);
+        }
+        if (lastName != null) {
+            writer.writeString(lastName);
+        }
+        if (gender != null) {
+            // The code, not the ordinal: the constants may be reordered
+            writer.writeByte(gender.getCode().charAt(0));
+        }
+        if (cellPhoneNumber != null) {
+            writer.writeString(cellPhoneNumber);
+        }
+        if (email != null) {
+            writer.writeString(email);
+        }
+        if (birthDate != null) {
+            writer.writeSignedVarLong(birthDate.getTime());
+        }
+        if (socialInsuranceNumber != null) {
+            writer.writeString(socialInsuranceNumber);
+        }
+        writer.writeLengthAt(mark);
+    }
+
+    /**
+     * Reads the next member of a reader.
+     *
+     * @param reader
+     *            Where to read
+     * @return The member
+     * @throws IllegalArgumentException
+     *             If the next entity is not a member
+     */
+    public static Member readMember(BinaryReader reader) {
+        int end = readHeader(reader, TYPE_MEMBER);
+        int fields = reader.readVarInt();
+        Member.Builder builder = Member.Builder.getInstance();
+        if ((fields & MEMBER_ID) != 0) {
+            builder.withId(Long.valueOf(reader.readVarLong()));
+        }
+        builder.withVersion(reader.readVarInt());
+        if ((fields & MEMBER_NUMBER) != 0) {
+            builder.withMemberNumber(reader.readString());
+        }
+        if ((fields & EMPLOYEE_NUMBER) != 0) {
+            builder.withEmployeeNumber(reader.readString());
+        }
+        if ((fields & CREATION_DATE) != 0) {
+            builder.withCreationDate(new Date(reader.readSignedVarLong()));
+        }
+        if ((fields & LAST_UPDATE_USER) != 0) {
+            builder.withLastUpdateUser(reader.readString());
+        }
+        if ((fields & LAST_UPDATE_DATE) != 0) {
+            builder.withLastUpdateDate(new Date(reader.readSignedVarLong()));
+        }
+        if ((fields & PERSON_REFERENCE) != 0) {
+            builder.withPerson(new PersonReference(Long.valueOf(reader.readVarLong())));
+        } else if ((fields & PERSON) != 0) {
+            builder.withPerson(readPerson(reader));
+        }
+        // Fields appended by newer schema versions
+        reader.skipTo(end);
+        return builder.build();
+    }
+
+    /**
+     * Reads the next person of a reader.
+     *
+     * @param reader
+     *            Where to read
+     * @return The person
+     * @throws IllegalArgumentException
+     *             If the next entity is not a person
+     */
+    public static Person readPerson(BinaryReader reader) {
+        int end = readHeader(reader, TYPE_PERSON);
+        int fields = reader.readVarInt();
+        Person.Builder builder = Person.Builder.getInstance();
+        if ((fields & PERSON_ID) != 0) {
+            builder.withId(Long.valueOf(reader.readVarLong()));
+        }
+        builder.withVersion(reader.readVarInt());
+        if ((fields & FIRST_NAME) != 0) {
+            builder.withFirstName(reader.readString());
+        }
+        if ((fields & LAST_NAME) != 0) {
+            builder.withLastName(reader.readString());
+        }
+        if ((fields & GENDER) != 0) {
+            builder.withGender(genderOf(reader.readByte()));
+        }
+        if ((fields & CELL_PHONE_NUMBER) != 0) {
+            builder.withCellPhoneNumber(reader.readString());
+        }
+        if ((fields & EMAIL) != 0) {
+            builder.withEmail(reader.readString());
+        }
+        if ((fields & BIRTH_DATE) != 0) {
+            builder.withBirthDate(new Date(reader.readSignedVarLong()));
+        }
+        if ((fields & SOCIAL_INSURANCE_NUMBER) != 0) {
+            builder.withSocialInsuranceNumber(reader.readString());
+        }
+        reader.skipTo(end);
+        return builder.build();
+    }
+
+    /**
+     * @return The position of the end of the body
+     */
+    private static int readHeader(BinaryReader reader, int expectedType) {
+        if (reader.readByte() != MAGIC) {
+            throw new IllegalArgumentException("Not an encoded entity");
+        }
+        int type = reader.readByte();
+        if (type != expectedType) {
+            throw new IllegalArgumentException("Expected entity type " + expectedType + " but found " + type);
+        }
+        if (reader.readByte() < 1) {
+            throw new IllegalArgumentException("Invalid schema version");
+        }
+        int length = reader.readLength();
+        return reader.position() + length;
+    }
+
+    private static Gender genderOf(int code) {
+        for (Gender gender : GENDERS) {
+            if (gender.getCode().charAt(0) == code) {
+                return gender;
+            }
+        }
+        throw new IllegalArgumentException("Unknown gender code " + (char) code);
+    }
+}
@@ -0,0 +1,111 @@
+package fred.custom.crm.core.model.member;
+
+import java.util.Date;
+
+/**
+ * Renders {@link Member}s and {@link Person}s as text for the logs, without reflection.
+ * <p>
+ * The text looks like <code>Member[id=1,version=0,memberNumber=M1,...]</code>; the dates are written in ISO 8601, in UTC. The
+ * <code>appendTo</code> methods write into a builder given by the caller, so that a logger can reuse it.
+ * </p>
+ *
+ * @author Fred
+ */
+public final class MemberRenderer {
+
+    private MemberRenderer() {
+        // Static methods only
+    }
+
+    /**
+     * The person is left out: it may be a lazy reference which cannot be loaded anymore.
+     *
+     * @param builder
+     *            Where to write
+     * @param member
+     *            The member to render
+     * @return The builder
+     */
+    public static StringBuilder appendTo(StringBuilder builder, Member member) {
+        builder.append("Member[id=").append(member.getId()).append(",version=").append(member.getVersion());
+        builder.append(",memberNumber=").append(member.getMemberNumber()).append(",employeeNumber=").append(member.getEmployeeNumber());
+        appendDate(builder.append(",creationDate="), member.getCreationDate());
+        builder.append(",lastUpdateUser=").append(member.getLastUpdateUser());
+        appendDate(builder.append(",lastUpdateDate="), member.getLastUpdateDate());
+        return builder.append(']');
+    }
+
+    /**
+     * @param builder
+     *            Where to write
+     * @param person
+     *            The person to render, only its id if it is not loaded
+     * @return The builder
+     */
+    public static StringBuilder appendTo(StringBuilder builder, Person person) {
+        builder.append("Person[id=").append(PersonReference.idOf(person));
+        if (PersonReference.isNotLoaded(person)) {
+            return builder.append(",not loaded]");
+        }
+        builder.append(",version=").append(person.getVersion());
+        builder.append(",firstName=").append(person.getFirstName()).append(",lastName=").append(person.getLastName());
+        builder.append(",gender=").append(person.getGender()).append(",cellPhoneNumber=").append(person.getCellPhoneNumber());
+        builder.append(",email=").append(person.getEmail());
+        appendDate(builder.append(",birthDate="), person.getBirthDate());
+        builder.append(",socialInsuranceNumber=").append(person.getSocialInsuranceNumber());
+        return builder.append(']');
+    }
+
+    /**
+     * @param builder
+     *            Where to write
+     * @param date
+     *            The date to write as <code>yyyy-MM-ddTHH:mm:ss.SSSZ</code> in UTC, or <code>null</code>
+     * @return The builder
+     */
+    public static StringBuilder appendDate(StringBuilder builder, Date date) {
+        if (date == null) {
+            return builder.append("null");
+        }
+        long millis = date.getTime();
+        long days = floorDiv(millis, 86400000L);
+        int millisOfDay = (int) (millis - days * 86400000L);
+
+        // Civil date from the days since 1970-01-01, in the proleptic Gregorian calendar
+        long z = days + 719468L;
+        long era = floorDiv(z, 146097L);
+        long dayOfEra = z - era * 146097L;
+        long yearOfEra = (dayOfEra - dayOfEra / 1460 + dayOfEra / 36524 - dayOfEra / 146096) / 365;
+        long dayOfYear = dayOfEra - (365 * yearOfEra + yearOfEra / 4 - yearOfEra / 100);
+        long mp = (5 * dayOfYear + 2) / 153;
+        int day = (int) (dayOfYear - (153 * mp + 2) / 5 + 1);
+        int month = (int) (mp < 10 ? mp + 3 : mp - 9);
+        long year = yearOfEra + era * 400 + (month <= 2 ? 1 : 0);
+
+        if (year >= 0 && year <= 9999) {
+            pad(builder, (int) year, 4).append('-');
+        } else {
+            builder.append(year).append('-');
+        }
+        pad(builder, month, 2).append('-');
+        pad(builder, day, 2).append('T');
+        pad(builder, millisOfDay / 3600000, 2).append(':');
+        pad(builder, millisOfDay / 60000 % 60, 2).append(':');
+        pad(builder, millisOfDay / 1000 % 60, 2).append('.');
+        return pad(builder, millisOfDay % 1000, 3).append('Z');
+    }
+
+    private static StringBuilder pad(StringBuilder builder, int value, int width) {
+        for (int limit = 10, i = 1; i < width; i++, limit *= 10) {
+            if (value < limit) {
+                builder.append('0');
+            }
+        }
+        return builder.append(value);
+    }
+
+    private static long floorDiv(long x, long y) {
+        long q = x / y;
+        return (x % y != 0 && (x ^ y) < 0) ? q - 1 : q;
+    }
+}
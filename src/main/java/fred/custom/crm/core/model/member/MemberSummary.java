@@ -0,0 +1,105 @@
+package fred.custom.crm.core.model.member;
+
+import java.io.Serializable;
+
+import fred.custom.crm.core.model.member.Person.Gender;
+
+/**
+ * A read-only view of a {@link Member}, holding what the member lists display.
+ * <p>
+ * Summaries are built by projection queries straight from the selected columns: they are not entities, nothing is registered in a persistence
+ * context nor copied for dirty checking, and they are immutable so they can be shared freely.
+ * </p>
+ * 
+ * @author Fred
+ */
+public final class MemberSummary implements Serializable {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = -6235309384766227001L;
+
+    private final Long id;
+
+    private final String memberNumber;
+
+    private final String firstName;
+
+    private final String lastName;
+
+    private final Gender gender;
+
+    /**
+     * Used by the JPQL constructor expressions, keep the parameters in sync with the queries.
+     * 
+     * @param id
+     *            The member id
+     * @param memberNumber
+     *            The member number
+     * @param firstName
+     *            The first name of the person
+     * @param lastName
+     *            The last name of the person
+     * @param gender
+     *            The gender of the person
+     */
+    public MemberSummary(Long id, String memberNumber, String firstName, String lastName, Gender gender) {
+        this.id = id;
+        this.memberNumber = memberNumber;
+        this.firstName = firstName;
+        this.lastName = lastName;
+        this.gender = gender;
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getMemberNumber() {
+        return memberNumber;
+    }
+
+    public String getFirstName() {
+        return firstName;
+    }
+
+    public String getLastName() {
+        return lastName;
+    }
+
+    public Gender getGender() {
+        return gender;
+    }
+
+    /**
+     * Two summaries are equal when they are about the same member, whatever the version they were read from.
+     * 
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MemberSummary)) {
+            return false;
+        }
+        return id != null && id.equals(((MemberSummary) obj).id);
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return id == null ? 0 : id.hashCode();
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "MemberSummary[id=" + id + ",memberNumber=" + memberNumber + ",firstName=" + firstName + ",lastName=" + lastName + ",gender=" + gender
+                + "]";
+    }
+}
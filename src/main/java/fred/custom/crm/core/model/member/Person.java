@@ -1,37 +1,52 @@
 package fred.custom.crm.core.model.member;
 
 import java.io.Serializable;
+import java.text.Normalizer;
 import java.util.Date;
+import java.util.Locale;
+import java.util.regex.Pattern;
 
+import javax.persistence.Access;
+import javax.persistence.AccessType;
 import javax.persistence.Column;
 import javax.persistence.Entity;
 import javax.persistence.EnumType;
 import javax.persistence.Enumerated;
 import javax.persistence.GeneratedValue;
-import javax.persistence.GenerationType;
 import javax.persistence.Id;
-import javax.persistence.SequenceGenerator;
+import javax.persistence.Index;
 import javax.persistence.Table;
 import javax.persistence.Temporal;
 import javax.persistence.TemporalType;
 import javax.persistence.Version;
 
-import org.apache.commons.lang3.builder.ReflectionToStringBuilder;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
 
 import fred.custom.crm.core.model.BaseEntity;
 
 /**
  * An entity class which contains the information of a single person.
+ * <p>
+ * The names are also stored as {@link #toSearchKey(String) search keys}, lower case and without accents, so that a case-insensitive prefix search
+ * is a range scan of the <code>persons_name_key_idx</code> index. The keys are derived from the names, they have no setters of their own.
+ * </p>
  * 
  * @author Fred
  */
 @Entity
-@Table(name = "persons")
+@Access(AccessType.FIELD)
+@Table(name = "persons", indexes = { @Index(name = "persons_last_name_idx", columnList = "last_name, id"),
+        @Index(name = "persons_name_key_idx", columnList = "last_name_key, first_name_key, id"),
+        @Index(name = "persons_email_idx", columnList = "email"), @Index(name = "persons_cell_phone_number_idx", columnList = "cell_phone_number") })
 public class Person implements BaseEntity<Long>, Serializable {
 
     /** Serial version UID */
     private static final long serialVersionUID = -1704325202506506868L;
 
+    /** Combining marks left by the canonical decomposition of accented letters */
+    private static final Pattern COMBINING_MARKS = Pattern.compile("\\p{M}+");
+
     /**
      * This enum lists the possible values for the person's gender.
      * <ul>
@@ -54,15 +69,30 @@ public class Person implements BaseEntity<Long>, Serializable {
         public String getCode() {
             return code;
         }
+
+        /**
+         * @param code
+         *            A gender code, "M" or "F"
+         * @return The matching gender
+         * @throws IllegalArgumentException
+         *             If the code is unknown
+         */
+        public static Gender fromCode(String code) {
+            for (Gender gender : values()) {
+                if (gender.code.equals(code)) {
+                    return gender;
+                }
+            }
+            throw new IllegalArgumentException("Unknown gender code: " + code);
+        }
     }
 
     /** Unique identifier */
     @Id
-    // Sequence name must be preceded by schema name.
-//    @SequenceGenerator(name = "personIdSeq", sequenceName = "person_id_seq", allocationSize = 1)
-//    @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "personIdSeq")
-//    @Column(name = "id", nullable = false, columnDefinition = "BIGINT")
-    @GeneratedValue(strategy = GenerationType.AUTO)
+    // Ids reserved from person_id_seq by blocks, see PooledSequenceIdGenerator
+    @GenericGenerator(name = "personIdGenerator", strategy = "fred.custom.crm.core.repositories.id.PooledSequenceIdGenerator",
+            parameters = @Parameter(name = "sequence_name", value = "person_id_seq"))
+    @GeneratedValue(generator = "personIdGenerator")
     private Long id;
 
     @Version
@@ -163,10 +193,28 @@ public class Person implements BaseEntity<Long>, Serializable {
         return this.id;
     }
 
+    /**
+     * @return The search key of the first name, see {@link #toSearchKey(String)}
+     */
+    @Access(AccessType.PROPERTY)
+    @Column(name = "first_name_key", length = 80, nullable = false)
+    public String getFirstNameKey() {
+        return toSearchKey(firstName);
+    }
+
     public String getLastName() {
         return lastName;
     }
 
+    /**
+     * @return The search key of the last name, see {@link #toSearchKey(String)}
+     */
+    @Access(AccessType.PROPERTY)
+    @Column(name = "last_name_key", length = 80, nullable = false)
+    public String getLastNameKey() {
+        return toSearchKey(lastName);
+    }
+
     public String getSocialInsuranceNumber() {
         return socialInsuranceNumber;
     }
@@ -222,15 +270,60 @@ public class Person implements BaseEntity<Long>, Serializable {
     }
 
     /**
+     * @see MemberRenderer#appendTo(StringBuilder, Person)
      * @see java.lang.Object#toString()
      */
     @Override
     public String toString() {
-        return ReflectionToStringBuilder.toStringExclude(this, new String[] {});
+        return MemberRenderer.appendTo(new StringBuilder(192), this).toString();
+    }
+
+    /**
+     * Normalizes a name, or the beginning of a name, for a case-insensitive search: "Éloïse" and "ELOISE" both give "eloise".
+     * 
+     * @param name
+     *            A name
+     * @return The name in lower case, without accents, <code>null</code> for <code>null</code>
+     */
+    public static String toSearchKey(String name) {
+        if (name == null) {
+            return null;
+        }
+        String key = name.toLowerCase(Locale.ROOT);
+        for (int i = 0; i < key.length(); i++) {
+            if (key.charAt(i) > 0x7f) {
+                // Not plain ASCII, strip the accents
+                return COMBINING_MARKS.matcher(Normalizer.normalize(key, Normalizer.Form.NFD)).replaceAll("");
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Called by JPA when a person is loaded, the key is derived from the first name.
+     * 
+     * @param firstNameKey
+     *            The stored key, ignored
+     */
+    @SuppressWarnings("unused")
+    private void setFirstNameKey(String firstNameKey) {
+        // Derived
+    }
+
+    /**
+     * Called by JPA when a person is loaded, the key is derived from the last name.
+     * 
+     * @param lastNameKey
+     *            The stored key, ignored
+     */
+    @SuppressWarnings("unused")
+    private void setLastNameKey(String lastNameKey) {
+        // Derived
     }
 
     private Person(Builder builder) {
         this.id = builder.id;
+        this.version = builder.version;
         this.firstName = builder.firstName;
         this.lastName = builder.lastName;
         this.gender = builder.gender;
@@ -242,6 +335,7 @@ public class Person implements BaseEntity<Long>, Serializable {
 
     public static class Builder {
         private Long id;
+        private int version;
         private String firstName;
         private String lastName;
         private Gender gender;
@@ -258,11 +352,27 @@ public class Person implements BaseEntity<Long>, Serializable {
             return new Builder();
         }
 
+        /**
+         * @param person
+         *            The person to copy
+         * @return A builder initialized with all the fields of the given person, id and version included
+         */
+        public static Builder from(Person person) {
+            return getInstance().withId(person.getId()).withVersion(person.getVersion()).withFirstName(person.getFirstName())
+                    .withLastName(person.getLastName()).withGender(person.getGender()).withCellPhoneNumber(person.getCellPhoneNumber())
+                    .withEmail(person.getEmail()).withBirthDate(person.getBirthDate()).withSocialInsuranceNumber(person.getSocialInsuranceNumber());
+        }
+
         public Builder withId(Long id) {
             this.id = id;
             return this;
         }
 
+        public Builder withVersion(int version) {
+            this.version = version;
+            return this;
+        }
+
         public Builder withFirstName(String firstName) {
             this.firstName = firstName;
             return this;
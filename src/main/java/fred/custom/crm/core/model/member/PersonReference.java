@@ -0,0 +1,99 @@
+package fred.custom.crm.core.model.member;
+
+import java.util.Date;
+
+import org.hibernate.Hibernate;
+import org.hibernate.proxy.HibernateProxy;
+
+/**
+ * A person of which only the id is known: the person of a member read by jOOQ with
+ * {@link fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan#MEMBER_ONLY} (jOOQ has no proxies), or decoded by
+ * {@link MemberCodec} from a member encoded without its person.
+ * <p>
+ * Like an uninitialized Hibernate proxy outside of its session, reading anything but the id fails. Saving the member with the jOOQ repository
+ * leaves its person untouched.
+ * </p>
+ * 
+ * @author Fred
+ */
+public class PersonReference extends Person {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = 4460873393707018417L;
+
+    /**
+     * @param id
+     *            The id of the person
+     */
+    public PersonReference(Long id) {
+        setId(id);
+    }
+
+    /**
+     * @param person
+     *            A person, not <code>null</code>
+     * @return Whether only its id is known: a reference, or an uninitialized Hibernate proxy
+     */
+    public static boolean isNotLoaded(Person person) {
+        return person instanceof PersonReference || !Hibernate.isInitialized(person);
+    }
+
+    /**
+     * The <code>id</code> field of a Hibernate proxy is never set, and with field access its getter initializes the proxy: the id is read from
+     * its lazy initializer instead, which also works outside of its session.
+     * 
+     * @param person
+     *            A person, loaded or not, not <code>null</code>
+     * @return Its id
+     */
+    public static Long idOf(Person person) {
+        if (person instanceof HibernateProxy) {
+            return (Long) ((HibernateProxy) person).getHibernateLazyInitializer().getIdentifier();
+        }
+        return person.getId();
+    }
+
+    @Override
+    public Date getBirthDate() {
+        throw notLoaded();
+    }
+
+    @Override
+    public String getCellPhoneNumber() {
+        throw notLoaded();
+    }
+
+    @Override
+    public String getEmail() {
+        throw notLoaded();
+    }
+
+    @Override
+    public String getFirstName() {
+        throw notLoaded();
+    }
+
+    @Override
+    public Gender getGender() {
+        throw notLoaded();
+    }
+
+    @Override
+    public String getLastName() {
+        throw notLoaded();
+    }
+
+    @Override
+    public String getSocialInsuranceNumber() {
+        throw notLoaded();
+    }
+
+    @Override
+    public int getVersion() {
+        throw notLoaded();
+    }
+
+    private IllegalStateException notLoaded() {
+        return new IllegalStateException("Person " + getId() + " was not loaded, read the member with MemberFetchPlan.MEMBER_WITH_PERSON");
+    }
+}
@@ -0,0 +1,58 @@
+package fred.custom.crm.core.repositories;
+
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+
+/**
+ * A page of results read with keyset (seek) pagination.
+ * <p>
+ * Unlike a Spring Data <code>Page</code>, it knows nothing about the total number of elements nor about its own page number: the next page is
+ * identified by an opaque continuation token built from the sort key of the last element of this one, so reading any page costs the same and
+ * no <code>count(*)</code> is ever executed.
+ * </p>
+ * 
+ * @param <T>
+ *            T is the type of the elements
+ * @author Fred
+ */
+public class KeysetPage<T> implements Iterable<T> {
+
+    private final List<T> content;
+
+    private final String nextToken;
+
+    /**
+     * @param content
+     *            The elements of this page
+     * @param nextToken
+     *            The token of the next page, <code>null</code> if this page is the last one
+     */
+    public KeysetPage(List<T> content, String nextToken) {
+        this.content = Collections.unmodifiableList(content);
+        this.nextToken = nextToken;
+    }
+
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return The continuation token to pass to get the next page, <code>null</code> if this page is the last one
+     */
+    public String getNextToken() {
+        return nextToken;
+    }
+
+    public boolean hasNext() {
+        return nextToken != null;
+    }
+
+    /**
+     * @see java.lang.Iterable#iterator()
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return content.iterator();
+    }
+}
@@ -0,0 +1,82 @@
+package fred.custom.crm.core.repositories;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * The elements read for a list of ids, in the order of the ids, and the ids which matched nothing.
+ *
+ * @param <T>
+ *            T is the type of the elements
+ * @author Fred
+ */
+public class MultiGetResult<T> implements Iterable<T> {
+
+    private final List<T> content;
+
+    private final List<Long> missingIds;
+
+    /**
+     * @param content
+     *            The elements found
+     * @param missingIds
+     *            The ids without an element
+     */
+    public MultiGetResult(List<T> content, List<Long> missingIds) {
+        this.content = Collections.unmodifiableList(content);
+        this.missingIds = Collections.unmodifiableList(missingIds);
+    }
+
+    /**
+     * @param ids
+     *            The ids asked for
+     * @param found
+     *            The elements found, by id
+     * @return The elements in the order of the ids, an id given twice giving its element twice
+     */
+    public static <T> MultiGetResult<T> inOrder(List<Long> ids, Map<Long, T> found) {
+        List<T> content = new ArrayList<T>(found.size());
+        List<Long> missingIds = new ArrayList<Long>();
+        for (Long id : ids) {
+            T element = found.get(id);
+            if (element == null) {
+                missingIds.add(id);
+            } else {
+                content.add(element);
+            }
+        }
+        return new MultiGetResult<T>(content, missingIds);
+    }
+
+    /**
+     * @return The elements found, in the order of their ids
+     */
+    public List<T> getContent() {
+        return content;
+    }
+
+    /**
+     * @return The ids without an element, in the order they were given
+     */
+    public List<Long> getMissingIds() {
+        return missingIds;
+    }
+
+    /**
+     * @return <code>true</code> if every id had an element
+     */
+    public boolean isComplete() {
+        return missingIds.isEmpty();
+    }
+
+    /**
+     * @see java.lang.Iterable#iterator()
+     */
+    @Override
+    public Iterator<T> iterator() {
+        return content.iterator();
+    }
+}
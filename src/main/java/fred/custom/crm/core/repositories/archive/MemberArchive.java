@@ -0,0 +1,464 @@
+package fred.custom.crm.core.repositories.archive;
+
+import static fred.custom.crm.core.repositories.jooq.tables.MemberChanges.MEMBER_CHANGES;
+import static fred.custom.crm.core.repositories.jooq.tables.Members.ARCHIVED_MEMBERS;
+import static fred.custom.crm.core.repositories.jooq.tables.Members.MEMBERS;
+import static fred.custom.crm.core.repositories.jooq.tables.Persons.ARCHIVED_PERSONS;
+import static fred.custom.crm.core.repositories.jooq.tables.Persons.PERSONS;
+
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jooq.Condition;
+import org.jooq.DSLContext;
+import org.jooq.Record;
+import org.jooq.Record2;
+import org.jooq.Record3;
+import org.jooq.Result;
+import org.jooq.SelectJoinStep;
+import org.jooq.impl.DSL;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.TransactionDefinition;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberChange;
+import fred.custom.crm.core.repositories.jooq.member.MemberRecordMapper;
+import fred.custom.crm.core.repositories.jooq.tables.Members;
+import fred.custom.crm.core.repositories.jooq.tables.Persons;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersionStamp;
+
+/**
+ * Keeps the inactive members out of the <code>members</code> and <code>persons</code> tables, in <code>archived_members</code> and
+ * <code>archived_persons</code> (same columns, see <code>V3__create_member_archive.sql</code>), so that the hot tables and their indexes only hold
+ * the members in use.
+ * <p>
+ * {@link #archive(Date)} moves the members not updated since a cutoff, with their persons, by batches of {@link #setBatchSize(int) batch size}:
+ * each batch reads the next members by id and locks them, copies them to the archive and deletes them from the hot tables, in its own
+ * transaction. An update of a member being archived waits for its batch, then fails with an optimistic locking failure. A run stopped or
+ * interrupted leaves only whole batches behind: run again, it goes on with the members left. The members keep their ids, versions and audit
+ * fields, and nothing is recorded in the outbox: an archived member has not changed. Deleting archived members records them in the outbox, as
+ * the deletes of the hot tables do, in the same transaction.
+ * </p>
+ * <p>
+ * The lookups ({@link #findOne(Long)}, {@link #findByMemberNumber(String)}, ...) read the archive alone, in the transaction of the caller if any;
+ * {@link TieredMemberRepository} falls through to them when the hot tables miss. {@link #restore(Collection)} moves members back to the hot
+ * tables before they are written. The member and employee numbers are unique within each tier, not across them:
+ * {@link #findNumberConflicts(Collection)} checks the members about to be written against the archive.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Repository,name=memberArchive", description = "Moves the inactive members to the archive")
+public class MemberArchive implements InitializingBean, DisposableBean {
+
+    private static final Log LOG = LogFactory.getLog(MemberArchive.class);
+
+    /** Default number of members moved per transaction */
+    public static final int DEFAULT_BATCH_SIZE = 500;
+
+    /** Default number of days without update before a member is archived */
+    public static final int DEFAULT_INACTIVE_DAYS = 730;
+
+    /** Maximum number of values bound in a single <code>IN</code> list */
+    private static final int MAX_IN_LIST_SIZE = 1000;
+
+    /** The archive tables under the names of the hot ones, so that {@link MemberRecordMapper} reads their rows */
+    private static final Members ARCHIVE = ARCHIVED_MEMBERS.as(MEMBERS.getName());
+
+    private static final Persons ARCHIVE_PERSONS = ARCHIVED_PERSONS.as(PERSONS.getName());
+
+    private final DSLContext dsl;
+
+    /** Joins the transaction of the caller */
+    private final TransactionTemplate transactionTemplate;
+
+    /** One transaction per batch of {@link #archive(Date)} */
+    private final TransactionTemplate batchTransactionTemplate;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int inactiveDays = DEFAULT_INACTIVE_DAYS;
+
+    private long intervalMillis;
+
+    private ScheduledThreadPoolExecutor scheduler;
+
+    private volatile boolean stopping;
+
+    private final AtomicLong archived = new AtomicLong();
+
+    private final AtomicLong restored = new AtomicLong();
+
+    /**
+     * @param dsl
+     *            The jOOQ context of the hot tables, see {@link fred.custom.crm.core.repositories.jooq.DSLContextFactoryBean}
+     * @param transactionManager
+     *            The transaction manager of the data source of the context
+     */
+    public MemberArchive(DSLContext dsl, PlatformTransactionManager transactionManager) {
+        Assert.notNull(dsl, "dsl is required");
+        Assert.notNull(transactionManager, "transactionManager is required");
+        this.dsl = dsl;
+        this.transactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchTransactionTemplate = new TransactionTemplate(transactionManager);
+        this.batchTransactionTemplate.setPropagationBehavior(TransactionDefinition.PROPAGATION_REQUIRES_NEW);
+    }
+
+    /**
+     * Schedules {@link #archiveInactive()} every {@link #setIntervalMillis(long) interval}, if any.
+     *
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        if (intervalMillis > 0L) {
+            scheduler = new ScheduledThreadPoolExecutor(1, runnable -> {
+                Thread thread = new Thread(runnable, "member-archiver");
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleWithFixedDelay(this::archiveQuietly, intervalMillis, intervalMillis, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    /**
+     * Stops the run in progress after its current batch.
+     *
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        stopping = true;
+        if (scheduler != null) {
+            scheduler.shutdown();
+            scheduler.awaitTermination(10L, TimeUnit.SECONDS);
+        }
+    }
+
+    /**
+     * Archives the members not updated for {@link #setInactiveDays(int) inactive days}.
+     *
+     * @return The number of members archived
+     */
+    @ManagedOperation(description = "Moves the members not updated for the inactive days to the archive")
+    public long archiveInactive() {
+        return archive(new Date(System.currentTimeMillis() - TimeUnit.DAYS.toMillis(inactiveDays)));
+    }
+
+    /**
+     * Moves the members not updated since a date to the archive, with their persons, one transaction per batch.
+     *
+     * @param cutoff
+     *            The members whose last update date is before it are archived
+     * @return The number of members archived, fewer than all of them if the run was {@link #stop() stopped}
+     */
+    public synchronized long archive(Date cutoff) {
+        Assert.notNull(cutoff, "cutoff is required");
+        long start = System.currentTimeMillis();
+        stopping = false;
+        Timestamp before = new Timestamp(cutoff.getTime());
+        long count = 0L;
+        long lastId = Long.MIN_VALUE;
+        while (!stopping) {
+            long after = lastId;
+            List<Long> ids = batchTransactionTemplate.execute(status -> archiveBatch(before, after));
+            count += ids.size();
+            if (ids.size() < batchSize) {
+                break;
+            }
+            lastId = ids.get(ids.size() - 1).longValue();
+        }
+        LOG.info("Archived " + count + " members not updated since " + cutoff + " in " + (System.currentTimeMillis() - start) + " ms"
+                + (stopping ? ", stopped" : ""));
+        return count;
+    }
+
+    /**
+     * Stops the run in progress after its current batch, the next run goes on from there.
+     */
+    @ManagedOperation(description = "Stops the archiving in progress after its current batch")
+    public void stop() {
+        stopping = true;
+    }
+
+    /**
+     * Moves members back from the archive to the hot tables, in the transaction of the caller if any, so that they can be written.
+     *
+     * @param ids
+     *            The ids of members, archived or not
+     * @return The ids of the members which were archived, now restored
+     */
+    public Set<Long> restore(Collection<Long> ids) {
+        Assert.notNull(ids, "ids is required");
+        if (ids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return transactionTemplate.execute(status -> {
+            Set<Long> result = new LinkedHashSet<Long>();
+            for (List<Long> chunk : chunk(ids)) {
+                Result<Record2<Long, Long>> rows = dsl.select(ARCHIVED_MEMBERS.ID, ARCHIVED_MEMBERS.PERSON_ID).from(ARCHIVED_MEMBERS)
+                        .where(ARCHIVED_MEMBERS.ID.in(chunk)).forUpdate().fetch();
+                if (rows.isNotEmpty()) {
+                    List<Long> memberIds = rows.getValues(ARCHIVED_MEMBERS.ID);
+                    List<Long> personIds = rows.getValues(ARCHIVED_MEMBERS.PERSON_ID);
+                    move(ARCHIVED_MEMBERS, ARCHIVED_PERSONS, MEMBERS, PERSONS, memberIds, personIds);
+                    result.addAll(memberIds);
+                }
+            }
+            restored.addAndGet(result.size());
+            return result;
+        });
+    }
+
+    /**
+     * @param id
+     *            The id of a member
+     * @return The archived member with its person, or <code>null</code> if it is not archived
+     */
+    public Member findOne(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        return map(selectArchived().where(ARCHIVE.ID.equal(id)).fetchOne());
+    }
+
+    /**
+     * @param ids
+     *            The ids of members
+     * @return The archived members among them, with their persons, in no particular order
+     */
+    public List<Member> findAll(Collection<Long> ids) {
+        Assert.notNull(ids, "ids is required");
+        List<Member> members = new ArrayList<Member>();
+        for (List<Long> chunk : chunk(ids)) {
+            members.addAll(selectArchived().where(ARCHIVE.ID.in(chunk)).fetch(MemberRecordMapper.INSTANCE));
+        }
+        return members;
+    }
+
+    /**
+     * @param memberNumber
+     *            A member number
+     * @return The archived member with its person, or <code>null</code> if none has this member number
+     */
+    public Member findByMemberNumber(String memberNumber) {
+        return map(selectArchived().where(ARCHIVE.MEMBER_NUMBER.equal(memberNumber)).fetchOne());
+    }
+
+    /**
+     * @param employeeNumber
+     *            An employee number
+     * @return The archived member with its person, or <code>null</code> if none has this employee number
+     */
+    public Member findByEmployeeNumber(String employeeNumber) {
+        return map(selectArchived().where(ARCHIVE.EMPLOYEE_NUMBER.equal(employeeNumber)).fetchOne());
+    }
+
+    /**
+     * @param members
+     *            Members about to be written to the hot tables, with or without ids
+     * @return The ids of the archived members, other than the given ones, which have the member number or the employee number of one of them
+     */
+    public Set<Long> findNumberConflicts(Collection<? extends Member> members) {
+        Assert.notNull(members, "members is required");
+        Set<Long> ids = new HashSet<Long>();
+        Set<String> memberNumbers = new LinkedHashSet<String>();
+        Set<String> employeeNumbers = new LinkedHashSet<String>();
+        for (Member member : members) {
+            if (member.getId() != null) {
+                ids.add(member.getId());
+            }
+            if (member.getMemberNumber() != null) {
+                memberNumbers.add(member.getMemberNumber());
+            }
+            if (member.getEmployeeNumber() != null) {
+                employeeNumbers.add(member.getEmployeeNumber());
+            }
+        }
+        Set<Long> conflicts = new LinkedHashSet<Long>();
+        for (List<String> chunk : chunk(memberNumbers)) {
+            conflicts.addAll(dsl.select(ARCHIVED_MEMBERS.ID).from(ARCHIVED_MEMBERS).where(ARCHIVED_MEMBERS.MEMBER_NUMBER.in(chunk))
+                    .fetch(ARCHIVED_MEMBERS.ID));
+        }
+        for (List<String> chunk : chunk(employeeNumbers)) {
+            conflicts.addAll(dsl.select(ARCHIVED_MEMBERS.ID).from(ARCHIVED_MEMBERS).where(ARCHIVED_MEMBERS.EMPLOYEE_NUMBER.in(chunk))
+                    .fetch(ARCHIVED_MEMBERS.ID));
+        }
+        conflicts.removeAll(ids);
+        return conflicts;
+    }
+
+    /**
+     * @param id
+     *            The id of a member
+     * @return The version stamp of the archived member, see
+     *         {@link fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findVersionStamp(Long)}, or <code>null</code> if it
+     *         is not archived
+     */
+    public MemberVersionStamp findVersionStamp(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        Record3<Integer, Long, Integer> record = dsl.select(ARCHIVE.VERSION, ARCHIVE_PERSONS.ID, ARCHIVE_PERSONS.VERSION).from(ARCHIVE)
+                .join(ARCHIVE_PERSONS).on(ARCHIVE.PERSON_ID.equal(ARCHIVE_PERSONS.ID)).where(ARCHIVE.ID.equal(id)).fetchOne();
+        return record == null ? null : new MemberVersionStamp(record.value1().intValue(), record.value2(), record.value3().intValue());
+    }
+
+    /**
+     * Deletes archived members and their persons, without checking their versions, and records the deletes in the outbox.
+     *
+     * @param ids
+     *            The ids of members, archived or not
+     * @return The ids of the members which were archived, now deleted
+     */
+    public Set<Long> delete(Collection<Long> ids) {
+        Assert.notNull(ids, "ids is required");
+        if (ids.isEmpty()) {
+            return Collections.emptySet();
+        }
+        return transactionTemplate.execute(status -> {
+            Set<Long> result = new LinkedHashSet<Long>();
+            for (List<Long> chunk : chunk(ids)) {
+                Result<Record2<Long, Long>> rows = dsl.select(ARCHIVED_MEMBERS.ID, ARCHIVED_MEMBERS.PERSON_ID).from(ARCHIVED_MEMBERS)
+                        .where(ARCHIVED_MEMBERS.ID.in(chunk)).forUpdate().fetch();
+                if (rows.isNotEmpty()) {
+                    recordDeletes(ARCHIVED_MEMBERS.ID.in(rows.getValues(ARCHIVED_MEMBERS.ID)));
+                    dsl.delete(ARCHIVED_MEMBERS).where(ARCHIVED_MEMBERS.ID.in(rows.getValues(ARCHIVED_MEMBERS.ID))).execute();
+                    dsl.delete(ARCHIVED_PERSONS).where(ARCHIVED_PERSONS.ID.in(rows.getValues(ARCHIVED_MEMBERS.PERSON_ID))).execute();
+                    result.addAll(rows.getValues(ARCHIVED_MEMBERS.ID));
+                }
+            }
+            return result;
+        });
+    }
+
+    /**
+     * Deletes all the archived members and their persons, and records the deletes in the outbox.
+     */
+    public void deleteAll() {
+        transactionTemplate.execute(status -> {
+            recordDeletes(DSL.trueCondition());
+            dsl.delete(ARCHIVED_MEMBERS).execute();
+            return Integer.valueOf(dsl.delete(ARCHIVED_PERSONS).execute());
+        });
+    }
+
+    @ManagedAttribute(description = "Archived members")
+    public long count() {
+        return dsl.selectCount().from(ARCHIVED_MEMBERS).fetchOne(0, Long.class).longValue();
+    }
+
+    @ManagedAttribute(description = "Members archived since the start")
+    public long getArchived() {
+        return archived.get();
+    }
+
+    @ManagedAttribute(description = "Members restored since the start")
+    public long getRestored() {
+        return restored.get();
+    }
+
+    /**
+     * @param batchSize
+     *            The number of members moved per transaction, at most 1000: they are locked until it commits
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0 && batchSize <= MAX_IN_LIST_SIZE, "batchSize must be between 1 and " + MAX_IN_LIST_SIZE);
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param inactiveDays
+     *            The number of days without update before {@link #archiveInactive()} archives a member
+     */
+    public void setInactiveDays(int inactiveDays) {
+        Assert.isTrue(inactiveDays > 0, "inactiveDays must be positive");
+        this.inactiveDays = inactiveDays;
+    }
+
+    /**
+     * @param intervalMillis
+     *            The delay between two runs of {@link #archiveInactive()}, 0 (the default) to run it through JMX only
+     */
+    public void setIntervalMillis(long intervalMillis) {
+        Assert.isTrue(intervalMillis >= 0L, "intervalMillis must not be negative");
+        this.intervalMillis = intervalMillis;
+    }
+
+    /**
+     * @return The ids of the members archived, in the order of the ids; fewer than the batch size if none is left
+     */
+    private List<Long> archiveBatch(Timestamp before, long afterId) {
+        Result<Record2<Long, Long>> rows = dsl.select(MEMBERS.ID, MEMBERS.PERSON_ID).from(MEMBERS)
+                .where(MEMBERS.ID.greaterThan(Long.valueOf(afterId))).and(MEMBERS.LAST_UPDATE_DATE.lessThan(before)).orderBy(MEMBERS.ID)
+                .limit(batchSize).forUpdate().fetch();
+        List<Long> ids = rows.getValues(MEMBERS.ID);
+        if (!ids.isEmpty()) {
+            move(MEMBERS, PERSONS, ARCHIVED_MEMBERS, ARCHIVED_PERSONS, ids, rows.getValues(MEMBERS.PERSON_ID));
+            archived.addAndGet(ids.size());
+        }
+        return ids;
+    }
+
+    /**
+     * Copies members and their persons from a tier to the other, then deletes them from the first one.
+     */
+    private void move(Members fromMembers, Persons fromPersons, Members toMembers, Persons toPersons, List<Long> ids, List<Long> personIds) {
+        dsl.insertInto(toPersons, toPersons.fields()).select(dsl.select(fromPersons.fields()).from(fromPersons).where(fromPersons.ID.in(personIds)))
+                .execute();
+        dsl.insertInto(toMembers, toMembers.fields()).select(dsl.select(fromMembers.fields()).from(fromMembers).where(fromMembers.ID.in(ids)))
+                .execute();
+        dsl.delete(fromMembers).where(fromMembers.ID.in(ids)).execute();
+        dsl.delete(fromPersons).where(fromPersons.ID.in(personIds)).execute();
+    }
+
+    private void archiveQuietly() {
+        try {
+            archiveInactive();
+        } catch (RuntimeException e) {
+            LOG.warn("Archiving the inactive members failed, the next run will go on", e);
+        }
+    }
+
+    private static Member map(Record record) {
+        return record == null ? null : MemberRecordMapper.INSTANCE.map(record);
+    }
+
+    private SelectJoinStep<Record> selectArchived() {
+        return dsl.select().from(ARCHIVE).join(ARCHIVE_PERSONS).on(ARCHIVE.PERSON_ID.equal(ARCHIVE_PERSONS.ID));
+    }
+
+    /**
+     * Writes the outbox entries of the archived members matching the condition, with their versions, before they are deleted: the consumers
+     * learn of the deletes of archived members as of the hot ones.
+     */
+    private void recordDeletes(Condition condition) {
+        dsl.insertInto(MEMBER_CHANGES, MEMBER_CHANGES.MEMBER_ID, MEMBER_CHANGES.MEMBER_VERSION, MEMBER_CHANGES.CHANGE_TYPE, MEMBER_CHANGES.CHANGED_ON)
+                .select(dsl.select(ARCHIVED_MEMBERS.ID, ARCHIVED_MEMBERS.VERSION, DSL.val(MemberChange.Type.DELETE.name()),
+                        DSL.val(new Timestamp(System.currentTimeMillis()))).from(ARCHIVED_MEMBERS).where(condition)).execute();
+    }
+
+    private static <T> List<List<T>> chunk(Collection<T> all) {
+        List<T> values = new ArrayList<T>(all);
+        List<List<T>> chunks = new ArrayList<List<T>>();
+        for (int i = 0; i < values.size(); i += MAX_IN_LIST_SIZE) {
+            chunks.add(values.subList(i, Math.min(values.size(), i + MAX_IN_LIST_SIZE)));
+        }
+        return chunks;
+    }
+}
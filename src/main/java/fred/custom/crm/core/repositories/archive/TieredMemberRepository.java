@@ -0,0 +1,570 @@
+package fred.custom.crm.core.repositories.archive;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberSummary;
+import fred.custom.crm.core.repositories.KeysetPage;
+import fred.custom.crm.core.repositories.MultiGetResult;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersion;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersionStamp;
+
+/**
+ * A {@link MemberRepository} over the hot tables of another repository and the {@link MemberArchive} of the inactive members.
+ * <p>
+ * The lookups by key ({@link #findOne(Long)}, {@link #findByMemberNumber(String)}, {@link #findByEmployeeNumber(String)},
+ * {@link #findAll(Iterable)}, {@link #multiGet(List)}, {@link #exists(Long)} and {@link #findVersionStamp(Long)}) go to the target repository
+ * first, then to the archive for what it misses: only the members not found pay for the second query. An archived member is read with its
+ * person whatever the fetch plan. The counts, pages, searches and streams cover the hot members only.
+ * </p>
+ * <p>
+ * The archived members are moved back to the hot tables before they are written: {@link #save(Member)} restores the member first (one lookup by
+ * id in the archive per save of an existing member), the bulk updates restore the members they did not find and update them again. The deletes
+ * delete from both tiers. {@link #getOne(Long)} only knows the hot members.
+ * </p>
+ * <p>
+ * The member and employee numbers are unique within each tier only: the saves look the numbers of the members up in the archive before writing
+ * them (two lookups by unique key per save), and fail with a {@link DuplicateKeyException} if an archived member has one of them.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Repository,name=tieredMemberRepository", description = "Hot and archived members")
+public class TieredMemberRepository implements MemberRepository {
+
+    /** Number of members of {@link #saveInBatch(Iterable)} restored and checked at once */
+    private static final int PREPARE_CHUNK_SIZE = 500;
+
+    private final MemberRepository target;
+
+    private final MemberArchive archive;
+
+    private final AtomicLong archiveHits = new AtomicLong();
+
+    /**
+     * @param target
+     *            The repository of the hot members
+     * @param archive
+     *            The archive of the inactive members, on the database of the target repository
+     */
+    public TieredMemberRepository(MemberRepository target, MemberArchive archive) {
+        Assert.notNull(target, "target is required");
+        Assert.notNull(archive, "archive is required");
+        this.target = target;
+        this.archive = archive;
+    }
+
+    /**
+     * The hot members only, see {@link MemberArchive#count()} for the others.
+     *
+     * @see org.springframework.data.repository.CrudRepository#count()
+     */
+    @Override
+    public long count() {
+        return target.count();
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.io.Serializable)
+     */
+    @Override
+    public void delete(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        if (archive.delete(Collections.singleton(id)).isEmpty()) {
+            target.delete(id);
+        }
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.lang.Object)
+     */
+    @Override
+    public void delete(Member member) {
+        Assert.notNull(member, "The entity must not be null!");
+        if (member.getId() == null || archive.delete(Collections.singleton(member.getId())).isEmpty()) {
+            target.delete(member);
+        }
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.lang.Iterable)
+     */
+    @Override
+    public void delete(Iterable<? extends Member> members) {
+        target.delete(deleteArchived(members));
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#deleteAll()
+     */
+    @Override
+    public void deleteAll() {
+        target.deleteAll();
+        archive.deleteAll();
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#deleteAllInBatch()
+     */
+    @Override
+    public void deleteAllInBatch() {
+        target.deleteAllInBatch();
+        archive.deleteAll();
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#deleteInBatch(java.lang.Iterable)
+     */
+    @Override
+    public void deleteInBatch(Iterable<Member> members) {
+        target.deleteInBatch(deleteArchived(members));
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#exists(java.io.Serializable)
+     */
+    @Override
+    public boolean exists(Long id) {
+        return target.exists(id) || archive.findVersionStamp(id) != null;
+    }
+
+    /**
+     * The hot members only.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll()
+     */
+    @Override
+    public List<Member> findAll() {
+        return target.findAll();
+    }
+
+    /**
+     * The archived members follow the hot ones.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll(java.lang.Iterable)
+     */
+    @Override
+    public List<Member> findAll(Iterable<Long> ids) {
+        List<Member> members = target.findAll(ids);
+        Set<Long> missing = new LinkedHashSet<Long>();
+        for (Long id : ids) {
+            missing.add(id);
+        }
+        for (Member member : members) {
+            missing.remove(member.getId());
+        }
+        if (!missing.isEmpty()) {
+            List<Member> archived = archive.findAll(missing);
+            archiveHits.addAndGet(archived.size());
+            members.addAll(archived);
+        }
+        return members;
+    }
+
+    /**
+     * @see org.springframework.data.repository.PagingAndSortingRepository#findAll(org.springframework.data.domain.Pageable)
+     */
+    @Override
+    public Page<Member> findAll(Pageable pageable) {
+        return target.findAll(pageable);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findAll(org.springframework.data.domain.Pageable,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    public Page<Member> findAll(Pageable pageable, MemberFetchPlan plan) {
+        return target.findAll(pageable, plan);
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll(org.springframework.data.domain.Sort)
+     */
+    @Override
+    public List<Member> findAll(Sort sort) {
+        return target.findAll(sort);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByEmployeeNumber(java.lang.String)
+     */
+    @Override
+    public Member findByEmployeeNumber(String employeeNumber) {
+        Member member = target.findByEmployeeNumber(employeeNumber);
+        return member != null ? member : countHit(archive.findByEmployeeNumber(employeeNumber));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByMemberNumber(java.lang.String)
+     */
+    @Override
+    public Member findByMemberNumber(String memberNumber) {
+        Member member = target.findByMemberNumber(memberNumber);
+        return member != null ? member : countHit(archive.findByMemberNumber(memberNumber));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findByNamePrefix(java.lang.String, java.lang.String,
+     *      int)
+     */
+    @Override
+    public List<Member> findByNamePrefix(String lastNamePrefix, String firstNamePrefix, int maxResults) {
+        return target.findByNamePrefix(lastNamePrefix, firstNamePrefix, maxResults);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByPersonCellPhoneNumber(java.lang.String)
+     */
+    @Override
+    public List<Member> findByPersonCellPhoneNumber(String cellPhoneNumber) {
+        return target.findByPersonCellPhoneNumber(cellPhoneNumber);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByPersonEmail(java.lang.String)
+     */
+    @Override
+    public List<Member> findByPersonEmail(String email) {
+        return target.findByPersonEmail(email);
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#findOne(java.io.Serializable)
+     */
+    @Override
+    public Member findOne(Long id) {
+        Member member = target.findOne(id);
+        return member != null ? member : countHit(archive.findOne(id));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findOne(java.lang.Long,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    public Member findOne(Long id, MemberFetchPlan plan) {
+        Member member = target.findOne(id, plan);
+        return member != null ? member : countHit(archive.findOne(id));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findPage(fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset.Order,
+     *      java.lang.String, int)
+     */
+    @Override
+    public KeysetPage<Member> findPage(MemberKeyset.Order order, String continuationToken, int size) {
+        return target.findPage(order, continuationToken, size);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findSummaries(org.springframework.data.domain.Pageable)
+     */
+    @Override
+    public Page<MemberSummary> findSummaries(Pageable pageable) {
+        return target.findSummaries(pageable);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findVersionStamp(java.lang.Long)
+     */
+    @Override
+    public MemberVersionStamp findVersionStamp(Long id) {
+        MemberVersionStamp stamp = target.findVersionStamp(id);
+        return stamp != null ? stamp : archive.findVersionStamp(id);
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#flush()
+     */
+    @Override
+    public void flush() {
+        target.flush();
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#getOne(java.io.Serializable)
+     */
+    @Override
+    public Member getOne(Long id) {
+        return target.getOne(id);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#multiGet(java.util.List)
+     */
+    @Override
+    public MultiGetResult<Member> multiGet(List<Long> ids) {
+        MultiGetResult<Member> result = target.multiGet(ids);
+        if (result.isComplete()) {
+            return result;
+        }
+        Map<Long, Member> found = new HashMap<Long, Member>();
+        for (Member member : result) {
+            found.put(member.getId(), member);
+        }
+        List<Member> archived = archive.findAll(new LinkedHashSet<Long>(result.getMissingIds()));
+        archiveHits.addAndGet(archived.size());
+        for (Member member : archived) {
+            found.put(member.getId(), member);
+        }
+        return MultiGetResult.inOrder(ids, found);
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#save(java.lang.Iterable)
+     */
+    @Override
+    public <S extends Member> List<S> save(Iterable<S> members) {
+        List<S> list = new ArrayList<S>();
+        for (S member : members) {
+            list.add(member);
+        }
+        prepare(list);
+        return target.save(list);
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#save(java.lang.Object)
+     */
+    @Override
+    public <S extends Member> S save(S member) {
+        prepare(Collections.singletonList(member));
+        return target.save(member);
+    }
+
+    /**
+     * The members are prepared like the ones of {@link #save(Member)} by chunks of {@link #PREPARE_CHUNK_SIZE}, as the target repository reads
+     * them: the source is still read once, and only a chunk is kept in memory.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#saveInBatch(java.lang.Iterable)
+     */
+    @Override
+    public int saveInBatch(Iterable<? extends Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        return target.saveInBatch(prepared(members));
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#saveAndFlush(java.lang.Object)
+     */
+    @Override
+    public <S extends Member> S saveAndFlush(S member) {
+        prepare(Collections.singletonList(member));
+        return target.saveAndFlush(member);
+    }
+
+    /**
+     * The hot members only.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#streamAll(fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback)
+     */
+    @Override
+    public long streamAll(MemberCallback callback) {
+        return target.streamAll(callback);
+    }
+
+    /**
+     * The archived members are restored, then updated.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateAuditFields(java.util.Collection, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    public Set<Long> updateAuditFields(Collection<MemberVersion> members, String lastUpdateUser, Date lastUpdateDate) {
+        Set<Long> conflicts = target.updateAuditFields(members, lastUpdateUser, lastUpdateDate);
+        Set<Long> restored = restore(conflicts);
+        if (restored.isEmpty()) {
+            return conflicts;
+        }
+        List<MemberVersion> retried = new ArrayList<MemberVersion>(restored.size());
+        for (MemberVersion member : members) {
+            if (restored.contains(member.getId())) {
+                retried.add(member);
+            }
+        }
+        return merge(conflicts, restored, target.updateAuditFields(retried, lastUpdateUser, lastUpdateDate));
+    }
+
+    /**
+     * The archived members are restored, then updated.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateEmployeeNumbers(java.util.Map, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    public Set<Long> updateEmployeeNumbers(Map<MemberVersion, String> employeeNumbers, String lastUpdateUser, Date lastUpdateDate) {
+        Set<Long> conflicts = target.updateEmployeeNumbers(employeeNumbers, lastUpdateUser, lastUpdateDate);
+        Set<Long> restored = restore(conflicts);
+        if (restored.isEmpty()) {
+            return conflicts;
+        }
+        Map<MemberVersion, String> retried = new LinkedHashMap<MemberVersion, String>();
+        for (Map.Entry<MemberVersion, String> entry : employeeNumbers.entrySet()) {
+            if (restored.contains(entry.getKey().getId())) {
+                retried.put(entry.getKey(), entry.getValue());
+            }
+        }
+        return merge(conflicts, restored, target.updateEmployeeNumbers(retried, lastUpdateUser, lastUpdateDate));
+    }
+
+    /**
+     * The archived members are restored, then touched: a touch makes them active again.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#touch(java.util.Collection)
+     */
+    @Override
+    public Set<Long> touch(Collection<MemberTouch> touches) {
+        Set<Long> skipped = target.touch(touches);
+        Set<Long> restored = restore(skipped);
+        if (restored.isEmpty()) {
+            return skipped;
+        }
+        List<MemberTouch> retried = new ArrayList<MemberTouch>(restored.size());
+        for (MemberTouch touch : touches) {
+            if (restored.contains(touch.getId())) {
+                retried.add(touch);
+            }
+        }
+        return merge(skipped, restored, target.touch(retried));
+    }
+
+    /**
+     * @return The archive of the inactive members
+     */
+    public MemberArchive getArchive() {
+        return archive;
+    }
+
+    @ManagedAttribute(description = "Members found in the archive by the lookups")
+    public long getArchiveHits() {
+        return archiveHits.get();
+    }
+
+    private Member countHit(Member archived) {
+        if (archived != null) {
+            archiveHits.incrementAndGet();
+        }
+        return archived;
+    }
+
+    /**
+     * Restores the archived members among members about to be saved, and checks the numbers of the others against the archive.
+     *
+     * @throws DuplicateKeyException
+     *             If an archived member has the member number or the employee number of one of them
+     */
+    private void prepare(List<? extends Member> members) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Member member : members) {
+            Assert.notNull(member, "Entity must not be null.");
+            if (member.getId() != null) {
+                ids.add(member.getId());
+            }
+        }
+        archive.restore(ids);
+        Set<Long> conflicts = archive.findNumberConflicts(members);
+        if (!conflicts.isEmpty()) {
+            throw new DuplicateKeyException("The archived members " + conflicts + " have the member or employee numbers of members to save");
+        }
+    }
+
+    /**
+     * @return The members, {@link #prepare(List) prepared} by chunks while they are iterated
+     */
+    private <S extends Member> Iterable<S> prepared(Iterable<S> members) {
+        return () -> new Iterator<S>() {
+
+            private final Iterator<S> source = members.iterator();
+
+            private Iterator<S> chunk = Collections.<S> emptyList().iterator();
+
+            @Override
+            public boolean hasNext() {
+                if (!chunk.hasNext() && source.hasNext()) {
+                    List<S> next = new ArrayList<S>(PREPARE_CHUNK_SIZE);
+                    while (next.size() < PREPARE_CHUNK_SIZE && source.hasNext()) {
+                        next.add(source.next());
+                    }
+                    prepare(next);
+                    chunk = next.iterator();
+                }
+                return chunk.hasNext();
+            }
+
+            @Override
+            public S next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return chunk.next();
+            }
+        };
+    }
+
+    /**
+     * @return The ids among the ones the target repository did not update which were archived, now restored
+     */
+    private Set<Long> restore(Set<Long> notUpdated) {
+        return notUpdated.isEmpty() ? Collections.<Long> emptySet() : archive.restore(notUpdated);
+    }
+
+    /**
+     * @return The members deleted from the archive removed, the others to delete from the hot tables
+     */
+    private List<Member> deleteArchived(Iterable<? extends Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        List<Long> ids = new ArrayList<Long>();
+        for (Member member : members) {
+            if (member.getId() != null) {
+                ids.add(member.getId());
+            }
+        }
+        Set<Long> deleted = archive.delete(ids);
+        List<Member> hot = new ArrayList<Member>();
+        for (Member member : members) {
+            if (member.getId() == null || !deleted.contains(member.getId())) {
+                hot.add(member);
+            }
+        }
+        return hot;
+    }
+
+    /**
+     * @return The ids not updated at first, but the restored ones updated at the second attempt, in their first order
+     */
+    private static Set<Long> merge(Set<Long> notUpdated, Set<Long> restored, Set<Long> stillNotUpdated) {
+        Set<Long> result = new LinkedHashSet<Long>();
+        for (Long id : notUpdated) {
+            if (!restored.contains(id) || stillNotUpdated.contains(id)) {
+                result.add(id);
+            }
+        }
+        return result;
+    }
+}
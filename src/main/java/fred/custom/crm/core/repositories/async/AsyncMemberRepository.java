@@ -0,0 +1,343 @@
+package fred.custom.crm.core.repositories.async;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Function;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+
+/**
+ * Runs the calls to a {@link MemberRepository} on a dedicated, bounded executor, so that the callers get a {@link CompletableFuture} instead of
+ * waiting for JDBC.
+ * <p>
+ * At most {@link #setConcurrency(int) concurrency} calls run at the same time, which should leave some connections of the pool to the
+ * synchronous callers, and at most {@link #setQueueCapacity(int) queue capacity} more wait for their turn. Past that, a call is rejected at once
+ * with a {@link RejectedExecutionException}: a stalled database fills the queue and then fails fast, instead of holding the threads of the web
+ * tier. A call which has not completed after its timeout fails with a {@link TimeoutException}; if it was still queued it never runs, if it was
+ * running it goes on in the background (interrupting JDBC is not safe), still counted in the concurrency.
+ * </p>
+ * <p>
+ * Each call runs in its own transaction, the one of the repository method: it never joins the transaction of the caller. The dependent stages
+ * of the futures run on the repository threads unless they are registered with the <code>...Async</code> methods of {@link CompletableFuture}, so
+ * they must be short.
+ * </p>
+ * <p>
+ * With {@link #setVirtualThreads(boolean) virtual threads}, on JDK 21 and later, each call runs on a new virtual thread and the concurrency is
+ * enforced by a semaphore. On older JDKs the setting is ignored with a warning.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Repository,name=asyncMemberRepository", description = "Asynchronous member repository")
+public class AsyncMemberRepository implements InitializingBean, DisposableBean {
+
+    private static final Log LOG = LogFactory.getLog(AsyncMemberRepository.class);
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private final MemberRepository memberRepository;
+
+    private int concurrency = 8;
+
+    private int queueCapacity = 100;
+
+    private long timeoutMillis = 5000L;
+
+    private boolean virtualThreads;
+
+    private ExecutorService executor;
+
+    private ScheduledThreadPoolExecutor timer;
+
+    /** Calls running or waiting, at most concurrency + queueCapacity */
+    private Semaphore admitted;
+
+    /** Calls running, only with virtual threads: the platform threads are as many as the concurrency */
+    private Semaphore running;
+
+    private final AtomicInteger active = new AtomicInteger();
+
+    private final AtomicLong rejected = new AtomicLong();
+
+    private final AtomicLong timedOut = new AtomicLong();
+
+    /**
+     * @param memberRepository
+     *            The repository called asynchronously
+     */
+    public AsyncMemberRepository(MemberRepository memberRepository) {
+        this.memberRepository = memberRepository;
+    }
+
+    /**
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        admitted = new Semaphore(concurrency + queueCapacity);
+        timer = new ScheduledThreadPoolExecutor(1, threadFactory("member-repository-timeout-"));
+        timer.setRemoveOnCancelPolicy(true);
+        if (virtualThreads) {
+            executor = newVirtualThreadPerTaskExecutor();
+            if (executor == null) {
+                LOG.warn("Virtual threads are not available on Java " + System.getProperty("java.version") + ", using platform threads");
+            } else {
+                running = new Semaphore(concurrency);
+            }
+        }
+        if (executor == null) {
+            // The queue is bounded by the admission
+            executor = new ThreadPoolExecutor(concurrency, concurrency, 0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>(),
+                    threadFactory("member-repository-async-"));
+        }
+    }
+
+    /**
+     * Waits for the running calls up to the timeout, the calls still queued are not run.
+     *
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        executor.shutdown();
+        executor.awaitTermination(timeoutMillis, TimeUnit.MILLISECONDS);
+        executor.shutdownNow();
+        timer.shutdownNow();
+    }
+
+    /**
+     * @param id
+     *            The id of the member to delete
+     * @return A future completed once the member is deleted
+     * @see MemberRepository#delete(java.io.Serializable)
+     */
+    public CompletableFuture<Void> delete(final Long id) {
+        return execute(repository -> {
+            repository.delete(id);
+            return null;
+        });
+    }
+
+    /**
+     * @param pageable
+     *            The page to read
+     * @return A future of the page
+     * @see MemberRepository#findAll(Pageable)
+     */
+    public CompletableFuture<Page<Member>> findAll(final Pageable pageable) {
+        return execute(repository -> repository.findAll(pageable));
+    }
+
+    /**
+     * @param id
+     *            The id of the member
+     * @return A future of the member, of <code>null</code> if it does not exist
+     * @see MemberRepository#findOne(java.io.Serializable)
+     */
+    public CompletableFuture<Member> findOne(final Long id) {
+        return execute(repository -> repository.findOne(id));
+    }
+
+    /**
+     * @param member
+     *            The member to save
+     * @return A future of the saved member
+     * @see MemberRepository#save(Object)
+     */
+    public CompletableFuture<Member> save(final Member member) {
+        return execute(repository -> repository.save(member));
+    }
+
+    /**
+     * Runs any call to the repository, with the default timeout.
+     *
+     * @param call
+     *            The call, which should make a single repository call to keep a single transaction
+     * @return A future of its result
+     */
+    public <T> CompletableFuture<T> execute(Function<MemberRepository, T> call) {
+        return execute(call, timeoutMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Runs any call to the repository.
+     *
+     * @param call
+     *            The call, which should make a single repository call to keep a single transaction
+     * @param timeout
+     *            The time after which the future fails with a {@link TimeoutException}, from now
+     * @param unit
+     *            The unit of the timeout
+     * @return A future of its result, already failed with a {@link RejectedExecutionException} if too many calls are waiting
+     */
+    public <T> CompletableFuture<T> execute(final Function<MemberRepository, T> call, long timeout, TimeUnit unit) {
+        Assert.state(executor != null, "The repository is not started");
+        final CompletableFuture<T> result = new CompletableFuture<T>();
+        if (!admitted.tryAcquire()) {
+            rejected.incrementAndGet();
+            result.completeExceptionally(new RejectedExecutionException("Too many calls to the member repository: " + concurrency + " running and "
+                    + queueCapacity + " waiting"));
+            return result;
+        }
+        final ScheduledFuture<?> timeoutTask = timer.schedule(() -> {
+            // Counted before the future fails, so its callers see the count
+            timedOut.incrementAndGet();
+            if (!result.completeExceptionally(new TimeoutException("Member repository call timed out after " + unit.toMillis(timeout) + " ms"))) {
+                timedOut.decrementAndGet();
+            }
+        }, timeout, unit);
+        try {
+            executor.execute(() -> run(call, result, timeoutTask));
+        } catch (RejectedExecutionException e) {
+            // Shut down
+            admitted.release();
+            timeoutTask.cancel(false);
+            rejected.incrementAndGet();
+            result.completeExceptionally(e);
+        }
+        return result;
+    }
+
+    @ManagedAttribute(description = "Calls running")
+    public int getActive() {
+        return active.get();
+    }
+
+    @ManagedAttribute(description = "Calls waiting to run")
+    public int getQueued() {
+        return Math.max(0, concurrency + queueCapacity - admitted.availablePermits() - active.get());
+    }
+
+    @ManagedAttribute(description = "Calls rejected because too many were waiting")
+    public long getRejected() {
+        return rejected.get();
+    }
+
+    @ManagedAttribute(description = "Calls which timed out")
+    public long getTimedOut() {
+        return timedOut.get();
+    }
+
+    /**
+     * @return <code>true</code> if the calls run on virtual threads
+     */
+    @ManagedAttribute(description = "Calls run on virtual threads")
+    public boolean isVirtualThreads() {
+        return running != null;
+    }
+
+    /**
+     * @param concurrency
+     *            The maximum number of calls running at the same time, 8 by default. It should be lower than the size of the connection pool.
+     */
+    public void setConcurrency(int concurrency) {
+        Assert.isTrue(concurrency > 0, "concurrency must be positive");
+        this.concurrency = concurrency;
+    }
+
+    /**
+     * @param queueCapacity
+     *            The maximum number of calls waiting to run, 100 by default
+     */
+    public void setQueueCapacity(int queueCapacity) {
+        Assert.isTrue(queueCapacity >= 0, "queueCapacity must not be negative");
+        this.queueCapacity = queueCapacity;
+    }
+
+    /**
+     * @param timeoutMillis
+     *            The default timeout of a call in milliseconds, waiting included, 5000 by default
+     */
+    public void setTimeoutMillis(long timeoutMillis) {
+        Assert.isTrue(timeoutMillis > 0, "timeoutMillis must be positive");
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * @param virtualThreads
+     *            <code>true</code> to run the calls on virtual threads when the JDK has them (21 and later), <code>false</code> by default
+     */
+    public void setVirtualThreads(boolean virtualThreads) {
+        this.virtualThreads = virtualThreads;
+    }
+
+    private <T> void run(Function<MemberRepository, T> call, CompletableFuture<T> result, ScheduledFuture<?> timeoutTask) {
+        boolean called = false;
+        T value = null;
+        Throwable failure = null;
+        try {
+            if (result.isDone()) {
+                // Timed out while waiting
+                return;
+            }
+            if (running != null) {
+                running.acquireUninterruptibly();
+            }
+            active.incrementAndGet();
+            try {
+                if (!result.isDone()) {
+                    called = true;
+                    value = call.apply(memberRepository);
+                }
+            } catch (Throwable e) {
+                failure = e;
+            } finally {
+                active.decrementAndGet();
+                if (running != null) {
+                    running.release();
+                }
+            }
+        } finally {
+            timeoutTask.cancel(false);
+            admitted.release();
+        }
+        // Completed once the call is released, so that its caller can make another one at once
+        if (failure != null) {
+            result.completeExceptionally(failure);
+        } else if (called) {
+            result.complete(value);
+        }
+    }
+
+    private static ThreadFactory threadFactory(final String prefix) {
+        return runnable -> {
+            Thread thread = new Thread(runnable, prefix + THREADS.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+
+    /**
+     * @return <code>Executors.newVirtualThreadPerTaskExecutor()</code>, <code>null</code> before JDK 21
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,637 @@
+package fred.custom.crm.core.repositories.cache;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.transaction.support.TransactionSynchronizationAdapter;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberSummary;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.repositories.KeysetPage;
+import fred.custom.crm.core.repositories.MultiGetResult;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersion;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersionStamp;
+
+/**
+ * A {@link MemberRepository} keeping the members read by id, member number or employee number in a near cache, in front of another repository.
+ * <p>
+ * Only {@link #findOne(Long)}, {@link #findByMemberNumber(String)} and {@link #findByEmployeeNumber(String)} are served from the cache, all the
+ * other reads go to the target repository. The writes go to the target repository and invalidate the members they touch, once right away and
+ * once more when the transaction completes (a concurrent reader may have cached the previous version meanwhile, and a rollback must not leave an
+ * uncommitted version behind). The business keys are indexes to the member ids, so a member is cached once whatever the key it was read by.
+ * </p>
+ * <p>
+ * Unless {@link #setValidateVersions(boolean) disabled}, every hit is validated against the {@link MemberRepository#findVersionStamp(Long) version
+ * stamp} of the member in the database, a single indexed lookup instead of the join and the mapping of a full read: a member updated by another
+ * node, or through the target repository directly, is never served stale. Without validation, only the writes made through this repository are
+ * seen, the others after the time to live at most.
+ * </p>
+ * <p>
+ * The members are copied in and out of the cache, callers can modify the instances they get.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Cache,name=memberCache", description = "Member near cache statistics")
+public class CachingMemberRepository implements MemberRepository {
+
+    /** Default maximum number of cached members */
+    public static final int DEFAULT_MAX_SIZE = 10000;
+
+    /** Default time to live of the cached members, in seconds */
+    public static final long DEFAULT_TTL_SECONDS = 300L;
+
+    private final MemberRepository target;
+
+    private final VersionedCache<Member> cache;
+
+    private final Map<String, Long> idsByMemberNumber;
+
+    private final Map<String, Long> idsByEmployeeNumber;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong staleHits = new AtomicLong();
+
+    private boolean validateVersions = true;
+
+    /**
+     * @param target
+     *            The repository the members are read from and written to
+     */
+    public CachingMemberRepository(MemberRepository target) {
+        this(target, DEFAULT_MAX_SIZE, DEFAULT_TTL_SECONDS);
+    }
+
+    /**
+     * @param target
+     *            The repository the members are read from and written to
+     * @param maxSize
+     *            The maximum number of cached members
+     * @param ttlSeconds
+     *            The time a member is cached after it was read, in seconds
+     */
+    public CachingMemberRepository(MemberRepository target, int maxSize, long ttlSeconds) {
+        Assert.notNull(target, "target is required");
+        this.target = target;
+        this.cache = new VersionedCache<Member>(maxSize, ttlSeconds, TimeUnit.SECONDS) {
+            @Override
+            protected long versionOf(Member member) {
+                return versionOrder(member);
+            }
+        };
+        this.idsByMemberNumber = boundedIndex(maxSize);
+        this.idsByEmployeeNumber = boundedIndex(maxSize);
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#count()
+     */
+    @Override
+    public long count() {
+        return target.count();
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.io.Serializable)
+     */
+    @Override
+    public void delete(Long id) {
+        target.delete(id);
+        invalidate(id);
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.lang.Object)
+     */
+    @Override
+    public void delete(Member member) {
+        target.delete(member);
+        invalidate(member.getId());
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.lang.Iterable)
+     */
+    @Override
+    public void delete(Iterable<? extends Member> members) {
+        target.delete(members);
+        invalidate(members);
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#deleteAll()
+     */
+    @Override
+    public void deleteAll() {
+        target.deleteAll();
+        invalidateAll();
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#deleteAllInBatch()
+     */
+    @Override
+    public void deleteAllInBatch() {
+        target.deleteAllInBatch();
+        invalidateAll();
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#deleteInBatch(java.lang.Iterable)
+     */
+    @Override
+    public void deleteInBatch(Iterable<Member> members) {
+        target.deleteInBatch(members);
+        invalidate(members);
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#exists(java.io.Serializable)
+     */
+    @Override
+    public boolean exists(Long id) {
+        return target.exists(id);
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll()
+     */
+    @Override
+    public List<Member> findAll() {
+        return target.findAll();
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll(java.lang.Iterable)
+     */
+    @Override
+    public List<Member> findAll(Iterable<Long> ids) {
+        return target.findAll(ids);
+    }
+
+    /**
+     * @see org.springframework.data.repository.PagingAndSortingRepository#findAll(org.springframework.data.domain.Pageable)
+     */
+    @Override
+    public Page<Member> findAll(Pageable pageable) {
+        return target.findAll(pageable);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findAll(org.springframework.data.domain.Pageable,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    public Page<Member> findAll(Pageable pageable, MemberFetchPlan plan) {
+        return target.findAll(pageable, plan);
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll(org.springframework.data.domain.Sort)
+     */
+    @Override
+    public List<Member> findAll(Sort sort) {
+        return target.findAll(sort);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByEmployeeNumber(java.lang.String)
+     */
+    @Override
+    public Member findByEmployeeNumber(String employeeNumber) {
+        Member member = findCached(idsByEmployeeNumber, employeeNumber);
+        if (member != null && employeeNumber.equals(member.getEmployeeNumber())) {
+            hits.incrementAndGet();
+            return member;
+        }
+        misses.incrementAndGet();
+        return cache(target.findByEmployeeNumber(employeeNumber));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByMemberNumber(java.lang.String)
+     */
+    @Override
+    public Member findByMemberNumber(String memberNumber) {
+        Member member = findCached(idsByMemberNumber, memberNumber);
+        if (member != null && memberNumber.equals(member.getMemberNumber())) {
+            hits.incrementAndGet();
+            return member;
+        }
+        misses.incrementAndGet();
+        return cache(target.findByMemberNumber(memberNumber));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findByNamePrefix(java.lang.String, java.lang.String,
+     *      int)
+     */
+    @Override
+    public List<Member> findByNamePrefix(String lastNamePrefix, String firstNamePrefix, int maxResults) {
+        return target.findByNamePrefix(lastNamePrefix, firstNamePrefix, maxResults);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByPersonCellPhoneNumber(java.lang.String)
+     */
+    @Override
+    public List<Member> findByPersonCellPhoneNumber(String cellPhoneNumber) {
+        return target.findByPersonCellPhoneNumber(cellPhoneNumber);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByPersonEmail(java.lang.String)
+     */
+    @Override
+    public List<Member> findByPersonEmail(String email) {
+        return target.findByPersonEmail(email);
+    }
+
+    /**
+     * The cached members are always complete: unlike the target repository, the person is loaded too.
+     *
+     * @see org.springframework.data.repository.CrudRepository#findOne(java.io.Serializable)
+     */
+    @Override
+    public Member findOne(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        Member member = findCached(id);
+        if (member != null) {
+            hits.incrementAndGet();
+            return member;
+        }
+        misses.incrementAndGet();
+        return cache(target.findOne(id, MemberFetchPlan.MEMBER_WITH_PERSON));
+    }
+
+    /**
+     * Only {@link MemberFetchPlan#MEMBER_WITH_PERSON} is served from the cache.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findOne(java.lang.Long,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    public Member findOne(Long id, MemberFetchPlan plan) {
+        return plan == MemberFetchPlan.MEMBER_WITH_PERSON ? findOne(id) : target.findOne(id, plan);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findPage(fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset.Order,
+     *      java.lang.String, int)
+     */
+    @Override
+    public KeysetPage<Member> findPage(MemberKeyset.Order order, String continuationToken, int size) {
+        return target.findPage(order, continuationToken, size);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findSummaries(org.springframework.data.domain.Pageable)
+     */
+    @Override
+    public Page<MemberSummary> findSummaries(Pageable pageable) {
+        return target.findSummaries(pageable);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findVersionStamp(java.lang.Long)
+     */
+    @Override
+    public MemberVersionStamp findVersionStamp(Long id) {
+        return target.findVersionStamp(id);
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#flush()
+     */
+    @Override
+    public void flush() {
+        target.flush();
+    }
+
+    /**
+     * Not cached: the reference is only meaningful to the persistence context of the target repository.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#getOne(java.io.Serializable)
+     */
+    @Override
+    public Member getOne(Long id) {
+        return target.getOne(id);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#multiGet(java.util.List)
+     */
+    @Override
+    public MultiGetResult<Member> multiGet(List<Long> ids) {
+        return target.multiGet(ids);
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#save(java.lang.Iterable)
+     */
+    @Override
+    public <S extends Member> List<S> save(Iterable<S> members) {
+        List<S> saved = target.save(members);
+        invalidate(saved);
+        return saved;
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#save(java.lang.Object)
+     */
+    @Override
+    public <S extends Member> S save(S member) {
+        S saved = target.save(member);
+        invalidate(saved.getId());
+        return saved;
+    }
+
+    /**
+     * The members of a batch are not tracked one by one, the whole cache is invalidated.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#saveInBatch(java.lang.Iterable)
+     */
+    @Override
+    public int saveInBatch(Iterable<? extends Member> members) {
+        int count = target.saveInBatch(members);
+        invalidateAll();
+        return count;
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#saveAndFlush(java.lang.Object)
+     */
+    @Override
+    public <S extends Member> S saveAndFlush(S member) {
+        S saved = target.saveAndFlush(member);
+        invalidate(saved.getId());
+        return saved;
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#streamAll(fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback)
+     */
+    @Override
+    public long streamAll(MemberCallback callback) {
+        return target.streamAll(callback);
+    }
+
+    /**
+     * All the given members are invalidated, the ones not updated included.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateAuditFields(java.util.Collection, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    public Set<Long> updateAuditFields(Collection<MemberVersion> members, String lastUpdateUser, Date lastUpdateDate) {
+        Set<Long> conflicts = target.updateAuditFields(members, lastUpdateUser, lastUpdateDate);
+        invalidateVersions(members);
+        return conflicts;
+    }
+
+    /**
+     * All the given members are invalidated, the ones not updated included.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateEmployeeNumbers(java.util.Map, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    public Set<Long> updateEmployeeNumbers(Map<MemberVersion, String> employeeNumbers, String lastUpdateUser, Date lastUpdateDate) {
+        Set<Long> conflicts = target.updateEmployeeNumbers(employeeNumbers, lastUpdateUser, lastUpdateDate);
+        invalidateVersions(employeeNumbers.keySet());
+        return conflicts;
+    }
+
+    /**
+     * All the given members are invalidated, the ones not updated included.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#touch(java.util.Collection)
+     */
+    @Override
+    public Set<Long> touch(Collection<MemberTouch> touches) {
+        Set<Long> skipped = target.touch(touches);
+        List<Long> ids = new ArrayList<Long>(touches.size());
+        for (MemberTouch touch : touches) {
+            ids.add(touch.getId());
+        }
+        invalidateNowAndAfterCompletion(ids);
+        return skipped;
+    }
+
+    /**
+     * @param validateVersions
+     *            <code>true</code> (the default) to check the version stamp of every cached member before returning it
+     */
+    public void setValidateVersions(boolean validateVersions) {
+        this.validateVersions = validateVersions;
+    }
+
+    /**
+     * @return The cache itself, for its statistics
+     */
+    public VersionedCache<Member> getCache() {
+        return cache;
+    }
+
+    @ManagedAttribute(description = "Cached members")
+    public int getSize() {
+        return cache.getSize();
+    }
+
+    @ManagedAttribute(description = "Reads served from the cache")
+    public long getHits() {
+        return hits.get();
+    }
+
+    @ManagedAttribute(description = "Reads which went to the target repository, stale hits included")
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of cached members found out of date by the version validation, then read again
+     */
+    @ManagedAttribute(description = "Cached members found out of date by the version validation")
+    public long getStaleHits() {
+        return staleHits.get();
+    }
+
+    @ManagedAttribute(description = "Members removed because the cache was full")
+    public long getEvictions() {
+        return cache.getEvictions();
+    }
+
+    @ManagedAttribute(description = "Members removed because their time to live had elapsed")
+    public long getExpirations() {
+        return cache.getExpirations();
+    }
+
+    @ManagedAttribute(description = "Members removed because they were written")
+    public long getInvalidations() {
+        return cache.getInvalidations();
+    }
+
+    @ManagedOperation(description = "Empties the cache")
+    public void clear() {
+        cache.invalidateAll();
+        synchronized (idsByMemberNumber) {
+            idsByMemberNumber.clear();
+        }
+        synchronized (idsByEmployeeNumber) {
+            idsByEmployeeNumber.clear();
+        }
+    }
+
+    @ManagedOperation(description = "Clears the statistics")
+    public void resetStatistics() {
+        cache.resetStatistics();
+        hits.set(0L);
+        misses.set(0L);
+        staleHits.set(0L);
+    }
+
+    private Member findCached(Map<String, Long> index, String key) {
+        Long id;
+        synchronized (index) {
+            id = index.get(key);
+        }
+        return id == null ? null : findCached(id);
+    }
+
+    private Member findCached(Long id) {
+        Member member = cache.get(id);
+        if (member == null) {
+            return null;
+        }
+        if (validateVersions) {
+            MemberVersionStamp stamp = target.findVersionStamp(id);
+            if (stamp == null || !stamp.equals(MemberVersionStamp.of(member))) {
+                staleHits.incrementAndGet();
+                cache.invalidate(id);
+                return null;
+            }
+        }
+        return copyOf(member);
+    }
+
+    private Member cache(Member member) {
+        if (member == null) {
+            return null;
+        }
+        cache.put(copyOf(member));
+        synchronized (idsByMemberNumber) {
+            idsByMemberNumber.put(member.getMemberNumber(), member.getId());
+        }
+        synchronized (idsByEmployeeNumber) {
+            idsByEmployeeNumber.put(member.getEmployeeNumber(), member.getId());
+        }
+        return member;
+    }
+
+    private void invalidate(Long id) {
+        if (id == null) {
+            return;
+        }
+        List<Long> ids = new ArrayList<Long>(1);
+        ids.add(id);
+        invalidateNowAndAfterCompletion(ids);
+    }
+
+    private void invalidate(Iterable<? extends Member> members) {
+        List<Long> ids = new ArrayList<Long>();
+        for (Member member : members) {
+            if (member.getId() != null) {
+                ids.add(member.getId());
+            }
+        }
+        invalidateNowAndAfterCompletion(ids);
+    }
+
+    private void invalidateVersions(Collection<MemberVersion> members) {
+        List<Long> ids = new ArrayList<Long>(members.size());
+        for (MemberVersion member : members) {
+            ids.add(member.getId());
+        }
+        invalidateNowAndAfterCompletion(ids);
+    }
+
+    private void invalidateAll() {
+        invalidateNowAndAfterCompletion(null);
+    }
+
+    /**
+     * @param ids
+     *            The ids of the members to invalidate, <code>null</code> for all
+     */
+    private void invalidateNowAndAfterCompletion(final Collection<Long> ids) {
+        invalidateNow(ids);
+        if (TransactionSynchronizationManager.isSynchronizationActive()) {
+            TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronizationAdapter() {
+                @Override
+                public void afterCompletion(int status) {
+                    invalidateNow(ids);
+                }
+            });
+        }
+    }
+
+    private void invalidateNow(Collection<Long> ids) {
+        if (ids == null) {
+            clear();
+            return;
+        }
+        // The business key indexes are checked against the cached members, their entries are left to be overwritten or evicted
+        for (Long id : ids) {
+            cache.invalidate(id);
+        }
+    }
+
+    /**
+     * Orders the copies of a member by its version, then by the version of its person: a new person increments the version of the member, while
+     * the new person starts over at 0.
+     */
+    private static long versionOrder(Member member) {
+        Person person = member.getPerson();
+        return ((long) member.getVersion() << 32) | (person == null ? 0L : person.getVersion());
+    }
+
+    private static Member copyOf(Member member) {
+        Person person = member.getPerson();
+        return Member.Builder.from(member).withPerson(person == null ? null : Person.Builder.from(person).build()).build();
+    }
+
+    private static Map<String, Long> boundedIndex(final int maxSize) {
+        return new LinkedHashMap<String, Long>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Long> eldest) {
+                return size() > maxSize;
+            }
+        };
+    }
+}
@@ -0,0 +1,227 @@
+package fred.custom.crm.core.repositories.cache;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.BaseEntity;
+
+/**
+ * A bounded in-memory cache of entities by id, aware of their versions.
+ * <p>
+ * The entries are evicted in least recently used order once the maximum size is reached, and expire after the time to live whatever their use.
+ * A {@link #put(BaseEntity)} never replaces an entry by an older version of the same entity, so a slow reader cannot bring back a version which
+ * was superseded meanwhile. All the operations count into statistics.
+ * </p>
+ * <p>
+ * The cache stores the instances it is given: callers sharing entities between threads must put and get copies.
+ * </p>
+ *
+ * @param <V>
+ *            V is the type of the entities
+ * @author Fred
+ */
+public class VersionedCache<V extends BaseEntity<Long>> {
+
+    private final int maxSize;
+
+    private final long ttlNanos;
+
+    private final Map<Long, Entry<V>> entries;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    private final AtomicLong expirations = new AtomicLong();
+
+    private final AtomicLong invalidations = new AtomicLong();
+
+    private final AtomicLong stalePuts = new AtomicLong();
+
+    /**
+     * @param maxSize
+     *            The maximum number of entities kept
+     * @param ttl
+     *            The time an entity is kept after it was put
+     * @param unit
+     *            The unit of <code>ttl</code>
+     */
+    public VersionedCache(int maxSize, long ttl, TimeUnit unit) {
+        Assert.isTrue(maxSize > 0, "maxSize must be positive");
+        Assert.isTrue(ttl > 0, "ttl must be positive");
+        this.maxSize = maxSize;
+        this.ttlNanos = unit.toNanos(ttl);
+        this.entries = new LinkedHashMap<Long, Entry<V>>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, Entry<V>> eldest) {
+                if (size() > VersionedCache.this.maxSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        };
+    }
+
+    /**
+     * @param id
+     *            The id of the entity
+     * @return The cached entity, or <code>null</code> if it is not cached or has expired
+     */
+    public V get(Long id) {
+        Entry<V> entry;
+        synchronized (entries) {
+            entry = entries.get(id);
+            if (entry != null && entry.isExpired(System.nanoTime())) {
+                entries.remove(id);
+                expirations.incrementAndGet();
+                entry = null;
+            }
+        }
+        if (entry == null) {
+            misses.incrementAndGet();
+            return null;
+        }
+        hits.incrementAndGet();
+        return entry.value;
+    }
+
+    /**
+     * Caches an entity, unless a newer version of it is already cached.
+     *
+     * @param value
+     *            The entity, its id must be set
+     */
+    public void put(V value) {
+        Assert.notNull(value.getId(), "Only entities with an id can be cached");
+        long now = System.nanoTime();
+        synchronized (entries) {
+            Entry<V> current = entries.get(value.getId());
+            if (current != null && !current.isExpired(now) && versionOf(current.value) > versionOf(value)) {
+                stalePuts.incrementAndGet();
+                return;
+            }
+            entries.put(value.getId(), new Entry<V>(value, now + ttlNanos));
+        }
+    }
+
+    /**
+     * @param id
+     *            The id of the entity to remove from the cache, if it is cached
+     */
+    public void invalidate(Long id) {
+        synchronized (entries) {
+            if (entries.remove(id) != null) {
+                invalidations.incrementAndGet();
+            }
+        }
+    }
+
+    /**
+     * Removes all the entities from the cache.
+     */
+    public void invalidateAll() {
+        synchronized (entries) {
+            invalidations.addAndGet(entries.size());
+            entries.clear();
+        }
+    }
+
+    /**
+     * The version used to order two copies of the same entity, {@link BaseEntity#getVersion()} by default. Entities whose state spans several
+     * versioned rows override it to combine their versions.
+     *
+     * @param value
+     *            A cached entity
+     * @return Its version
+     */
+    protected long versionOf(V value) {
+        return value.getVersion();
+    }
+
+    public int getSize() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    public int getMaxSize() {
+        return maxSize;
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    /**
+     * @return The number of entries removed because the cache was full
+     */
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * @return The number of entries removed because their time to live had elapsed
+     */
+    public long getExpirations() {
+        return expirations.get();
+    }
+
+    public long getInvalidations() {
+        return invalidations.get();
+    }
+
+    /**
+     * @return The number of puts ignored because a newer version was cached
+     */
+    public long getStalePuts() {
+        return stalePuts.get();
+    }
+
+    /**
+     * Clears the statistics, not the cached entities.
+     */
+    public void resetStatistics() {
+        hits.set(0L);
+        misses.set(0L);
+        evictions.set(0L);
+        expirations.set(0L);
+        invalidations.set(0L);
+        stalePuts.set(0L);
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return String.format("size=%d/%d hits=%d misses=%d evictions=%d expirations=%d invalidations=%d stalePuts=%d", getSize(), maxSize, getHits(),
+                getMisses(), getEvictions(), getExpirations(), getInvalidations(), getStalePuts());
+    }
+
+    private static final class Entry<V> {
+        final V value;
+        final long expiresAt;
+
+        Entry(V value, long expiresAt) {
+            this.value = value;
+            this.expiresAt = expiresAt;
+        }
+
+        boolean isExpired(long now) {
+            return now - expiresAt >= 0;
+        }
+    }
+}
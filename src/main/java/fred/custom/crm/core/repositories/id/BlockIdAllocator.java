@@ -0,0 +1,95 @@
+package fred.custom.crm.core.repositories.id;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+import org.springframework.util.Assert;
+
+/**
+ * Hands out identifiers from blocks reserved in the database.
+ * <p>
+ * Each block is a range of <code>blockSize</code> consecutive ids obtained with a single round trip, typically from a sequence incremented by
+ * <code>blockSize</code> (Hibernate's <em>pooled-lo</em> scheme): a value <code>n</code> of the sequence reserves the ids <code>n</code> to
+ * <code>n + blockSize - 1</code>. Blocks fetched by different allocators never overlap, so any number of allocators (one per session factory,
+ * one per jOOQ repository, ...) can share the same sequence.
+ * </p>
+ * <p>
+ * This class is thread-safe. Within a block an id costs a single atomic increment; threads only synchronize when the block is exhausted, and
+ * exactly one of them fetches the next one.
+ * </p>
+ * 
+ * @author Fred
+ */
+public class BlockIdAllocator {
+
+    /**
+     * Reserves a new block of ids in the database.
+     */
+    public interface BlockSource {
+
+        /**
+         * @return The first id of a newly reserved block
+         */
+        long nextBlockStart();
+    }
+
+    private static final class Block {
+        private final AtomicLong next;
+        private final long last;
+
+        private Block(long first, long last) {
+            this.next = new AtomicLong(first);
+            this.last = last;
+        }
+    }
+
+    private final int blockSize;
+
+    private final Object refillLock = new Object();
+
+    private final AtomicLong roundTrips = new AtomicLong();
+
+    private volatile Block current = new Block(1L, 0L);
+
+    /**
+     * @param blockSize
+     *            The number of ids reserved by each call to {@link BlockSource#nextBlockStart()}, it must match the increment of the sequence
+     */
+    public BlockIdAllocator(int blockSize) {
+        Assert.isTrue(blockSize > 0, "blockSize must be positive");
+        this.blockSize = blockSize;
+    }
+
+    /**
+     * @param source
+     *            Used to reserve a new block when the current one is exhausted
+     * @return A new id, never handed out before by this allocator nor by any other allocator sharing the same sequence
+     */
+    public long next(BlockSource source) {
+        while (true) {
+            Block block = current;
+            long id = block.next.getAndIncrement();
+            if (id <= block.last) {
+                return id;
+            }
+            synchronized (refillLock) {
+                // Another thread may have refilled while this one was waiting
+                if (current == block) {
+                    long first = source.nextBlockStart();
+                    roundTrips.incrementAndGet();
+                    current = new Block(first, first + blockSize - 1);
+                }
+            }
+        }
+    }
+
+    public int getBlockSize() {
+        return blockSize;
+    }
+
+    /**
+     * @return The number of blocks fetched from the database so far, that is, the number of round trips
+     */
+    public long getRoundTrips() {
+        return roundTrips.get();
+    }
+}
@@ -0,0 +1,89 @@
+package fred.custom.crm.core.repositories.jooq;
+
+import javax.sql.DataSource;
+
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.jooq.conf.RenderNameStyle;
+import org.jooq.conf.Settings;
+import org.jooq.impl.DataSourceConnectionProvider;
+import org.jooq.impl.DefaultConfiguration;
+import org.jooq.impl.DefaultDSLContext;
+import org.jooq.impl.DefaultExecuteListenerProvider;
+import org.springframework.beans.factory.FactoryBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.datasource.TransactionAwareDataSourceProxy;
+import org.springframework.util.Assert;
+
+/**
+ * Creates the {@link DSLContext} used by the jOOQ repositories.
+ * <p>
+ * The context runs on a {@link TransactionAwareDataSourceProxy}, so its statements take part in the transaction opened by the
+ * <code>transactionManager</code> (the JDBC connection of the JPA transaction is reused). jOOQ exceptions are translated into Spring's
+ * <code>DataAccessException</code> hierarchy, just like the ones thrown by the Spring Data JPA repositories.
+ * </p>
+ * 
+ * @author Fred
+ */
+public class DSLContextFactoryBean implements FactoryBean<DSLContext>, InitializingBean {
+
+    private DataSource dataSource;
+
+    private SQLDialect dialect = SQLDialect.H2;
+
+    private DSLContext context;
+
+    /**
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(dataSource, "dataSource is required");
+
+        // Hibernate creates the schema unquoted, so the names must be rendered as is
+        Settings settings = new Settings().withRenderNameStyle(RenderNameStyle.AS_IS).withExecuteLogging(Boolean.FALSE);
+
+        DefaultConfiguration configuration = new DefaultConfiguration();
+        configuration.set(new DataSourceConnectionProvider(new TransactionAwareDataSourceProxy(dataSource)));
+        configuration.set(dialect);
+        configuration.set(settings);
+        configuration.set(new DefaultExecuteListenerProvider(new SpringExceptionTranslationListener(dataSource)));
+        context = new DefaultDSLContext(configuration);
+    }
+
+    /**
+     * @see org.springframework.beans.factory.FactoryBean#getObject()
+     */
+    @Override
+    public DSLContext getObject() {
+        return context;
+    }
+
+    /**
+     * @see org.springframework.beans.factory.FactoryBean#getObjectType()
+     */
+    @Override
+    public Class<?> getObjectType() {
+        return DSLContext.class;
+    }
+
+    /**
+     * @see org.springframework.beans.factory.FactoryBean#isSingleton()
+     */
+    @Override
+    public boolean isSingleton() {
+        return true;
+    }
+
+    public void setDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * @param dialect
+     *            The SQL dialect of the database behind the data source, H2 by default
+     */
+    public void setDialect(SQLDialect dialect) {
+        this.dialect = dialect;
+    }
+}
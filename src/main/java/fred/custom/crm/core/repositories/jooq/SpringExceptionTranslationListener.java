@@ -0,0 +1,43 @@
+package fred.custom.crm.core.repositories.jooq;
+
+import java.sql.SQLException;
+
+import javax.sql.DataSource;
+
+import org.jooq.ExecuteContext;
+import org.jooq.impl.DefaultExecuteListener;
+import org.springframework.jdbc.support.SQLErrorCodeSQLExceptionTranslator;
+import org.springframework.jdbc.support.SQLExceptionTranslator;
+
+/**
+ * Translates the {@link SQLException} raised while jOOQ executes a query into Spring's <code>DataAccessException</code> hierarchy.
+ * 
+ * @author Fred
+ */
+public class SpringExceptionTranslationListener extends DefaultExecuteListener {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = 4383946380564426016L;
+
+    private final transient SQLExceptionTranslator translator;
+
+    /**
+     * @param dataSource
+     *            The data source used to look up the vendor specific error codes
+     */
+    public SpringExceptionTranslationListener(DataSource dataSource) {
+        super();
+        this.translator = new SQLErrorCodeSQLExceptionTranslator(dataSource);
+    }
+
+    /**
+     * @see org.jooq.impl.DefaultExecuteListener#exception(org.jooq.ExecuteContext)
+     */
+    @Override
+    public void exception(ExecuteContext ctx) {
+        SQLException e = ctx.sqlException();
+        if (e != null) {
+            ctx.exception(translator.translate("jOOQ", ctx.sql(), e));
+        }
+    }
+}
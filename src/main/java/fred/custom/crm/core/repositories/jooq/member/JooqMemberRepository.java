@@ -0,0 +1,1142 @@
+package fred.custom.crm.core.repositories.jooq.member;
+
+import static fred.custom.crm.core.repositories.jooq.tables.MemberChanges.MEMBER_CHANGES;
+import static fred.custom.crm.core.repositories.jooq.tables.Members.MEMBERS;
+import static fred.custom.crm.core.repositories.jooq.tables.Persons.PERSONS;
+import static fred.custom.crm.core.repositories.jooq.tables.Sequences.MEMBER_ID_SEQ;
+import static fred.custom.crm.core.repositories.jooq.tables.Sequences.PERSON_ID_SEQ;
+
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jooq.BatchBindStep;
+import org.jooq.Condition;
+import org.jooq.Cursor;
+import org.jooq.DSLContext;
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.Record3;
+import org.jooq.SelectJoinStep;
+import org.jooq.SelectSeekStep1;
+import org.jooq.SelectSeekStep2;
+import org.jooq.Sequence;
+import org.jooq.SortField;
+import org.jooq.impl.DSL;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.orm.ObjectOptimisticLockingFailureException;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberChange;
+import fred.custom.crm.core.model.member.MemberSummary;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.PersonReference;
+import fred.custom.crm.core.repositories.KeysetPage;
+import fred.custom.crm.core.repositories.MultiGetResult;
+import fred.custom.crm.core.repositories.id.BlockIdAllocator;
+import fred.custom.crm.core.repositories.id.PooledSequenceIdGenerator;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersion;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersionStamp;
+
+/**
+ * jOOQ implementation of {@link MemberRepository}.
+ * <p>
+ * A {@link Member} and its {@link Person} are always read with a single <code>members JOIN persons</code> statement and built by the
+ * {@link MemberRecordMapper}. Nothing is kept in a persistence context: the returned entities are detached, there is no dirty checking and every
+ * write is executed immediately. As with <code>EntityManager.merge</code>, saving an existing member returns a new instance holding the
+ * incremented versions, the instance passed as parameter is left untouched.
+ * </p>
+ * <p>
+ * Every write also records the members it changes in the outbox ({@link MemberChange}), with an <code>INSERT ... SELECT</code> from
+ * <code>members</code> in the same transaction.
+ * </p>
+ *
+ * @author Fred
+ */
+@Transactional(readOnly = true)
+public class JooqMemberRepository implements MemberRepository, DisposableBean {
+
+    private static final Log LOG = LogFactory.getLog(JooqMemberRepository.class);
+
+    /** Default number of members inserted per statement by {@link #saveInBatch(Iterable)} */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /** Default number of rows fetched per round trip by {@link #streamAll(MemberCallback)} */
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    /** Default number of ids per query of {@link #multiGet(List)} */
+    public static final int DEFAULT_MULTI_GET_CHUNK_SIZE = 500;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    /** Maximum number of values bound in a single <code>IN</code> list */
+    private static final int MAX_IN_LIST_SIZE = 1000;
+
+    /** Sortable properties of {@link Member}, as used in Spring Data {@link Sort} instances */
+    private static final Map<String, Field<?>> SORTABLE_FIELDS = new HashMap<String, Field<?>>();
+
+    static {
+        SORTABLE_FIELDS.put("id", MEMBERS.ID);
+        SORTABLE_FIELDS.put("version", MEMBERS.VERSION);
+        SORTABLE_FIELDS.put("memberNumber", MEMBERS.MEMBER_NUMBER);
+        SORTABLE_FIELDS.put("employeeNumber", MEMBERS.EMPLOYEE_NUMBER);
+        SORTABLE_FIELDS.put("creationDate", MEMBERS.CREATION_DATE);
+        SORTABLE_FIELDS.put("lastUpdateUser", MEMBERS.LAST_UPDATE_USER);
+        SORTABLE_FIELDS.put("lastUpdateDate", MEMBERS.LAST_UPDATE_DATE);
+        SORTABLE_FIELDS.put("person.id", PERSONS.ID);
+        SORTABLE_FIELDS.put("person.firstName", PERSONS.FIRST_NAME);
+        SORTABLE_FIELDS.put("person.lastName", PERSONS.LAST_NAME);
+        SORTABLE_FIELDS.put("person.gender", PERSONS.GENDER);
+        SORTABLE_FIELDS.put("person.email", PERSONS.EMAIL);
+        SORTABLE_FIELDS.put("person.birthDate", PERSONS.BIRTH_DATE);
+    }
+
+    /** Columns of an insert into <code>members</code>, in the order of {@link #insertValues(Member)} */
+    private static final Field<?>[] MEMBER_INSERT_FIELDS = { MEMBERS.ID, MEMBERS.VERSION, MEMBERS.MEMBER_NUMBER, MEMBERS.EMPLOYEE_NUMBER,
+            MEMBERS.PERSON_ID, MEMBERS.CREATION_DATE, MEMBERS.LAST_UPDATE_USER, MEMBERS.LAST_UPDATE_DATE };
+
+    /** Columns of an insert into <code>persons</code>, in the order of {@link #insertValues(Person)} */
+    private static final Field<?>[] PERSON_INSERT_FIELDS = { PERSONS.ID, PERSONS.VERSION, PERSONS.FIRST_NAME, PERSONS.LAST_NAME, PERSONS.GENDER,
+            PERSONS.CELL_PHONE_NUMBER, PERSONS.EMAIL, PERSONS.BIRTH_DATE, PERSONS.SOCIAL_INSURANCE_NUMBER, PERSONS.FIRST_NAME_KEY,
+            PERSONS.LAST_NAME_KEY };
+
+    private final DSLContext dsl;
+
+    /** Ids are reserved by blocks from the same sequences as the JPA mapping, see {@link PooledSequenceIdGenerator} */
+    private final BlockIdAllocator memberIds = new BlockIdAllocator(PooledSequenceIdGenerator.DEFAULT_BLOCK_SIZE);
+
+    private final BlockIdAllocator personIds = new BlockIdAllocator(PooledSequenceIdGenerator.DEFAULT_BLOCK_SIZE);
+
+    private final BlockIdAllocator.BlockSource memberIdBlocks;
+
+    private final BlockIdAllocator.BlockSource personIdBlocks;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    private int multiGetChunkSize = DEFAULT_MULTI_GET_CHUNK_SIZE;
+
+    /** Runs the chunks of {@link #multiGet(List)} but the first one, <code>null</code> to run them all on the calling thread */
+    private ExecutorService multiGetExecutor;
+
+    /**
+     * @param dsl
+     *            The jOOQ context, see {@link fred.custom.crm.core.repositories.jooq.DSLContextFactoryBean}
+     */
+    public JooqMemberRepository(DSLContext dsl) {
+        this(dsl, sequenceBlocks(dsl, MEMBER_ID_SEQ), sequenceBlocks(dsl, PERSON_ID_SEQ));
+    }
+
+    /**
+     * @param dsl
+     *            The jOOQ context, see {@link fred.custom.crm.core.repositories.jooq.DSLContextFactoryBean}
+     * @param memberIdBlocks
+     *            Reserves the blocks of member ids, possibly in another database than the one of the context
+     * @param personIdBlocks
+     *            Reserves the blocks of person ids, possibly in another database than the one of the context
+     */
+    public JooqMemberRepository(DSLContext dsl, BlockIdAllocator.BlockSource memberIdBlocks, BlockIdAllocator.BlockSource personIdBlocks) {
+        Assert.notNull(dsl, "dsl is required");
+        Assert.notNull(memberIdBlocks, "memberIdBlocks is required");
+        Assert.notNull(personIdBlocks, "personIdBlocks is required");
+        this.dsl = dsl;
+        this.memberIdBlocks = memberIdBlocks;
+        this.personIdBlocks = personIdBlocks;
+    }
+
+    /**
+     * @param dsl
+     *            The jOOQ context of the database holding the sequence
+     * @param sequence
+     *            A sequence incremented by {@link PooledSequenceIdGenerator#DEFAULT_BLOCK_SIZE}
+     * @return The blocks of ids reserved by the sequence
+     */
+    public static BlockIdAllocator.BlockSource sequenceBlocks(final DSLContext dsl, final Sequence<Long> sequence) {
+        Assert.notNull(dsl, "dsl is required");
+        Assert.notNull(sequence, "sequence is required");
+        return new BlockIdAllocator.BlockSource() {
+            @Override
+            public long nextBlockStart() {
+                return dsl.nextval(sequence).longValue();
+            }
+        };
+    }
+
+    /**
+     * Stops the threads of {@link #multiGet(List)}, if any.
+     *
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() {
+        if (multiGetExecutor != null) {
+            multiGetExecutor.shutdownNow();
+        }
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#count()
+     */
+    @Override
+    public long count() {
+        return dsl.selectCount().from(MEMBERS).fetchOne().value1().longValue();
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.io.Serializable)
+     */
+    @Override
+    @Transactional
+    public void delete(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        Member member = findOne(id);
+        if (member == null) {
+            throw new EmptyResultDataAccessException(String.format("No %s entity with id %s exists!", Member.class, id), 1);
+        }
+        delete(member);
+    }
+
+    /**
+     * Deletes the member, then its person. Both rows must still hold the version of the given entities.
+     *
+     * @see org.springframework.data.repository.CrudRepository#delete(java.lang.Object)
+     */
+    @Override
+    @Transactional
+    public void delete(Member member) {
+        Assert.notNull(member, "The entity must not be null!");
+        if (member.getId() == null) {
+            return;
+        }
+        Condition condition = MEMBERS.ID.equal(member.getId()).and(MEMBERS.VERSION.equal(member.getVersion()));
+        recordChanges(MemberChange.Type.DELETE, condition);
+        int deleted = dsl.delete(MEMBERS).where(condition).execute();
+        if (deleted == 0) {
+            throw new ObjectOptimisticLockingFailureException(Member.class, member.getId());
+        }
+        Person person = member.getPerson();
+        if (person instanceof PersonReference) {
+            // The version of a reference is unknown, the person goes with its member
+            dsl.delete(PERSONS).where(PERSONS.ID.equal(person.getId())).execute();
+        } else if (person != null && person.getId() != null) {
+            deleted = dsl.delete(PERSONS).where(PERSONS.ID.equal(person.getId())).and(PERSONS.VERSION.equal(person.getVersion())).execute();
+            if (deleted == 0) {
+                throw new ObjectOptimisticLockingFailureException(Person.class, person.getId());
+            }
+        }
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.lang.Iterable)
+     */
+    @Override
+    @Transactional
+    public void delete(Iterable<? extends Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        for (Member member : members) {
+            delete(member);
+        }
+    }
+
+    /**
+     * Deletes all members and their persons.
+     *
+     * @see org.springframework.data.repository.CrudRepository#deleteAll()
+     */
+    @Override
+    @Transactional
+    public void deleteAll() {
+        List<Long> personIds = dsl.select(MEMBERS.PERSON_ID).from(MEMBERS).fetch(MEMBERS.PERSON_ID);
+        recordChanges(MemberChange.Type.DELETE, DSL.trueCondition());
+        dsl.delete(MEMBERS).execute();
+        for (List<Long> chunk : chunk(personIds)) {
+            dsl.delete(PERSONS).where(PERSONS.ID.in(chunk)).execute();
+        }
+    }
+
+    /**
+     * Like its JPA counterpart, this bulk delete does not cascade to the persons.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#deleteAllInBatch()
+     */
+    @Override
+    @Transactional
+    public void deleteAllInBatch() {
+        recordChanges(MemberChange.Type.DELETE, DSL.trueCondition());
+        dsl.delete(MEMBERS).execute();
+    }
+
+    /**
+     * Like its JPA counterpart, this bulk delete does not cascade to the persons and does not check the versions.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#deleteInBatch(java.lang.Iterable)
+     */
+    @Override
+    @Transactional
+    public void deleteInBatch(Iterable<Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        List<Long> ids = new ArrayList<Long>();
+        for (Member member : members) {
+            ids.add(member.getId());
+        }
+        for (List<Long> chunk : chunk(ids)) {
+            recordChanges(MemberChange.Type.DELETE, MEMBERS.ID.in(chunk));
+            dsl.delete(MEMBERS).where(MEMBERS.ID.in(chunk)).execute();
+        }
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#exists(java.io.Serializable)
+     */
+    @Override
+    public boolean exists(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        return dsl.selectCount().from(MEMBERS).where(MEMBERS.ID.equal(id)).fetchOne().value1().intValue() > 0;
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll()
+     */
+    @Override
+    public List<Member> findAll() {
+        return selectMembers().fetch(MemberRecordMapper.INSTANCE);
+    }
+
+    /**
+     * The members are returned in no particular order, ids without a matching member are ignored.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll(java.lang.Iterable)
+     */
+    @Override
+    public List<Member> findAll(Iterable<Long> ids) {
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<Long> list = new ArrayList<Long>();
+        for (Long id : ids) {
+            list.add(id);
+        }
+        List<Member> result = new ArrayList<Member>(list.size());
+        for (List<Long> chunk : chunk(list)) {
+            result.addAll(selectMembers().where(MEMBERS.ID.in(chunk)).fetch(MemberRecordMapper.INSTANCE));
+        }
+        return result;
+    }
+
+    /**
+     * Reads the members like {@link #findAll(Iterable)}, and locks their rows until the end of the current transaction.
+     *
+     * @param ids
+     *            The ids of the members
+     * @return The members found, in no particular order
+     */
+    @Transactional
+    public List<Member> findAllForUpdate(Collection<Long> ids) {
+        Assert.notNull(ids, "ids is required");
+        List<Member> result = new ArrayList<Member>(ids.size());
+        for (List<Long> chunk : chunk(new ArrayList<Long>(ids))) {
+            result.addAll(selectMembers().where(MEMBERS.ID.in(chunk)).forUpdate().fetch(MemberRecordMapper.INSTANCE));
+        }
+        return result;
+    }
+
+    /**
+     * Inserts members read from another database as they are, with their ids, their versions and their persons, in JDBC batches of
+     * {@link #setBatchSize(int) batch size}. Nothing is recorded in the outbox: a member moved between databases has not changed. The members whose
+     * id is already present are skipped, so that a copy interrupted can be run again.
+     *
+     * @param members
+     *            Members with their ids and their persons loaded
+     * @return The number of members inserted
+     */
+    @Transactional
+    public int copyInBatch(Iterable<? extends Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        List<Member> list = new ArrayList<Member>();
+        for (Member member : members) {
+            Assert.notNull(member.getId(), "Only existing members can be copied");
+            Assert.isTrue(member.getPerson() != null && !(member.getPerson() instanceof PersonReference), "The person of member " + member.getId()
+                    + " must be loaded");
+            list.add(member);
+        }
+        int count = 0;
+        for (int i = 0; i < list.size(); i += batchSize) {
+            List<Member> chunk = list.subList(i, Math.min(list.size(), i + batchSize));
+            List<Long> ids = new ArrayList<Long>(chunk.size());
+            for (Member member : chunk) {
+                ids.add(member.getId());
+            }
+            Set<Long> present = new HashSet<Long>(dsl.select(MEMBERS.ID).from(MEMBERS).where(MEMBERS.ID.in(ids)).fetch(MEMBERS.ID));
+            BatchBindStep personBatch = dsl.batch(dsl.insertInto(PERSONS, PERSON_INSERT_FIELDS).values(new Object[PERSON_INSERT_FIELDS.length]));
+            BatchBindStep memberBatch = dsl.batch(dsl.insertInto(MEMBERS, MEMBER_INSERT_FIELDS).values(new Object[MEMBER_INSERT_FIELDS.length]));
+            int copied = 0;
+            for (Member member : chunk) {
+                if (!present.contains(member.getId())) {
+                    personBatch.bind(insertValues(member.getPerson()));
+                    memberBatch.bind(insertValues(member));
+                    copied++;
+                }
+            }
+            if (copied > 0) {
+                personBatch.execute();
+                memberBatch.execute();
+                count += copied;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Deletes members and their persons without checking the versions, and without recording anything in the outbox: the counterpart of
+     * {@link #copyInBatch(Iterable)} on the database the members were copied from.
+     *
+     * @param ids
+     *            The ids of the members
+     * @return The number of members deleted
+     */
+    @Transactional
+    public int evictInBatch(Collection<Long> ids) {
+        Assert.notNull(ids, "ids is required");
+        int count = 0;
+        for (List<Long> chunk : chunk(new ArrayList<Long>(ids))) {
+            List<Long> personIds = dsl.select(MEMBERS.PERSON_ID).from(MEMBERS).where(MEMBERS.ID.in(chunk)).fetch(MEMBERS.PERSON_ID);
+            count += dsl.delete(MEMBERS).where(MEMBERS.ID.in(chunk)).execute();
+            if (!personIds.isEmpty()) {
+                dsl.delete(PERSONS).where(PERSONS.ID.in(personIds)).execute();
+            }
+        }
+        return count;
+    }
+
+    /**
+     * @see org.springframework.data.repository.PagingAndSortingRepository#findAll(org.springframework.data.domain.Pageable)
+     */
+    @Override
+    public Page<Member> findAll(Pageable pageable) {
+        if (pageable == null) {
+            return new PageImpl<Member>(findAll());
+        }
+        List<Member> content = selectMembers().orderBy(toSortFields(pageable.getSort())).limit(pageable.getOffset(), pageable.getPageSize())
+                .fetch(MemberRecordMapper.INSTANCE);
+        return new PageImpl<Member>(content, pageable, count());
+    }
+
+    /**
+     * With {@link MemberFetchPlan#MEMBER_ONLY}, only <code>members</code> is read (joined to <code>persons</code> if the sort requires it) and the
+     * persons are {@link PersonReference references}.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findAll(org.springframework.data.domain.Pageable,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    public Page<Member> findAll(Pageable pageable, MemberFetchPlan plan) {
+        Assert.notNull(pageable, "pageable is required");
+        Assert.notNull(plan, "plan is required");
+        if (plan == MemberFetchPlan.MEMBER_WITH_PERSON) {
+            return findAll(pageable);
+        }
+        List<SortField<?>> sortFields = toSortFields(pageable.getSort());
+        SelectJoinStep<Record> select = dsl.select(MEMBERS.fields()).from(MEMBERS);
+        if (pageable.getSort() != null) {
+            for (Sort.Order order : pageable.getSort()) {
+                if (order.getProperty().startsWith("person.")) {
+                    select = select.join(PERSONS).on(MEMBERS.PERSON_ID.equal(PERSONS.ID));
+                    break;
+                }
+            }
+        }
+        List<Member> content = select.orderBy(sortFields).limit(pageable.getOffset(), pageable.getPageSize()).fetch(MemberRecordMapper.MEMBER_ONLY);
+        return new PageImpl<Member>(content, pageable, count());
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll(org.springframework.data.domain.Sort)
+     */
+    @Override
+    public List<Member> findAll(Sort sort) {
+        return selectMembers().orderBy(toSortFields(sort)).fetch(MemberRecordMapper.INSTANCE);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByEmployeeNumber(java.lang.String)
+     */
+    @Override
+    public Member findByEmployeeNumber(String employeeNumber) {
+        return findOne(MEMBERS.EMPLOYEE_NUMBER.equal(employeeNumber));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByMemberNumber(java.lang.String)
+     */
+    @Override
+    public Member findByMemberNumber(String memberNumber) {
+        return findOne(MEMBERS.MEMBER_NUMBER.equal(memberNumber));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findByNamePrefix(java.lang.String, java.lang.String,
+     *      int)
+     */
+    @Override
+    public List<Member> findByNamePrefix(String lastNamePrefix, String firstNamePrefix, int maxResults) {
+        Assert.hasLength(lastNamePrefix, "lastNamePrefix is required");
+        Assert.isTrue(maxResults > 0, "maxResults must be positive");
+        Condition condition = PERSONS.LAST_NAME_KEY.like(likePrefix(Person.toSearchKey(lastNamePrefix)), '\\');
+        if (firstNamePrefix != null && !firstNamePrefix.isEmpty()) {
+            condition = condition.and(PERSONS.FIRST_NAME_KEY.like(likePrefix(Person.toSearchKey(firstNamePrefix)), '\\'));
+        }
+        return selectMembers().where(condition).orderBy(PERSONS.LAST_NAME_KEY, PERSONS.FIRST_NAME_KEY, PERSONS.ID).limit(maxResults)
+                .fetch(MemberRecordMapper.INSTANCE);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByPersonCellPhoneNumber(java.lang.String)
+     */
+    @Override
+    public List<Member> findByPersonCellPhoneNumber(String cellPhoneNumber) {
+        return selectMembers().where(PERSONS.CELL_PHONE_NUMBER.equal(cellPhoneNumber)).fetch(MemberRecordMapper.INSTANCE);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByPersonEmail(java.lang.String)
+     */
+    @Override
+    public List<Member> findByPersonEmail(String email) {
+        return selectMembers().where(PERSONS.EMAIL.equal(email)).fetch(MemberRecordMapper.INSTANCE);
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#findOne(java.io.Serializable)
+     */
+    @Override
+    public Member findOne(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        return findOne(MEMBERS.ID.equal(id));
+    }
+
+    /**
+     * With {@link MemberFetchPlan#MEMBER_ONLY}, only <code>members</code> is read and the person is a {@link PersonReference reference}.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findOne(java.lang.Long,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    public Member findOne(Long id, MemberFetchPlan plan) {
+        Assert.notNull(plan, "plan is required");
+        if (plan == MemberFetchPlan.MEMBER_WITH_PERSON) {
+            return findOne(id);
+        }
+        Assert.notNull(id, "The given id must not be null!");
+        Record record = dsl.select(MEMBERS.fields()).from(MEMBERS).where(MEMBERS.ID.equal(id)).fetchOne();
+        return record == null ? null : MemberRecordMapper.MEMBER_ONLY.map(record);
+    }
+
+    /**
+     * Uses the jOOQ <code>SEEK</code> clause, which renders the <code>WHERE</code> predicate on the keyset matching the <code>ORDER BY</code>, and
+     * reads <code>size + 1</code> rows to know whether there is a next page. By last name, the query is driven from the persons, with the redundant
+     * <code>last_name &gt;= ?</code> (the empty string for the first page) that lets the database read <code>persons_last_name_idx</code> in
+     * order and stop after the page, instead of scanning the members and sorting them all.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findPage(fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset.Order,
+     *      java.lang.String, int)
+     */
+    @Override
+    public KeysetPage<Member> findPage(MemberKeyset.Order order, String continuationToken, int size) {
+        Assert.notNull(order, "order is required");
+        Assert.isTrue(size > 0, "size must be positive");
+        MemberKeyset keyset = continuationToken == null ? null : MemberKeyset.fromToken(order, continuationToken);
+        List<Member> rows;
+        if (order == MemberKeyset.Order.ID) {
+            SelectSeekStep1<Record, Long> select = selectMembers().orderBy(MEMBERS.ID);
+            rows = (keyset == null ? select.limit(size + 1) : select.seek(keyset.getId()).limit(size + 1)).fetch(MemberRecordMapper.INSTANCE);
+        } else {
+            SelectSeekStep2<Record, String, Long> select = dsl.select(MemberRecordMapper.MEMBER_FIELDS).from(PERSONS).join(MEMBERS)
+                    .on(MEMBERS.PERSON_ID.equal(PERSONS.ID)).where(PERSONS.LAST_NAME.greaterOrEqual(keyset == null ? "" : keyset.getLastName()))
+                    .orderBy(PERSONS.LAST_NAME, PERSONS.ID);
+            rows = (keyset == null ? select.limit(size + 1) : select.seek(keyset.getLastName(), keyset.getId()).limit(size + 1))
+                    .fetch(MemberRecordMapper.INSTANCE);
+        }
+        return MemberKeyset.toPage(order, rows, size);
+    }
+
+    /**
+     * The chunks hold {@link #setMultiGetChunkSize(int) chunk size} ids, the last one padded with its last id, so that every chunk runs the same
+     * prepared statement. With a {@link #setMultiGetParallelism(int) parallelism} above 1, the chunks but the first run on as many threads, each
+     * one on its own pooled connection: outside of the transaction of the caller, they do not see its uncommitted writes.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#multiGet(java.util.List)
+     */
+    @Override
+    public MultiGetResult<Member> multiGet(List<Long> ids) {
+        Assert.notNull(ids, "ids is required");
+        List<Long> distinct = new ArrayList<Long>(new LinkedHashSet<Long>(ids));
+        Assert.isTrue(!distinct.contains(null), "The ids must not be null");
+        List<List<Long>> chunks = new ArrayList<List<Long>>();
+        for (int i = 0; i < distinct.size(); i += multiGetChunkSize) {
+            chunks.add(padded(distinct.subList(i, Math.min(distinct.size(), i + multiGetChunkSize))));
+        }
+        List<Future<List<Member>>> futures = new ArrayList<Future<List<Member>>>();
+        if (multiGetExecutor != null) {
+            for (final List<Long> chunk : chunks.subList(Math.min(1, chunks.size()), chunks.size())) {
+                futures.add(multiGetExecutor.submit(() -> selectMembers().where(MEMBERS.ID.in(chunk)).fetch(MemberRecordMapper.INSTANCE)));
+            }
+            chunks = chunks.subList(0, Math.min(1, chunks.size()));
+        }
+        Map<Long, Member> found = new HashMap<Long, Member>(distinct.size() * 4 / 3 + 1);
+        for (List<Long> chunk : chunks) {
+            for (Member member : selectMembers().where(MEMBERS.ID.in(chunk)).fetch(MemberRecordMapper.INSTANCE)) {
+                found.put(member.getId(), member);
+            }
+        }
+        for (Future<List<Member>> future : futures) {
+            for (Member member : await(future)) {
+                found.put(member.getId(), member);
+            }
+        }
+        return MultiGetResult.inOrder(ids, found);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findSummaries(org.springframework.data.domain.Pageable)
+     */
+    @Override
+    public Page<MemberSummary> findSummaries(Pageable pageable) {
+        SelectJoinStep<Record> select = dsl.select(MemberSummaryRecordMapper.SUMMARY_FIELDS).from(MEMBERS).join(PERSONS)
+                .on(MEMBERS.PERSON_ID.equal(PERSONS.ID));
+        if (pageable == null) {
+            return new PageImpl<MemberSummary>(select.fetch(MemberSummaryRecordMapper.INSTANCE));
+        }
+        List<MemberSummary> content = select.orderBy(toSortFields(pageable.getSort())).limit(pageable.getOffset(), pageable.getPageSize())
+                .fetch(MemberSummaryRecordMapper.INSTANCE);
+        return new PageImpl<MemberSummary>(content, pageable, count());
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findVersionStamp(java.lang.Long)
+     */
+    @Override
+    public MemberVersionStamp findVersionStamp(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        Record3<Integer, Long, Integer> record = dsl.select(MEMBERS.VERSION, PERSONS.ID, PERSONS.VERSION).from(MEMBERS).join(PERSONS)
+                .on(MEMBERS.PERSON_ID.equal(PERSONS.ID)).where(MEMBERS.ID.equal(id)).fetchOne();
+        return record == null ? null : new MemberVersionStamp(record.value1().intValue(), record.value2(), record.value3().intValue());
+    }
+
+    /**
+     * Writes are never deferred by this repository, there is nothing to flush.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#flush()
+     */
+    @Override
+    public void flush() {
+        // Nothing to do
+    }
+
+    /**
+     * There are no proxies without a persistence context, this is the same as {@link #findOne(Long)}.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#getOne(java.io.Serializable)
+     */
+    @Override
+    public Member getOne(Long id) {
+        return findOne(id);
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#save(java.lang.Iterable)
+     */
+    @Override
+    @Transactional
+    public <S extends Member> List<S> save(Iterable<S> members) {
+        List<S> result = new ArrayList<S>();
+        if (members == null) {
+            return result;
+        }
+        for (S member : members) {
+            result.add(save(member));
+        }
+        return result;
+    }
+
+    /**
+     * Inserts a new member (and its person) or updates an existing one, checking the versions of both rows.
+     *
+     * @see org.springframework.data.repository.CrudRepository#save(java.lang.Object)
+     */
+    @Override
+    @Transactional
+    public <S extends Member> S save(S member) {
+        Assert.notNull(member, "The entity must not be null!");
+        Assert.notNull(member.getPerson(), "A member must have a person");
+        if (member.getId() == null) {
+            insert(member);
+            return member;
+        }
+        return update(member);
+    }
+
+    /**
+     * New members are inserted in chunks of {@link #setBatchSize(int) batch size}: the ids of a chunk are taken from the in-memory id blocks, then
+     * its persons and its members are sent as two JDBC batches. Existing members are updated one by one, as by {@link #save(Member)}.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#saveInBatch(java.lang.Iterable)
+     */
+    @Override
+    @Transactional
+    public int saveInBatch(Iterable<? extends Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        long start = System.nanoTime();
+        int count = 0;
+        List<Member> chunk = new ArrayList<Member>(batchSize);
+        for (Member member : members) {
+            Assert.notNull(member.getPerson(), "A member must have a person");
+            if (member.getId() != null) {
+                update(member);
+                count++;
+            } else {
+                chunk.add(member);
+                if (chunk.size() == batchSize) {
+                    count += insert(chunk);
+                    chunk.clear();
+                }
+            }
+        }
+        count += insert(chunk);
+        logThroughput(count, System.nanoTime() - start);
+        return count;
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#saveAndFlush(java.lang.Object)
+     */
+    @Override
+    @Transactional
+    public <S extends Member> S saveAndFlush(S member) {
+        return save(member);
+    }
+
+    /**
+     * Iterates over a lazy jOOQ {@link Cursor}, fetching {@link #setFetchSize(int) fetch size} rows per round trip. Only the current member is
+     * referenced by this repository.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#streamAll(fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback)
+     */
+    @Override
+    public long streamAll(MemberCallback callback) {
+        Assert.notNull(callback, "callback is required");
+        Cursor<Record> cursor = selectMembers().fetchSize(fetchSize).fetchLazy();
+        long count = 0;
+        try {
+            while (cursor.hasNext()) {
+                callback.process(cursor.fetchOne(MemberRecordMapper.INSTANCE));
+                count++;
+            }
+        } finally {
+            cursor.close();
+        }
+        return count;
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateAuditFields(java.util.Collection, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    @Transactional
+    public Set<Long> updateAuditFields(Collection<MemberVersion> members, String lastUpdateUser, Date lastUpdateDate) {
+        Assert.notNull(members, "members is required");
+        Assert.notNull(lastUpdateUser, "lastUpdateUser is required");
+        Assert.notNull(lastUpdateDate, "lastUpdateDate is required");
+        Set<Long> conflicts = new LinkedHashSet<Long>();
+        for (List<MemberVersion> chunk : chunk(new ArrayList<MemberVersion>(members))) {
+            Set<Long> ids = new LinkedHashSet<Long>();
+            for (MemberVersion member : chunk) {
+                ids.add(member.getId());
+            }
+            Map<Long, Integer> versions = dsl.select(MEMBERS.ID, MEMBERS.VERSION).from(MEMBERS).where(MEMBERS.ID.in(ids)).forUpdate()
+                    .fetchMap(MEMBERS.ID, MEMBERS.VERSION);
+            Set<Long> matching = new LinkedHashSet<Long>();
+            for (MemberVersion member : chunk) {
+                Integer version = versions.get(member.getId());
+                if (version != null && version.intValue() == member.getVersion()) {
+                    matching.add(member.getId());
+                } else {
+                    conflicts.add(member.getId());
+                }
+            }
+            if (!matching.isEmpty()) {
+                dsl.update(MEMBERS).set(MEMBERS.VERSION, MEMBERS.VERSION.add(1)).set(MEMBERS.LAST_UPDATE_USER, lastUpdateUser)
+                        .set(MEMBERS.LAST_UPDATE_DATE, toTimestamp(lastUpdateDate)).where(MEMBERS.ID.in(matching)).execute();
+                recordChanges(MemberChange.Type.UPDATE, MEMBERS.ID.in(matching));
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * The updates are sent as jOOQ batches of {@link #setBatchSize(int) batch size} statements.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateEmployeeNumbers(java.util.Map, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    @Transactional
+    public Set<Long> updateEmployeeNumbers(Map<MemberVersion, String> employeeNumbers, String lastUpdateUser, Date lastUpdateDate) {
+        Assert.notNull(employeeNumbers, "employeeNumbers is required");
+        Assert.notNull(lastUpdateUser, "lastUpdateUser is required");
+        Assert.notNull(lastUpdateDate, "lastUpdateDate is required");
+        for (String employeeNumber : employeeNumbers.values()) {
+            Assert.notNull(employeeNumber, "The employee numbers must not be null");
+        }
+        List<Map.Entry<MemberVersion, String>> entries = new ArrayList<Map.Entry<MemberVersion, String>>(employeeNumbers.entrySet());
+        Timestamp timestamp = toTimestamp(lastUpdateDate);
+        Set<Long> conflicts = new LinkedHashSet<Long>();
+        for (int i = 0; i < entries.size(); i += batchSize) {
+            List<Map.Entry<MemberVersion, String>> chunk = entries.subList(i, Math.min(entries.size(), i + batchSize));
+            // The bind values follow the parameters of the statement, the version increment first
+            BatchBindStep batch = dsl.batch(dsl.update(MEMBERS).set(MEMBERS.VERSION, MEMBERS.VERSION.add(1))
+                    .set(MEMBERS.EMPLOYEE_NUMBER, (String) null).set(MEMBERS.LAST_UPDATE_USER, (String) null)
+                    .set(MEMBERS.LAST_UPDATE_DATE, (Timestamp) null).where(MEMBERS.ID.equal(DSL.param("id", Long.class)))
+                    .and(MEMBERS.VERSION.equal(DSL.param("version", Integer.class))));
+            for (Map.Entry<MemberVersion, String> entry : chunk) {
+                batch.bind(Integer.valueOf(1), entry.getValue(), lastUpdateUser, timestamp, entry.getKey().getId(), Integer.valueOf(entry.getKey().getVersion()));
+            }
+            int[] counts = batch.execute();
+            List<Long> updated = new ArrayList<Long>(counts.length);
+            for (int j = 0; j < counts.length; j++) {
+                Assert.state(counts[j] != Statement.SUCCESS_NO_INFO, "The JDBC driver does not report the update counts of a batch");
+                if (counts[j] == 0) {
+                    conflicts.add(chunk.get(j).getKey().getId());
+                } else {
+                    updated.add(chunk.get(j).getKey().getId());
+                }
+            }
+            recordChanges(MemberChange.Type.UPDATE, updated);
+        }
+        return conflicts;
+    }
+
+    /**
+     * The updates are sent as jOOQ batches of {@link #setBatchSize(int) batch size} statements.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#touch(java.util.Collection)
+     */
+    @Override
+    @Transactional
+    public Set<Long> touch(Collection<MemberTouch> touches) {
+        Assert.notNull(touches, "touches is required");
+        List<MemberTouch> list = new ArrayList<MemberTouch>(touches);
+        Set<Long> skipped = new LinkedHashSet<Long>();
+        for (int i = 0; i < list.size(); i += batchSize) {
+            List<MemberTouch> chunk = list.subList(i, Math.min(list.size(), i + batchSize));
+            // The bind values follow the parameters of the statement, the version increment first
+            BatchBindStep batch = dsl.batch(dsl.update(MEMBERS).set(MEMBERS.VERSION, MEMBERS.VERSION.add(1))
+                    .set(MEMBERS.LAST_UPDATE_USER, (String) null).set(MEMBERS.LAST_UPDATE_DATE, (Timestamp) null)
+                    .where(MEMBERS.ID.equal(DSL.param("id", Long.class))).and(MEMBERS.LAST_UPDATE_DATE.lessThan(DSL.param("date", Timestamp.class))));
+            for (MemberTouch touch : chunk) {
+                Timestamp timestamp = toTimestamp(touch.getLastUpdateDate());
+                batch.bind(Integer.valueOf(1), touch.getLastUpdateUser(), timestamp, touch.getId(), timestamp);
+            }
+            int[] counts = batch.execute();
+            List<Long> updated = new ArrayList<Long>(counts.length);
+            for (int j = 0; j < counts.length; j++) {
+                Assert.state(counts[j] != Statement.SUCCESS_NO_INFO, "The JDBC driver does not report the update counts of a batch");
+                if (counts[j] == 0) {
+                    skipped.add(chunk.get(j).getId());
+                } else {
+                    updated.add(chunk.get(j).getId());
+                }
+            }
+            recordChanges(MemberChange.Type.UPDATE, updated);
+        }
+        return skipped;
+    }
+
+    /**
+     * Finds a single member.
+     *
+     * @param condition
+     *            A condition on <code>members</code> or <code>persons</code> matching at most one row
+     * @return The member, or <code>null</code> if none matches
+     */
+    protected Member findOne(Condition condition) {
+        Record record = selectMembers().where(condition).fetchOne();
+        return record == null ? null : MemberRecordMapper.INSTANCE.map(record);
+    }
+
+    /**
+     * @return <code>SELECT members.*, persons.* FROM members JOIN persons</code>, ready for a where clause
+     */
+    protected SelectJoinStep<Record> selectMembers() {
+        return dsl.select(MemberRecordMapper.MEMBER_FIELDS).from(MEMBERS).join(PERSONS).on(MEMBERS.PERSON_ID.equal(PERSONS.ID));
+    }
+
+    private void insert(Member member) {
+        Person person = member.getPerson();
+        if (person.getId() == null) {
+            insert(person);
+        }
+        member.setId(Long.valueOf(memberIds.next(memberIdBlocks)));
+        dsl.insertInto(MEMBERS, MEMBER_INSERT_FIELDS).values(insertValues(member)).execute();
+        recordChanges(MemberChange.Type.INSERT, MEMBERS.ID.equal(member.getId()));
+    }
+
+    private int insert(List<Member> members) {
+        if (members.isEmpty()) {
+            return 0;
+        }
+        BatchBindStep personBatch = dsl.batch(dsl.insertInto(PERSONS, PERSON_INSERT_FIELDS).values(new Object[PERSON_INSERT_FIELDS.length]));
+        BatchBindStep memberBatch = dsl.batch(dsl.insertInto(MEMBERS, MEMBER_INSERT_FIELDS).values(new Object[MEMBER_INSERT_FIELDS.length]));
+        boolean newPersons = false;
+        List<Long> ids = new ArrayList<Long>(members.size());
+        for (Member member : members) {
+            Person person = member.getPerson();
+            if (person.getId() == null) {
+                person.setId(Long.valueOf(personIds.next(personIdBlocks)));
+                personBatch.bind(insertValues(person));
+                newPersons = true;
+            }
+            member.setId(Long.valueOf(memberIds.next(memberIdBlocks)));
+            memberBatch.bind(insertValues(member));
+            ids.add(member.getId());
+        }
+        // All the persons first, the members reference them
+        if (newPersons) {
+            personBatch.execute();
+        }
+        memberBatch.execute();
+        recordChanges(MemberChange.Type.INSERT, ids);
+        return members.size();
+    }
+
+    private void insert(Person person) {
+        person.setId(Long.valueOf(personIds.next(personIdBlocks)));
+        dsl.insertInto(PERSONS, PERSON_INSERT_FIELDS).values(insertValues(person)).execute();
+    }
+
+    @SuppressWarnings("unchecked")
+    private <S extends Member> S update(S member) {
+        Person person = member.getPerson();
+        Person savedPerson;
+        if (person.getId() == null) {
+            // A new person replacing the previous one, as a cascaded merge would do
+            insert(person);
+            savedPerson = person;
+        } else if (person instanceof PersonReference) {
+            // Not loaded, so not modified either
+            savedPerson = person;
+        } else {
+            int updated = dsl.update(PERSONS).set(PERSONS.VERSION, PERSONS.VERSION.add(1)).set(PERSONS.FIRST_NAME, person.getFirstName())
+                    .set(PERSONS.LAST_NAME, person.getLastName()).set(PERSONS.GENDER, genderName(person))
+                    .set(PERSONS.CELL_PHONE_NUMBER, person.getCellPhoneNumber()).set(PERSONS.EMAIL, person.getEmail())
+                    .set(PERSONS.BIRTH_DATE, toTimestamp(person.getBirthDate()))
+                    .set(PERSONS.SOCIAL_INSURANCE_NUMBER, person.getSocialInsuranceNumber()).set(PERSONS.FIRST_NAME_KEY, person.getFirstNameKey())
+                    .set(PERSONS.LAST_NAME_KEY, person.getLastNameKey()).where(PERSONS.ID.equal(person.getId()))
+                    .and(PERSONS.VERSION.equal(person.getVersion())).execute();
+            if (updated == 0) {
+                throw new ObjectOptimisticLockingFailureException(Person.class, person.getId());
+            }
+            savedPerson = copyOf(person, person.getVersion() + 1);
+        }
+        // member_number and creation_date are not updatable
+        int updated = dsl.update(MEMBERS).set(MEMBERS.VERSION, MEMBERS.VERSION.add(1)).set(MEMBERS.EMPLOYEE_NUMBER, member.getEmployeeNumber())
+                .set(MEMBERS.PERSON_ID, savedPerson.getId()).set(MEMBERS.LAST_UPDATE_USER, member.getLastUpdateUser())
+                .set(MEMBERS.LAST_UPDATE_DATE, toTimestamp(member.getLastUpdateDate())).where(MEMBERS.ID.equal(member.getId()))
+                .and(MEMBERS.VERSION.equal(member.getVersion())).execute();
+        if (updated == 0) {
+            throw new ObjectOptimisticLockingFailureException(Member.class, member.getId());
+        }
+        recordChanges(MemberChange.Type.UPDATE, MEMBERS.ID.equal(member.getId()));
+        return (S) copyOf(member, member.getVersion() + 1, savedPerson);
+    }
+
+    /**
+     * Writes the outbox entries of the given members, see {@link #recordChanges(MemberChange.Type, Condition)}.
+     */
+    private void recordChanges(MemberChange.Type type, List<Long> ids) {
+        for (List<Long> chunk : chunk(ids)) {
+            recordChanges(type, MEMBERS.ID.in(chunk));
+        }
+    }
+
+    /**
+     * Writes the outbox entries of the members matching the condition, with their versions in the database: after the inserts and the updates,
+     * before the deletes.
+     */
+    private void recordChanges(MemberChange.Type type, Condition condition) {
+        dsl.insertInto(MEMBER_CHANGES, MEMBER_CHANGES.MEMBER_ID, MEMBER_CHANGES.MEMBER_VERSION, MEMBER_CHANGES.CHANGE_TYPE, MEMBER_CHANGES.CHANGED_ON)
+                .select(dsl.select(MEMBERS.ID, MEMBERS.VERSION, DSL.val(type.name()), DSL.val(new Timestamp(System.currentTimeMillis())))
+                        .from(MEMBERS).where(condition)).execute();
+    }
+
+    private static Member copyOf(Member member, int version, Person person) {
+        return Member.Builder.from(member).withVersion(version).withPerson(person).build();
+    }
+
+    private static Person copyOf(Person person, int version) {
+        return Person.Builder.from(person).withVersion(version).build();
+    }
+
+    /**
+     * @param batchSize
+     *            The number of members inserted per statement by {@link #saveInBatch(Iterable)}, also the number of updates per batch of
+     *            {@link #updateEmployeeNumbers(Map, String, Date)} and {@link #touch(Collection)}
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param fetchSize
+     *            The number of rows fetched per round trip by {@link #streamAll(MemberCallback)}
+     */
+    public void setFetchSize(int fetchSize) {
+        Assert.isTrue(fetchSize > 0, "fetchSize must be positive");
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @param multiGetChunkSize
+     *            The number of ids per query of {@link #multiGet(List)}, at most 1000
+     */
+    public void setMultiGetChunkSize(int multiGetChunkSize) {
+        Assert.isTrue(multiGetChunkSize > 0 && multiGetChunkSize <= MAX_IN_LIST_SIZE, "multiGetChunkSize must be between 1 and " + MAX_IN_LIST_SIZE);
+        this.multiGetChunkSize = multiGetChunkSize;
+    }
+
+    /**
+     * @param multiGetParallelism
+     *            The number of chunks of {@link #multiGet(List)} read at the same time, 1 by default: each one holds a connection of the pool while it
+     *            runs
+     */
+    public void setMultiGetParallelism(int multiGetParallelism) {
+        Assert.isTrue(multiGetParallelism > 0, "multiGetParallelism must be positive");
+        Assert.state(multiGetExecutor == null, "multiGetParallelism is already set");
+        if (multiGetParallelism > 1) {
+            // The calling thread reads a chunk as well
+            ThreadPoolExecutor executor = new ThreadPoolExecutor(multiGetParallelism - 1, multiGetParallelism - 1, 60L, TimeUnit.SECONDS,
+                    new LinkedBlockingQueue<Runnable>(), runnable -> {
+                        Thread thread = new Thread(runnable, "member-multi-get-" + THREADS.incrementAndGet());
+                        thread.setDaemon(true);
+                        return thread;
+                    });
+            executor.allowCoreThreadTimeOut(true);
+            multiGetExecutor = executor;
+        }
+    }
+
+    private List<SortField<?>> toSortFields(Sort sort) {
+        List<SortField<?>> result = new ArrayList<SortField<?>>();
+        if (sort == null) {
+            return result;
+        }
+        for (Sort.Order order : sort) {
+            Field<?> field = SORTABLE_FIELDS.get(order.getProperty());
+            if (field == null) {
+                throw new IllegalArgumentException("No sortable property " + order.getProperty() + " found for type Member");
+            }
+            result.add(order.isAscending() ? field.asc() : field.desc());
+        }
+        return result;
+    }
+
+    /**
+     * @return The chunk completed up to the chunk size by repeating its last id
+     */
+    private List<Long> padded(List<Long> chunk) {
+        List<Long> padded = new ArrayList<Long>(multiGetChunkSize);
+        padded.addAll(chunk);
+        while (padded.size() < multiGetChunkSize) {
+            padded.add(chunk.get(chunk.size() - 1));
+        }
+        return padded;
+    }
+
+    private static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("Interrupted while reading the members", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof RuntimeException) {
+                throw (RuntimeException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static <T> List<List<T>> chunk(List<T> values) {
+        List<List<T>> chunks = new ArrayList<List<T>>();
+        for (int i = 0; i < values.size(); i += MAX_IN_LIST_SIZE) {
+            chunks.add(values.subList(i, Math.min(values.size(), i + MAX_IN_LIST_SIZE)));
+        }
+        return chunks;
+    }
+
+    /**
+     * @return The pattern of a <code>LIKE ... ESCAPE '\'</code> matching the values starting with the given prefix
+     */
+    private static String likePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + '%';
+    }
+
+    private static void logThroughput(int count, long elapsedNanos) {
+        if (LOG.isInfoEnabled()) {
+            // Each member counts for two rows: the member and its person
+            long millis = Math.max(1L, elapsedNanos / 1000000L);
+            LOG.info(String.format("Saved %d members in %d ms (%d rows/s)", count, millis, 2L * count * 1000L / millis));
+        }
+    }
+
+    private static Object[] insertValues(Member member) {
+        return new Object[] { member.getId(), member.getVersion(), member.getMemberNumber(), member.getEmployeeNumber(), member.getPerson().getId(),
+                toTimestamp(member.getCreationDate()), member.getLastUpdateUser(), toTimestamp(member.getLastUpdateDate()) };
+    }
+
+    private static Object[] insertValues(Person person) {
+        return new Object[] { person.getId(), person.getVersion(), person.getFirstName(), person.getLastName(), genderName(person),
+                person.getCellPhoneNumber(), person.getEmail(), toTimestamp(person.getBirthDate()), person.getSocialInsuranceNumber(),
+                person.getFirstNameKey(), person.getLastNameKey() };
+    }
+
+    private static String genderName(Person person) {
+        return person.getGender() == null ? null : person.getGender().name();
+    }
+
+    private static Timestamp toTimestamp(Date date) {
+        return date == null ? null : new Timestamp(date.getTime());
+    }
+}
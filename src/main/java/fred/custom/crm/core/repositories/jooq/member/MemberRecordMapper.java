@@ -0,0 +1,74 @@
+package fred.custom.crm.core.repositories.jooq.member;
+
+import static fred.custom.crm.core.repositories.jooq.tables.Members.MEMBERS;
+import static fred.custom.crm.core.repositories.jooq.tables.Persons.PERSONS;
+
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.RecordMapper;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.Person.Gender;
+import fred.custom.crm.core.model.member.PersonReference;
+
+/**
+ * Maps a row of <code>members JOIN persons</code> to a {@link Member} and its {@link Person}, or a row of <code>members</code> alone to a
+ * {@link Member} and a {@link PersonReference}.
+ * <p>
+ * The entities are built through their builders, straight from the record values: no reflection and no persistence context is involved.
+ * </p>
+ * 
+ * @author Fred
+ */
+public class MemberRecordMapper implements RecordMapper<Record, Member> {
+
+    /** The columns a {@link Member} is built from, in select order */
+    public static final Field<?>[] MEMBER_FIELDS = concat(MEMBERS.fields(), PERSONS.fields());
+
+    /** Shared instance mapping members with their persons, this mapper holds no state */
+    public static final MemberRecordMapper INSTANCE = new MemberRecordMapper(true);
+
+    /** Shared instance mapping members alone, their persons being references */
+    public static final MemberRecordMapper MEMBER_ONLY = new MemberRecordMapper(false);
+
+    private final boolean withPerson;
+
+    private MemberRecordMapper(boolean withPerson) {
+        this.withPerson = withPerson;
+    }
+
+    /**
+     * @see org.jooq.RecordMapper#map(org.jooq.Record)
+     */
+    @Override
+    public Member map(Record record) {
+        return Member.Builder.getInstance().withId(record.getValue(MEMBERS.ID)).withVersion(record.getValue(MEMBERS.VERSION))
+                .withMemberNumber(record.getValue(MEMBERS.MEMBER_NUMBER)).withEmployeeNumber(record.getValue(MEMBERS.EMPLOYEE_NUMBER))
+                .withPerson(withPerson ? mapPerson(record) : new PersonReference(record.getValue(MEMBERS.PERSON_ID))).withCreationDate(record.getValue(MEMBERS.CREATION_DATE))
+                .withLastUpdateUser(record.getValue(MEMBERS.LAST_UPDATE_USER)).withLastUpdateDate(record.getValue(MEMBERS.LAST_UPDATE_DATE)).build();
+    }
+
+    /**
+     * Builds the {@link Person} part of a <code>members JOIN persons</code> row.
+     * 
+     * @param record
+     *            A record holding at least all the columns of <code>persons</code>
+     * @return The person, never <code>null</code>
+     */
+    public Person mapPerson(Record record) {
+        String gender = record.getValue(PERSONS.GENDER);
+        return Person.Builder.getInstance().withId(record.getValue(PERSONS.ID)).withVersion(record.getValue(PERSONS.VERSION))
+                .withFirstName(record.getValue(PERSONS.FIRST_NAME)).withLastName(record.getValue(PERSONS.LAST_NAME))
+                .withGender(gender == null ? null : Gender.valueOf(gender)).withCellPhoneNumber(record.getValue(PERSONS.CELL_PHONE_NUMBER))
+                .withEmail(record.getValue(PERSONS.EMAIL)).withBirthDate(record.getValue(PERSONS.BIRTH_DATE))
+                .withSocialInsuranceNumber(record.getValue(PERSONS.SOCIAL_INSURANCE_NUMBER)).build();
+    }
+
+    private static Field<?>[] concat(Field<?>[] first, Field<?>[] second) {
+        Field<?>[] result = new Field<?>[first.length + second.length];
+        System.arraycopy(first, 0, result, 0, first.length);
+        System.arraycopy(second, 0, result, first.length, second.length);
+        return result;
+    }
+}
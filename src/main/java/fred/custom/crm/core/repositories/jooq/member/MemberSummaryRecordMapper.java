@@ -0,0 +1,37 @@
+package fred.custom.crm.core.repositories.jooq.member;
+
+import static fred.custom.crm.core.repositories.jooq.tables.Members.MEMBERS;
+import static fred.custom.crm.core.repositories.jooq.tables.Persons.PERSONS;
+
+import org.jooq.Field;
+import org.jooq.Record;
+import org.jooq.RecordMapper;
+
+import fred.custom.crm.core.model.member.MemberSummary;
+import fred.custom.crm.core.model.member.Person.Gender;
+
+/**
+ * Maps a row of <code>members JOIN persons</code>, restricted to {@link #SUMMARY_FIELDS}, to a {@link MemberSummary}.
+ * 
+ * @author Fred
+ */
+public class MemberSummaryRecordMapper implements RecordMapper<Record, MemberSummary> {
+
+    /** The columns a {@link MemberSummary} is built from, in select order */
+    public static final Field<?>[] SUMMARY_FIELDS = { MEMBERS.ID, MEMBERS.MEMBER_NUMBER, PERSONS.FIRST_NAME, PERSONS.LAST_NAME, PERSONS.GENDER };
+
+    /** Shared instance, this mapper holds no state */
+    public static final MemberSummaryRecordMapper INSTANCE = new MemberSummaryRecordMapper();
+
+    /**
+     * Reads the values by index, in {@link #SUMMARY_FIELDS} order, without any lookup nor conversion.
+     * 
+     * @see org.jooq.RecordMapper#map(org.jooq.Record)
+     */
+    @Override
+    public MemberSummary map(Record record) {
+        String gender = (String) record.getValue(4);
+        return new MemberSummary((Long) record.getValue(0), (String) record.getValue(1), (String) record.getValue(2), (String) record.getValue(3),
+                gender == null ? null : Gender.valueOf(gender));
+    }
+}
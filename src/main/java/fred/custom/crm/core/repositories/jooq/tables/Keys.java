@@ -0,0 +1,42 @@
+package fred.custom.crm.core.repositories.jooq.tables;
+
+import static fred.custom.crm.core.repositories.jooq.tables.MemberChanges.MEMBER_CHANGES;
+import static fred.custom.crm.core.repositories.jooq.tables.Members.ARCHIVED_MEMBERS;
+import static fred.custom.crm.core.repositories.jooq.tables.Members.MEMBERS;
+import static fred.custom.crm.core.repositories.jooq.tables.Persons.ARCHIVED_PERSONS;
+import static fred.custom.crm.core.repositories.jooq.tables.Persons.PERSONS;
+
+import org.jooq.Record;
+import org.jooq.UniqueKey;
+import org.jooq.impl.AbstractKeys;
+
+/**
+ * Keys of the tables described in this package.
+ * 
+ * @author Fred
+ */
+public final class Keys {
+
+    public static final UniqueKey<Record> PK_MEMBERS = UniqueKeys.PK_MEMBERS;
+
+    public static final UniqueKey<Record> PK_PERSONS = UniqueKeys.PK_PERSONS;
+
+    public static final UniqueKey<Record> PK_MEMBER_CHANGES = UniqueKeys.PK_MEMBER_CHANGES;
+
+    public static final UniqueKey<Record> PK_ARCHIVED_MEMBERS = UniqueKeys.PK_ARCHIVED_MEMBERS;
+
+    public static final UniqueKey<Record> PK_ARCHIVED_PERSONS = UniqueKeys.PK_ARCHIVED_PERSONS;
+
+    private Keys() {
+        // Constants only
+    }
+
+    @SuppressWarnings("unchecked")
+    private static class UniqueKeys extends AbstractKeys {
+        static final UniqueKey<Record> PK_MEMBERS = createUniqueKey(MEMBERS, MEMBERS.ID);
+        static final UniqueKey<Record> PK_PERSONS = createUniqueKey(PERSONS, PERSONS.ID);
+        static final UniqueKey<Record> PK_MEMBER_CHANGES = createUniqueKey(MEMBER_CHANGES, MEMBER_CHANGES.ID);
+        static final UniqueKey<Record> PK_ARCHIVED_MEMBERS = createUniqueKey(ARCHIVED_MEMBERS, ARCHIVED_MEMBERS.ID);
+        static final UniqueKey<Record> PK_ARCHIVED_PERSONS = createUniqueKey(ARCHIVED_PERSONS, ARCHIVED_PERSONS.ID);
+    }
+}
@@ -0,0 +1,66 @@
+package fred.custom.crm.core.repositories.jooq.tables;
+
+import java.sql.Timestamp;
+
+import org.jooq.Record;
+import org.jooq.Table;
+import org.jooq.TableField;
+import org.jooq.UniqueKey;
+import org.jooq.impl.SQLDataType;
+import org.jooq.impl.TableImpl;
+
+/**
+ * Typed jOOQ description of the <code>member_changes</code> table, the member outbox.
+ * <p>
+ * This class is maintained by hand and mirrors the mapping of {@link fred.custom.crm.core.model.member.MemberChange}. Any column added to the
+ * entity must be added here as well.
+ * </p>
+ * 
+ * @author Fred
+ */
+public class MemberChanges extends TableImpl<Record> {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = 2203457167617934046L;
+
+    /** The reference instance of <code>member_changes</code> */
+    public static final MemberChanges MEMBER_CHANGES = new MemberChanges();
+
+    /** Generated by the database */
+    public final TableField<Record, Long> ID = createField("id", SQLDataType.BIGINT.nullable(false), this);
+
+    public final TableField<Record, Long> MEMBER_ID = createField("member_id", SQLDataType.BIGINT.nullable(false), this);
+
+    public final TableField<Record, Integer> MEMBER_VERSION = createField("member_version", SQLDataType.INTEGER.nullable(false), this);
+
+    public final TableField<Record, String> CHANGE_TYPE = createField("change_type", SQLDataType.VARCHAR.length(6).nullable(false), this);
+
+    public final TableField<Record, Timestamp> CHANGED_ON = createField("changed_on", SQLDataType.TIMESTAMP.nullable(false), this);
+
+    /**
+     * Default constructor, prefer {@link #MEMBER_CHANGES}.
+     */
+    public MemberChanges() {
+        this("member_changes", null);
+    }
+
+    private MemberChanges(String alias, Table<Record> aliased) {
+        super(alias, null, aliased);
+    }
+
+    /**
+     * @see org.jooq.impl.AbstractTable#getPrimaryKey()
+     */
+    @Override
+    public UniqueKey<Record> getPrimaryKey() {
+        return Keys.PK_MEMBER_CHANGES;
+    }
+
+    /**
+     * @see org.jooq.impl.TableImpl#as(java.lang.String)
+     */
+    @Override
+    public MemberChanges as(String alias) {
+        return new MemberChanges(alias, this);
+    }
+}
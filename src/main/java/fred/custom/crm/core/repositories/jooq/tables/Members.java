@@ -0,0 +1,74 @@
+package fred.custom.crm.core.repositories.jooq.tables;
+
+import java.sql.Timestamp;
+
+import org.jooq.Record;
+import org.jooq.Table;
+import org.jooq.TableField;
+import org.jooq.UniqueKey;
+import org.jooq.impl.SQLDataType;
+import org.jooq.impl.TableImpl;
+
+/**
+ * Typed jOOQ description of the <code>members</code> table.
+ * <p>
+ * This class is maintained by hand and mirrors the mapping of {@link fred.custom.crm.core.model.member.Member}. Any column added to the entity
+ * must be added here as well.
+ * </p>
+ * 
+ * @author Fred
+ */
+public class Members extends TableImpl<Record> {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = -3371622385049722547L;
+
+    /** The reference instance of <code>members</code> */
+    public static final Members MEMBERS = new Members();
+
+    /** The <code>archived_members</code> table, same columns, see {@link fred.custom.crm.core.repositories.archive.MemberArchive} */
+    public static final Members ARCHIVED_MEMBERS = new Members("archived_members", null);
+
+    public final TableField<Record, Long> ID = createField("id", SQLDataType.BIGINT.nullable(false), this);
+
+    public final TableField<Record, Integer> VERSION = createField("version", SQLDataType.INTEGER.nullable(false), this);
+
+    public final TableField<Record, String> MEMBER_NUMBER = createField("member_number", SQLDataType.VARCHAR.length(255).nullable(false), this);
+
+    public final TableField<Record, String> EMPLOYEE_NUMBER = createField("employee_number", SQLDataType.VARCHAR.length(255).nullable(false), this);
+
+    public final TableField<Record, Long> PERSON_ID = createField("person_id", SQLDataType.BIGINT.nullable(false), this);
+
+    public final TableField<Record, Timestamp> CREATION_DATE = createField("creation_date", SQLDataType.TIMESTAMP.nullable(false), this);
+
+    public final TableField<Record, String> LAST_UPDATE_USER = createField("last_update_user", SQLDataType.VARCHAR.length(255).nullable(false), this);
+
+    public final TableField<Record, Timestamp> LAST_UPDATE_DATE = createField("last_update_date", SQLDataType.TIMESTAMP.nullable(false), this);
+
+    /**
+     * Default constructor, prefer {@link #MEMBERS}.
+     */
+    public Members() {
+        this("members", null);
+    }
+
+    private Members(String alias, Table<Record> aliased) {
+        super(alias, null, aliased);
+    }
+
+    /**
+     * @see org.jooq.impl.AbstractTable#getPrimaryKey()
+     */
+    @Override
+    public UniqueKey<Record> getPrimaryKey() {
+        return this == ARCHIVED_MEMBERS ? Keys.PK_ARCHIVED_MEMBERS : Keys.PK_MEMBERS;
+    }
+
+    /**
+     * @see org.jooq.impl.TableImpl#as(java.lang.String)
+     */
+    @Override
+    public Members as(String alias) {
+        return new Members(alias, this);
+    }
+}
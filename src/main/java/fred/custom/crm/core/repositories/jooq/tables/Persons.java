@@ -0,0 +1,83 @@
+package fred.custom.crm.core.repositories.jooq.tables;
+
+import java.sql.Timestamp;
+
+import org.jooq.Record;
+import org.jooq.Table;
+import org.jooq.TableField;
+import org.jooq.UniqueKey;
+import org.jooq.impl.SQLDataType;
+import org.jooq.impl.TableImpl;
+
+/**
+ * Typed jOOQ description of the <code>persons</code> table.
+ * <p>
+ * This class is maintained by hand and mirrors the mapping of {@link fred.custom.crm.core.model.member.Person}. Any column added to the entity
+ * must be added here as well.
+ * </p>
+ * 
+ * @author Fred
+ */
+public class Persons extends TableImpl<Record> {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = 6113466815190394432L;
+
+    /** The reference instance of <code>persons</code> */
+    public static final Persons PERSONS = new Persons();
+
+    /** The <code>archived_persons</code> table, same columns, see {@link fred.custom.crm.core.repositories.archive.MemberArchive} */
+    public static final Persons ARCHIVED_PERSONS = new Persons("archived_persons", null);
+
+    public final TableField<Record, Long> ID = createField("id", SQLDataType.BIGINT.nullable(false), this);
+
+    public final TableField<Record, Integer> VERSION = createField("version", SQLDataType.INTEGER.nullable(false), this);
+
+    public final TableField<Record, String> FIRST_NAME = createField("first_name", SQLDataType.VARCHAR.length(80).nullable(false), this);
+
+    public final TableField<Record, String> LAST_NAME = createField("last_name", SQLDataType.VARCHAR.length(80).nullable(false), this);
+
+    /** Holds the name of the {@link fred.custom.crm.core.model.member.Person.Gender} constant */
+    public final TableField<Record, String> GENDER = createField("gender", SQLDataType.VARCHAR.length(255).nullable(false), this);
+
+    public final TableField<Record, String> CELL_PHONE_NUMBER = createField("cell_phone_number", SQLDataType.VARCHAR.length(10), this);
+
+    public final TableField<Record, String> EMAIL = createField("email", SQLDataType.VARCHAR.length(320), this);
+
+    public final TableField<Record, Timestamp> BIRTH_DATE = createField("birth_date", SQLDataType.TIMESTAMP, this);
+
+    public final TableField<Record, String> SOCIAL_INSURANCE_NUMBER = createField("social_insurance_number", SQLDataType.VARCHAR.length(9), this);
+
+    /** Holds {@link fred.custom.crm.core.model.member.Person#toSearchKey(String)} of the first name */
+    public final TableField<Record, String> FIRST_NAME_KEY = createField("first_name_key", SQLDataType.VARCHAR.length(80).nullable(false), this);
+
+    /** Holds {@link fred.custom.crm.core.model.member.Person#toSearchKey(String)} of the last name */
+    public final TableField<Record, String> LAST_NAME_KEY = createField("last_name_key", SQLDataType.VARCHAR.length(80).nullable(false), this);
+
+    /**
+     * Default constructor, prefer {@link #PERSONS}.
+     */
+    public Persons() {
+        this("persons", null);
+    }
+
+    private Persons(String alias, Table<Record> aliased) {
+        super(alias, null, aliased);
+    }
+
+    /**
+     * @see org.jooq.impl.AbstractTable#getPrimaryKey()
+     */
+    @Override
+    public UniqueKey<Record> getPrimaryKey() {
+        return this == ARCHIVED_PERSONS ? Keys.PK_ARCHIVED_PERSONS : Keys.PK_PERSONS;
+    }
+
+    /**
+     * @see org.jooq.impl.TableImpl#as(java.lang.String)
+     */
+    @Override
+    public Persons as(String alias) {
+        return new Persons(alias, this);
+    }
+}
@@ -0,0 +1,25 @@
+package fred.custom.crm.core.repositories.jooq.tables;
+
+import org.jooq.Sequence;
+import org.jooq.impl.SequenceImpl;
+import org.jooq.impl.SQLDataType;
+
+/**
+ * Sequences of the tables described in this package.
+ * <p>
+ * They are created by Hibernate for the {@link fred.custom.crm.core.repositories.id.PooledSequenceIdGenerator}: each value reserves a block of
+ * ids, see {@link fred.custom.crm.core.repositories.id.BlockIdAllocator}.
+ * </p>
+ * 
+ * @author Fred
+ */
+public final class Sequences {
+
+    public static final Sequence<Long> MEMBER_ID_SEQ = new SequenceImpl<Long>("member_id_seq", null, SQLDataType.BIGINT);
+
+    public static final Sequence<Long> PERSON_ID_SEQ = new SequenceImpl<Long>("person_id_seq", null, SQLDataType.BIGINT);
+
+    private Sequences() {
+        // Constants only
+    }
+}
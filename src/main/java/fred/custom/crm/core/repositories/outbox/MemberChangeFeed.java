@@ -0,0 +1,339 @@
+package fred.custom.crm.core.repositories.outbox;
+
+import java.sql.PreparedStatement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javax.management.MalformedObjectNameException;
+import javax.management.ObjectName;
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.RowMapper;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.jmx.export.naming.SelfNaming;
+import org.springframework.jmx.support.ObjectNameManager;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.MemberChange;
+
+/**
+ * Reads the member outbox ({@link MemberChange}) incrementally, for the downstream systems which need the members changed since their last
+ * visit instead of the whole <code>members</code> table.
+ * <p>
+ * Each consumer has a name and a position, the id of the last change it processed, stored in <code>member_change_consumers</code>.
+ * {@link #read(String, int)} returns the next changes after its position, {@link #acknowledge(String, long)} moves it forward; the delivery is
+ * at least once. A new consumer {@link #register(String) registers} first, then loads the members it needs (e.g. with
+ * {@link fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#streamAll}), then follows the feed: the changes made
+ * meanwhile are delivered again. The feed uses the data source of the transactions, so that a consumer which writes to the same database can
+ * acknowledge in the transaction of its own writes.
+ * </p>
+ * <p>
+ * The ids of the changes are given in the order of the inserts, not of the commits: a change committed late may get a lower id than a change
+ * already visible. So the changes younger than the {@link #setSettleMillis(long) settle time} are not delivered yet, and the transactions
+ * writing members must be shorter than it, clock differences between the nodes included.
+ * </p>
+ * <p>
+ * The outbox is kept small by {@link #purge()}, every {@link #setPurgeIntervalMillis(long) purge interval}: the changes processed by all the
+ * consumers are deleted, and so are the changes of a member followed by a later one, which the consumers would get anyway. Consumers must then
+ * treat inserts and updates alike, re-reading the member, and ignore the deletes of members they do not know. A consumer which stopped for good
+ * must be {@link #unregister(String) unregistered}, the outbox would keep the changes for it otherwise (at most one per member).
+ * </p>
+ * <p>
+ * A feed reads the outbox of one database. The shards of a {@link fred.custom.crm.core.repositories.shard.ShardedMemberRepository} each record
+ * their writes in their own outbox, so each one has its own feed, with its own consumers and positions: a consumer follows all of them.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(description = "Member change feed")
+public class MemberChangeFeed implements InitializingBean, DisposableBean, SelfNaming {
+
+    private static final Log LOG = LogFactory.getLog(MemberChangeFeed.class);
+
+    private static final String SELECT_CHANGES_SQL = "select id, member_id, member_version, change_type, changed_on from member_changes"
+            + " where id > ? order by id";
+
+    private static final RowMapper<MemberChange> CHANGE_MAPPER = (rs, rowNum) -> new MemberChange(Long.valueOf(rs.getLong(1)),
+            Long.valueOf(rs.getLong(2)), rs.getInt(3), MemberChange.Type.valueOf(rs.getString(4)), rs.getTimestamp(5));
+
+    private JdbcTemplate jdbcTemplate;
+
+    private String name = "memberChangeFeed";
+
+    private long settleMillis = 5000L;
+
+    private long purgeIntervalMillis = 60000L;
+
+    private ScheduledThreadPoolExecutor purger;
+
+    private final AtomicLong purged = new AtomicLong();
+
+    /**
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(jdbcTemplate, "dataSource is required");
+        purger = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "member-change-purger");
+            thread.setDaemon(true);
+            return thread;
+        });
+        purger.scheduleWithFixedDelay(this::purgeQuietly, purgeIntervalMillis, purgeIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Lets the purge in progress finish.
+     *
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        purger.shutdown();
+        purger.awaitTermination(10L, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Registers a consumer at the end of the feed, if it is not registered yet.
+     *
+     * @param consumer
+     *            The name of the consumer, 100 characters at most
+     * @return The position of the consumer
+     */
+    @ManagedOperation(description = "Registers a consumer at the end of the feed")
+    public long register(String consumer) {
+        Assert.hasLength(consumer, "consumer is required");
+        Long position = findPosition(consumer);
+        if (position != null) {
+            return position.longValue();
+        }
+        // The changes not settled yet may be committed in any order, the consumer starts before them
+        Long last = jdbcTemplate.queryForObject("select max(id) from member_changes where changed_on <= ?", Long.class, settleThreshold());
+        position = Long.valueOf(last == null ? 0L : last.longValue());
+        try {
+            jdbcTemplate.update("insert into member_change_consumers (name, last_change_id, updated_on) values (?, ?, ?)", consumer, position,
+                    new Timestamp(System.currentTimeMillis()));
+            return position.longValue();
+        } catch (DuplicateKeyException e) {
+            // Registered meanwhile
+            return getPosition(consumer);
+        }
+    }
+
+    /**
+     * Forgets a consumer, so that the outbox no longer keeps the changes it has not processed.
+     *
+     * @param consumer
+     *            The name of the consumer
+     * @return <code>true</code> if it was registered
+     */
+    @ManagedOperation(description = "Forgets a consumer, the changes it has not processed can then be purged")
+    public boolean unregister(String consumer) {
+        return jdbcTemplate.update("delete from member_change_consumers where name = ?", consumer) > 0;
+    }
+
+    /**
+     * @param consumer
+     *            The name of a registered consumer
+     * @return The id of the last change it processed
+     * @throws IllegalArgumentException
+     *             If the consumer is not registered
+     */
+    public long getPosition(String consumer) {
+        Long position = findPosition(consumer);
+        Assert.isTrue(position != null, "The consumer " + consumer + " is not registered");
+        return position.longValue();
+    }
+
+    /**
+     * Reads the next changes of a consumer, without moving its position.
+     *
+     * @param consumer
+     *            The name of a registered consumer
+     * @param maxChanges
+     *            The maximum number of changes returned
+     * @return The changes after the position of the consumer, in order, empty if there are none settled yet
+     * @throws IllegalArgumentException
+     *             If the consumer is not registered
+     */
+    public List<MemberChange> read(String consumer, final int maxChanges) {
+        Assert.isTrue(maxChanges > 0, "maxChanges must be positive");
+        final long position = getPosition(consumer);
+        List<MemberChange> changes = jdbcTemplate.query(connection -> {
+            PreparedStatement statement = connection.prepareStatement(SELECT_CHANGES_SQL);
+            statement.setLong(1, position);
+            statement.setMaxRows(maxChanges);
+            return statement;
+        }, CHANGE_MAPPER);
+        // Up to the first change not settled: the ones before it may not be committed yet
+        long threshold = settleThreshold().getTime();
+        for (int i = 0; i < changes.size(); i++) {
+            if (changes.get(i).getChangedOn().getTime() > threshold) {
+                return new ArrayList<MemberChange>(changes.subList(0, i));
+            }
+        }
+        return changes;
+    }
+
+    /**
+     * Moves the position of a consumer forward. A position behind the stored one, acknowledged again after a retry, is ignored.
+     *
+     * @param consumer
+     *            The name of a registered consumer
+     * @param position
+     *            The id of the last change processed
+     * @throws IllegalArgumentException
+     *             If the consumer is not registered
+     */
+    public void acknowledge(String consumer, long position) {
+        int updated = jdbcTemplate.update("update member_change_consumers set last_change_id = ?, updated_on = ? where name = ? and last_change_id < ?",
+                Long.valueOf(position), new Timestamp(System.currentTimeMillis()), consumer, Long.valueOf(position));
+        if (updated == 0) {
+            // Registered or not?
+            getPosition(consumer);
+        }
+    }
+
+    /**
+     * Reads the next changes of a consumer, hands them to the given handler and moves the position after them once the handler returns. If the
+     * handler fails, the position does not move and the changes are read again by the next call.
+     *
+     * @param consumer
+     *            The name of a registered consumer
+     * @param maxChanges
+     *            The maximum number of changes handed at once
+     * @param handler
+     *            Processes the changes, never called with an empty list
+     * @return The number of changes processed, 0 if there were none
+     */
+    public int consume(String consumer, int maxChanges, Consumer<List<MemberChange>> handler) {
+        Assert.notNull(handler, "handler is required");
+        List<MemberChange> changes = read(consumer, maxChanges);
+        if (changes.isEmpty()) {
+            return 0;
+        }
+        handler.accept(changes);
+        acknowledge(consumer, changes.get(changes.size() - 1).getId().longValue());
+        return changes.size();
+    }
+
+    /**
+     * Deletes the changes processed by all the consumers (all the settled ones when there are no consumers), then the settled changes followed by
+     * a later change of the same member.
+     *
+     * @return The number of changes deleted
+     */
+    @ManagedOperation(description = "Deletes the changes processed by all the consumers and the changes superseded by later ones")
+    public int purge() {
+        long start = System.nanoTime();
+        Long processed = jdbcTemplate.queryForObject("select min(last_change_id) from member_change_consumers", Long.class);
+        int deleted;
+        if (processed == null) {
+            deleted = jdbcTemplate.update("delete from member_changes where changed_on <= ?", settleThreshold());
+        } else {
+            deleted = jdbcTemplate.update("delete from member_changes where id <= ?", processed);
+        }
+        deleted += jdbcTemplate.update("delete from member_changes where changed_on <= ? and exists (select 1 from member_changes later"
+                + " where later.member_id = member_changes.member_id and later.id > member_changes.id)", settleThreshold());
+        purged.addAndGet(deleted);
+        LOG.debug("Purged " + deleted + " member changes in " + (System.nanoTime() - start) / 1000000L + " ms");
+        return deleted;
+    }
+
+    /**
+     * @return The number of changes in the outbox
+     */
+    @ManagedAttribute(description = "Changes in the outbox")
+    public long getSize() {
+        return jdbcTemplate.queryForObject("select count(*) from member_changes", Long.class).longValue();
+    }
+
+    /**
+     * @return The consumers, each one followed by the number of changes it has not processed yet
+     */
+    @ManagedAttribute(description = "Consumers and their backlogs")
+    public String[] getConsumers() {
+        List<String> consumers = jdbcTemplate.query("select c.name, (select count(*) from member_changes m where m.id > c.last_change_id)"
+                + " from member_change_consumers c order by c.name", (rs, rowNum) -> rs.getString(1) + "=" + rs.getLong(2));
+        return consumers.toArray(new String[consumers.size()]);
+    }
+
+    @ManagedAttribute(description = "Changes purged")
+    public long getPurged() {
+        return purged.get();
+    }
+
+    /**
+     * @return <code>fred.custom.crm:type=Repository,name=</code> followed by its {@link #setName(String) name}
+     * @see org.springframework.jmx.export.naming.SelfNaming#getObjectName()
+     */
+    @Override
+    public ObjectName getObjectName() throws MalformedObjectNameException {
+        return ObjectNameManager.getInstance("fred.custom.crm:type=Repository,name=" + name);
+    }
+
+    /**
+     * @param name
+     *            The name of its MBean, <code>memberChangeFeed</code> by default; each feed (one per shard) needs its own
+     */
+    public void setName(String name) {
+        this.name = name;
+    }
+
+    /**
+     * @param dataSource
+     *            The data source of the transactions of the consumers, so that they can acknowledge in their own transactions
+     */
+    public void setDataSource(DataSource dataSource) {
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+    }
+
+    /**
+     * @param settleMillis
+     *            The age a change must reach before it is delivered in milliseconds, 5000 by default; it must be longer than the transactions
+     *            writing members
+     */
+    public void setSettleMillis(long settleMillis) {
+        Assert.isTrue(settleMillis >= 0, "settleMillis must not be negative");
+        this.settleMillis = settleMillis;
+    }
+
+    /**
+     * @param purgeIntervalMillis
+     *            The time between two purges in milliseconds, 60000 by default
+     */
+    public void setPurgeIntervalMillis(long purgeIntervalMillis) {
+        Assert.isTrue(purgeIntervalMillis > 0, "purgeIntervalMillis must be positive");
+        this.purgeIntervalMillis = purgeIntervalMillis;
+    }
+
+    private Long findPosition(String consumer) {
+        List<Long> positions = jdbcTemplate.queryForList("select last_change_id from member_change_consumers where name = ?", Long.class, consumer);
+        return positions.isEmpty() ? null : positions.get(0);
+    }
+
+    private Timestamp settleThreshold() {
+        return new Timestamp(System.currentTimeMillis() - settleMillis);
+    }
+
+    private void purgeQuietly() {
+        try {
+            purge();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to purge the member changes", e);
+        }
+    }
+}
@@ -0,0 +1,324 @@
+package fred.custom.crm.core.repositories.search;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.Hibernate;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostCommitDeleteEventListener;
+import org.hibernate.event.spi.PostCommitInsertEventListener;
+import org.hibernate.event.spi.PostCommitUpdateEventListener;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.PersonReference;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom;
+
+/**
+ * An in-memory index of the person names, for a type-ahead which does not go to the database at each key stroke.
+ * <p>
+ * It answers the same searches as {@link MemberRepositoryCustom#findByNamePrefix(String, String, int)}, in the same order, but returns member
+ * ids only: the members of the few suggestions the user picks are then read by id. The entries are kept in a skip list sorted by
+ * {@link Person#toSearchKey(String) search keys}, so a search is a seek followed by a short scan, whatever the number of persons.
+ * </p>
+ * <p>
+ * The index is loaded from the {@link MemberRepository} at startup and kept up to date by Hibernate listeners, once the transactions commit. The
+ * writes which do not go through the JPA entities (the jOOQ repository, the JPQL bulk updates and deletes) are only seen by the next
+ * {@link #rebuild()}: with the <code>jooq</code> profile, rebuild it periodically.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Index,name=personNameIndex", description = "In-memory index of the person names")
+public class PersonNameIndex implements InitializingBean, PostCommitInsertEventListener, PostCommitUpdateEventListener,
+        PostCommitDeleteEventListener {
+
+    /** Serial version UID, the listeners are never serialized */
+    private static final long serialVersionUID = 3917451370542168802L;
+
+    private static final Log LOG = LogFactory.getLog(PersonNameIndex.class);
+
+    /** Separates the parts of an entry key, lower than any character of a name */
+    private static final char SEPARATOR = '\u0000';
+
+    private final transient EntityManagerFactory entityManagerFactory;
+
+    private final transient MemberRepository memberRepository;
+
+    /** Member ids by entry key: last name key, first name key and person id, so the entries are unique and in the order of the database search */
+    private final ConcurrentSkipListMap<String, Long> memberIds = new ConcurrentSkipListMap<String, Long>();
+
+    /** Entry keys by person id, to find the entry of a person whose names changed */
+    private final ConcurrentMap<Long, String> keys = new ConcurrentHashMap<Long, String>();
+
+    private boolean loadOnStartup = true;
+
+    /**
+     * @param entityManagerFactory
+     *            The JPA entity manager factory, backed by Hibernate, whose writes are followed
+     * @param memberRepository
+     *            The repository the index is loaded from
+     */
+    public PersonNameIndex(EntityManagerFactory entityManagerFactory, MemberRepository memberRepository) {
+        Assert.notNull(entityManagerFactory, "entityManagerFactory is required");
+        Assert.notNull(memberRepository, "memberRepository is required");
+        this.entityManagerFactory = entityManagerFactory;
+        this.memberRepository = memberRepository;
+    }
+
+    /**
+     * Registers the listeners, then loads the index unless {@link #setLoadOnStartup(boolean) disabled}.
+     *
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        registry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        registry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+        if (loadOnStartup) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @param lastNamePrefix
+     *            The beginning of the last name, not empty
+     * @param firstNamePrefix
+     *            The beginning of the first name, <code>null</code> or empty for any first name
+     * @param maxResults
+     *            The maximum number of ids returned
+     * @return The ids of the matching members, sorted by last name, first name and person id
+     * @see MemberRepositoryCustom#findByNamePrefix(String, String, int)
+     */
+    public List<Long> findMemberIds(String lastNamePrefix, String firstNamePrefix, int maxResults) {
+        Assert.hasLength(lastNamePrefix, "lastNamePrefix is required");
+        Assert.isTrue(maxResults > 0, "maxResults must be positive");
+        String from = Person.toSearchKey(lastNamePrefix);
+        String firstNameKey = firstNamePrefix == null || firstNamePrefix.isEmpty() ? null : Person.toSearchKey(firstNamePrefix);
+        ConcurrentNavigableMap<String, Long> range = memberIds.subMap(from, true, from + Character.MAX_VALUE, false);
+        List<Long> result = new ArrayList<Long>(Math.min(maxResults, 16));
+        for (Map.Entry<String, Long> entry : range.entrySet()) {
+            if (firstNameKey == null || entry.getKey().startsWith(firstNameKey, entry.getKey().indexOf(SEPARATOR) + 1)) {
+                result.add(entry.getValue());
+                if (result.size() == maxResults) {
+                    break;
+                }
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Adds or replaces the entry of a member. Nothing is done if its person is not loaded.
+     *
+     * @param member
+     *            A saved member
+     */
+    public void index(Member member) {
+        Person person = member.getPerson();
+        if (person == null || person instanceof PersonReference || !Hibernate.isInitialized(person) || person.getId() == null) {
+            return;
+        }
+        String key = entryKey(person);
+        synchronized (this) {
+            String previous = keys.put(person.getId(), key);
+            if (previous != null && !previous.equals(key)) {
+                memberIds.remove(previous);
+            }
+            memberIds.put(key, member.getId());
+        }
+    }
+
+    /**
+     * Updates the entry of a person whose names may have changed. Nothing is done if the person is not indexed yet: its member brings it.
+     *
+     * @param person
+     *            A saved person
+     */
+    public void index(Person person) {
+        String key = entryKey(person);
+        synchronized (this) {
+            String previous = keys.get(person.getId());
+            if (previous == null || previous.equals(key)) {
+                return;
+            }
+            Long memberId = memberIds.remove(previous);
+            keys.put(person.getId(), key);
+            if (memberId != null) {
+                memberIds.put(key, memberId);
+            }
+        }
+    }
+
+    /**
+     * @param personId
+     *            The id of the person of a deleted member, or of a person no longer used by its member
+     */
+    public void remove(Long personId) {
+        synchronized (this) {
+            String key = keys.remove(personId);
+            if (key != null) {
+                memberIds.remove(key);
+            }
+        }
+    }
+
+    /**
+     * Reads all the members to add the missing entries, update the changed ones and remove the ones whose person no longer exists. The index
+     * keeps answering meanwhile.
+     *
+     * @return The number of members read
+     */
+    @ManagedOperation(description = "Reloads the index from the database")
+    public long rebuild() {
+        long start = System.nanoTime();
+        final Set<Long> removed = new HashSet<Long>(keys.keySet());
+        long count = memberRepository.streamAll(new MemberCallback() {
+            @Override
+            public void process(Member member) {
+                index(member);
+                removed.remove(member.getPerson().getId());
+            }
+        });
+        for (Long personId : removed) {
+            remove(personId);
+        }
+        if (LOG.isInfoEnabled()) {
+            LOG.info(String.format("Indexed the names of %d members in %d ms", count, (System.nanoTime() - start) / 1000000L));
+        }
+        return count;
+    }
+
+    /**
+     * @return The number of indexed members
+     */
+    @ManagedAttribute(description = "Indexed members")
+    public int getSize() {
+        return keys.size();
+    }
+
+    /**
+     * @param loadOnStartup
+     *            <code>true</code> (the default) to load the index when the bean starts, <code>false</code> to start empty until
+     *            {@link #rebuild()}
+     */
+    public void setLoadOnStartup(boolean loadOnStartup) {
+        this.loadOnStartup = loadOnStartup;
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostInsertEventListener#onPostInsert(org.hibernate.event.spi.PostInsertEvent)
+     */
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Member) {
+            index((Member) event.getEntity());
+        }
+    }
+
+    /**
+     * A member given another person removes the entry of the previous one.
+     *
+     * @see org.hibernate.event.spi.PostUpdateEventListener#onPostUpdate(org.hibernate.event.spi.PostUpdateEvent)
+     */
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        Object entity = event.getEntity();
+        if (entity instanceof Person) {
+            index((Person) entity);
+        } else if (entity instanceof Member) {
+            Member member = (Member) entity;
+            Object[] oldState = event.getOldState();
+            if (oldState != null) {
+                Person previous = (Person) oldState[event.getPersister().getEntityMetamodel().getPropertyIndex("person")];
+                if (previous != null && member.getPerson() != null && !previous.getId().equals(member.getPerson().getId())) {
+                    remove(previous.getId());
+                }
+            }
+            index(member);
+        }
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostDeleteEventListener#onPostDelete(org.hibernate.event.spi.PostDeleteEvent)
+     */
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Person) {
+            remove((Long) event.getId());
+        }
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostInsertEventListener#requiresPostCommitHanding(org.hibernate.persister.entity.EntityPersister)
+     */
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        Class<?> type = persister.getMappedClass();
+        return type == Member.class || type == Person.class;
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostCommitInsertEventListener#onPostInsertCommitFailed(org.hibernate.event.spi.PostInsertEvent)
+     */
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+        // Rolled back, nothing was indexed
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostCommitUpdateEventListener#onPostUpdateCommitFailed(org.hibernate.event.spi.PostUpdateEvent)
+     */
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        // Rolled back, nothing was indexed
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostCommitDeleteEventListener#onPostDeleteCommitFailed(org.hibernate.event.spi.PostDeleteEvent)
+     */
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        // Rolled back, nothing was removed
+    }
+
+    /**
+     * @return The last name key, the first name key and the person id in hexadecimal, zero padded so that the ids sort as numbers
+     */
+    private static String entryKey(Person person) {
+        String id = Long.toHexString(person.getId().longValue());
+        StringBuilder key = new StringBuilder(person.getLastName().length() + person.getFirstName().length() + 18);
+        key.append(person.getLastNameKey()).append(SEPARATOR).append(person.getFirstNameKey()).append(SEPARATOR);
+        for (int i = id.length(); i < 16; i++) {
+            key.append('0');
+        }
+        return key.append(id).toString();
+    }
+}
@@ -0,0 +1,97 @@
+package fred.custom.crm.core.repositories.shard;
+
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import org.springframework.util.Assert;
+
+/**
+ * Places keys on nodes by consistent hashing.
+ * <p>
+ * Each node is hashed to {@link #getVirtualNodes() virtual nodes} points of a ring of 64 bits hashes, and a key belongs to the first point
+ * following its own hash. Adding a node only moves to it the keys falling right before its points, about <code>1 / (n + 1)</code> of them,
+ * taken evenly from all the other nodes; the keys of the other nodes stay where they are. The hashes are the first 8 bytes of the MD5 digest of
+ * the names, so the placement is the same on every JVM and after every restart: a node is identified by its name, not by its position.
+ * </p>
+ * <p>
+ * Immutable and thread safe.
+ * </p>
+ *
+ * @param <T>
+ *            The type of the nodes
+ * @author Fred
+ */
+public final class ConsistentHashRing<T> {
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private final TreeMap<Long, T> points = new TreeMap<Long, T>();
+
+    private final List<T> nodes;
+
+    private final int virtualNodes;
+
+    /**
+     * @param nodes
+     *            The nodes by name, at least one
+     * @param virtualNodes
+     *            The number of points of each node on the ring, more points spread the keys more evenly
+     */
+    public ConsistentHashRing(Map<String, T> nodes, int virtualNodes) {
+        Assert.notEmpty(nodes, "At least one node is required");
+        Assert.isTrue(virtualNodes > 0, "virtualNodes must be positive");
+        this.nodes = Collections.unmodifiableList(new ArrayList<T>(nodes.values()));
+        this.virtualNodes = virtualNodes;
+        for (Map.Entry<String, T> node : nodes.entrySet()) {
+            for (int i = 0; i < virtualNodes; i++) {
+                T previous = points.put(Long.valueOf(hash(node.getKey() + "#" + i)), node.getValue());
+                Assert.state(previous == null || previous == node.getValue(), "Hash collision between two nodes, rename one of them");
+            }
+        }
+    }
+
+    /**
+     * @param key
+     *            A key
+     * @return The node of the key
+     */
+    public T locate(String key) {
+        Assert.notNull(key, "key is required");
+        SortedMap<Long, T> tail = points.tailMap(Long.valueOf(hash(key)));
+        return tail.isEmpty() ? points.firstEntry().getValue() : tail.get(tail.firstKey());
+    }
+
+    /**
+     * @return The nodes, in the order they were given
+     */
+    public List<T> getNodes() {
+        return nodes;
+    }
+
+    public int getVirtualNodes() {
+        return virtualNodes;
+    }
+
+    private static long hash(String value) {
+        MessageDigest md5;
+        try {
+            md5 = MessageDigest.getInstance("MD5");
+        } catch (NoSuchAlgorithmException e) {
+            // Every JRE has MD5
+            throw new IllegalStateException(e);
+        }
+        byte[] digest = md5.digest(value.getBytes(UTF_8));
+        long hash = 0L;
+        for (int i = 0; i < 8; i++) {
+            hash = (hash << 8) | (digest[i] & 0xFFL);
+        }
+        return hash;
+    }
+}
@@ -0,0 +1,77 @@
+package fred.custom.crm.core.repositories.shard;
+
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.DataSourceTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository;
+
+/**
+ * One of the databases of a {@link ShardedMemberRepository}: its data source, the {@link JooqMemberRepository} running on it and the local
+ * transactions of its writes.
+ * <p>
+ * The repository of a shard is not a Spring proxy, its <code>@Transactional</code> annotations are not applied: the writes must go through
+ * {@link #write(Function)}, which runs them in a transaction of the shard's own {@link DataSourceTransactionManager}. The transactions of the
+ * shards are independent from each other, and from the transaction of the caller.
+ * </p>
+ *
+ * @author Fred
+ */
+public final class MemberShard {
+
+    private final String name;
+
+    private final DataSource dataSource;
+
+    private final JooqMemberRepository repository;
+
+    private final TransactionTemplate transactionTemplate;
+
+    MemberShard(String name, DataSource dataSource, JooqMemberRepository repository) {
+        Assert.hasLength(name, "name is required");
+        Assert.notNull(dataSource, "dataSource is required");
+        Assert.notNull(repository, "repository is required");
+        this.name = name;
+        this.dataSource = dataSource;
+        this.repository = repository;
+        this.transactionTemplate = new TransactionTemplate(new DataSourceTransactionManager(dataSource));
+    }
+
+    /**
+     * @param work
+     *            Reads from the repository of the shard, each statement in its own transaction
+     * @return The result of the work
+     */
+    public <T> T read(Function<JooqMemberRepository, T> work) {
+        return work.apply(repository);
+    }
+
+    /**
+     * @param work
+     *            Writes to the repository of the shard
+     * @return The result of the work, once the transaction of the shard is committed
+     */
+    public <T> T write(Function<JooqMemberRepository, T> work) {
+        return transactionTemplate.execute(status -> work.apply(repository));
+    }
+
+    /**
+     * @return The name of the shard, which places it on the {@link ConsistentHashRing}
+     */
+    public String getName() {
+        return name;
+    }
+
+    public DataSource getDataSource() {
+        return dataSource;
+    }
+
+    @Override
+    public String toString() {
+        return name;
+    }
+}
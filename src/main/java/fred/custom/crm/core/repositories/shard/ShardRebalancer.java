@@ -0,0 +1,146 @@
+package fred.custom.crm.core.repositories.shard;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+
+/**
+ * Moves the members of a {@link ShardedMemberRepository} to the shard they belong to, after a shard was added.
+ * <p>
+ * A shard is added either at runtime with {@link #addShard(DataSource)}, or by appending its data source to the configuration and restarting with
+ * the repository {@link ShardedMemberRepository#setRebalancing(boolean) rebalancing}, then calling {@link #rebalance()} (JMX). Each shard is
+ * scanned for the members the ring places elsewhere, and they are moved by chunks of {@link #setChunkSize(int) chunk size}: the chunk is read
+ * and locked on its shard, copied to the shards it belongs to (ids and versions included, see
+ * {@link fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository#copyInBatch(Iterable)}), then deleted from its shard once the copies
+ * are committed. An update of a member being moved waits for the move, then fails with an optimistic locking failure: retried, it finds the
+ * member on its new shard. Nothing is recorded in the outboxes, the members are not changed.
+ * </p>
+ * <p>
+ * A rebalance interrupted can be run again: the members already copied are skipped, and deleted from their previous shard. Meanwhile a member
+ * may be found on two shards by the scatter-gather reads.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Repository,name=shardRebalancer", description = "Moves the members between the shards")
+public class ShardRebalancer {
+
+    private static final Log LOG = LogFactory.getLog(ShardRebalancer.class);
+
+    /** Default number of members moved per transaction */
+    public static final int DEFAULT_CHUNK_SIZE = 500;
+
+    private final ShardedMemberRepository repository;
+
+    private int chunkSize = DEFAULT_CHUNK_SIZE;
+
+    private final AtomicLong moved = new AtomicLong();
+
+    /**
+     * @param repository
+     *            The repository whose members are moved
+     */
+    public ShardRebalancer(ShardedMemberRepository repository) {
+        Assert.notNull(repository, "repository is required");
+        this.repository = repository;
+    }
+
+    /**
+     * Adds a shard to the repository and moves to it the members it takes over.
+     *
+     * @param dataSource
+     *            The database of the new shard
+     * @return The number of members moved
+     */
+    public long addShard(DataSource dataSource) {
+        repository.addShard(dataSource);
+        return rebalance();
+    }
+
+    /**
+     * Moves every member which is not on its shard, then ends the rebalancing of the repository.
+     *
+     * @return The number of members moved
+     */
+    @ManagedOperation(description = "Moves the members to their shards, then ends the rebalancing")
+    public synchronized long rebalance() {
+        long start = System.currentTimeMillis();
+        repository.setRebalancing(true);
+        long count = 0L;
+        for (MemberShard source : repository.getShards()) {
+            List<Long> misplaced = findMisplaced(source);
+            for (int i = 0; i < misplaced.size(); i += chunkSize) {
+                count += move(source, misplaced.subList(i, Math.min(misplaced.size(), i + chunkSize)));
+            }
+        }
+        repository.setRebalancing(false);
+        LOG.info("Moved " + count + " members in " + (System.currentTimeMillis() - start) + " ms");
+        return count;
+    }
+
+    @ManagedAttribute(description = "Number of members moved since the start")
+    public long getMoved() {
+        return moved.get();
+    }
+
+    /**
+     * @param chunkSize
+     *            The number of members moved per transaction, they are locked until it commits
+     */
+    public void setChunkSize(int chunkSize) {
+        Assert.isTrue(chunkSize > 0, "chunkSize must be positive");
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * @return The ids of the members of the shard which belong to another one
+     */
+    private List<Long> findMisplaced(MemberShard source) {
+        List<Long> ids = new ArrayList<Long>();
+        source.read(sourceRepository -> Long.valueOf(sourceRepository.streamAll(member -> {
+            if (repository.shardOf(member.getMemberNumber()) != source) {
+                ids.add(member.getId());
+            }
+        })));
+        return ids;
+    }
+
+    /**
+     * @return The number of members moved
+     */
+    private int move(MemberShard source, List<Long> ids) {
+        return source.write(sourceRepository -> {
+            Map<MemberShard, List<Member>> targets = new LinkedHashMap<MemberShard, List<Member>>();
+            for (Member member : sourceRepository.findAllForUpdate(ids)) {
+                MemberShard target = repository.shardOf(member.getMemberNumber());
+                if (target != source) {
+                    targets.computeIfAbsent(target, shard -> new ArrayList<Member>()).add(member);
+                }
+            }
+            List<Long> copied = new ArrayList<Long>();
+            for (Map.Entry<MemberShard, List<Member>> target : targets.entrySet()) {
+                target.getKey().write(targetRepository -> Integer.valueOf(targetRepository.copyInBatch(target.getValue())));
+                for (Member member : target.getValue()) {
+                    copied.add(member.getId());
+                }
+            }
+            // Deleted once the copies are committed
+            int count = sourceRepository.evictInBatch(copied);
+            moved.addAndGet(count);
+            return Integer.valueOf(count);
+        }).intValue();
+    }
+}
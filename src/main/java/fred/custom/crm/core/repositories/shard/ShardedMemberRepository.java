@@ -0,0 +1,938 @@
+package fred.custom.crm.core.repositories.shard;
+
+import static fred.custom.crm.core.repositories.jooq.tables.Sequences.MEMBER_ID_SEQ;
+import static fred.custom.crm.core.repositories.jooq.tables.Sequences.PERSON_ID_SEQ;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.jooq.DSLContext;
+import org.jooq.SQLDialect;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.core.io.Resource;
+import org.springframework.dao.EmptyResultDataAccessException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.bootstrap.SchemaMigrator;
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberSummary;
+import fred.custom.crm.core.repositories.KeysetPage;
+import fred.custom.crm.core.repositories.MultiGetResult;
+import fred.custom.crm.core.repositories.id.BlockIdAllocator;
+import fred.custom.crm.core.repositories.jooq.DSLContextFactoryBean;
+import fred.custom.crm.core.repositories.jooq.member.JooqMemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersion;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberVersionStamp;
+
+/**
+ * A {@link MemberRepository} spreading the members over several databases, the shards, each one holding complete <code>members</code> and
+ * <code>persons</code> tables for its part of the members.
+ * <p>
+ * A member is placed by the {@link ConsistentHashRing consistent hash} of its member number, and its person always goes with it. The reads by
+ * member number and the writes of a member go to its shard only. Everything else is scatter-gather: the query runs on all the shards in
+ * parallel, {@link #setParallelism(int) parallelism} at a time, and the results are merged. The reads by id go to all the shards as well, an id
+ * does not tell where a member is. The ids are unique across the shards, all of them being reserved from the sequences of the first shard.
+ * </p>
+ * <p>
+ * A page of {@link #findAll(Pageable)} or {@link #findSummaries(Pageable)} reads <code>offset + size</code> rows from each shard and merges them,
+ * which gets expensive deep into the results: {@link #findPage(MemberKeyset.Order, String, int)} reads <code>size + 1</code> rows per shard
+ * whatever the position. Without a sort, the pages are sorted by id so that they do not overlap.
+ * </p>
+ * <p>
+ * Each shard has its own transactions, see {@link MemberShard}: a write spanning several shards ({@link #saveInBatch(Iterable)},
+ * {@link #deleteAll()}, the batch updates) commits shard by shard and is not atomic. This repository never joins the transaction of the caller.
+ * The member numbers are unique across the shards, but the unique constraint on the employee numbers is only enforced within a shard.
+ * </p>
+ * <p>
+ * Each shard records its writes in its own outbox (<code>member_changes</code>), in the transactions of the shard: the changes are read with one
+ * {@link fred.custom.crm.core.repositories.outbox.MemberChangeFeed} per shard, on its {@link MemberShard#getDataSource() data source}. The feed
+ * of the unsharded database sees none of them.
+ * </p>
+ * <p>
+ * The shards are named after their position, <code>shard0</code>, <code>shard1</code>, ..., which places them on the ring: a new shard is always
+ * appended, and the members it takes over are moved by the {@link ShardRebalancer}. Until they are, the repository is
+ * {@link #setRebalancing(boolean) rebalancing}: the members not found on their shard are looked for on all the others.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Repository,name=shardedMemberRepository", description = "Sharded member repository")
+public class ShardedMemberRepository implements MemberRepository, InitializingBean, DisposableBean {
+
+    private static final Log LOG = LogFactory.getLog(ShardedMemberRepository.class);
+
+    /** Default number of points of each shard on the ring */
+    public static final int DEFAULT_VIRTUAL_NODES = 128;
+
+    /** Default number of shards queried at the same time by a scatter-gather, besides the calling thread */
+    public static final int DEFAULT_PARALLELISM = 8;
+
+    private static final AtomicInteger THREADS = new AtomicInteger();
+
+    private static final Sort BY_ID = new Sort("id");
+
+    /** Sortable properties of {@link Member}, as in the jOOQ repository */
+    private static final Map<String, Function<Member, Comparable<?>>> MEMBER_PROPERTIES = new HashMap<String, Function<Member, Comparable<?>>>();
+
+    /** Sortable properties of {@link MemberSummary}, named after the ones of {@link Member} */
+    private static final Map<String, Function<MemberSummary, Comparable<?>>> SUMMARY_PROPERTIES =
+            new HashMap<String, Function<MemberSummary, Comparable<?>>>();
+
+    static {
+        MEMBER_PROPERTIES.put("id", Member::getId);
+        MEMBER_PROPERTIES.put("version", member -> Integer.valueOf(member.getVersion()));
+        MEMBER_PROPERTIES.put("memberNumber", Member::getMemberNumber);
+        MEMBER_PROPERTIES.put("employeeNumber", Member::getEmployeeNumber);
+        MEMBER_PROPERTIES.put("creationDate", Member::getCreationDate);
+        MEMBER_PROPERTIES.put("lastUpdateUser", Member::getLastUpdateUser);
+        MEMBER_PROPERTIES.put("lastUpdateDate", Member::getLastUpdateDate);
+        MEMBER_PROPERTIES.put("person.id", member -> member.getPerson().getId());
+        MEMBER_PROPERTIES.put("person.firstName", member -> member.getPerson().getFirstName());
+        MEMBER_PROPERTIES.put("person.lastName", member -> member.getPerson().getLastName());
+        // The genders are stored by name
+        MEMBER_PROPERTIES.put("person.gender", member -> member.getPerson().getGender() == null ? null : member.getPerson().getGender().name());
+        MEMBER_PROPERTIES.put("person.email", member -> member.getPerson().getEmail());
+        MEMBER_PROPERTIES.put("person.birthDate", member -> member.getPerson().getBirthDate());
+
+        SUMMARY_PROPERTIES.put("id", MemberSummary::getId);
+        SUMMARY_PROPERTIES.put("memberNumber", MemberSummary::getMemberNumber);
+        SUMMARY_PROPERTIES.put("person.firstName", MemberSummary::getFirstName);
+        SUMMARY_PROPERTIES.put("person.lastName", MemberSummary::getLastName);
+        SUMMARY_PROPERTIES.put("person.gender", summary -> summary.getGender() == null ? null : summary.getGender().name());
+    }
+
+    private static final Comparator<Member> BY_MEMBER_ID = Comparator.comparing(Member::getId);
+
+    private static final Comparator<Member> BY_LAST_NAME = Comparator.comparing((Member member) -> member.getPerson().getLastName())
+            .thenComparing(member -> member.getPerson().getId());
+
+    private static final Comparator<Member> BY_NAME_KEYS = Comparator.comparing((Member member) -> member.getPerson().getLastNameKey())
+            .thenComparing(member -> member.getPerson().getFirstNameKey()).thenComparing(member -> member.getPerson().getId());
+
+    private final List<DataSource> dataSources;
+
+    private SQLDialect dialect = SQLDialect.H2;
+
+    private Resource[] schemaScripts;
+
+    private int virtualNodes = DEFAULT_VIRTUAL_NODES;
+
+    private int parallelism = DEFAULT_PARALLELISM;
+
+    private int batchSize = JooqMemberRepository.DEFAULT_BATCH_SIZE;
+
+    private int fetchSize = JooqMemberRepository.DEFAULT_FETCH_SIZE;
+
+    private volatile boolean rebalancing;
+
+    private volatile ConsistentHashRing<MemberShard> ring;
+
+    private BlockIdAllocator.BlockSource memberIdBlocks;
+
+    private BlockIdAllocator.BlockSource personIdBlocks;
+
+    private ExecutorService executor;
+
+    /**
+     * @param dataSources
+     *            The databases of the shards, in the order of their names: <code>shard0</code> first
+     */
+    public ShardedMemberRepository(List<DataSource> dataSources) {
+        Assert.notEmpty(dataSources, "At least one shard is required");
+        this.dataSources = new ArrayList<DataSource>(dataSources);
+    }
+
+    /**
+     * Brings the schemas of the shards up to date if {@link #setSchemaScripts(Resource[]) scripts} are given, and builds the ring.
+     *
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Map<String, MemberShard> shards = new LinkedHashMap<String, MemberShard>();
+        for (DataSource dataSource : dataSources) {
+            MemberShard shard = newShard(shards.size(), dataSource);
+            shards.put(shard.getName(), shard);
+        }
+        ring = new ConsistentHashRing<MemberShard>(shards, virtualNodes);
+        ThreadPoolExecutor pool = new ThreadPoolExecutor(parallelism, parallelism, 60L, TimeUnit.SECONDS, new LinkedBlockingQueue<Runnable>(),
+                runnable -> {
+                    Thread thread = new Thread(runnable, "member-shard-" + THREADS.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+        pool.allowCoreThreadTimeOut(true);
+        executor = pool;
+        LOG.info("Members sharded over " + shards.size() + " databases");
+    }
+
+    /**
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() {
+        executor.shutdownNow();
+    }
+
+    /**
+     * Appends a shard to the ring and starts {@link #setRebalancing(boolean) rebalancing}: from now on, the members placed on the new shard are
+     * written there, while the existing ones are still found on their previous shard until the {@link ShardRebalancer} moves them.
+     *
+     * @param dataSource
+     *            The database of the new shard
+     * @return The new shard
+     */
+    public synchronized MemberShard addShard(DataSource dataSource) {
+        Assert.notNull(dataSource, "dataSource is required");
+        Map<String, MemberShard> shards = new LinkedHashMap<String, MemberShard>();
+        for (MemberShard shard : ring.getNodes()) {
+            shards.put(shard.getName(), shard);
+        }
+        MemberShard shard = newShard(shards.size(), dataSource);
+        shards.put(shard.getName(), shard);
+        rebalancing = true;
+        ring = new ConsistentHashRing<MemberShard>(shards, virtualNodes);
+        LOG.info("Added " + shard + ", rebalancing");
+        return shard;
+    }
+
+    /**
+     * @param memberNumber
+     *            A member number
+     * @return The shard the member belongs to, where it may not be yet while {@link #isRebalancing() rebalancing}
+     */
+    public MemberShard shardOf(String memberNumber) {
+        return ring.locate(memberNumber);
+    }
+
+    /**
+     * @return The shards, in the order of their names
+     */
+    public List<MemberShard> getShards() {
+        return ring.getNodes();
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#count()
+     */
+    @Override
+    public long count() {
+        long count = 0L;
+        for (Long shardCount : scatterRead(repository -> Long.valueOf(repository.count()))) {
+            count += shardCount.longValue();
+        }
+        return count;
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.io.Serializable)
+     */
+    @Override
+    public void delete(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        MemberShard shard = shardHolding(id);
+        if (shard == null) {
+            throw new EmptyResultDataAccessException(String.format("No %s entity with id %s exists!", Member.class, id), 1);
+        }
+        shard.write(repository -> {
+            repository.delete(id);
+            return null;
+        });
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#delete(java.lang.Object)
+     */
+    @Override
+    public void delete(Member member) {
+        Assert.notNull(member, "The entity must not be null!");
+        if (member.getId() == null) {
+            return;
+        }
+        shardOf(member).write(repository -> {
+            repository.delete(member);
+            return null;
+        });
+    }
+
+    /**
+     * Each member is deleted in the transaction of its shard.
+     *
+     * @see org.springframework.data.repository.CrudRepository#delete(java.lang.Iterable)
+     */
+    @Override
+    public void delete(Iterable<? extends Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        for (Member member : members) {
+            delete(member);
+        }
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#deleteAll()
+     */
+    @Override
+    public void deleteAll() {
+        scatterWrite(repository -> {
+            repository.deleteAll();
+            return null;
+        });
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#deleteAllInBatch()
+     */
+    @Override
+    public void deleteAllInBatch() {
+        scatterWrite(repository -> {
+            repository.deleteAllInBatch();
+            return null;
+        });
+    }
+
+    /**
+     * The ids are deleted on every shard, a cheaper statement than finding the shard of each member.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#deleteInBatch(java.lang.Iterable)
+     */
+    @Override
+    public void deleteInBatch(Iterable<Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        List<Member> list = new ArrayList<Member>();
+        for (Member member : members) {
+            list.add(member);
+        }
+        scatterWrite(repository -> {
+            repository.deleteInBatch(list);
+            return null;
+        });
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#exists(java.io.Serializable)
+     */
+    @Override
+    public boolean exists(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        return shardHolding(id) != null;
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll()
+     */
+    @Override
+    public List<Member> findAll() {
+        return concat(scatterRead(repository -> repository.findAll()));
+    }
+
+    /**
+     * The members are returned in no particular order, ids without a matching member are ignored.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll(java.lang.Iterable)
+     */
+    @Override
+    public List<Member> findAll(Iterable<Long> ids) {
+        if (ids == null) {
+            return Collections.emptyList();
+        }
+        List<Long> list = new ArrayList<Long>();
+        for (Long id : ids) {
+            list.add(id);
+        }
+        return concat(scatterRead(repository -> repository.findAll(list)));
+    }
+
+    /**
+     * @see org.springframework.data.repository.PagingAndSortingRepository#findAll(org.springframework.data.domain.Pageable)
+     */
+    @Override
+    public Page<Member> findAll(Pageable pageable) {
+        if (pageable == null) {
+            return new PageImpl<Member>(findAll());
+        }
+        Pageable top = top(pageable);
+        return merge(pageable, scatterRead(repository -> repository.findAll(top)), comparator(top.getSort(), MEMBER_PROPERTIES));
+    }
+
+    /**
+     * The persons are read anyway when the sort refers to them, the merge of the shards needs them.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findAll(org.springframework.data.domain.Pageable,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    public Page<Member> findAll(Pageable pageable, MemberFetchPlan plan) {
+        Assert.notNull(pageable, "pageable is required");
+        Assert.notNull(plan, "plan is required");
+        Pageable top = top(pageable);
+        MemberFetchPlan shardPlan = plan;
+        for (Sort.Order order : top.getSort()) {
+            if (order.getProperty().startsWith("person.")) {
+                shardPlan = MemberFetchPlan.MEMBER_WITH_PERSON;
+            }
+        }
+        MemberFetchPlan effectivePlan = shardPlan;
+        return merge(pageable, scatterRead(repository -> repository.findAll(top, effectivePlan)), comparator(top.getSort(), MEMBER_PROPERTIES));
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#findAll(org.springframework.data.domain.Sort)
+     */
+    @Override
+    public List<Member> findAll(Sort sort) {
+        List<Member> members = concat(scatterRead(repository -> repository.findAll(sort)));
+        if (sort != null) {
+            Collections.sort(members, comparator(sort, MEMBER_PROPERTIES));
+        }
+        return members;
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByEmployeeNumber(java.lang.String)
+     */
+    @Override
+    public Member findByEmployeeNumber(String employeeNumber) {
+        return first(scatterRead(repository -> repository.findByEmployeeNumber(employeeNumber)));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByMemberNumber(java.lang.String)
+     */
+    @Override
+    public Member findByMemberNumber(String memberNumber) {
+        Assert.notNull(memberNumber, "memberNumber is required");
+        Member member = shardOf(memberNumber).read(repository -> repository.findByMemberNumber(memberNumber));
+        if (member == null && rebalancing) {
+            // Not moved yet
+            member = first(scatterRead(repository -> repository.findByMemberNumber(memberNumber)));
+        }
+        return member;
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findByNamePrefix(java.lang.String, java.lang.String,
+     *      int)
+     */
+    @Override
+    public List<Member> findByNamePrefix(String lastNamePrefix, String firstNamePrefix, int maxResults) {
+        List<Member> members = concat(scatterRead(repository -> repository.findByNamePrefix(lastNamePrefix, firstNamePrefix, maxResults)));
+        Collections.sort(members, BY_NAME_KEYS);
+        return members.size() <= maxResults ? members : new ArrayList<Member>(members.subList(0, maxResults));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByPersonCellPhoneNumber(java.lang.String)
+     */
+    @Override
+    public List<Member> findByPersonCellPhoneNumber(String cellPhoneNumber) {
+        return concat(scatterRead(repository -> repository.findByPersonCellPhoneNumber(cellPhoneNumber)));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findByPersonEmail(java.lang.String)
+     */
+    @Override
+    public List<Member> findByPersonEmail(String email) {
+        return concat(scatterRead(repository -> repository.findByPersonEmail(email)));
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#findOne(java.io.Serializable)
+     */
+    @Override
+    public Member findOne(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        return first(scatterRead(repository -> repository.findOne(id)));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findOne(java.lang.Long,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    public Member findOne(Long id, MemberFetchPlan plan) {
+        Assert.notNull(id, "The given id must not be null!");
+        return first(scatterRead(repository -> repository.findOne(id, plan)));
+    }
+
+    /**
+     * The keysets hold global ids, so the same continuation token positions every shard: each one reads its next <code>size + 1</code> members,
+     * and the first <code>size</code> of their merge make the page.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findPage(fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset.Order,
+     *      java.lang.String, int)
+     */
+    @Override
+    public KeysetPage<Member> findPage(MemberKeyset.Order order, String continuationToken, int size) {
+        Assert.notNull(order, "order is required");
+        Assert.isTrue(size > 0, "size must be positive");
+        List<Member> rows = new ArrayList<Member>();
+        boolean more = false;
+        for (KeysetPage<Member> page : scatterRead(repository -> repository.findPage(order, continuationToken, size))) {
+            rows.addAll(page.getContent());
+            more |= page.hasNext();
+        }
+        Collections.sort(rows, order == MemberKeyset.Order.ID ? BY_MEMBER_ID : BY_LAST_NAME);
+        if (more && rows.size() == size) {
+            // A single shard filled the page and has more
+            return new KeysetPage<Member>(rows, MemberKeyset.after(order, rows.get(size - 1)).toToken());
+        }
+        return MemberKeyset.toPage(order, rows, size);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findSummaries(org.springframework.data.domain.Pageable)
+     */
+    @Override
+    public Page<MemberSummary> findSummaries(Pageable pageable) {
+        if (pageable == null) {
+            List<MemberSummary> summaries = new ArrayList<MemberSummary>();
+            for (Page<MemberSummary> page : scatterRead(repository -> repository.findSummaries(null))) {
+                summaries.addAll(page.getContent());
+            }
+            return new PageImpl<MemberSummary>(summaries);
+        }
+        Pageable top = top(pageable);
+        return merge(pageable, scatterRead(repository -> repository.findSummaries(top)), comparator(top.getSort(), SUMMARY_PROPERTIES));
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository#findVersionStamp(java.lang.Long)
+     */
+    @Override
+    public MemberVersionStamp findVersionStamp(Long id) {
+        Assert.notNull(id, "The given id must not be null!");
+        return first(scatterRead(repository -> repository.findVersionStamp(id)));
+    }
+
+    /**
+     * Writes are never deferred by this repository, there is nothing to flush.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#flush()
+     */
+    @Override
+    public void flush() {
+        // Nothing to do
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#getOne(java.io.Serializable)
+     */
+    @Override
+    public Member getOne(Long id) {
+        return findOne(id);
+    }
+
+    /**
+     * Each shard reads all the ids, in parallel with the others.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#multiGet(java.util.List)
+     */
+    @Override
+    public MultiGetResult<Member> multiGet(List<Long> ids) {
+        Assert.notNull(ids, "ids is required");
+        Map<Long, Member> found = new HashMap<Long, Member>(ids.size() * 4 / 3 + 1);
+        for (MultiGetResult<Member> result : scatterRead(repository -> repository.multiGet(ids))) {
+            for (Member member : result) {
+                found.put(member.getId(), member);
+            }
+        }
+        return MultiGetResult.inOrder(ids, found);
+    }
+
+    /**
+     * Each member is saved in the transaction of its shard.
+     *
+     * @see org.springframework.data.jpa.repository.JpaRepository#save(java.lang.Iterable)
+     */
+    @Override
+    public <S extends Member> List<S> save(Iterable<S> members) {
+        List<S> result = new ArrayList<S>();
+        if (members == null) {
+            return result;
+        }
+        for (S member : members) {
+            result.add(save(member));
+        }
+        return result;
+    }
+
+    /**
+     * @see org.springframework.data.repository.CrudRepository#save(java.lang.Object)
+     */
+    @Override
+    public <S extends Member> S save(S member) {
+        Assert.notNull(member, "The entity must not be null!");
+        return shardOf(member).write(repository -> repository.save(member));
+    }
+
+    /**
+     * The members are grouped by shard, and the groups are saved in parallel, each one in a transaction of its shard.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#saveInBatch(java.lang.Iterable)
+     */
+    @Override
+    public int saveInBatch(Iterable<? extends Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        Map<MemberShard, List<Member>> groups = new LinkedHashMap<MemberShard, List<Member>>();
+        for (Member member : members) {
+            groups.computeIfAbsent(shardOf(member), shard -> new ArrayList<Member>()).add(member);
+        }
+        int count = 0;
+        for (Integer shardCount : scatter(new ArrayList<MemberShard>(groups.keySet()),
+                shard -> shard.write(repository -> Integer.valueOf(repository.saveInBatch(groups.get(shard)))))) {
+            count += shardCount.intValue();
+        }
+        return count;
+    }
+
+    /**
+     * @see org.springframework.data.jpa.repository.JpaRepository#saveAndFlush(java.lang.Object)
+     */
+    @Override
+    public <S extends Member> S saveAndFlush(S member) {
+        return save(member);
+    }
+
+    /**
+     * Streams the shards one after the other.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#streamAll(fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback)
+     */
+    @Override
+    public long streamAll(MemberCallback callback) {
+        Assert.notNull(callback, "callback is required");
+        long count = 0L;
+        for (MemberShard shard : ring.getNodes()) {
+            count += shard.read(repository -> Long.valueOf(repository.streamAll(callback))).longValue();
+        }
+        return count;
+    }
+
+    /**
+     * The updates are sent to every shard, a member in conflict on all of them is in conflict.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateAuditFields(java.util.Collection, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    public Set<Long> updateAuditFields(Collection<MemberVersion> members, String lastUpdateUser, Date lastUpdateDate) {
+        return intersection(scatterWrite(repository -> repository.updateAuditFields(members, lastUpdateUser, lastUpdateDate)));
+    }
+
+    /**
+     * The updates are sent to every shard, a member in conflict on all of them is in conflict.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateEmployeeNumbers(java.util.Map, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    public Set<Long> updateEmployeeNumbers(Map<MemberVersion, String> employeeNumbers, String lastUpdateUser, Date lastUpdateDate) {
+        return intersection(scatterWrite(repository -> repository.updateEmployeeNumbers(employeeNumbers, lastUpdateUser, lastUpdateDate)));
+    }
+
+    /**
+     * The updates are sent to every shard, a member skipped on all of them is skipped.
+     *
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#touch(java.util.Collection)
+     */
+    @Override
+    public Set<Long> touch(Collection<MemberTouch> touches) {
+        return intersection(scatterWrite(repository -> repository.touch(touches)));
+    }
+
+    @ManagedAttribute(description = "Number of shards")
+    public int getShardCount() {
+        return ring.getNodes().size();
+    }
+
+    /**
+     * @return The number of members of each shard, as <code>name=count</code>
+     */
+    @ManagedAttribute(description = "Number of members of each shard")
+    public String[] getMemberCounts() {
+        List<MemberShard> shards = ring.getNodes();
+        List<Long> counts = scatter(shards, shard -> shard.read(repository -> Long.valueOf(repository.count())));
+        String[] result = new String[shards.size()];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = shards.get(i).getName() + "=" + counts.get(i);
+        }
+        return result;
+    }
+
+    @ManagedAttribute(description = "Whether the members not found on their shard are looked for on the others")
+    public boolean isRebalancing() {
+        return rebalancing;
+    }
+
+    /**
+     * @param rebalancing
+     *            <code>true</code> while some members may not be on the shard they belong to, typically after a shard was added to the
+     *            configuration: the members not found on their shard are then looked for on all the others
+     */
+    public void setRebalancing(boolean rebalancing) {
+        this.rebalancing = rebalancing;
+    }
+
+    /**
+     * @param dialect
+     *            The SQL dialect of the shards, H2 by default
+     */
+    public void setDialect(SQLDialect dialect) {
+        Assert.notNull(dialect, "dialect is required");
+        this.dialect = dialect;
+    }
+
+    /**
+     * @param schemaScripts
+     *            The versioned scripts creating the schema of a shard, see {@link SchemaMigrator}; the shards are expected to be up to date without
+     */
+    public void setSchemaScripts(Resource[] schemaScripts) {
+        this.schemaScripts = schemaScripts;
+    }
+
+    /**
+     * @param virtualNodes
+     *            The number of points of each shard on the ring, changing it moves members between the shards
+     */
+    public void setVirtualNodes(int virtualNodes) {
+        Assert.isTrue(virtualNodes > 0, "virtualNodes must be positive");
+        this.virtualNodes = virtualNodes;
+    }
+
+    /**
+     * @param parallelism
+     *            The number of threads querying the shards, each one holding a connection while it does
+     */
+    public void setParallelism(int parallelism) {
+        Assert.isTrue(parallelism > 0, "parallelism must be positive");
+        this.parallelism = parallelism;
+    }
+
+    /**
+     * @param batchSize
+     *            See {@link JooqMemberRepository#setBatchSize(int)}
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param fetchSize
+     *            See {@link JooqMemberRepository#setFetchSize(int)}
+     */
+    public void setFetchSize(int fetchSize) {
+        Assert.isTrue(fetchSize > 0, "fetchSize must be positive");
+        this.fetchSize = fetchSize;
+    }
+
+    private MemberShard newShard(int index, DataSource dataSource) {
+        if (schemaScripts != null) {
+            SchemaMigrator migrator = new SchemaMigrator();
+            migrator.setDataSource(dataSource);
+            migrator.setScripts(schemaScripts);
+            migrator.afterPropertiesSet();
+        }
+        DSLContextFactoryBean factory = new DSLContextFactoryBean();
+        factory.setDataSource(dataSource);
+        factory.setDialect(dialect);
+        factory.afterPropertiesSet();
+        DSLContext dsl = factory.getObject();
+        if (memberIdBlocks == null) {
+            // The ids are unique across the shards
+            memberIdBlocks = JooqMemberRepository.sequenceBlocks(dsl, MEMBER_ID_SEQ);
+            personIdBlocks = JooqMemberRepository.sequenceBlocks(dsl, PERSON_ID_SEQ);
+        }
+        JooqMemberRepository repository = new JooqMemberRepository(dsl, memberIdBlocks, personIdBlocks);
+        repository.setBatchSize(batchSize);
+        repository.setFetchSize(fetchSize);
+        return new MemberShard("shard" + index, dataSource, repository);
+    }
+
+    /**
+     * @return The shard of the member, or while rebalancing the shard it is still on
+     */
+    private MemberShard shardOf(Member member) {
+        Assert.notNull(member.getMemberNumber(), "A member must have a member number");
+        MemberShard owner = ring.locate(member.getMemberNumber());
+        Long id = member.getId();
+        if (!rebalancing || id == null || owner.read(repository -> Boolean.valueOf(repository.exists(id))).booleanValue()) {
+            return owner;
+        }
+        MemberShard holder = shardHolding(id);
+        return holder == null ? owner : holder;
+    }
+
+    /**
+     * @return The shard holding the member, <code>null</code> if none does
+     */
+    private MemberShard shardHolding(Long id) {
+        List<MemberShard> shards = ring.getNodes();
+        List<Boolean> found = scatter(shards, shard -> shard.read(repository -> Boolean.valueOf(repository.exists(id))));
+        for (int i = 0; i < shards.size(); i++) {
+            if (found.get(i).booleanValue()) {
+                return shards.get(i);
+            }
+        }
+        return null;
+    }
+
+    private <T> List<T> scatterRead(Function<JooqMemberRepository, T> work) {
+        return scatter(ring.getNodes(), shard -> shard.read(work));
+    }
+
+    private <T> List<T> scatterWrite(Function<JooqMemberRepository, T> work) {
+        return scatter(ring.getNodes(), shard -> shard.write(work));
+    }
+
+    /**
+     * Runs the work on the shards in parallel, the first shard on the calling thread.
+     *
+     * @return The results, in the order of the shards
+     */
+    private <T> List<T> scatter(List<MemberShard> shards, Function<MemberShard, T> work) {
+        List<Future<T>> futures = new ArrayList<Future<T>>(shards.size());
+        for (int i = 1; i < shards.size(); i++) {
+            MemberShard shard = shards.get(i);
+            futures.add(executor.submit(() -> work.apply(shard)));
+        }
+        List<T> results = new ArrayList<T>(shards.size());
+        if (!shards.isEmpty()) {
+            results.add(work.apply(shards.get(0)));
+        }
+        for (Future<T> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException("Interrupted while waiting for the shards", e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                if (e.getCause() instanceof Error) {
+                    throw (Error) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        return results;
+    }
+
+    /**
+     * @return The request of the first <code>offset + size</code> rows, which may belong to the page, sorted by id when unsorted
+     */
+    private static Pageable top(Pageable pageable) {
+        return new PageRequest(0, pageable.getOffset() + pageable.getPageSize(), pageable.getSort() == null ? BY_ID : pageable.getSort());
+    }
+
+    /**
+     * Merges the top rows of the shards. They come as sorted runs, which the merge sort of {@link Collections#sort(List, Comparator)} merges
+     * in about linear time.
+     */
+    private static <T> Page<T> merge(Pageable pageable, List<Page<T>> pages, Comparator<T> comparator) {
+        List<T> rows = new ArrayList<T>();
+        long total = 0L;
+        for (Page<T> page : pages) {
+            rows.addAll(page.getContent());
+            total += page.getTotalElements();
+        }
+        Collections.sort(rows, comparator);
+        int from = Math.min(rows.size(), pageable.getOffset());
+        int to = Math.min(rows.size(), from + pageable.getPageSize());
+        return new PageImpl<T>(new ArrayList<T>(rows.subList(from, to)), pageable, total);
+    }
+
+    /**
+     * @return The order of the sort in memory, the nulls first as in H2
+     */
+    private static <T> Comparator<T> comparator(Sort sort, Map<String, Function<T, Comparable<?>>> properties) {
+        List<Function<T, Comparable<?>>> keys = new ArrayList<Function<T, Comparable<?>>>();
+        List<Boolean> ascending = new ArrayList<Boolean>();
+        for (Sort.Order order : sort) {
+            Function<T, Comparable<?>> key = properties.get(order.getProperty());
+            if (key == null) {
+                throw new IllegalArgumentException("No sortable property " + order.getProperty() + " found for the merge of the shards");
+            }
+            keys.add(key);
+            ascending.add(Boolean.valueOf(order.isAscending()));
+        }
+        return (left, right) -> {
+            for (int i = 0; i < keys.size(); i++) {
+                int comparison = compare(keys.get(i).apply(left), keys.get(i).apply(right));
+                if (comparison != 0) {
+                    return ascending.get(i).booleanValue() ? comparison : -comparison;
+                }
+            }
+            return 0;
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private static int compare(Comparable<?> left, Comparable<?> right) {
+        if (left == null || right == null) {
+            return left == right ? 0 : left == null ? -1 : 1;
+        }
+        return ((Comparable<Object>) left).compareTo(right);
+    }
+
+    private static <T> List<T> concat(List<List<T>> lists) {
+        List<T> result = new ArrayList<T>();
+        for (List<T> list : lists) {
+            result.addAll(list);
+        }
+        return result;
+    }
+
+    private static <T> T first(List<T> results) {
+        for (T result : results) {
+            if (result != null) {
+                return result;
+            }
+        }
+        return null;
+    }
+
+    private static Set<Long> intersection(List<Set<Long>> sets) {
+        Set<Long> result = new LinkedHashSet<Long>(sets.get(0));
+        for (Set<Long> set : sets.subList(1, sets.size())) {
+            result.retainAll(set);
+        }
+        return result;
+    }
+}
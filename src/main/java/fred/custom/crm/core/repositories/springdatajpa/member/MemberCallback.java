@@ -0,0 +1,18 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import fred.custom.crm.core.model.member.Member;
+
+/**
+ * Receives the members read by {@link MemberRepositoryCustom#streamAll(MemberCallback)}, one at a time.
+ * 
+ * @author Fred
+ */
+public interface MemberCallback {
+
+    /**
+     * @param member
+     *            The current member, with its person. It is detached from any persistence context once this method returns, so it must not be
+     *            kept nor modified in the hope of saving the changes.
+     */
+    void process(Member member);
+}
@@ -0,0 +1,247 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.persistence.EntityManagerFactory;
+
+import org.hibernate.action.spi.AfterTransactionCompletionProcess;
+import org.hibernate.action.spi.BeforeTransactionCompletionProcess;
+import org.hibernate.engine.internal.Versioning;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventSource;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostDeleteEvent;
+import org.hibernate.event.spi.PostDeleteEventListener;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.jpa.HibernateEntityManagerFactory;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberChange;
+import fred.custom.crm.core.model.member.Person;
+
+/**
+ * Records the members written through JPA in the outbox ({@link MemberChange}), during the flush which writes them, so in the same transaction:
+ * the inserts, the updates and the deletes of the members, and the updates of their persons as updates of the members.
+ * <p>
+ * The changes are collected during the flushes of a transaction and written just before it commits, after its last flush, as JDBC batches: one
+ * round trip for all the changes of a transaction instead of one per change. They are dropped if the transaction rolls back. The outbox does not
+ * show the changes of the running transaction, even after a flush.
+ * </p>
+ * <p>
+ * The JPQL and JDBC bulk writes of {@link MemberRepositoryImpl} raise no Hibernate events, they record their own changes.
+ * </p>
+ *
+ * @author Fred
+ */
+public class MemberChangeListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener, InitializingBean {
+
+    /** Serial version UID */
+    private static final long serialVersionUID = -5391585245779010713L;
+
+    private static final String INSERT_SQL = "insert into member_changes (member_id, member_version, change_type, changed_on) values (?, ?, ?, ?)";
+
+    private static final String INSERT_BY_PERSON_SQL = "insert into member_changes (member_id, member_version, change_type, changed_on)"
+            + " select id, version, ?, ? from members where person_id = ?";
+
+    private transient EntityManagerFactory entityManagerFactory;
+
+    /** The changes not written yet, by session */
+    private final transient Map<SessionImplementor, PendingChanges> pending = new ConcurrentHashMap<SessionImplementor, PendingChanges>();
+
+    /**
+     * Registers this listener in the session factory of the entity manager factory.
+     *
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        Assert.notNull(entityManagerFactory, "entityManagerFactory is required");
+        SessionFactoryImplementor sessionFactory = (SessionFactoryImplementor) ((HibernateEntityManagerFactory) entityManagerFactory)
+                .getSessionFactory();
+        EventListenerRegistry registry = sessionFactory.getServiceRegistry().getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_UPDATE, this);
+        registry.appendListeners(EventType.POST_DELETE, this);
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostInsertEventListener#onPostInsert(org.hibernate.event.spi.PostInsertEvent)
+     */
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Member) {
+            record(event.getSession(), (Long) event.getId(), Versioning.getVersion(event.getState(), event.getPersister()), MemberChange.Type.INSERT);
+        }
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostUpdateEventListener#onPostUpdate(org.hibernate.event.spi.PostUpdateEvent)
+     */
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Member) {
+            record(event.getSession(), (Long) event.getId(), Versioning.getVersion(event.getState(), event.getPersister()), MemberChange.Type.UPDATE);
+        } else if (event.getEntity() instanceof Person) {
+            pendingChanges(event.getSession()).add(new Change(INSERT_BY_PERSON_SQL, (Long) event.getId(), null, MemberChange.Type.UPDATE));
+        }
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostDeleteEventListener#onPostDelete(org.hibernate.event.spi.PostDeleteEvent)
+     */
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        if (event.getEntity() instanceof Member) {
+            record(event.getSession(), (Long) event.getId(), Versioning.getVersion(event.getDeletedState(), event.getPersister()),
+                    MemberChange.Type.DELETE);
+        }
+    }
+
+    /**
+     * @return <code>false</code>, the changes are recorded before the commit
+     * @see org.hibernate.event.spi.PostActionEventListener#requiresPostCommitHanding(org.hibernate.persister.entity.EntityPersister)
+     */
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    /**
+     * @param entityManagerFactory
+     *            The Hibernate entity manager factory the members are written with
+     */
+    public void setEntityManagerFactory(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+    }
+
+    private void record(EventSource session, Long memberId, Object version, MemberChange.Type type) {
+        pendingChanges(session).add(new Change(INSERT_SQL, memberId, Integer.valueOf(((Number) version).intValue()), type));
+    }
+
+    /**
+     * @return The changes of the transaction of the session, registered to be written before it completes on the first change
+     */
+    private PendingChanges pendingChanges(EventSource session) {
+        PendingChanges changes = pending.get(session);
+        if (changes == null) {
+            changes = new PendingChanges();
+            pending.put(session, changes);
+            session.getActionQueue().registerProcess((BeforeTransactionCompletionProcess) changes);
+            session.getActionQueue().registerProcess((AfterTransactionCompletionProcess) changes);
+        }
+        return changes;
+    }
+
+    /**
+     * Writes the changes in their order, with one JDBC batch per run of changes of the same statement.
+     */
+    private static void write(Connection connection, List<Change> changes) throws SQLException {
+        PreparedStatement statement = null;
+        String sql = null;
+        try {
+            for (Change change : changes) {
+                if (!change.sql.equals(sql)) {
+                    if (statement != null) {
+                        statement.executeBatch();
+                        statement.close();
+                    }
+                    sql = change.sql;
+                    statement = connection.prepareStatement(sql);
+                }
+                change.bind(statement);
+                statement.addBatch();
+            }
+            if (statement != null) {
+                statement.executeBatch();
+            }
+        } finally {
+            if (statement != null) {
+                statement.close();
+            }
+        }
+    }
+
+    /**
+     * The changes of the transaction of a session, a session being used by one thread at a time.
+     */
+    private final class PendingChanges implements BeforeTransactionCompletionProcess, AfterTransactionCompletionProcess {
+
+        private final List<Change> changes = new ArrayList<Change>();
+
+        void add(Change change) {
+            changes.add(change);
+        }
+
+        /**
+         * @see org.hibernate.action.spi.BeforeTransactionCompletionProcess#doBeforeTransactionCompletion(org.hibernate.engine.spi.SessionImplementor)
+         */
+        @Override
+        public void doBeforeTransactionCompletion(SessionImplementor session) {
+            if (!changes.isEmpty()) {
+                ((EventSource) session).doWork(connection -> write(connection, changes));
+                changes.clear();
+            }
+        }
+
+        /**
+         * @see org.hibernate.action.spi.AfterTransactionCompletionProcess#doAfterTransactionCompletion(boolean,
+         *      org.hibernate.engine.spi.SessionImplementor)
+         */
+        @Override
+        public void doAfterTransactionCompletion(boolean success, SessionImplementor session) {
+            changes.clear();
+            pending.remove(session);
+        }
+    }
+
+    /**
+     * A row of the outbox: the change of a member, or of the members of a person (the version is then read from the members).
+     */
+    private static final class Change {
+
+        private final String sql;
+
+        private final Long id;
+
+        private final Integer version;
+
+        private final MemberChange.Type type;
+
+        private final Timestamp changedOn = new Timestamp(System.currentTimeMillis());
+
+        Change(String sql, Long id, Integer version, MemberChange.Type type) {
+            this.sql = sql;
+            this.id = id;
+            this.version = version;
+            this.type = type;
+        }
+
+        void bind(PreparedStatement statement) throws SQLException {
+            if (version == null) {
+                statement.setString(1, type.name());
+                statement.setTimestamp(2, changedOn);
+                statement.setLong(3, id.longValue());
+            } else {
+                statement.setLong(1, id.longValue());
+                statement.setInt(2, version.intValue());
+                statement.setString(3, type.name());
+                statement.setTimestamp(4, changedOn);
+            }
+        }
+    }
+}
@@ -0,0 +1,30 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import fred.custom.crm.core.model.member.Member;
+
+/**
+ * What a repository call loads along with the members. Each plan is a named entity graph of {@link Member}.
+ * 
+ * @author Fred
+ */
+public enum MemberFetchPlan {
+
+    /** The member columns only, for the callers reading member numbers or audit fields. The person is a reference holding its id. */
+    MEMBER_ONLY(Member.GRAPH_MEMBER_ONLY),
+
+    /** The member and its person, read together with a join */
+    MEMBER_WITH_PERSON(Member.GRAPH_MEMBER_WITH_PERSON);
+
+    private final String graphName;
+
+    private MemberFetchPlan(String graphName) {
+        this.graphName = graphName;
+    }
+
+    /**
+     * @return The name of the {@link javax.persistence.NamedEntityGraph} of this plan
+     */
+    public String getGraphName() {
+        return graphName;
+    }
+}
@@ -0,0 +1,153 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import java.nio.charset.Charset;
+import java.util.List;
+
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.KeysetPage;
+
+/**
+ * The position of a member in a keyset pagination, see {@link MemberRepositoryCustom#findPage(MemberKeyset.Order, String, int)}.
+ * <p>
+ * It travels to the clients as an opaque continuation token: the clients must not build nor parse tokens, their format may change at any time.
+ * </p>
+ * 
+ * @author Fred
+ */
+public final class MemberKeyset {
+
+    /**
+     * The orders a keyset pagination can follow. Both are total orders, so each page starts exactly where the previous one ended.
+     */
+    public enum Order {
+        /** By member id */
+        ID,
+        /** By person last name, then by person id (unique per member) */
+        LAST_NAME
+    }
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    private static final char[] HEX = "0123456789abcdef".toCharArray();
+
+    private final Order order;
+
+    private final Long id;
+
+    private final String lastName;
+
+    private MemberKeyset(Order order, Long id, String lastName) {
+        this.order = order;
+        this.id = id;
+        this.lastName = lastName;
+    }
+
+    /**
+     * @param order
+     *            The order of the pagination
+     * @param last
+     *            The last member of the current page
+     * @return The position right after the given member
+     */
+    public static MemberKeyset after(Order order, Member last) {
+        Assert.notNull(order, "order is required");
+        if (order == Order.ID) {
+            return new MemberKeyset(order, last.getId(), null);
+        }
+        return new MemberKeyset(order, last.getPerson().getId(), last.getPerson().getLastName());
+    }
+
+    /**
+     * Builds a page from the rows read for it: the implementations read one row more than the page size to know whether a next page exists
+     * without counting.
+     * 
+     * @param order
+     *            The order of the pagination
+     * @param rows
+     *            The members read, at most <code>size + 1</code>
+     * @param size
+     *            The page size
+     * @return The page of the first <code>size</code> members
+     */
+    public static KeysetPage<Member> toPage(Order order, List<Member> rows, int size) {
+        if (rows.size() <= size) {
+            return new KeysetPage<Member>(rows, null);
+        }
+        List<Member> content = rows.subList(0, size);
+        return new KeysetPage<Member>(content, after(order, content.get(size - 1)).toToken());
+    }
+
+    /**
+     * @param order
+     *            The order the token is expected to follow
+     * @param token
+     *            A token built by {@link #toToken()}
+     * @return The position described by the token
+     * @throws IllegalArgumentException
+     *             If the token is malformed or was built for another order
+     */
+    public static MemberKeyset fromToken(Order order, String token) {
+        String[] parts;
+        try {
+            parts = new String(fromHex(token), UTF_8).split(":", 3);
+        } catch (RuntimeException e) {
+            throw new IllegalArgumentException("Malformed continuation token: " + token, e);
+        }
+        if (parts.length < 2 || !order.name().equals(parts[0]) || (order == Order.LAST_NAME && parts.length != 3)) {
+            throw new IllegalArgumentException("Continuation token " + token + " is not valid for order " + order);
+        }
+        try {
+            return new MemberKeyset(order, Long.valueOf(parts[1]), order == Order.LAST_NAME ? parts[2] : null);
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Malformed continuation token: " + token, e);
+        }
+    }
+
+    /**
+     * @return The opaque continuation token of this position
+     */
+    public String toToken() {
+        String plain = order.name() + ":" + id + (lastName == null ? "" : ":" + lastName);
+        return toHex(plain.getBytes(UTF_8));
+    }
+
+    public Order getOrder() {
+        return order;
+    }
+
+    /**
+     * @return The member id for {@link Order#ID}, the person id for {@link Order#LAST_NAME}
+     */
+    public Long getId() {
+        return id;
+    }
+
+    /**
+     * @return The person last name for {@link Order#LAST_NAME}, <code>null</code> otherwise
+     */
+    public String getLastName() {
+        return lastName;
+    }
+
+    private static String toHex(byte[] bytes) {
+        char[] chars = new char[bytes.length * 2];
+        for (int i = 0; i < bytes.length; i++) {
+            chars[2 * i] = HEX[(bytes[i] >> 4) & 0xF];
+            chars[2 * i + 1] = HEX[bytes[i] & 0xF];
+        }
+        return new String(chars);
+    }
+
+    private static byte[] fromHex(String hex) {
+        if (hex.length() % 2 != 0) {
+            throw new IllegalArgumentException("Odd length");
+        }
+        byte[] bytes = new byte[hex.length() / 2];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) Integer.parseInt(hex.substring(2 * i, 2 * i + 2), 16);
+        }
+        return bytes;
+    }
+}
@@ -1,14 +1,95 @@
 package fred.custom.crm.core.repositories.springdatajpa.member;
 
+import java.util.List;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.EntityGraph;
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Query;
 
 import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberSummary;
 
 /**
  * Specifies methods used to obtain and modify member related information which is stored in the database.
+ * <p>
+ * The person of a member is loaded lazily by the inherited methods, use the methods taking a {@link MemberFetchPlan} to load it along.
+ * </p>
  * 
  * @author Fred
  */
-public interface MemberRepository extends JpaRepository<Member, Long> {
-    // No additional methods... for now
+public interface MemberRepository extends JpaRepository<Member, Long>, MemberRepositoryCustom {
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#save(fred.custom.crm.core.model.member.Member)
+     */
+    @Override
+    <S extends Member> S save(S member);
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#save(java.lang.Iterable)
+     */
+    @Override
+    <S extends Member> List<S> save(Iterable<S> members);
+
+    /**
+     * @param employeeNumber
+     *            The employee number, unique
+     * @return The member, or <code>null</code> if none has this employee number, with its person
+     */
+    @EntityGraph(Member.GRAPH_MEMBER_WITH_PERSON)
+    Member findByEmployeeNumber(String employeeNumber);
+
+    /**
+     * @param memberNumber
+     *            The member number, unique
+     * @return The member, or <code>null</code> if none has this member number, with its person
+     */
+    @EntityGraph(Member.GRAPH_MEMBER_WITH_PERSON)
+    Member findByMemberNumber(String memberNumber);
+
+    /**
+     * @param cellPhoneNumber
+     *            The cell phone number, exactly as stored
+     * @return The members whose person has this cell phone number, with their persons, served by the <code>persons_cell_phone_number_idx</code>
+     *         index
+     */
+    @EntityGraph(Member.GRAPH_MEMBER_WITH_PERSON)
+    List<Member> findByPersonCellPhoneNumber(String cellPhoneNumber);
+
+    /**
+     * @param email
+     *            The email address, exactly as stored
+     * @return The members whose person has this email address, with their persons, served by the <code>persons_email_idx</code> index
+     */
+    @EntityGraph(Member.GRAPH_MEMBER_WITH_PERSON)
+    List<Member> findByPersonEmail(String email);
+
+    /**
+     * Reads a page of member summaries, for the member lists.
+     * <p>
+     * Only the displayed columns are selected and the {@link MemberSummary summaries} are built straight from them: no entity is hydrated, nor
+     * registered in the persistence context, nor copied for dirty checking.
+     * </p>
+     * 
+     * @param pageable
+     *            The page to read, sortable by the {@link Member} properties (e.g. <code>person.lastName</code>)
+     * @return The page of summaries
+     */
+    @Query(value = "select new fred.custom.crm.core.model.member.MemberSummary(m.id, m.memberNumber, p.firstName, p.lastName, p.gender)"
+            + " from Member m join m.person p", countQuery = "select count(m) from Member m")
+    Page<MemberSummary> findSummaries(Pageable pageable);
+
+    /**
+     * Reads the version stamp of a member: its version, and the id and the version of its person. Any update of either, or a new person, changes
+     * it, so a copy of the member is up to date as long as its stamp is unchanged. Used to validate cached members without reading them again.
+     * 
+     * @param id
+     *            The id of the member
+     * @return The version stamp, or <code>null</code> if the member does not exist
+     */
+    @Query("select new fred.custom.crm.core.repositories.springdatajpa.member.MemberVersionStamp(m.version, p.id, p.version)"
+            + " from Member m join m.person p where m.id = ?1")
+    MemberVersionStamp findVersionStamp(Long id);
 }
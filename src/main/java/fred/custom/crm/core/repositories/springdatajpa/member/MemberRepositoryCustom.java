@@ -0,0 +1,219 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import java.util.Collection;
+import java.util.Date;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.repositories.KeysetPage;
+import fred.custom.crm.core.repositories.MultiGetResult;
+
+/**
+ * Specifies the member related operations which cannot be derived by Spring Data from the method names.
+ * <p>
+ * The Spring Data JPA implementation is {@link MemberRepositoryImpl}, it is picked up by naming convention.
+ * </p>
+ * 
+ * @author Fred
+ */
+public interface MemberRepositoryCustom {
+
+    /**
+     * Reads a page of members, loading what the given plan specifies.
+     * 
+     * @param pageable
+     *            The page to read, sortable by the {@link Member} properties
+     * @param plan
+     *            What to load along with the members
+     * @return The page of members
+     */
+    Page<Member> findAll(Pageable pageable, MemberFetchPlan plan);
+
+    /**
+     * Finds the members whose person names start with the given prefixes, ignoring the case and the accents, for instance for a type-ahead.
+     * <p>
+     * The prefixes are compared to the {@link fred.custom.crm.core.model.member.Person#toSearchKey(String) search keys} of the names, so the
+     * search is a range scan of the <code>persons_name_key_idx</code> index whatever the number of persons. The members are loaded with their
+     * persons, sorted by last name, first name and person id.
+     * </p>
+     * 
+     * @param lastNamePrefix
+     *            The beginning of the last name, not empty
+     * @param firstNamePrefix
+     *            The beginning of the first name, <code>null</code> or empty for any first name
+     * @param maxResults
+     *            The maximum number of members returned
+     * @return The matching members, the first <code>maxResults</code> ones in name order
+     */
+    List<Member> findByNamePrefix(String lastNamePrefix, String firstNamePrefix, int maxResults);
+
+    /**
+     * Reads a member, loading what the given plan specifies.
+     * 
+     * @param id
+     *            The id of the member
+     * @param plan
+     *            What to load along with the member
+     * @return The member, or <code>null</code> if none has this id
+     */
+    Member findOne(Long id, MemberFetchPlan plan);
+
+    /**
+     * Reads a page of members with keyset (seek) pagination.
+     * <p>
+     * Instead of skipping <code>OFFSET</code> rows, each page starts with a <code>WHERE</code> on the sort key of the last member of the previous
+     * page, so the page 1000 costs the same as the first one with an index on the sort key, and no count query is executed. Members inserted or
+     * deleted meanwhile never shift the pages. The pages can only be walked forwards, there is no random access to a page number.
+     * </p>
+     * 
+     * @param order
+     *            The order of the pages
+     * @param continuationToken
+     *            The {@link KeysetPage#getNextToken() token} of the previous page, <code>null</code> for the first page
+     * @param size
+     *            The maximum number of members of the page
+     * @return The page, empty if there are no more members
+     * @throws IllegalArgumentException
+     *             If the token is malformed or was returned for another order
+     */
+    KeysetPage<Member> findPage(MemberKeyset.Order order, String continuationToken, int size);
+
+    /**
+     * Reads the members (and their persons) of a possibly long list of ids, such as the recipients of a campaign.
+     * <p>
+     * The ids are read by chunks, with one <code>members JOIN persons</code> query and an <code>IN</code> list per chunk: a few round trips
+     * instead of one per id, and no statement too large for the database. An id given several times is read once.
+     * </p>
+     * 
+     * @param ids
+     *            The ids of the members
+     * @return The members in the order of the ids, and the ids without a member
+     */
+    MultiGetResult<Member> multiGet(List<Long> ids);
+
+    /**
+     * Saves a member and its person, in place of the Spring Data implementation.
+     * <p>
+     * A member whose person is a {@link fred.custom.crm.core.model.member.PersonReference} (read by jOOQ without its person, or decoded by
+     * {@link fred.custom.crm.core.model.member.MemberCodec}) is saved with a reference to the stored person, which is left untouched: cascading
+     * to the reference itself would save a person with all its fields <code>null</code>.
+     * </p>
+     * 
+     * @param member
+     *            The member to save
+     * @return The saved member, the given instance if it was new
+     */
+    <S extends Member> S save(S member);
+
+    /**
+     * Saves members and their persons like {@link #save(Member)}, in place of the Spring Data implementation.
+     * 
+     * @param members
+     *            The members to save
+     * @return The saved members
+     */
+    <S extends Member> List<S> save(Iterable<S> members);
+
+    /**
+     * Saves a large number of members (and their persons) with batched inserts and updates.
+     * <p>
+     * The members are written in chunks: the statements of a chunk are grouped by table so they can be sent as JDBC batches, and nothing of a
+     * chunk is kept in memory once it has been written. Like <code>EntityManager.persist</code>, the ids of the new members and persons are set on
+     * the given instances. Existing members are merged, the given instances are then left untouched. Persons
+     * which are {@link fred.custom.crm.core.model.member.PersonReference}s are left untouched as with {@link #save(Member)}.
+     * </p>
+     * 
+     * @param members
+     *            The members to save, may be a lazy {@link Iterable} over a very large source
+     * @return The number of saved members
+     */
+    int saveInBatch(Iterable<? extends Member> members);
+
+    /**
+     * Reads all the members (and their persons) in constant memory.
+     * <p>
+     * The members are read through a forward-only cursor and handed to the callback one at a time, the rows being fetched from the database by
+     * groups of the configured fetch size. Nothing is accumulated: the memory used is the same for ten thousand or ten million members.
+     * </p>
+     * 
+     * @param callback
+     *            Called for each member, in no particular order
+     * @return The number of members read
+     */
+    long streamAll(MemberCallback callback);
+
+    /**
+     * Sets the audit fields of many members at once, without reading them, while still checking their versions.
+     * <p>
+     * The members are updated by chunks: the rows of a chunk are locked and their versions read by a single <code>SELECT ... FOR UPDATE</code>,
+     * then the members still at their expected version are updated, and their versions incremented, by a single <code>UPDATE</code>. The members
+     * at another version, or deleted, are left untouched and returned so that the caller can read them again and decide. The persons are not
+     * updated. The entities already loaded in the current transaction are not refreshed.
+     * </p>
+     *
+     * @param members
+     *            The ids of the members along with their expected versions
+     * @param lastUpdateUser
+     *            The new last update user
+     * @param lastUpdateDate
+     *            The new last update date
+     * @return The ids of the members which were not updated, in the order given
+     */
+    Set<Long> updateAuditFields(Collection<MemberVersion> members, String lastUpdateUser, Date lastUpdateDate);
+
+    /**
+     * Changes the employee numbers of many members at once, without reading them, while still checking their versions.
+     * <p>
+     * Each member gets its own <code>UPDATE ... WHERE id = ? AND version = ?</code>, sent as JDBC batches of the configured batch size: the update
+     * counts tell the members which were at another version, or deleted. Those are left untouched and returned. The entities already loaded in the
+     * current transaction are not refreshed. An employee number already used by another member fails the whole call with a
+     * {@link org.springframework.dao.DataIntegrityViolationException}, so the numbers cannot be swapped between members in a single call.
+     * </p>
+     *
+     * @param employeeNumbers
+     *            The new employee numbers by member id and expected version
+     * @param lastUpdateUser
+     *            The new last update user
+     * @param lastUpdateDate
+     *            The new last update date
+     * @return The ids of the members which were not updated, in the order of the given map
+     */
+    Set<Long> updateEmployeeNumbers(Map<MemberVersion, String> employeeNumbers, String lastUpdateUser, Date lastUpdateDate);
+
+    /**
+     * Sets the audit fields of many members, each to its own values, without reading them and without checking their versions.
+     * <p>
+     * Meant for the frequent "touches" of the members, coalesced by a {@link fred.custom.crm.core.repositories.writebehind.MemberTouchBuffer}:
+     * each member gets its own <code>UPDATE ... WHERE id = ?</code>, sent as JDBC batches of the configured batch size. The version is still
+     * incremented, so that the caches and the writers holding the previous version see the change. A touch never moves the last update date
+     * backwards: the members already updated at or after its date, or deleted, are left untouched and returned. The persons are not updated. The
+     * entities already loaded in the current transaction are not refreshed.
+     * </p>
+     *
+     * @param touches
+     *            The new audit fields, at most one per member
+     * @return The ids of the members which were not updated, in the order given
+     */
+    Set<Long> touch(Collection<MemberTouch> touches);
+
+    /**
+     * Deletes all the members with a single statement, as {@link org.springframework.data.jpa.repository.JpaRepository#deleteAllInBatch()}, and
+     * records them in the outbox. Declared here so that the Spring Data JPA repository uses {@link MemberRepositoryImpl#deleteAllInBatch()}.
+     */
+    void deleteAllInBatch();
+
+    /**
+     * Deletes the given members without checking their versions, as
+     * {@link org.springframework.data.jpa.repository.JpaRepository#deleteInBatch(Iterable)}, and records them in the outbox. Declared here so that
+     * the Spring Data JPA repository uses {@link MemberRepositoryImpl#deleteInBatch(Iterable)}.
+     *
+     * @param members
+     *            The members to delete
+     */
+    void deleteInBatch(Iterable<Member> members);
+}
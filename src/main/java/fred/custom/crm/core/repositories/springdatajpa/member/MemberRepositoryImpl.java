@@ -0,0 +1,549 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import java.sql.PreparedStatement;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.persistence.EntityManager;
+import javax.persistence.FlushModeType;
+import javax.persistence.PersistenceContext;
+import javax.persistence.TemporalType;
+import javax.persistence.TypedQuery;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.CacheMode;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.annotations.QueryHints;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.query.QueryUtils;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.MemberChange;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.PersonReference;
+import fred.custom.crm.core.repositories.KeysetPage;
+import fred.custom.crm.core.repositories.MultiGetResult;
+
+/**
+ * Spring Data JPA implementation of {@link MemberRepositoryCustom}.
+ * <p>
+ * The members written through the entity manager are recorded in the outbox by the {@link MemberChangeListener}. The bulk writes raise no
+ * Hibernate event, they record their changes themselves with an <code>INSERT ... SELECT</code> from <code>members</code>: after the updates,
+ * before the deletes.
+ * </p>
+ * 
+ * @author Fred
+ */
+public class MemberRepositoryImpl implements MemberRepositoryCustom {
+
+    private static final Log LOG = LogFactory.getLog(MemberRepositoryImpl.class);
+
+    /** Default number of members written between two flushes, keep in line with <code>hibernate.jdbc.batch_size</code> */
+    public static final int DEFAULT_BATCH_SIZE = 50;
+
+    /** Default number of rows fetched per round trip by {@link #streamAll(MemberCallback)} */
+    public static final int DEFAULT_FETCH_SIZE = 500;
+
+    /** Default number of ids per query of {@link #multiGet(List)} */
+    public static final int DEFAULT_MULTI_GET_CHUNK_SIZE = 500;
+
+    /** JPA 2.1 hint applying an entity graph as a fetch graph: the attributes outside of the graph are loaded lazily */
+    private static final String FETCH_GRAPH_HINT = "javax.persistence.fetchgraph";
+
+    /** Maximum number of values bound in a single <code>IN</code> list */
+    private static final int MAX_IN_LIST_SIZE = 1000;
+
+    /** Versioned update of an employee number, the parameters are in the order of {@link #updateEmployeeNumbers(Map, String, Date)} */
+    private static final String UPDATE_EMPLOYEE_NUMBER_SQL = "update members set version = version + 1, employee_number = ?, last_update_user = ?,"
+            + " last_update_date = ? where id = ? and version = ?";
+
+    /** Unversioned update of the audit fields, the parameters are in the order of {@link MemberTouch} */
+    private static final String TOUCH_SQL = "update members set version = version + 1, last_update_user = ?, last_update_date = ? where id = ?"
+            + " and last_update_date < ?";
+
+    /** Records the current versions of members in the outbox, followed by a <code>WHERE</code> clause on <code>members</code> */
+    private static final String RECORD_CHANGES_SQL = "insert into member_changes (member_id, member_version, change_type, changed_on)"
+            + " select id, version, :type, :changedOn from members";
+
+    @PersistenceContext
+    private EntityManager em;
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    private int multiGetChunkSize = DEFAULT_MULTI_GET_CHUNK_SIZE;
+
+    /**
+     * Runs <code>select m from Member m</code>, with a <code>join fetch</code> of the person for {@link MemberFetchPlan#MEMBER_WITH_PERSON}: the
+     * fetch graph hint is not applied by Hibernate 4.3 to a query sorted on an association.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findAll(org.springframework.data.domain.Pageable,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public Page<Member> findAll(Pageable pageable, MemberFetchPlan plan) {
+        Assert.notNull(pageable, "pageable is required");
+        Assert.notNull(plan, "plan is required");
+        String select = plan == MemberFetchPlan.MEMBER_WITH_PERSON ? "select m from Member m join fetch m.person" : "select m from Member m";
+        TypedQuery<Member> query = em.createQuery(QueryUtils.applySorting(select, pageable.getSort(), "m"), Member.class);
+        List<Member> content = query.setFirstResult(pageable.getOffset()).setMaxResults(pageable.getPageSize()).getResultList();
+        long total = em.createQuery("select count(m) from Member m", Long.class).getSingleResult().longValue();
+        return new PageImpl<Member>(content, pageable, total);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findByNamePrefix(java.lang.String, java.lang.String,
+     *      int)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public List<Member> findByNamePrefix(String lastNamePrefix, String firstNamePrefix, int maxResults) {
+        Assert.hasLength(lastNamePrefix, "lastNamePrefix is required");
+        Assert.isTrue(maxResults > 0, "maxResults must be positive");
+        boolean withFirstName = firstNamePrefix != null && !firstNamePrefix.isEmpty();
+        TypedQuery<Member> query = em.createQuery("select m from Member m join fetch m.person p where p.lastNameKey like :lastName escape '\\'"
+                + (withFirstName ? " and p.firstNameKey like :firstName escape '\\'" : "") + " order by p.lastNameKey, p.firstNameKey, p.id",
+                Member.class);
+        query.setParameter("lastName", likePrefix(Person.toSearchKey(lastNamePrefix)));
+        if (withFirstName) {
+            query.setParameter("firstName", likePrefix(Person.toSearchKey(firstNamePrefix)));
+        }
+        return query.setHint(QueryHints.READ_ONLY, Boolean.TRUE).setMaxResults(maxResults).getResultList();
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findOne(java.lang.Long,
+     *      fred.custom.crm.core.repositories.springdatajpa.member.MemberFetchPlan)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public Member findOne(Long id, MemberFetchPlan plan) {
+        Assert.notNull(id, "The given id must not be null!");
+        Assert.notNull(plan, "plan is required");
+        Map<String, Object> hints = Collections.<String, Object> singletonMap(FETCH_GRAPH_HINT, em.getEntityGraph(plan.getGraphName()));
+        return em.find(Member.class, id, hints);
+    }
+
+    /**
+     * Reads <code>size + 1</code> members (the extra one only tells whether there is a next page) with a JPQL query whose <code>WHERE</code>
+     * clause starts after the keyset, served by the primary key or by the <code>persons_last_name_idx</code> index. By last name, the redundant
+     * <code>p.lastName &gt;= :lastName</code> (the empty string for the first page) is what lets the database read that index in order and stop
+     * after the page, where the <code>OR</code> of the keyset alone makes it scan the members and sort them all. Like
+     * {@link #streamAll(MemberCallback)}, the members are loaded read-only: no snapshots are taken for dirty checking. The query does not
+     * flush the persistence context either, so walking many pages in one transaction does not dirty-check every member read so far; pending
+     * changes are not seen by the pages.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#findPage(fred.custom.crm.core.repositories.springdatajpa.member.MemberKeyset.Order,
+     *      java.lang.String, int)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public KeysetPage<Member> findPage(MemberKeyset.Order order, String continuationToken, int size) {
+        Assert.notNull(order, "order is required");
+        Assert.isTrue(size > 0, "size must be positive");
+        MemberKeyset keyset = continuationToken == null ? null : MemberKeyset.fromToken(order, continuationToken);
+        TypedQuery<Member> query;
+        if (order == MemberKeyset.Order.ID) {
+            query = em.createQuery("select m from Member m join fetch m.person" + (keyset == null ? "" : " where m.id > :id") + " order by m.id",
+                    Member.class);
+        } else {
+            query = em.createQuery("select m from Member m join fetch m.person p where p.lastName >= :lastName"
+                    + (keyset == null ? "" : " and (p.lastName > :lastName or (p.lastName = :lastName and p.id > :id))") + " order by p.lastName, p.id",
+                    Member.class).setParameter("lastName", keyset == null ? "" : keyset.getLastName());
+        }
+        if (keyset != null) {
+            query.setParameter("id", keyset.getId());
+        }
+        List<Member> rows = query.setHint(QueryHints.READ_ONLY, Boolean.TRUE).setFlushMode(FlushModeType.COMMIT).setMaxResults(size + 1).getResultList();
+        return MemberKeyset.toPage(order, rows, size);
+    }
+
+    /**
+     * The chunks hold {@link #setMultiGetChunkSize(int) chunk size} ids, the last one padded with its last id, so that every chunk runs the same
+     * statement. They are read one after the other in the persistence context of the caller, the members are loaded read-only.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#multiGet(java.util.List)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public MultiGetResult<Member> multiGet(List<Long> ids) {
+        Assert.notNull(ids, "ids is required");
+        List<Long> distinct = new ArrayList<Long>(new LinkedHashSet<Long>(ids));
+        Assert.isTrue(!distinct.contains(null), "The ids must not be null");
+        TypedQuery<Member> query = em.createQuery("select m from Member m join fetch m.person where m.id in (:ids)", Member.class)
+                .setHint(QueryHints.READ_ONLY, Boolean.TRUE).setFlushMode(FlushModeType.COMMIT);
+        Map<Long, Member> found = new HashMap<Long, Member>(distinct.size() * 4 / 3 + 1);
+        for (int i = 0; i < distinct.size(); i += multiGetChunkSize) {
+            List<Long> chunk = padded(distinct.subList(i, Math.min(distinct.size(), i + multiGetChunkSize)));
+            for (Member member : query.setParameter("ids", chunk).getResultList()) {
+                found.put(member.getId(), member);
+            }
+        }
+        return MultiGetResult.inOrder(ids, found);
+    }
+
+    /**
+     * The persistence context is flushed and cleared every {@link #setBatchSize(int) batch size} members, so Hibernate sends each chunk as JDBC
+     * batches (with <code>hibernate.order_inserts</code>, all the persons then all the members) and the memory used stays flat whatever the number
+     * of members.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#saveInBatch(java.lang.Iterable)
+     */
+    @Override
+    @Transactional
+    public int saveInBatch(Iterable<? extends Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        long start = System.nanoTime();
+        int count = 0;
+        for (Member member : members) {
+            persistOrMerge(member);
+            if (++count % batchSize == 0) {
+                em.flush();
+                em.clear();
+            }
+        }
+        em.flush();
+        em.clear();
+        logThroughput(count, System.nanoTime() - start);
+        return count;
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#save(fred.custom.crm.core.model.member.Member)
+     */
+    @Override
+    @Transactional
+    public <S extends Member> S save(S member) {
+        Assert.notNull(member, "The entity must not be null!");
+        return persistOrMerge(member);
+    }
+
+    /**
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#save(java.lang.Iterable)
+     */
+    @Override
+    @Transactional
+    public <S extends Member> List<S> save(Iterable<S> members) {
+        List<S> result = new ArrayList<S>();
+        if (members == null) {
+            return result;
+        }
+        for (S member : members) {
+            result.add(persistOrMerge(member));
+        }
+        return result;
+    }
+
+    /**
+     * Persists a new member, merges an existing one. A {@link PersonReference} is replaced by a Hibernate reference for the time of the call,
+     * so that the cascade neither inserts nor updates the person: a persisted member keeps the Hibernate reference, a merged one gets its
+     * {@link PersonReference} back.
+     */
+    private <S extends Member> S persistOrMerge(S member) {
+        Person person = member.getPerson();
+        if (person instanceof PersonReference) {
+            member.setPerson(em.getReference(Person.class, person.getId()));
+        }
+        if (member.getId() == null) {
+            em.persist(member);
+            return member;
+        }
+        try {
+            return em.merge(member);
+        } finally {
+            member.setPerson(person);
+        }
+    }
+
+    /**
+     * Scrolls over a read-only <code>Member JOIN FETCH person</code> query (no snapshots are taken for dirty checking) and clears the persistence
+     * context after every {@link #setFetchSize(int) fetch size} members.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#streamAll(fred.custom.crm.core.repositories.springdatajpa.member.MemberCallback)
+     */
+    @Override
+    @Transactional(readOnly = true)
+    public long streamAll(MemberCallback callback) {
+        Assert.notNull(callback, "callback is required");
+        Session session = em.unwrap(Session.class);
+        ScrollableResults results = session.createQuery("select m from Member m join fetch m.person").setFetchSize(fetchSize).setReadOnly(true)
+                .setCacheMode(CacheMode.IGNORE).scroll(ScrollMode.FORWARD_ONLY);
+        long count = 0;
+        try {
+            while (results.next()) {
+                callback.process((Member) results.get(0));
+                if (++count % fetchSize == 0) {
+                    session.clear();
+                }
+            }
+        } finally {
+            results.close();
+        }
+        session.clear();
+        return count;
+    }
+
+    /**
+     * The rows are locked by a native <code>SELECT ... FOR UPDATE</code> (the lock mode of a JPQL query only applies to the entities it selects,
+     * not to a projection), then updated by a JPQL bulk update. The persistence context is flushed first, so that the pending changes are not
+     * written over the bulk updates later.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateAuditFields(java.util.Collection, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    @Transactional
+    public Set<Long> updateAuditFields(Collection<MemberVersion> members, String lastUpdateUser, Date lastUpdateDate) {
+        Assert.notNull(members, "members is required");
+        Assert.notNull(lastUpdateUser, "lastUpdateUser is required");
+        Assert.notNull(lastUpdateDate, "lastUpdateDate is required");
+        em.flush();
+        List<MemberVersion> list = new ArrayList<MemberVersion>(members);
+        Set<Long> conflicts = new LinkedHashSet<Long>();
+        for (int i = 0; i < list.size(); i += MAX_IN_LIST_SIZE) {
+            List<MemberVersion> chunk = list.subList(i, Math.min(list.size(), i + MAX_IN_LIST_SIZE));
+            Set<Long> ids = new LinkedHashSet<Long>();
+            for (MemberVersion member : chunk) {
+                ids.add(member.getId());
+            }
+            @SuppressWarnings("unchecked")
+            List<Object[]> rows = em.createNativeQuery("select id, version from members where id in (:ids) for update").setParameter("ids", ids)
+                    .getResultList();
+            Map<Long, Integer> versions = new HashMap<Long, Integer>();
+            for (Object[] row : rows) {
+                versions.put(Long.valueOf(((Number) row[0]).longValue()), Integer.valueOf(((Number) row[1]).intValue()));
+            }
+            Set<Long> matching = new LinkedHashSet<Long>();
+            for (MemberVersion member : chunk) {
+                Integer version = versions.get(member.getId());
+                if (version != null && version.intValue() == member.getVersion()) {
+                    matching.add(member.getId());
+                } else {
+                    conflicts.add(member.getId());
+                }
+            }
+            if (!matching.isEmpty()) {
+                em.createQuery("update Member m set m.version = m.version + 1, m.lastUpdateUser = :lastUpdateUser,"
+                        + " m.lastUpdateDate = :lastUpdateDate where m.id in (:ids)").setParameter("lastUpdateUser", lastUpdateUser)
+                        .setParameter("lastUpdateDate", lastUpdateDate, TemporalType.TIMESTAMP).setParameter("ids", matching).executeUpdate();
+                recordChanges(MemberChange.Type.UPDATE, matching);
+            }
+        }
+        return conflicts;
+    }
+
+    /**
+     * JPA has no batched bulk updates, the statements are sent through the JDBC connection of the session. The persistence context is flushed
+     * first, so that the pending changes are not written over the bulk updates later.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#updateEmployeeNumbers(java.util.Map, java.lang.String,
+     *      java.util.Date)
+     */
+    @Override
+    @Transactional
+    public Set<Long> updateEmployeeNumbers(Map<MemberVersion, String> employeeNumbers, String lastUpdateUser, Date lastUpdateDate) {
+        Assert.notNull(employeeNumbers, "employeeNumbers is required");
+        Assert.notNull(lastUpdateUser, "lastUpdateUser is required");
+        Assert.notNull(lastUpdateDate, "lastUpdateDate is required");
+        for (String employeeNumber : employeeNumbers.values()) {
+            Assert.notNull(employeeNumber, "The employee numbers must not be null");
+        }
+        em.flush();
+        final List<Map.Entry<MemberVersion, String>> entries = new ArrayList<Map.Entry<MemberVersion, String>>(employeeNumbers.entrySet());
+        final Timestamp timestamp = new Timestamp(lastUpdateDate.getTime());
+        final Set<Long> conflicts = new LinkedHashSet<Long>();
+        final List<Long> updated = new ArrayList<Long>(entries.size());
+        em.unwrap(Session.class).doWork(connection -> {
+            PreparedStatement statement = connection.prepareStatement(UPDATE_EMPLOYEE_NUMBER_SQL);
+            try {
+                for (int i = 0; i < entries.size(); i += batchSize) {
+                    List<Map.Entry<MemberVersion, String>> chunk = entries.subList(i, Math.min(entries.size(), i + batchSize));
+                    for (Map.Entry<MemberVersion, String> entry : chunk) {
+                        statement.setString(1, entry.getValue());
+                        statement.setString(2, lastUpdateUser);
+                        statement.setTimestamp(3, timestamp);
+                        statement.setLong(4, entry.getKey().getId().longValue());
+                        statement.setInt(5, entry.getKey().getVersion());
+                        statement.addBatch();
+                    }
+                    int[] counts = statement.executeBatch();
+                    for (int j = 0; j < counts.length; j++) {
+                        Assert.state(counts[j] != Statement.SUCCESS_NO_INFO, "The JDBC driver does not report the update counts of a batch");
+                        if (counts[j] == 0) {
+                            conflicts.add(chunk.get(j).getKey().getId());
+                        } else {
+                            updated.add(chunk.get(j).getKey().getId());
+                        }
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+        });
+        recordChanges(MemberChange.Type.UPDATE, updated);
+        return conflicts;
+    }
+
+    /**
+     * Sent through the JDBC connection of the session, as {@link #updateEmployeeNumbers(Map, String, Date)}.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#touch(java.util.Collection)
+     */
+    @Override
+    @Transactional
+    public Set<Long> touch(Collection<MemberTouch> touches) {
+        Assert.notNull(touches, "touches is required");
+        em.flush();
+        final List<MemberTouch> list = new ArrayList<MemberTouch>(touches);
+        final Set<Long> skipped = new LinkedHashSet<Long>();
+        final List<Long> updated = new ArrayList<Long>(list.size());
+        em.unwrap(Session.class).doWork(connection -> {
+            PreparedStatement statement = connection.prepareStatement(TOUCH_SQL);
+            try {
+                for (int i = 0; i < list.size(); i += batchSize) {
+                    List<MemberTouch> chunk = list.subList(i, Math.min(list.size(), i + batchSize));
+                    for (MemberTouch touch : chunk) {
+                        Timestamp timestamp = new Timestamp(touch.getLastUpdateDate().getTime());
+                        statement.setString(1, touch.getLastUpdateUser());
+                        statement.setTimestamp(2, timestamp);
+                        statement.setLong(3, touch.getId().longValue());
+                        statement.setTimestamp(4, timestamp);
+                        statement.addBatch();
+                    }
+                    int[] counts = statement.executeBatch();
+                    for (int j = 0; j < counts.length; j++) {
+                        Assert.state(counts[j] != Statement.SUCCESS_NO_INFO, "The JDBC driver does not report the update counts of a batch");
+                        if (counts[j] == 0) {
+                            skipped.add(chunk.get(j).getId());
+                        } else {
+                            updated.add(chunk.get(j).getId());
+                        }
+                    }
+                }
+            } finally {
+                statement.close();
+            }
+        });
+        recordChanges(MemberChange.Type.UPDATE, updated);
+        return skipped;
+    }
+
+    /**
+     * Replaces the bulk delete of Spring Data, which would not record the members in the outbox.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#deleteAllInBatch()
+     */
+    @Override
+    @Transactional
+    public void deleteAllInBatch() {
+        em.createNativeQuery(RECORD_CHANGES_SQL).setParameter("type", MemberChange.Type.DELETE.name())
+                .setParameter("changedOn", new Date(), TemporalType.TIMESTAMP).executeUpdate();
+        em.createQuery("delete from Member m").executeUpdate();
+    }
+
+    /**
+     * Replaces the bulk delete of Spring Data, which would not record the members in the outbox.
+     * 
+     * @see fred.custom.crm.core.repositories.springdatajpa.member.MemberRepositoryCustom#deleteInBatch(java.lang.Iterable)
+     */
+    @Override
+    @Transactional
+    public void deleteInBatch(Iterable<Member> members) {
+        Assert.notNull(members, "The given Iterable of entities not be null!");
+        List<Long> ids = new ArrayList<Long>();
+        for (Member member : members) {
+            ids.add(member.getId());
+        }
+        for (int i = 0; i < ids.size(); i += MAX_IN_LIST_SIZE) {
+            List<Long> chunk = ids.subList(i, Math.min(ids.size(), i + MAX_IN_LIST_SIZE));
+            recordChanges(MemberChange.Type.DELETE, chunk);
+            em.createQuery("delete from Member m where m.id in (:ids)").setParameter("ids", chunk).executeUpdate();
+        }
+    }
+
+    /**
+     * @param batchSize
+     *            The number of members written between two flushes of the persistence context, also the number of updates per JDBC batch of
+     *            {@link #updateEmployeeNumbers(Map, String, Date)} and {@link #touch(Collection)}
+     */
+    public void setBatchSize(int batchSize) {
+        Assert.isTrue(batchSize > 0, "batchSize must be positive");
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * @param fetchSize
+     *            The number of rows fetched per round trip by {@link #streamAll(MemberCallback)}, also the number of members between two clears of
+     *            the persistence context
+     */
+    public void setFetchSize(int fetchSize) {
+        Assert.isTrue(fetchSize > 0, "fetchSize must be positive");
+        this.fetchSize = fetchSize;
+    }
+
+    /**
+     * @param multiGetChunkSize
+     *            The number of ids per query of {@link #multiGet(List)}, at most 1000
+     */
+    public void setMultiGetChunkSize(int multiGetChunkSize) {
+        Assert.isTrue(multiGetChunkSize > 0 && multiGetChunkSize <= MAX_IN_LIST_SIZE, "multiGetChunkSize must be between 1 and " + MAX_IN_LIST_SIZE);
+        this.multiGetChunkSize = multiGetChunkSize;
+    }
+
+    /**
+     * Records the current versions of the given members in the outbox.
+     */
+    private void recordChanges(MemberChange.Type type, Collection<Long> ids) {
+        List<Long> list = new ArrayList<Long>(ids);
+        for (int i = 0; i < list.size(); i += MAX_IN_LIST_SIZE) {
+            em.createNativeQuery(RECORD_CHANGES_SQL + " where id in (:ids)").setParameter("type", type.name())
+                    .setParameter("changedOn", new Date(), TemporalType.TIMESTAMP)
+                    .setParameter("ids", list.subList(i, Math.min(list.size(), i + MAX_IN_LIST_SIZE))).executeUpdate();
+        }
+    }
+
+    /**
+     * @return The chunk completed up to the chunk size by repeating its last id
+     */
+    private List<Long> padded(List<Long> chunk) {
+        List<Long> padded = new ArrayList<Long>(multiGetChunkSize);
+        padded.addAll(chunk);
+        while (padded.size() < multiGetChunkSize) {
+            padded.add(chunk.get(chunk.size() - 1));
+        }
+        return padded;
+    }
+
+    /**
+     * @return The pattern of a <code>LIKE ... ESCAPE '\'</code> matching the values starting with the given prefix
+     */
+    private static String likePrefix(String prefix) {
+        return prefix.replace("\\", "\\\\").replace("%", "\\%").replace("_", "\\_") + '%';
+    }
+
+    private static void logThroughput(int count, long elapsedNanos) {
+        if (LOG.isInfoEnabled()) {
+            // Each member counts for two rows: the member and its person
+            long millis = Math.max(1L, elapsedNanos / 1000000L);
+            LOG.info(String.format("Saved %d members in %d ms (%d rows/s)", count, millis, 2L * count * 1000L / millis));
+        }
+    }
+}
@@ -0,0 +1,91 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import java.util.Date;
+
+import org.springframework.util.Assert;
+
+/**
+ * The audit fields a member is touched with, see {@link MemberRepositoryCustom#touch(java.util.Collection)}.
+ *
+ * @author Fred
+ */
+public final class MemberTouch {
+
+    private final Long id;
+
+    private final String lastUpdateUser;
+
+    private final long lastUpdateDate;
+
+    /**
+     * @param id
+     *            The id of the member
+     * @param lastUpdateUser
+     *            The new last update user
+     * @param lastUpdateDate
+     *            The new last update date
+     */
+    public MemberTouch(Long id, String lastUpdateUser, Date lastUpdateDate) {
+        Assert.notNull(id, "id is required");
+        Assert.notNull(lastUpdateUser, "lastUpdateUser is required");
+        Assert.notNull(lastUpdateDate, "lastUpdateDate is required");
+        this.id = id;
+        this.lastUpdateUser = lastUpdateUser;
+        this.lastUpdateDate = lastUpdateDate.getTime();
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public String getLastUpdateUser() {
+        return lastUpdateUser;
+    }
+
+    /**
+     * @return A copy of the new last update date
+     */
+    public Date getLastUpdateDate() {
+        return new Date(lastUpdateDate);
+    }
+
+    /**
+     * @param other
+     *            Another touch of the same member
+     * @return <code>true</code> if this touch has a later date than the other one
+     */
+    public boolean isLaterThan(MemberTouch other) {
+        return lastUpdateDate > other.lastUpdateDate;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MemberTouch)) {
+            return false;
+        }
+        MemberTouch other = (MemberTouch) obj;
+        return id.equals(other.id) && lastUpdateUser.equals(other.lastUpdateUser) && lastUpdateDate == other.lastUpdateDate;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * (31 * id.hashCode() + lastUpdateUser.hashCode()) + (int) (lastUpdateDate ^ (lastUpdateDate >>> 32));
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "MemberTouch[id=" + id + ",lastUpdateUser=" + lastUpdateUser + ",lastUpdateDate=" + lastUpdateDate + "]";
+    }
+}
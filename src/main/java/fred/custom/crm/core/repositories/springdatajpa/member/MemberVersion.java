@@ -0,0 +1,78 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+
+/**
+ * The id of a member along with the version it is expected to be at, see
+ * {@link MemberRepositoryCustom#updateAuditFields(java.util.Collection, String, java.util.Date)}.
+ *
+ * @author Fred
+ */
+public final class MemberVersion {
+
+    private final Long id;
+
+    private final int version;
+
+    /**
+     * @param id
+     *            The id of the member
+     * @param version
+     *            The version the member is expected to be at
+     */
+    public MemberVersion(Long id, int version) {
+        Assert.notNull(id, "id is required");
+        this.id = id;
+        this.version = version;
+    }
+
+    /**
+     * @param member
+     *            A saved member
+     * @return Its id and its current version
+     */
+    public static MemberVersion of(Member member) {
+        return new MemberVersion(member.getId(), member.getVersion());
+    }
+
+    public Long getId() {
+        return id;
+    }
+
+    public int getVersion() {
+        return version;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MemberVersion)) {
+            return false;
+        }
+        MemberVersion other = (MemberVersion) obj;
+        return id.equals(other.id) && version == other.version;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return 31 * id.hashCode() + version;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "MemberVersion[id=" + id + ",version=" + version + "]";
+    }
+}
@@ -0,0 +1,91 @@
+package fred.custom.crm.core.repositories.springdatajpa.member;
+
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+
+/**
+ * The versions a member is made of: its own, and the id and the version of its person. Two copies of a member with equal stamps hold the same
+ * state, see {@link MemberRepository#findVersionStamp(Long)}. The person id is part of it because a new person starts over at version 0: the
+ * versions alone cannot tell a member whose person was replaced from one whose person was updated.
+ *
+ * @author Fred
+ */
+public final class MemberVersionStamp {
+
+    private final int memberVersion;
+
+    private final Long personId;
+
+    private final int personVersion;
+
+    /**
+     * @param memberVersion
+     *            The version of the member
+     * @param personId
+     *            The id of its person
+     * @param personVersion
+     *            The version of its person
+     */
+    public MemberVersionStamp(int memberVersion, Long personId, int personVersion) {
+        Assert.notNull(personId, "personId is required");
+        this.memberVersion = memberVersion;
+        this.personId = personId;
+        this.personVersion = personVersion;
+    }
+
+    /**
+     * @param member
+     *            A saved member, with its person
+     * @return Its version stamp
+     */
+    public static MemberVersionStamp of(Member member) {
+        Person person = member.getPerson();
+        Assert.notNull(person, "The member has no person");
+        return new MemberVersionStamp(member.getVersion(), person.getId(), person.getVersion());
+    }
+
+    public int getMemberVersion() {
+        return memberVersion;
+    }
+
+    public Long getPersonId() {
+        return personId;
+    }
+
+    public int getPersonVersion() {
+        return personVersion;
+    }
+
+    /**
+     * @see java.lang.Object#equals(java.lang.Object)
+     */
+    @Override
+    public boolean equals(Object obj) {
+        if (this == obj) {
+            return true;
+        }
+        if (!(obj instanceof MemberVersionStamp)) {
+            return false;
+        }
+        MemberVersionStamp other = (MemberVersionStamp) obj;
+        return memberVersion == other.memberVersion && personId.equals(other.personId) && personVersion == other.personVersion;
+    }
+
+    /**
+     * @see java.lang.Object#hashCode()
+     */
+    @Override
+    public int hashCode() {
+        return (31 * memberVersion + personId.hashCode()) * 31 + personVersion;
+    }
+
+    /**
+     * @see java.lang.Object#toString()
+     */
+    @Override
+    public String toString() {
+        return "MemberVersionStamp[memberVersion=" + memberVersion + ",personId=" + personId + ",personVersion=" + personVersion + "]";
+    }
+}
@@ -0,0 +1,148 @@
+package fred.custom.crm.core.repositories.unique;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import org.springframework.util.Assert;
+
+/**
+ * A compact set of strings which may answer "maybe present" for a string never added, but never "absent" for a string added: a Bloom filter.
+ * <p>
+ * Each string sets {@link #getHashCount() k} bits of a bit array, derived from two 64 bits hashes (Kirsch and Mitzenmacher); a string is maybe
+ * present when its k bits are all set. Sized for n strings and a false positive rate p, the array takes <code>-n ln(p) / ln(2)&#178;</code> bits
+ * (9.6 bits, 1.2 bytes per string at 1%) and k is <code>-log2(p)</code> (7 at 1%), whatever the length of the strings. Nothing can be removed.
+ * </p>
+ * <p>
+ * Thread safe, without locks: the bits are set by compare and swap, and a string is visible to the readers as soon as {@link #put(String)}
+ * returns.
+ * </p>
+ *
+ * @author Fred
+ */
+public final class BloomFilter {
+
+    private static final double LN_2 = Math.log(2.0);
+
+    private static final long FNV_OFFSET_BASIS = 0xcbf29ce484222325L;
+
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    private final AtomicLongArray words;
+
+    private final long bitCount;
+
+    private final int hashCount;
+
+    private final AtomicLong setBits = new AtomicLong();
+
+    /**
+     * @param expectedKeys
+     *            The number of strings the filter is sized for, more strings raise the false positive rate
+     * @param falsePositiveRate
+     *            The rate of strings never added reported as maybe present, once the expected number of strings is added
+     */
+    public BloomFilter(long expectedKeys, double falsePositiveRate) {
+        Assert.isTrue(expectedKeys > 0L, "expectedKeys must be positive");
+        Assert.isTrue(falsePositiveRate > 0.0 && falsePositiveRate < 1.0, "falsePositiveRate must be between 0 and 1");
+        long bits = (long) Math.ceil(-expectedKeys * Math.log(falsePositiveRate) / (LN_2 * LN_2));
+        long wordCount = (bits + 63L) / 64L;
+        Assert.isTrue(wordCount <= Integer.MAX_VALUE, "Too many expected keys");
+        this.words = new AtomicLongArray((int) wordCount);
+        this.bitCount = wordCount * 64L;
+        this.hashCount = Math.max(1, (int) Math.round((double) bitCount / expectedKeys * LN_2));
+    }
+
+    /**
+     * @param key
+     *            The string to add
+     * @return <code>true</code> if the filter changed, so the string was certainly not added before
+     */
+    public boolean put(String key) {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L);
+        boolean changed = false;
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            int index = (int) (bit >>> 6);
+            long mask = 1L << bit;
+            long word;
+            while (((word = words.get(index)) & mask) == 0L) {
+                if (words.compareAndSet(index, word, word | mask)) {
+                    setBits.incrementAndGet();
+                    changed = true;
+                    break;
+                }
+            }
+        }
+        return changed;
+    }
+
+    /**
+     * @param key
+     *            A string
+     * @return <code>false</code> if the string was certainly never added, <code>true</code> if it may have been
+     */
+    public boolean mightContain(String key) {
+        long hash1 = hash(key);
+        long hash2 = mix(hash1 ^ 0x9e3779b97f4a7c15L);
+        for (int i = 0; i < hashCount; i++) {
+            long bit = ((hash1 + i * hash2) & Long.MAX_VALUE) % bitCount;
+            if ((words.get((int) (bit >>> 6)) & (1L << bit)) == 0L) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * @return The size of the bit array
+     */
+    public long getBitCount() {
+        return bitCount;
+    }
+
+    /**
+     * @return The number of bits set per string
+     */
+    public int getHashCount() {
+        return hashCount;
+    }
+
+    /**
+     * @return The size of the bit array in bytes
+     */
+    public long getMemoryBytes() {
+        return bitCount / 8L;
+    }
+
+    /**
+     * @return The false positive rate to expect from the bits set so far: the probability that k random bits are all set
+     */
+    public double getExpectedFalsePositiveRate() {
+        return Math.pow((double) setBits.get() / bitCount, hashCount);
+    }
+
+    /**
+     * @return The FNV-1a hash of the characters, with a final avalanche so that all its bits depend on all the characters
+     */
+    private static long hash(String key) {
+        long hash = FNV_OFFSET_BASIS;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * FNV_PRIME;
+        }
+        return mix(hash ^ key.length());
+    }
+
+    /**
+     * @return The finalizer of MurmurHash3
+     */
+    private static long mix(long hash) {
+        long h = hash;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}
@@ -0,0 +1,350 @@
+package fred.custom.crm.core.repositories.unique;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+
+import javax.persistence.EntityManagerFactory;
+import javax.sql.DataSource;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.EventType;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.event.spi.PostInsertEventListener;
+import org.hibernate.event.spi.PostUpdateEvent;
+import org.hibernate.event.spi.PostUpdateEventListener;
+import org.hibernate.persister.entity.EntityPersister;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.core.namedparam.NamedParameterJdbcTemplate;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+
+/**
+ * Tells which member and employee numbers are already taken, without going to the database for the numbers which are certainly new.
+ * <p>
+ * The numbers of all the members are kept in two {@link BloomFilter}s, loaded from the <code>members</code> table at startup: a number the filter
+ * has never seen is new, no query needed; only the numbers it may have seen, the taken ones and a few false positives, are checked against the
+ * unique indexes, by batches. The filters follow the members written through JPA, during the flush; the other writers (the jOOQ repository, the
+ * JPQL updates of the employee numbers) are seen by the next {@link #rebuild()}, or when they {@link #add(Member)} their members themselves as
+ * {@link fred.custom.crm.core.imports.MemberCsvImporter} does.
+ * </p>
+ * <p>
+ * A number reported taken is taken. A number reported new may still be rejected by the unique constraint, which stays the authority: written
+ * meanwhile by another transaction, or by a writer the filters do not follow. The numbers of the deleted members stay in the filters, as false
+ * positives, until the next rebuild.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Index,name=memberUniquenessGuard", description = "In-memory filter of the member numbers")
+public class MemberUniquenessGuard implements InitializingBean, PostInsertEventListener, PostUpdateEventListener {
+
+    /** Serial version UID, the listeners are never serialized */
+    private static final long serialVersionUID = -2140956361738712243L;
+
+    private static final Log LOG = LogFactory.getLog(MemberUniquenessGuard.class);
+
+    private static final int MAX_IN_LIST_SIZE = 1000;
+
+    private final transient EntityManagerFactory entityManagerFactory;
+
+    private final transient JdbcTemplate jdbcTemplate;
+
+    private final transient NamedParameterJdbcTemplate namedParameterJdbcTemplate;
+
+    private volatile Filters filters;
+
+    /** The filters being loaded by a rebuild, which get the numbers added meanwhile too */
+    private volatile Filters building;
+
+    private final AtomicLong lookups = new AtomicLong();
+
+    private final AtomicLong exactChecks = new AtomicLong();
+
+    private final AtomicLong falsePositives = new AtomicLong();
+
+    private long expectedKeys = 1000000L;
+
+    private double falsePositiveRate = 0.01;
+
+    private boolean loadOnStartup = true;
+
+    /**
+     * @param entityManagerFactory
+     *            The JPA entity manager factory, backed by Hibernate, whose writes are followed
+     * @param dataSource
+     *            The data source of the <code>members</code> table, used outside any read-only transaction: a replica may not have the latest
+     *            members yet
+     */
+    public MemberUniquenessGuard(EntityManagerFactory entityManagerFactory, DataSource dataSource) {
+        Assert.notNull(entityManagerFactory, "entityManagerFactory is required");
+        Assert.notNull(dataSource, "dataSource is required");
+        this.entityManagerFactory = entityManagerFactory;
+        this.jdbcTemplate = new JdbcTemplate(dataSource);
+        this.jdbcTemplate.setFetchSize(1000);
+        this.namedParameterJdbcTemplate = new NamedParameterJdbcTemplate(jdbcTemplate);
+    }
+
+    /**
+     * Registers the listeners, then loads the filters unless {@link #setLoadOnStartup(boolean) disabled}.
+     *
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        filters = new Filters(expectedKeys, falsePositiveRate);
+        EventListenerRegistry registry = entityManagerFactory.unwrap(SessionFactoryImplementor.class).getServiceRegistry()
+                .getService(EventListenerRegistry.class);
+        registry.appendListeners(EventType.POST_INSERT, this);
+        registry.appendListeners(EventType.POST_UPDATE, this);
+        if (loadOnStartup) {
+            rebuild();
+        }
+    }
+
+    /**
+     * @param memberNumbers
+     *            Member numbers
+     * @return The ones which belong to a member
+     */
+    public Set<String> findTakenMemberNumbers(Collection<String> memberNumbers) {
+        return findTaken(memberNumbers, filters.memberNumbers, "member_number");
+    }
+
+    /**
+     * @param employeeNumbers
+     *            Employee numbers
+     * @return The ones which belong to a member
+     */
+    public Set<String> findTakenEmployeeNumbers(Collection<String> employeeNumbers) {
+        return findTaken(employeeNumbers, filters.employeeNumbers, "employee_number");
+    }
+
+    /**
+     * @param memberNumber
+     *            A member number
+     * @return <code>true</code> if it belongs to a member
+     */
+    public boolean isMemberNumberTaken(String memberNumber) {
+        return !findTakenMemberNumbers(Collections.singleton(memberNumber)).isEmpty();
+    }
+
+    /**
+     * @param employeeNumber
+     *            An employee number
+     * @return <code>true</code> if it belongs to a member
+     */
+    public boolean isEmployeeNumberTaken(String employeeNumber) {
+        return !findTakenEmployeeNumbers(Collections.singleton(employeeNumber)).isEmpty();
+    }
+
+    /**
+     * Adds the numbers of a member saved by a writer the filters do not follow. Adding them again does no harm.
+     *
+     * @param member
+     *            A saved member
+     */
+    public void add(Member member) {
+        // Read before the current filters: once a rebuild clears it, its filters are the current ones
+        Filters next = building;
+        Filters current = filters;
+        add(current, member);
+        if (next != null && next != current) {
+            add(next, member);
+        }
+    }
+
+    /**
+     * Loads new filters from the database, sized for 25% more than the members if there are more than {@link #setExpectedKeys(long) expected},
+     * and replaces the current ones. The guard keeps answering meanwhile.
+     *
+     * @return The number of members read
+     */
+    @ManagedOperation(description = "Reloads the filters from the database, forgetting the numbers of the deleted members")
+    public synchronized long rebuild() {
+        long start = System.nanoTime();
+        long members = jdbcTemplate.queryForObject("select count(*) from members", Long.class).longValue();
+        final Filters next = new Filters(Math.max(expectedKeys, members + members / 4L), falsePositiveRate);
+        building = next;
+        try {
+            final AtomicLong count = new AtomicLong();
+            jdbcTemplate.query("select member_number, employee_number from members", rs -> {
+                next.memberNumbers.put(rs.getString(1));
+                next.employeeNumbers.put(rs.getString(2));
+                count.incrementAndGet();
+            });
+            filters = next;
+            if (LOG.isInfoEnabled()) {
+                LOG.info(String.format("Loaded the numbers of %d members in %d ms, %d KB of filters", count.get(),
+                        (System.nanoTime() - start) / 1000000L, next.getMemoryBytes() / 1024L));
+            }
+            return count.get();
+        } finally {
+            building = null;
+        }
+    }
+
+    @ManagedAttribute(description = "Numbers looked up")
+    public long getLookups() {
+        return lookups.get();
+    }
+
+    @ManagedAttribute(description = "Numbers maybe taken, checked against the database")
+    public long getExactChecks() {
+        return exactChecks.get();
+    }
+
+    @ManagedAttribute(description = "Numbers maybe taken which were not")
+    public long getFalsePositives() {
+        return falsePositives.get();
+    }
+
+    /**
+     * @return The share of the numbers not taken which were checked against the database anyway, 0 before the first lookup
+     */
+    @ManagedAttribute(description = "Share of the new numbers checked against the database anyway")
+    public double getFalsePositiveRate() {
+        long newNumbers = lookups.get() - exactChecks.get() + falsePositives.get();
+        return newNumbers == 0L ? 0.0 : (double) falsePositives.get() / newNumbers;
+    }
+
+    /**
+     * @return The false positive rate to expect from the bits set in the filters
+     */
+    @ManagedAttribute(description = "False positive rate expected from the filters")
+    public double getExpectedFalsePositiveRate() {
+        Filters current = filters;
+        return Math.max(current.memberNumbers.getExpectedFalsePositiveRate(), current.employeeNumbers.getExpectedFalsePositiveRate());
+    }
+
+    @ManagedAttribute(description = "Size of the filters (bytes)")
+    public long getMemoryBytes() {
+        return filters.getMemoryBytes();
+    }
+
+    @ManagedOperation(description = "Clears the statistics")
+    public void resetStatistics() {
+        lookups.set(0L);
+        exactChecks.set(0L);
+        falsePositives.set(0L);
+    }
+
+    /**
+     * @param expectedKeys
+     *            The number of members the filters are sized for, 1,000,000 by default; a rebuild sizes them for 25% more than the members if
+     *            there are more
+     */
+    public void setExpectedKeys(long expectedKeys) {
+        Assert.isTrue(expectedKeys > 0L, "expectedKeys must be positive");
+        this.expectedKeys = expectedKeys;
+    }
+
+    /**
+     * @param falsePositiveRate
+     *            The share of the new numbers checked against the database anyway, 0.01 by default: each halving costs 1.44 more bits per number
+     */
+    public void setFalsePositiveRate(double falsePositiveRate) {
+        Assert.isTrue(falsePositiveRate > 0.0 && falsePositiveRate < 1.0, "falsePositiveRate must be between 0 and 1");
+        this.falsePositiveRate = falsePositiveRate;
+    }
+
+    /**
+     * @param loadOnStartup
+     *            <code>true</code> (the default) to load the filters when the bean starts, <code>false</code> to start empty until
+     *            {@link #rebuild()}
+     */
+    public void setLoadOnStartup(boolean loadOnStartup) {
+        this.loadOnStartup = loadOnStartup;
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostInsertEventListener#onPostInsert(org.hibernate.event.spi.PostInsertEvent)
+     */
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        if (event.getEntity() instanceof Member) {
+            add((Member) event.getEntity());
+        }
+    }
+
+    /**
+     * @see org.hibernate.event.spi.PostUpdateEventListener#onPostUpdate(org.hibernate.event.spi.PostUpdateEvent)
+     */
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        if (event.getEntity() instanceof Member) {
+            add((Member) event.getEntity());
+        }
+    }
+
+    /**
+     * @return <code>false</code>, the numbers are added before the commit: a number rolled back is only a false positive
+     * @see org.hibernate.event.spi.PostActionEventListener#requiresPostCommitHanding(org.hibernate.persister.entity.EntityPersister)
+     */
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return false;
+    }
+
+    private Set<String> findTaken(Collection<String> keys, BloomFilter filter, String column) {
+        Set<String> maybeTaken = new LinkedHashSet<String>();
+        for (String key : keys) {
+            if (key != null && filter.mightContain(key)) {
+                maybeTaken.add(key);
+            }
+        }
+        lookups.addAndGet(keys.size());
+        exactChecks.addAndGet(maybeTaken.size());
+        if (maybeTaken.isEmpty()) {
+            return Collections.emptySet();
+        }
+        List<String> candidates = new ArrayList<String>(maybeTaken);
+        Set<String> taken = new HashSet<String>();
+        String sql = "select " + column + " from members where " + column + " in (:keys)";
+        for (int from = 0; from < candidates.size(); from += MAX_IN_LIST_SIZE) {
+            List<String> chunk = candidates.subList(from, Math.min(from + MAX_IN_LIST_SIZE, candidates.size()));
+            taken.addAll(namedParameterJdbcTemplate.queryForList(sql, Collections.singletonMap("keys", chunk), String.class));
+        }
+        falsePositives.addAndGet(candidates.size() - taken.size());
+        return taken;
+    }
+
+    private static void add(Filters target, Member member) {
+        if (member.getMemberNumber() != null) {
+            target.memberNumbers.put(member.getMemberNumber());
+        }
+        if (member.getEmployeeNumber() != null) {
+            target.employeeNumbers.put(member.getEmployeeNumber());
+        }
+    }
+
+    /**
+     * The filters of the member and employee numbers, replaced together.
+     */
+    private static final class Filters {
+        final BloomFilter memberNumbers;
+        final BloomFilter employeeNumbers;
+
+        Filters(long expectedKeys, double falsePositiveRate) {
+            memberNumbers = new BloomFilter(expectedKeys, falsePositiveRate);
+            employeeNumbers = new BloomFilter(expectedKeys, falsePositiveRate);
+        }
+
+        long getMemoryBytes() {
+            return memberNumbers.getMemoryBytes() + employeeNumbers.getMemoryBytes();
+        }
+    }
+}
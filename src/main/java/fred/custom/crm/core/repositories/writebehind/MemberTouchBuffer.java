@@ -0,0 +1,339 @@
+package fred.custom.crm.core.repositories.writebehind;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+import org.apache.commons.logging.Log;
+import org.apache.commons.logging.LogFactory;
+import org.springframework.beans.factory.DisposableBean;
+import org.springframework.beans.factory.InitializingBean;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.jmx.export.annotation.ManagedAttribute;
+import org.springframework.jmx.export.annotation.ManagedOperation;
+import org.springframework.jmx.export.annotation.ManagedResource;
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.metrics.Histogram;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberRepository;
+import fred.custom.crm.core.repositories.springdatajpa.member.MemberTouch;
+
+/**
+ * Buffers the "touches" of the members (the update of their audit fields on each interaction) and writes them behind, so that a member touched
+ * a hundred times between two flushes is updated once.
+ * <p>
+ * The touches are kept in memory by member id, only the latest one of each member: {@link #touch(Long, String, Date)} never waits for the
+ * database. They are written with a single {@link MemberRepository#touch(java.util.Collection)} call, as JDBC batches, every
+ * {@link #setFlushIntervalMillis(long) flush interval} or as soon as {@link #setMaxPending(int) max pending} members wait, whichever comes first.
+ * A flush which fails writes its touches again one by one: the ones the database rejects are dropped and counted
+ * ({@link #getRejectedTouches()}), so that a bad touch cannot block the others, and the ones not written for another reason (the database is
+ * unreachable) are kept for the next flush. {@link #destroy()} flushes what is left, so that a clean shutdown loses nothing; the
+ * touches of a JVM which dies are lost, which is the price of the write-behind: use it for audit fields, not for business data.
+ * </p>
+ * <p>
+ * The touches are not versioned, but still increment the versions: a writer holding a member touched meanwhile gets an optimistic locking
+ * failure, once per flush instead of once per touch. They never move the last update date of a member backwards.
+ * </p>
+ *
+ * @author Fred
+ */
+@ManagedResource(objectName = "fred.custom.crm:type=Repository,name=memberTouchBuffer", description = "Member touch write-behind buffer")
+public class MemberTouchBuffer implements InitializingBean, DisposableBean {
+
+    private static final Log LOG = LogFactory.getLog(MemberTouchBuffer.class);
+
+    /** The length of the <code>last_update_user</code> column */
+    public static final int MAX_LAST_UPDATE_USER_LENGTH = 255;
+
+    private final MemberRepository memberRepository;
+
+    private final ConcurrentMap<Long, MemberTouch> pending = new ConcurrentHashMap<Long, MemberTouch>();
+
+    /** The touches hold the read lock, the shutdown the write lock: no touch comes in after the last flush */
+    private final ReadWriteLock closeLock = new ReentrantReadWriteLock();
+
+    private final Object flushLock = new Object();
+
+    private final AtomicBoolean flushRequested = new AtomicBoolean();
+
+    private final Histogram flushTime = new Histogram();
+
+    private final AtomicLong touches = new AtomicLong();
+
+    private final AtomicLong flushedTouches = new AtomicLong();
+
+    private final AtomicLong skippedTouches = new AtomicLong();
+
+    private final AtomicLong failedFlushes = new AtomicLong();
+
+    private final AtomicLong rejectedTouches = new AtomicLong();
+
+    private int maxPending = 1000;
+
+    private long flushIntervalMillis = 1000L;
+
+    private ScheduledThreadPoolExecutor flusher;
+
+    private boolean closed;
+
+    /**
+     * @param memberRepository
+     *            The repository the touches are written to
+     */
+    public MemberTouchBuffer(MemberRepository memberRepository) {
+        Assert.notNull(memberRepository, "memberRepository is required");
+        this.memberRepository = memberRepository;
+    }
+
+    /**
+     * @see org.springframework.beans.factory.InitializingBean#afterPropertiesSet()
+     */
+    @Override
+    public void afterPropertiesSet() {
+        flusher = new ScheduledThreadPoolExecutor(1, runnable -> {
+            Thread thread = new Thread(runnable, "member-touch-flusher");
+            thread.setDaemon(true);
+            return thread;
+        });
+        flusher.scheduleWithFixedDelay(this::flushQuietly, flushIntervalMillis, flushIntervalMillis, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Stops taking touches, waits for the flush in progress and flushes the touches left.
+     *
+     * @see org.springframework.beans.factory.DisposableBean#destroy()
+     */
+    @Override
+    public void destroy() throws InterruptedException {
+        closeLock.writeLock().lock();
+        try {
+            closed = true;
+        } finally {
+            closeLock.writeLock().unlock();
+        }
+        flusher.shutdown();
+        flusher.awaitTermination(1L, TimeUnit.MINUTES);
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.error("Lost the touches of " + pending.size() + " members at shutdown", e);
+            throw e;
+        }
+    }
+
+    /**
+     * Records a touch of a member, to be written with the next flush. A later touch of the same member replaces it.
+     *
+     * @param id
+     *            The id of the member
+     * @param lastUpdateUser
+     *            The new last update user, {@link #MAX_LAST_UPDATE_USER_LENGTH} characters at most
+     * @param lastUpdateDate
+     *            The new last update date
+     * @throws IllegalArgumentException
+     *             If the last update user is too long for its column
+     * @throws IllegalStateException
+     *             If the buffer is not started or shut down
+     */
+    public void touch(Long id, String lastUpdateUser, Date lastUpdateDate) {
+        MemberTouch touch = new MemberTouch(id, lastUpdateUser, lastUpdateDate);
+        Assert.isTrue(lastUpdateUser.length() <= MAX_LAST_UPDATE_USER_LENGTH,
+                "lastUpdateUser must not be longer than " + MAX_LAST_UPDATE_USER_LENGTH + " characters");
+        closeLock.readLock().lock();
+        try {
+            Assert.state(flusher != null && !closed, "The member touch buffer is not running");
+            touches.incrementAndGet();
+            pending.merge(id, touch, (current, next) -> current.isLaterThan(next) ? current : next);
+        } finally {
+            closeLock.readLock().unlock();
+        }
+        if (pending.size() >= maxPending && flushRequested.compareAndSet(false, true)) {
+            try {
+                flusher.execute(this::flushQuietly);
+            } catch (RejectedExecutionException e) {
+                // Shutting down, the last flush is on its way
+                flushRequested.set(false);
+            }
+        }
+    }
+
+    /**
+     * Writes the pending touches now, on the calling thread. If the batch fails, its touches are written again one by one: the ones the database
+     * rejects are dropped, the ones left when another failure occurs are kept for the next flush.
+     *
+     * @return The number of members updated
+     * @throws RuntimeException
+     *             If the touches could not be written, they are kept for the next flush
+     */
+    @ManagedOperation(description = "Writes the pending touches now")
+    public int flush() {
+        synchronized (flushLock) {
+            flushRequested.set(false);
+            List<MemberTouch> batch = new ArrayList<MemberTouch>(pending.size());
+            for (Long id : pending.keySet()) {
+                MemberTouch touch = pending.remove(id);
+                if (touch != null) {
+                    batch.add(touch);
+                }
+            }
+            if (batch.isEmpty()) {
+                return 0;
+            }
+            long start = System.nanoTime();
+            Set<Long> skipped;
+            int rejected = 0;
+            try {
+                skipped = memberRepository.touch(batch);
+            } catch (RuntimeException e) {
+                failedFlushes.incrementAndGet();
+                LOG.warn("Failed to write the touches of " + batch.size() + " members at once, writing them one by one", e);
+                skipped = new LinkedHashSet<Long>();
+                for (int i = 0; i < batch.size(); i++) {
+                    MemberTouch touch = batch.get(i);
+                    try {
+                        skipped.addAll(memberRepository.touch(Collections.singletonList(touch)));
+                    } catch (DataIntegrityViolationException rejection) {
+                        rejected++;
+                        LOG.error("Dropped the touch of member " + touch.getId() + ", rejected by the database", rejection);
+                    } catch (RuntimeException failure) {
+                        keep(batch.subList(i, batch.size()));
+                        rejectedTouches.addAndGet(rejected);
+                        flushedTouches.addAndGet(i - rejected);
+                        skippedTouches.addAndGet(skipped.size());
+                        throw failure;
+                    }
+                }
+                rejectedTouches.addAndGet(rejected);
+            }
+            flushedTouches.addAndGet(batch.size() - rejected);
+            skippedTouches.addAndGet(skipped.size());
+            flushTime.record(System.nanoTime() - start);
+            return batch.size() - rejected - skipped.size();
+        }
+    }
+
+    /**
+     * @return The histogram of the time spent writing the touches
+     */
+    public Histogram getFlushTime() {
+        return flushTime;
+    }
+
+    @ManagedAttribute(description = "Members waiting to be written")
+    public int getPending() {
+        return pending.size();
+    }
+
+    @ManagedAttribute(description = "Touches received")
+    public long getTouches() {
+        return touches.get();
+    }
+
+    @ManagedAttribute(description = "Touches written, one per member and flush")
+    public long getFlushedTouches() {
+        return flushedTouches.get();
+    }
+
+    @ManagedAttribute(description = "Touches written which did not update their member, deleted or already updated later")
+    public long getSkippedTouches() {
+        return skippedTouches.get();
+    }
+
+    /**
+     * @return The number of touches received per touch written, 0 before the first flush
+     */
+    @ManagedAttribute(description = "Touches received per touch written")
+    public double getCoalescingRatio() {
+        long flushed = flushedTouches.get();
+        return flushed == 0L ? 0.0 : (double) (touches.get() - pending.size()) / flushed;
+    }
+
+    @ManagedAttribute(description = "Flushes which wrote touches")
+    public long getFlushes() {
+        return flushTime.getCount();
+    }
+
+    @ManagedAttribute(description = "Flushes whose batch failed, their touches were written again one by one")
+    public long getFailedFlushes() {
+        return failedFlushes.get();
+    }
+
+    @ManagedAttribute(description = "Touches rejected by the database, dropped")
+    public long getRejectedTouches() {
+        return rejectedTouches.get();
+    }
+
+    @ManagedAttribute(description = "Mean time to write the touches (us)")
+    public double getFlushTimeMean() {
+        return flushTime.getMean();
+    }
+
+    @ManagedAttribute(description = "99th percentile of the time to write the touches (us)")
+    public long getFlushTime99thPercentile() {
+        return flushTime.getPercentile(99);
+    }
+
+    @ManagedAttribute(description = "Longest time to write the touches (us)")
+    public long getFlushTimeMax() {
+        return flushTime.getMax();
+    }
+
+    @ManagedOperation(description = "Clears the statistics")
+    public void resetStatistics() {
+        flushTime.reset();
+        touches.set(pending.size());
+        flushedTouches.set(0L);
+        skippedTouches.set(0L);
+        failedFlushes.set(0L);
+        rejectedTouches.set(0L);
+    }
+
+    /**
+     * @param maxPending
+     *            The number of members waiting which triggers a flush before the end of the interval, 1000 by default. It is not a hard limit:
+     *            the members touched during a flush wait for the next one.
+     */
+    public void setMaxPending(int maxPending) {
+        Assert.isTrue(maxPending > 0, "maxPending must be positive");
+        this.maxPending = maxPending;
+    }
+
+    /**
+     * @param flushIntervalMillis
+     *            The time between two flushes in milliseconds, 1000 by default, which is also how long a touch may wait to be written
+     */
+    public void setFlushIntervalMillis(long flushIntervalMillis) {
+        Assert.isTrue(flushIntervalMillis > 0, "flushIntervalMillis must be positive");
+        this.flushIntervalMillis = flushIntervalMillis;
+    }
+
+    /**
+     * Puts touches back for the next flush.
+     */
+    private void keep(List<MemberTouch> touches) {
+        for (MemberTouch touch : touches) {
+            // A touch received meanwhile is more recent
+            pending.merge(touch.getId(), touch, (current, previous) -> previous.isLaterThan(current) ? previous : current);
+        }
+    }
+
+    private void flushQuietly() {
+        try {
+            flush();
+        } catch (RuntimeException e) {
+            LOG.warn("Failed to write the touches of " + pending.size() + " members, retrying with the next flush", e);
+        }
+    }
+}
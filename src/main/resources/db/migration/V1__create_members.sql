@@ -0,0 +1,43 @@
+-- The members and their persons, as mapped by fred.custom.crm.core.model.member and the jOOQ tables
+create sequence member_id_seq start with 1 increment by 50;
+
+create sequence person_id_seq start with 1 increment by 50;
+
+create table persons (
+    id bigint not null,
+    birth_date timestamp with time zone,
+    cell_phone_number varchar(10),
+    email varchar(320),
+    first_name varchar(80) not null,
+    first_name_key varchar(80) not null,
+    gender varchar(255) not null,
+    last_name varchar(80) not null,
+    last_name_key varchar(80) not null,
+    social_insurance_number varchar(9),
+    version integer not null,
+    constraint persons_pk primary key (id)
+);
+
+create index persons_last_name_idx on persons (last_name, id);
+
+create index persons_name_key_idx on persons (last_name_key, first_name_key, id);
+
+create index persons_email_idx on persons (email);
+
+create index persons_cell_phone_number_idx on persons (cell_phone_number);
+
+create table members (
+    id bigint not null,
+    creation_date timestamp with time zone not null,
+    employee_number varchar(255) not null,
+    last_update_date timestamp not null,
+    last_update_user varchar(255) not null,
+    member_number varchar(255) not null,
+    version integer not null,
+    person_id bigint not null,
+    constraint members_pk primary key (id),
+    constraint members_member_number_uk unique (member_number),
+    constraint members_employee_number_uk unique (employee_number),
+    constraint members_person_id_uk unique (person_id),
+    constraint members_person_fk foreign key (person_id) references persons (id)
+);
@@ -0,0 +1,18 @@
+-- The member outbox and the positions of its consumers, see fred.custom.crm.core.repositories.outbox.MemberChangeFeed
+create table member_changes (
+    id bigint generated by default as identity,
+    change_type varchar(6) not null,
+    changed_on timestamp not null,
+    member_id bigint not null,
+    member_version integer not null,
+    constraint member_changes_pk primary key (id)
+);
+
+create index member_changes_member_idx on member_changes (member_id, id);
+
+create table member_change_consumers (
+    name varchar(100) not null,
+    last_change_id bigint not null,
+    updated_on timestamp not null,
+    constraint member_change_consumers_pk primary key (name)
+);
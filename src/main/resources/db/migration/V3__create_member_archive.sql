@@ -0,0 +1,31 @@
+-- The archive of the inactive members and their persons, same columns as the hot tables, see fred.custom.crm.core.repositories.archive.MemberArchive
+create table archived_persons (
+    id bigint not null,
+    birth_date timestamp with time zone,
+    cell_phone_number varchar(10),
+    email varchar(320),
+    first_name varchar(80) not null,
+    first_name_key varchar(80) not null,
+    gender varchar(255) not null,
+    last_name varchar(80) not null,
+    last_name_key varchar(80) not null,
+    social_insurance_number varchar(9),
+    version integer not null,
+    constraint archived_persons_pk primary key (id)
+);
+
+create table archived_members (
+    id bigint not null,
+    creation_date timestamp with time zone not null,
+    employee_number varchar(255) not null,
+    last_update_date timestamp not null,
+    last_update_user varchar(255) not null,
+    member_number varchar(255) not null,
+    version integer not null,
+    person_id bigint not null,
+    constraint archived_members_pk primary key (id),
+    constraint archived_members_member_number_uk unique (member_number),
+    constraint archived_members_employee_number_uk unique (employee_number),
+    constraint archived_members_person_id_uk unique (person_id),
+    constraint archived_members_person_fk foreign key (person_id) references archived_persons (id)
+);
@@ -0,0 +1,305 @@
+package fred.custom.crm.core.imports;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SplittableRandom;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.util.Assert;
+
+import fred.custom.crm.core.model.member.Member;
+import fred.custom.crm.core.model.member.Person;
+import fred.custom.crm.core.model.member.Person.Gender;
+
+/**
+ * Generates synthetic members and their persons, for the integration tests, the benchmarks and the load tests (a test fixture, not part of the
+ * jar).
+ * <p>
+ * The generation is deterministic: the member of a given index only depends on the seed, the index and the settings, not on the members
+ * generated before it. The same seed gives the same dataset on every run and every JVM, and a dataset can be generated by ranges in parallel
+ * ({@link #members(long, long)}) or a single member regenerated from its index ({@link #generate(long)}), without holding the dataset in memory.
+ * </p>
+ * <p>
+ * The member numbers follow the index (<code>GM000000042</code>), the employee numbers are a permutation of it (<code>GE...</code>), so both are
+ * distinct within a generator, for up to a billion members, and between generators of different {@link #setKeyPrefix(String) key prefixes}. The
+ * names are drawn from pools, the most common ones more often, accents included; the email addresses hold the index and are distinct. The cell
+ * phone numbers (10 digits), the social insurance numbers (9 digits, valid check digit) and the emails are set on a share of the persons only.
+ * The birth dates make adults of 18 to 90 years, the creation and last update dates fall in the 10 years before the
+ * {@link #setReferenceDate(Date) reference date}.
+ * </p>
+ * <p>
+ * Not thread safe while it is configured, thread safe once it generates.
+ * </p>
+ *
+ * @author Fred
+ */
+public class MemberGenerator {
+
+    /** The largest number of members of a generator, their keys have 9 digits */
+    public static final long MAX_MEMBERS = 1000000000L;
+
+    /** The default reference date, 2015-01-01 00:00 UTC, fixed so that the dates do not change between runs */
+    public static final long DEFAULT_REFERENCE_MILLIS = 1420070400000L;
+
+    /** Coprime with {@link #MAX_MEMBERS}, so that multiplying by it modulo the maximum permutes the indexes */
+    private static final long EMPLOYEE_NUMBER_MULTIPLIER = 2718281829L;
+
+    private static final long DAY = TimeUnit.DAYS.toMillis(1L);
+
+    private static final String[] MALE_FIRST_NAMES = { "William", "Liam", "Thomas", "Nathan", "Jacob", "Olivier", "Samuel", "Gabriel", "Félix",
+            "Alexandre", "Noah", "Louis", "Antoine", "Mathis", "Émile", "Jean", "Michel", "Pierre", "David", "James", "Robert", "John", "Daniel",
+            "Marc", "François", "Luc", "André", "Richard", "Joseph", "Charles" };
+
+    private static final String[] FEMALE_FIRST_NAMES = { "Emma", "Léa", "Olivia", "Alice", "Florence", "Charlotte", "Rosalie", "Juliette", "Zoé",
+            "Chloé", "Béatrice", "Sophie", "Marie", "Julie", "Catherine", "Isabelle", "Nathalie", "Mary", "Patricia", "Jennifer", "Linda", "Sarah",
+            "Anne", "Hélène", "Sylvie", "Émilie", "Camille", "Laurence", "Maude", "Audrey" };
+
+    private static final String[] LAST_NAMES = { "Tremblay", "Gagnon", "Roy", "Côté", "Bouchard", "Gauthier", "Morin", "Lavoie", "Fortin", "Gagné",
+            "Ouellet", "Pelletier", "Bélanger", "Lévesque", "Bergeron", "Leblanc", "Paquette", "Girard", "Simard", "Boucher", "Caron", "Beaulieu",
+            "Cloutier", "Dubé", "Poirier", "Fournier", "Lapointe", "Leclerc", "Lefebvre", "Poulin", "Thibault", "St-Pierre", "Nadeau", "Martin",
+            "Landry", "Martel", "Bédard", "Grenier", "Lessard", "Bernier", "Richard", "Michaud", "Hébert", "Desjardins", "Couture", "Turcotte",
+            "Smith", "Brown", "Wilson", "Taylor", "Campbell", "Anderson", "Johnson", "MacDonald", "Nguyen", "Singh", "Wong", "Li", "Patel", "Chen" };
+
+    private static final String[] DOMAINS = { "example.com", "example.org", "example.net", "mail.example.com", "example.ca" };
+
+    private static final String[] AREA_CODES = { "514", "438", "450", "579", "418", "581", "819", "873", "613", "416", "647", "604" };
+
+    private static final String[] UPDATE_USERS = { "import", "web", "batch", "agent.1", "agent.2", "agent.3" };
+
+    private final long seed;
+
+    private String keyPrefix = "G";
+
+    private double femaleRatio = 0.5;
+
+    private double emailRatio = 0.8;
+
+    private double cellPhoneRatio = 0.6;
+
+    private double socialInsuranceNumberRatio = 0.3;
+
+    private long referenceMillis = DEFAULT_REFERENCE_MILLIS;
+
+    /**
+     * @param seed
+     *            The seed of the dataset
+     */
+    public MemberGenerator(long seed) {
+        this.seed = seed;
+    }
+
+    /**
+     * @param index
+     *            The index of the member in the dataset, from 0
+     * @return The member of this index with its person, new (no id)
+     */
+    public Member generate(long index) {
+        checkIndex(index);
+        SplittableRandom random = new SplittableRandom(mix(seed ^ mix(index)));
+        Gender gender = random.nextDouble() < femaleRatio ? Gender.FEMALE : Gender.MALE;
+        String firstName = pick(gender == Gender.FEMALE ? FEMALE_FIRST_NAMES : MALE_FIRST_NAMES, random);
+        String lastName = pick(LAST_NAMES, random);
+        Person.Builder person = Person.Builder.getInstance().withGender(gender).withFirstName(firstName).withLastName(lastName)
+                .withBirthDate(new Date(referenceMillis - (18L * 366L + random.nextLong(72L * 365L)) * DAY));
+        if (random.nextDouble() < emailRatio) {
+            person.withEmail(Person.toSearchKey(firstName + "." + lastName).replaceAll("[^a-z.]", "") + index + "@" + pick(DOMAINS, random));
+        }
+        if (random.nextDouble() < cellPhoneRatio) {
+            person.withCellPhoneNumber(AREA_CODES[random.nextInt(AREA_CODES.length)] + (2 + random.nextInt(8)) + digits(random, 6));
+        }
+        if (random.nextDouble() < socialInsuranceNumberRatio) {
+            person.withSocialInsuranceNumber(socialInsuranceNumber(random));
+        }
+        long created = referenceMillis - random.nextLong(10L * 365L * DAY);
+        Date lastUpdate = new Date(created + random.nextLong(referenceMillis - created + 1L));
+        return Member.Builder.getInstance().withMemberNumber(memberNumber(index)).withEmployeeNumber(employeeNumber(index))
+                .withPerson(person.build()).withCreationDate(new Date(created)).withLastUpdateDate(lastUpdate)
+                .withLastUpdateUser(UPDATE_USERS[random.nextInt(UPDATE_USERS.length)]).build();
+    }
+
+    /**
+     * @param from
+     *            The index of the first member
+     * @param count
+     *            The number of members
+     * @return A lazy {@link Iterable} over the members of the range, generated as they are iterated
+     */
+    public Iterable<Member> members(final long from, final long count) {
+        Assert.isTrue(count >= 0L, "count must not be negative");
+        checkIndex(from);
+        checkIndex(from + count - (count == 0L ? 0L : 1L));
+        return () -> new Iterator<Member>() {
+            private long next = from;
+
+            @Override
+            public boolean hasNext() {
+                return next < from + count;
+            }
+
+            @Override
+            public Member next() {
+                if (!hasNext()) {
+                    throw new NoSuchElementException();
+                }
+                return generate(next++);
+            }
+        };
+    }
+
+    /**
+     * @param from
+     *            The index of the first member
+     * @param count
+     *            The number of members
+     * @return The members of the range, for the datasets small enough to be held in memory
+     */
+    public List<Member> list(long from, int count) {
+        List<Member> members = new ArrayList<Member>(count);
+        for (Member member : members(from, count)) {
+            members.add(member);
+        }
+        return members;
+    }
+
+    /**
+     * @param index
+     *            The index of a member
+     * @return Its member number, without generating it
+     */
+    public String memberNumber(long index) {
+        checkIndex(index);
+        return keyPrefix + "M" + pad(index);
+    }
+
+    /**
+     * @param index
+     *            The index of a member
+     * @return Its employee number, without generating it
+     */
+    public String employeeNumber(long index) {
+        checkIndex(index);
+        return keyPrefix + "E" + pad((index * EMPLOYEE_NUMBER_MULTIPLIER + Math.floorMod(seed, MAX_MEMBERS)) % MAX_MEMBERS);
+    }
+
+    /**
+     * @param keyPrefix
+     *            The prefix of the member and employee numbers, "G" by default: the datasets of different prefixes never share a key
+     */
+    public void setKeyPrefix(String keyPrefix) {
+        Assert.notNull(keyPrefix, "keyPrefix is required");
+        this.keyPrefix = keyPrefix;
+    }
+
+    /**
+     * @param femaleRatio
+     *            The share of women, 0.5 by default
+     */
+    public void setFemaleRatio(double femaleRatio) {
+        this.femaleRatio = ratio(femaleRatio, "femaleRatio");
+    }
+
+    /**
+     * @param emailRatio
+     *            The share of persons with an email address, 0.8 by default
+     */
+    public void setEmailRatio(double emailRatio) {
+        this.emailRatio = ratio(emailRatio, "emailRatio");
+    }
+
+    /**
+     * @param cellPhoneRatio
+     *            The share of persons with a cell phone number, 0.6 by default
+     */
+    public void setCellPhoneRatio(double cellPhoneRatio) {
+        this.cellPhoneRatio = ratio(cellPhoneRatio, "cellPhoneRatio");
+    }
+
+    /**
+     * @param socialInsuranceNumberRatio
+     *            The share of persons with a social insurance number, 0.3 by default
+     */
+    public void setSocialInsuranceNumberRatio(double socialInsuranceNumberRatio) {
+        this.socialInsuranceNumberRatio = ratio(socialInsuranceNumberRatio, "socialInsuranceNumberRatio");
+    }
+
+    /**
+     * @param referenceDate
+     *            The date the dataset is generated "at", {@link #DEFAULT_REFERENCE_MILLIS} by default: no date is after it
+     */
+    public void setReferenceDate(Date referenceDate) {
+        Assert.notNull(referenceDate, "referenceDate is required");
+        this.referenceMillis = referenceDate.getTime();
+    }
+
+    /**
+     * @return A name of the pool, the first ones more often: the square of a uniform value leans towards 0
+     */
+    private static String pick(String[] pool, SplittableRandom random) {
+        double value = random.nextDouble();
+        return pool[(int) (pool.length * value * value)];
+    }
+
+    private static String digits(SplittableRandom random, int count) {
+        StringBuilder digits = new StringBuilder(count);
+        for (int i = 0; i < count; i++) {
+            digits.append((char) ('0' + random.nextInt(10)));
+        }
+        return digits.toString();
+    }
+
+    /**
+     * @return 9 digits passing the Luhn check, as a real social insurance number does; never starting with 0 or 8
+     */
+    private static String socialInsuranceNumber(SplittableRandom random) {
+        int[] digits = new int[9];
+        digits[0] = "12345679".charAt(random.nextInt(8)) - '0';
+        for (int i = 1; i < 8; i++) {
+            digits[i] = random.nextInt(10);
+        }
+        int sum = 0;
+        for (int i = 0; i < 8; i++) {
+            int digit = i % 2 == 1 ? digits[i] * 2 : digits[i];
+            sum += digit > 9 ? digit - 9 : digit;
+        }
+        digits[8] = (10 - sum % 10) % 10;
+        StringBuilder number = new StringBuilder(9);
+        for (int digit : digits) {
+            number.append((char) ('0' + digit));
+        }
+        return number.toString();
+    }
+
+    private static String pad(long value) {
+        String digits = Long.toString(value);
+        StringBuilder padded = new StringBuilder(9);
+        for (int i = digits.length(); i < 9; i++) {
+            padded.append('0');
+        }
+        return padded.append(digits).toString();
+    }
+
+    private static void checkIndex(long index) {
+        Assert.isTrue(index >= 0L && index < MAX_MEMBERS, "index must be between 0 and " + (MAX_MEMBERS - 1L));
+    }
+
+    private static double ratio(double ratio, String name) {
+        Assert.isTrue(ratio >= 0.0 && ratio <= 1.0, name + " must be between 0 and 1");
+        return ratio;
+    }
+
+    /**
+     * The finalizer of MurmurHash3: close seeds and indexes give unrelated random sequences.
+     */
+    private static long mix(long value) {
+        long h = value;
+        h ^= h >>> 33;
+        h *= 0xff51afd7ed558ccdL;
+        h ^= h >>> 33;
+        h *= 0xc4ceb9fe1a85ec53L;
+        h ^= h >>> 33;
+        return h;
+    }
+}